@@ -0,0 +1,10 @@
+package android.content;
+
+/**
+ * JVM test double of the Android class, only what the grelib clients use.
+ */
+public abstract class Context {
+    public static final String SENSOR_SERVICE = "sensor";
+
+    public abstract Object getSystemService(String name);
+}
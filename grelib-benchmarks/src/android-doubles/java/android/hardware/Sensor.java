@@ -0,0 +1,22 @@
+package android.hardware;
+
+/**
+ * JVM test double of the Android class, only what the grelib clients use.
+ */
+public class Sensor {
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_GYROSCOPE = 4;
+    public static final int TYPE_MAGNETIC_FIELD_UNCALIBRATED = 14;
+    public static final int TYPE_GYROSCOPE_UNCALIBRATED = 16;
+
+    private final int type;
+
+    public Sensor(int type) {
+        this.type = type;
+    }
+
+    public int getType() {
+        return type;
+    }
+}
@@ -0,0 +1,17 @@
+package android.hardware;
+
+/**
+ * JVM test double of the Android class, which has no public constructor.
+ */
+public class SensorEvent {
+    public final float[] values;
+    public Sensor sensor;
+    public int accuracy;
+    public long timestamp;
+
+    public SensorEvent(Sensor sensor, long timestamp, float x, float y, float z) {
+        this.sensor = sensor;
+        this.timestamp = timestamp;
+        this.values = new float[]{x, y, z};
+    }
+}
@@ -0,0 +1,35 @@
+package android.hardware;
+
+/**
+ * JVM test double of the Android class: every sensor exists and registering a listener does nothing,
+ * the benchmarks call {@link SensorEventListener#onSensorChanged(SensorEvent)} themselves.
+ */
+public class SensorManager {
+    public Sensor getDefaultSensor(int type) {
+        return new Sensor(type);
+    }
+
+    public boolean registerListener(SensorEventListener listener, Sensor sensor, int samplingPeriodUs) {
+        return true;
+    }
+
+    public boolean registerListener(SensorEventListener listener, Sensor sensor, int samplingPeriodUs,
+                                    int maxReportLatencyUs) {
+        return true;
+    }
+
+    public void unregisterListener(SensorEventListener listener, Sensor sensor) {
+    }
+
+    /**
+     * Nothing is ever batched, so the flush completes at once.
+     */
+    public boolean flush(SensorEventListener listener) {
+        if(listener instanceof SensorEventListener2) {
+            for(int type : new int[]{Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE_UNCALIBRATED, Sensor.TYPE_MAGNETIC_FIELD}) {
+                ((SensorEventListener2) listener).onFlushCompleted(new Sensor(type));
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,15 @@
+package android.os;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * JVM test double of the Android class.
+ */
+public final class Debug {
+    private Debug() {
+    }
+
+    public static long threadCpuTimeNanos() {
+        return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+}
@@ -0,0 +1,61 @@
+package android.view;
+
+/**
+ * JVM test double of the Android class with a single pointer, which has no public constructor.
+ * The last point given is the current one, the ones before it are its historical points.
+ */
+public final class MotionEvent {
+    public static final int ACTION_MASK = 0xff;
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+    public static final int ACTION_CANCEL = 3;
+    public static final int ACTION_POINTER_DOWN = 5;
+    public static final int ACTION_POINTER_UP = 6;
+
+    private final int action;
+    private final float[] x;
+    private final float[] y;
+
+    public MotionEvent(int action, float[] x, float[] y) {
+        this.action = action;
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getActionMasked() {
+        return action & ACTION_MASK;
+    }
+
+    public int getActionIndex() {
+        return 0;
+    }
+
+    public int getPointerId(int pointerIndex) {
+        return 0;
+    }
+
+    public int findPointerIndex(int pointerId) {
+        return pointerId == 0 ? 0 : -1;
+    }
+
+    public int getHistorySize() {
+        return x.length - 1;
+    }
+
+    public float getHistoricalX(int pointerIndex, int position) {
+        return x[position];
+    }
+
+    public float getHistoricalY(int pointerIndex, int position) {
+        return y[position];
+    }
+
+    public float getX(int pointerIndex) {
+        return x[x.length - 1];
+    }
+
+    public float getY(int pointerIndex) {
+        return y[y.length - 1];
+    }
+}
@@ -0,0 +1,109 @@
+package com.motiongestures.grelib;
+
+import android.hardware.SensorEvent;
+
+import com.google.protobuf.CodedInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import GREProtocol.Greapi;
+
+/**
+ * Time of a whole gesture of one second through {@link RemoteGestureRecognitionClient} with an
+ * {@link InProcessTransport}: sensor events, batching, encoding, the hand-off to the engine, the decoding of its
+ * answer and the delivery of the result, without any socket. The engine answers the last request of the gesture
+ * with a fixed GestureEnd, so this is the overhead of the client alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InProcessRoundTripBenchmark {
+    private static final String URI = "in-process:";
+
+    private RemoteGestureRecognitionClient client;
+    private SensorEvent[] events;
+    private final Semaphore results = new Semaphore(0);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        events = SyntheticSensorEvents.generate(FlushPolicies.DEFAULT_BATCH_SIZE, 3);
+        client = new RemoteGestureRecognitionClient(new BenchmarkContext(), URI, new InProcessTransport(new AnsweringEngine()));
+        client.setGestureResultListener(new GestureResultListener() {
+            @Override
+            public void gesturesRecognized(int[] labels, String[] names, int count, float confidence) {
+                results.release();
+            }
+
+            @Override
+            public void gesturesRejected(int[] labels, String[] names, int count, float confidence) {
+                results.release();
+            }
+
+            @Override
+            public void gestureTooLong() {
+                results.release();
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public void gestureRoundTrip() throws InterruptedException {
+        client.connect(URI);
+        for(SensorEvent event : events) {
+            client.onSensorChanged(event);
+        }
+        client.disconnect();
+        if(!results.tryAcquire(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No result");
+        }
+    }
+
+    private static final class AnsweringEngine implements InProcessTransport.Engine {
+        private String openSession = null;
+
+        @Override
+        public void onRequest(ByteBuffer request, InProcessTransport.Responder responder) {
+            Greapi.RecognitionRequest parsed;
+            try {
+                parsed = Greapi.RecognitionRequest.parseFrom(CodedInputStream.newInstance(request));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            //the session starts with its cached samples flagged inactive and ends with the next inactive request
+            if(parsed.getActiveGesture()) {
+                return;
+            }
+            if(!parsed.getId().equals(openSession)) {
+                openSession = parsed.getId();
+                return;
+            }
+            openSession = null;
+            responder.respond(ByteBuffer.wrap(Greapi.RecognitionResponse.newBuilder()
+                    .setStatus(Greapi.Status.GestureEnd)
+                    .setId(parsed.getId())
+                    .addLabels(1)
+                    .addNames("benchmark")
+                    .setConfidence(0.9f)
+                    .build()
+                    .toByteArray()));
+        }
+    }
+}
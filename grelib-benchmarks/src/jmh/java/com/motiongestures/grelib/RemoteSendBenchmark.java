@@ -0,0 +1,65 @@
+package com.motiongestures.grelib;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link RemoteGestureRecognitionClient#sendSamples} for one batch of 100 samples per sensor: the
+ * direct encoding of the sample batches against the iterable API, which copies the samples into pooled batches
+ * first. The client is not connected, so this is serialization up to the socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RemoteSendBenchmark {
+    private RemoteGestureRecognitionClient client;
+    private SampleBatch accelerations;
+    private SampleBatch gyroscope;
+    private SampleBatch magnetometer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        client = new RemoteGestureRecognitionClient(new BenchmarkContext());
+        //starts a session, the request ids need one, then drops the connection attempt
+        client.connect("ws://127.0.0.1:9");
+        client.close();
+        client.setReplayCapacity(0);
+        accelerations = new SampleBatch();
+        gyroscope = new SampleBatch();
+        magnetometer = new SampleBatch();
+        int index = 0;
+        for(SensorEvent event : SyntheticSensorEvents.generate(FlushPolicies.DEFAULT_BATCH_SIZE, 2)) {
+            SampleBatch batch = event.sensor.getType() == Sensor.TYPE_ACCELEROMETER ? accelerations
+                    : event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD ? magnetometer : gyroscope;
+            batch.add(event.values[0], event.values[1], event.values[2], index++);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public void sampleBatches() throws IOException {
+        client.sendSamples(accelerations, gyroscope, magnetometer, true);
+    }
+
+    @Benchmark
+    public void iterableSamples() throws IOException {
+        client.sendSamples((Iterable<SensorSample>) accelerations, gyroscope, magnetometer);
+    }
+}
@@ -0,0 +1,124 @@
+package com.motiongestures.grelib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import GREProtocol.Greapi;
+
+/**
+ * Compares serializing one recognition request through the generated protobuf builders, as the client used to,
+ * against the direct encoder, with each {@link SampleEncoding}.
+ * Run with the gc profiler to see the allocation rate of each path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestEncodingBenchmark {
+    private static final String SESSION_ID = "5f0e2352-8c1b-4c57-9a49-7a7c8d0bfe1e";
+
+    @Param({"30", "100"})
+    public int samplesPerSensor;
+
+    private SampleBatch accelerations;
+    private SampleBatch gyroscope;
+    private SampleBatch magnetometer;
+    private RecognitionRequestEncoder encoder;
+    private RecognitionRequestEncoder packedEncoder;
+    private RecognitionRequestEncoder quantizedEncoder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(1);
+        accelerations = new SampleBatch();
+        gyroscope = new SampleBatch();
+        magnetometer = new SampleBatch();
+        for(int i = 0; i < samplesPerSensor; i++) {
+            accelerations.add(random.nextFloat() * 20 - 10, random.nextFloat() * 20 - 10, 9.81f + random.nextFloat(), i * 3);
+            gyroscope.add(random.nextFloat() * 4 - 2, random.nextFloat() * 4 - 2, random.nextFloat() * 4 - 2, i * 3 + 1);
+            magnetometer.add(random.nextFloat() * 100 - 50, random.nextFloat() * 100 - 50, random.nextFloat() * 100 - 50, i * 3 + 2);
+        }
+        encoder = new RecognitionRequestEncoder();
+        packedEncoder = new RecognitionRequestEncoder();
+        packedEncoder.setSampleEncoding(SampleEncoding.PACKED);
+        quantizedEncoder = new RecognitionRequestEncoder();
+        quantizedEncoder.setSampleEncoding(SampleEncoding.QUANTIZED_DELTA);
+    }
+
+    @Benchmark
+    public byte[] generatedBuilders() throws IOException {
+        Greapi.RecognitionRequest recognition = Greapi.RecognitionRequest.newBuilder()
+                .setId(SESSION_ID)
+                .setSensitivity(150)
+                .setActiveGesture(true)
+                .setReferenceMode(Greapi.ReferenceMode.LEFT_WRIST)
+                .setAcceleration(Greapi.Acceleration.newBuilder()
+                        .addAllSamples(convertToProtobufSamples(accelerations))
+                        .setUnit(Greapi.AccelerationUnit.SI)
+                        .build())
+                .setGyroscope(Greapi.Gyroscope.newBuilder()
+                        .addAllSamples(convertToProtobufSamples(gyroscope))
+                        .setUnit(Greapi.GyroscopeUnit.RADS)
+                        .build())
+                .setMagnetometer(Greapi.Magnetometer.newBuilder()
+                        .addAllSamples(convertToProtobufSamples(magnetometer))
+                        .build())
+                .build();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        recognition.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] directEncoderExactArray() throws IOException {
+        int size = encoder.prepare(SESSION_ID, 150, true, Greapi.ReferenceMode.LEFT_WRIST.getNumber(),
+                accelerations, gyroscope, magnetometer);
+        byte[] payload = new byte[size];
+        encoder.writeTo(payload, 0);
+        return payload;
+    }
+
+    @Benchmark
+    public int directEncoderReusedBuffer() throws IOException {
+        return encoder.encode(SESSION_ID, 150, true, Greapi.ReferenceMode.LEFT_WRIST.getNumber(),
+                accelerations, gyroscope, magnetometer);
+    }
+
+    @Benchmark
+    public int directEncoderPacked() throws IOException {
+        return packedEncoder.encode(SESSION_ID, 150, true, Greapi.ReferenceMode.LEFT_WRIST.getNumber(),
+                accelerations, gyroscope, magnetometer);
+    }
+
+    @Benchmark
+    public int directEncoderQuantized() throws IOException {
+        return quantizedEncoder.encode(SESSION_ID, 150, true, Greapi.ReferenceMode.LEFT_WRIST.getNumber(),
+                accelerations, gyroscope, magnetometer);
+    }
+
+    private static List<Greapi.SensorSample> convertToProtobufSamples(Iterable<? extends SensorSample> samples) {
+        List<Greapi.SensorSample> protobufSamples = new ArrayList<>();
+        for(SensorSample sensorSample : samples) {
+            protobufSamples.add(Greapi.SensorSample.newBuilder()
+                    .setX(sensorSample.getX())
+                    .setY(sensorSample.getY())
+                    .setZ(sensorSample.getZ())
+                    .setIndex(sensorSample.getIndex())
+                    .build());
+        }
+        return protobufSamples;
+    }
+}
@@ -0,0 +1,107 @@
+package com.motiongestures.grelib;
+
+import android.hardware.SensorEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives {@link AbstractGestureRecognitionClient#onSensorChanged} with a synthetic 100 Hz three-sensor stream,
+ * outside a gesture (pre-roll caches only) and during one (batches, flushes and hand-off to the sender thread,
+ * which encodes the requests like the remote client without sending them).
+ */
+@State(Scope.Thread)
+public class SensorPipelineBenchmark {
+    private static final int SAMPLES_PER_SENSOR = 1000;
+    private static final int EVENTS_PER_BATCH = 3 * FlushPolicies.DEFAULT_BATCH_SIZE;
+
+    @Param({"false", "true"})
+    public boolean activeGesture;
+
+    private EncodingClient client;
+    private SensorEvent[] events;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        events = SyntheticSensorEvents.generate(SAMPLES_PER_SENSOR, 1);
+        client = new EncodingClient();
+        client.connect(null);
+        if(!activeGesture) {
+            client.disconnect();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void onSensorChanged() {
+        client.onSensorChanged(events[next]);
+        if(++next == events.length) {
+            next = 0;
+        }
+    }
+
+    /**
+     * The time the sensor thread spends on the events of one batch, 100 samples of each sensor.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void batchOfSensorEvents() {
+        for(int i = 0; i < EVENTS_PER_BATCH; i++) {
+            client.onSensorChanged(events[next]);
+            if(++next == events.length) {
+                next = 0;
+            }
+        }
+    }
+
+    static final class EncodingClient extends AbstractGestureRecognitionClient {
+        private final RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        //read after the benchmark so that the encoding is not optimized away
+        volatile int encodedBytes;
+
+        EncodingClient() {
+            super(new BenchmarkContext());
+        }
+
+        @Override
+        public void connect(String uri) {
+            resetSamplesList();
+            activeGesture = true;
+        }
+
+        @Override
+        public void disconnect() {
+            sendLastSamples();
+        }
+
+        @Override
+        public void pause() {
+            unregisterSensorListeners();
+        }
+
+        @Override
+        public void resume() {
+            registerSensorListeners();
+        }
+
+        @Override
+        protected void sendSamples(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                                   boolean activeGesture) throws IOException {
+            encodedBytes += encoder.encode("5f0e2352-8c1b-4c57-9a49-7a7c8d0bfe1e", 150, activeGesture, 0,
+                    accelerations, gyroscope, magnetometer);
+        }
+    }
+}
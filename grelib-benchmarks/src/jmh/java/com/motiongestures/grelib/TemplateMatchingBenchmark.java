@@ -0,0 +1,86 @@
+package com.motiongestures.grelib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognitions per second of the local template matcher for libraries of 10 to 1000 templates.
+ * The gestures belong to 40 classes so that large libraries hold many close templates, like a library
+ * with several recordings of each gesture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TemplateMatchingBenchmark {
+    private static final int CLASSES = 40;
+    private static final int QUERIES = 16;
+
+    @Param({"10", "100", "1000"})
+    public int templates;
+
+    private final Random random = new Random(1);
+    private GestureTemplateLibrary library;
+    private TemplateMatcher matcher;
+    private SampleBatch[] accelerations;
+    private SampleBatch[] gyroscopes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        library = new GestureTemplateLibrary();
+        for(int i = 0; i < templates; i++) {
+            SampleBatch acceleration = new SampleBatch();
+            SampleBatch gyroscope = new SampleBatch();
+            int gestureClass = i % CLASSES;
+            gesture(gestureClass, acceleration, gyroscope);
+            library.addTemplate("gesture " + gestureClass, gestureClass, acceleration, gyroscope);
+        }
+        accelerations = new SampleBatch[QUERIES];
+        gyroscopes = new SampleBatch[QUERIES];
+        for(int i = 0; i < QUERIES; i++) {
+            accelerations[i] = new SampleBatch();
+            gyroscopes[i] = new SampleBatch();
+            gesture(random.nextInt(CLASSES), accelerations[i], gyroscopes[i]);
+        }
+        matcher = new TemplateMatcher();
+    }
+
+    @Benchmark
+    public int recognize() {
+        int query = next;
+        next = (next + 1) % QUERIES;
+        return matcher.match(library, accelerations[query], gyroscopes[query]);
+    }
+
+    private void gesture(int gestureClass, SampleBatch accelerations, SampleBatch gyroscope) {
+        Random shape = new Random(gestureClass);
+        double[] frequencies = new double[6];
+        double[] phases = new double[6];
+        for(int i = 0; i < 6; i++) {
+            frequencies[i] = 0.5 + shape.nextInt(4) * 0.5;
+            phases[i] = shape.nextDouble() * 2 * Math.PI;
+        }
+        int samples = 80 + random.nextInt(70);
+        double warp = (random.nextDouble() - 0.5) * 0.15;
+        for(int i = 0; i < samples; i++) {
+            double t = (double) i / (samples - 1);
+            t += warp * Math.sin(Math.PI * t);
+            double[] values = new double[6];
+            for(int axis = 0; axis < 6; axis++) {
+                values[axis] = Math.sin(2 * Math.PI * frequencies[axis] * t + phases[axis]) + random.nextGaussian() * 0.1;
+            }
+            accelerations.add((float) (values[0] * 5), (float) (values[1] * 5), (float) (9.81 + values[2] * 5), i * 3);
+            gyroscope.add((float) values[3] * 2, (float) values[4] * 2, (float) values[5] * 2, i * 3 + 1);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.motiongestures.grelib;
+
+import android.content.Context;
+import android.hardware.SensorManager;
+
+/**
+ * Context giving the clients a {@link SensorManager} double in which every sensor exists.
+ */
+final class BenchmarkContext extends Context {
+    private final SensorManager sensorManager;
+
+    BenchmarkContext() {
+        this(new SensorManager());
+    }
+
+    BenchmarkContext(SensorManager sensorManager) {
+        this.sensorManager = sensorManager;
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return SENSOR_SERVICE.equals(name) ? sensorManager : null;
+    }
+}
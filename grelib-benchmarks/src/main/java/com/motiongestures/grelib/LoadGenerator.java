@@ -0,0 +1,279 @@
+package com.motiongestures.grelib;
+
+import android.hardware.SensorEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many headless {@link RemoteGestureRecognitionClient}s against a {@link RecognitionServer} started in the same
+ * process, or against the server at --uri. Every client is fed a synthetic 100 Hz three-sensor stream and performs
+ * gestures one after the other, then the generator reports the requests and bytes sent per second and the
+ * distribution of the time from the end of a gesture to its result.
+ * Run with: ./gradlew :grelib-benchmarks:loadTest --args='--clients 1000 --duration 60'
+ * Each client has its own sender and WebSocket threads, so thousands of clients need a raised thread limit.
+ */
+public final class LoadGenerator {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long RESULT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int CONNECTIONS_PER_RAMP_STEP = 50;
+    private static final long RAMP_STEP_MILLIS = 100;
+
+    private int clients = 100;
+    private int durationSeconds = 30;
+    private long gestureMillis = 1500;
+    private long pauseMillis = 500;
+    private long latencyMillis = 20;
+    private long latencyJitterMillis = 0;
+    private String script = "end";
+    private String uri = null;
+    private int inFlightWindow = 0;
+    private SampleEncoding sampleEncoding = SampleEncoding.SAMPLE_LIST;
+    private int tickThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final LogLinearHistogram resultLatencyMicros = new LogLinearHistogram();
+    private final AtomicLong recognized = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong tooLong = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        generator.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch(args[i]) {
+                case "--clients":
+                    clients = Integer.parseInt(value);
+                    break;
+                case "--duration":
+                    durationSeconds = Integer.parseInt(value);
+                    break;
+                case "--gesture-millis":
+                    gestureMillis = Long.parseLong(value);
+                    break;
+                case "--pause-millis":
+                    pauseMillis = Long.parseLong(value);
+                    break;
+                case "--latency-millis":
+                    latencyMillis = Long.parseLong(value);
+                    break;
+                case "--jitter-millis":
+                    latencyJitterMillis = Long.parseLong(value);
+                    break;
+                case "--script":
+                    script = value;
+                    break;
+                case "--uri":
+                    uri = value;
+                    break;
+                case "--window":
+                    inFlightWindow = Integer.parseInt(value);
+                    break;
+                case "--encoding":
+                    sampleEncoding = SampleEncoding.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "--tick-threads":
+                    tickThreads = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        RecognitionServer server = null;
+        String target = uri;
+        if(target == null) {
+            server = new RecognitionServer(0);
+            server.setLatencyMillis(latencyMillis, latencyJitterMillis);
+            server.setScript(RecognitionServer.parseScript(script));
+            server.startAndWait();
+            target = server.uri();
+        }
+        System.out.println("Starting " + clients + " clients against " + target);
+
+        SensorEvent[] events = SyntheticSensorEvents.generate(6000, 1);
+        Random random = new Random(1);
+        List<SimulatedDevice> devices = new ArrayList<>();
+        for(int i = 0; i < clients; i++) {
+            devices.add(new SimulatedDevice(target, events, random.nextInt(events.length / 3) * 3));
+            if(i % CONNECTIONS_PER_RAMP_STEP == CONNECTIONS_PER_RAMP_STEP - 1) {
+                //opening thousands of connections at once overflows the accept queue of the server
+                Thread.sleep(RAMP_STEP_MILLIS);
+            }
+        }
+        long start = System.nanoTime();
+        for(SimulatedDevice device : devices) {
+            //spread the gestures of the clients over one gesture period
+            device.startAt(start + (long) (random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(gestureMillis + pauseMillis)));
+        }
+
+        ScheduledExecutorService ticker = Executors.newScheduledThreadPool(tickThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "load-generator-ticker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        int sliceSize = (devices.size() + tickThreads - 1) / tickThreads;
+        for(int from = 0; from < devices.size(); from += sliceSize) {
+            final List<SimulatedDevice> slice = devices.subList(from, Math.min(devices.size(), from + sliceSize));
+            ticker.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    long now = System.nanoTime();
+                    for(SimulatedDevice device : slice) {
+                        device.tick(now);
+                    }
+                }
+            }, 0, TICK_NANOS, TimeUnit.NANOSECONDS);
+        }
+
+        System.out.println("second  requests/s     bytes/s  results/s");
+        long lastRequests = 0;
+        long lastBytes = 0;
+        long lastResults = 0;
+        for(int second = 1; second <= durationSeconds; second++) {
+            Thread.sleep(1000);
+            long requests = 0;
+            long bytes = 0;
+            for(SimulatedDevice device : devices) {
+                requests += device.client.getSendPipelineStats().getEncodedBatches();
+                bytes += device.client.getMetrics().getBytesSent();
+            }
+            long results = resultLatencyMicros.snapshot().getCount();
+            System.out.println(String.format(Locale.ROOT, "%6d %11d %11d %10d", second,
+                    requests - lastRequests, bytes - lastBytes, results - lastResults));
+            lastRequests = requests;
+            lastBytes = bytes;
+            lastResults = results;
+        }
+        ticker.shutdownNow();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for(SimulatedDevice device : devices) {
+            device.client.close();
+        }
+
+        HistogramSnapshot latency = resultLatencyMicros.snapshot();
+        System.out.println(String.format(Locale.ROOT, "Sent %d requests, %.0f requests/s, %.0f bytes/s",
+                lastRequests, lastRequests / seconds, lastBytes / seconds));
+        System.out.println("Results: " + recognized.get() + " recognized, " + rejected.get() + " rejected, "
+                + tooLong.get() + " too long, " + timedOut.get() + " timed out");
+        System.out.println(String.format(Locale.ROOT,
+                "Gesture end to result (ms): p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+                latency.getPercentile(50) / 1000.0, latency.getPercentile(90) / 1000.0, latency.getPercentile(99) / 1000.0,
+                latency.getPercentile(99.9) / 1000.0, latency.getMax() / 1000.0));
+        if(server != null) {
+            System.out.println("Server received " + server.getReceivedRequests() + " requests, "
+                    + server.getReceivedBytes() + " bytes, " + server.getGestures() + " gestures");
+            server.stop(1000);
+        }
+    }
+
+    /**
+     * One client and its sensors, driven by the ticker threads: idle, then a gesture, then waiting for its result.
+     */
+    private final class SimulatedDevice implements GestureRecognitionResponseListener {
+        private static final int IDLE = 0;
+        private static final int GESTURE = 1;
+        private static final int WAITING = 2;
+
+        final RemoteGestureRecognitionClient client;
+        private final String uri;
+        private final SensorEvent[] events;
+        private int nextEvent;
+        //all guarded by this
+        private int state = IDLE;
+        private long nextTransitionNanos;
+        private long gestureEndNanos;
+
+        SimulatedDevice(String uri, SensorEvent[] events, int firstEvent) {
+            this.uri = uri;
+            this.events = events;
+            this.nextEvent = firstEvent;
+            client = new RemoteGestureRecognitionClient(new BenchmarkContext(), uri);
+            client.setGestureRecognitionResponseListener(this);
+            client.setMetricsEnabled(true);
+            client.setSampleEncoding(sampleEncoding);
+            client.setInFlightWindow(inFlightWindow);
+        }
+
+        synchronized void startAt(long firstGestureNanos) {
+            nextTransitionNanos = firstGestureNanos;
+        }
+
+        synchronized void tick(long now) {
+            //one event of each sensor per 10 ms tick
+            for(int i = 0; i < 3; i++) {
+                client.onSensorChanged(events[nextEvent]);
+                nextEvent = nextEvent + 1 == events.length ? 0 : nextEvent + 1;
+            }
+            if(now - nextTransitionNanos < 0) {
+                return;
+            }
+            switch(state) {
+                case IDLE:
+                    client.connect(uri);
+                    state = GESTURE;
+                    nextTransitionNanos = now + TimeUnit.MILLISECONDS.toNanos(gestureMillis);
+                    break;
+                case GESTURE:
+                    client.disconnect();
+                    state = WAITING;
+                    gestureEndNanos = now;
+                    nextTransitionNanos = now + RESULT_TIMEOUT_NANOS;
+                    break;
+                case WAITING:
+                    timedOut.incrementAndGet();
+                    idle(now);
+                    break;
+            }
+        }
+
+        //must be called while holding the lock
+        private void idle(long now) {
+            state = IDLE;
+            nextTransitionNanos = now + TimeUnit.MILLISECONDS.toNanos(pauseMillis);
+        }
+
+        private synchronized void onResult(AtomicLong outcomes) {
+            if(state != WAITING) {
+                return;
+            }
+            long now = System.nanoTime();
+            resultLatencyMicros.record((now - gestureEndNanos) / 1000);
+            outcomes.incrementAndGet();
+            idle(now);
+        }
+
+        @Override
+        public void gesturesRecognized(List<String> names, List<Integer> labels, float confidence) {
+            onResult(recognized);
+        }
+
+        @Override
+        public void gesturesRejected(List<String> names, List<Integer> labels, float confidence) {
+            onResult(rejected);
+        }
+
+        @Override
+        public void gestureTooLong() {
+            onResult(tooLong);
+        }
+    }
+}
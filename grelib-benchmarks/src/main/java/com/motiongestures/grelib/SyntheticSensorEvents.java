@@ -0,0 +1,51 @@
+package com.motiongestures.grelib;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+
+import java.util.Random;
+
+/**
+ * 100 Hz accelerometer, gyroscope and magnetometer events of a device slowly rotating, with a gesture-like burst
+ * every four seconds and sensor noise, interleaved the way the sensor thread delivers them.
+ */
+final class SyntheticSensorEvents {
+    private static final long SAMPLE_PERIOD_NANOS = 10_000_000;
+    private static final float GRAVITY = 9.80665f;
+
+    private SyntheticSensorEvents() {
+    }
+
+    static SensorEvent[] generate(int samplesPerSensor, long seed) {
+        Random random = new Random(seed);
+        Sensor accelerometer = new Sensor(Sensor.TYPE_ACCELEROMETER);
+        Sensor gyroscope = new Sensor(Sensor.TYPE_GYROSCOPE_UNCALIBRATED);
+        Sensor magnetometer = new Sensor(Sensor.TYPE_MAGNETIC_FIELD);
+        SensorEvent[] events = new SensorEvent[samplesPerSensor * 3];
+        for(int i = 0; i < samplesPerSensor; i++) {
+            double time = i * SAMPLE_PERIOD_NANOS / 1e9;
+            long timestamp = i * SAMPLE_PERIOD_NANOS;
+            double roll = 0.6 * Math.sin(time * 0.7);
+            double pitch = 0.4 * Math.sin(time * 0.5 + 1);
+            double burst = (time % 4.0) < 1.0 ? Math.sin(Math.PI * (time % 4.0)) : 0;
+            double swing = burst * 6 * Math.sin(time * 2 * Math.PI * 2);
+            events[i * 3] = new SensorEvent(accelerometer, timestamp,
+                    noise(random, GRAVITY * Math.sin(pitch) + swing, 0.02),
+                    noise(random, -GRAVITY * Math.sin(roll) * Math.cos(pitch), 0.02),
+                    noise(random, GRAVITY * Math.cos(roll) * Math.cos(pitch) + swing * 0.3, 0.02));
+            events[i * 3 + 1] = new SensorEvent(gyroscope, timestamp + 2_000_000,
+                    noise(random, 0.42 * Math.cos(time * 0.7) + burst * 3 * Math.cos(time * 2 * Math.PI * 2), 0.002),
+                    noise(random, 0.2 * Math.cos(time * 0.5 + 1), 0.002),
+                    noise(random, burst * 1.5 * Math.sin(time * 2 * Math.PI * 2), 0.002));
+            events[i * 3 + 2] = new SensorEvent(magnetometer, timestamp + 5_000_000,
+                    noise(random, 22 * Math.cos(roll), 0.3),
+                    noise(random, 5 * Math.sin(pitch), 0.3),
+                    noise(random, -40 * Math.cos(pitch), 0.3));
+        }
+        return events;
+    }
+
+    private static float noise(Random random, double value, double deviation) {
+        return (float) (value + random.nextGaussian() * deviation);
+    }
+}
@@ -0,0 +1,167 @@
+package com.motiongestures.grelib;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Sensor manager double behaving like a sensor hub with FIFOs: the events of a sensor registered with a report
+ * latency are kept until {@link #deliverBursts()} or a flush, the others are delivered as soon as they are sampled.
+ * Like a real hub, a flush is asynchronous: it takes the events in the FIFOs at the time of the call, and delivers
+ * them and the completions later on the thread of the hub.
+ */
+final class BurstingSensorManager extends SensorManager {
+    static final class Registration {
+        final Sensor sensor;
+        final int samplingPeriodUs;
+        final int maxReportLatencyUs;
+        final List<SensorEvent> fifo = new ArrayList<>();
+
+        Registration(Sensor sensor, int samplingPeriodUs, int maxReportLatencyUs) {
+            this.sensor = sensor;
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+        }
+    }
+
+    private final Map<Integer, Registration> registrations = new HashMap<>();
+    private SensorEventListener listener;
+    private volatile boolean completingFlushes = true;
+    private int flushes = 0;
+    private final ExecutorService hub = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sensor-hub");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    @Override
+    public synchronized boolean registerListener(SensorEventListener listener, Sensor sensor, int samplingPeriodUs) {
+        return registerListener(listener, sensor, samplingPeriodUs, 0);
+    }
+
+    @Override
+    public synchronized boolean registerListener(SensorEventListener listener, Sensor sensor, int samplingPeriodUs,
+                                                 int maxReportLatencyUs) {
+        this.listener = listener;
+        registrations.put(sensor.getType(), new Registration(sensor, samplingPeriodUs, maxReportLatencyUs));
+        return true;
+    }
+
+    @Override
+    public synchronized void unregisterListener(SensorEventListener listener, Sensor sensor) {
+        registrations.remove(sensor.getType());
+    }
+
+    synchronized Registration registration(int type) {
+        return registrations.get(type);
+    }
+
+    synchronized int getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Whether a flush calls onFlushCompleted, like a working sensor hub does.
+     */
+    void setCompletingFlushes(boolean completingFlushes) {
+        this.completingFlushes = completingFlushes;
+    }
+
+    /**
+     * Samples an event, delivered now or kept in the FIFO of its sensor.
+     */
+    void sample(int type, long timestamp, float x, float y, float z) {
+        SensorEvent event;
+        SensorEventListener target;
+        synchronized (this) {
+            Registration registration = registrations.get(type);
+            if(registration == null) {
+                return;
+            }
+            event = new SensorEvent(registration.sensor, timestamp, x, y, z);
+            if(registration.maxReportLatencyUs > 0) {
+                registration.fifo.add(event);
+                return;
+            }
+            target = listener;
+        }
+        target.onSensorChanged(event);
+    }
+
+    /**
+     * Delivers the events kept in the FIFOs, as the sensor hub does when the report latency expires, after the
+     * pending flushes. Returns once they are delivered.
+     */
+    void deliverBursts() {
+        final List<SensorEvent> events = drainFifos();
+        try {
+            hub.submit(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(events);
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public boolean flush(final SensorEventListener listener) {
+        final List<Sensor> sensors = new ArrayList<>();
+        synchronized (this) {
+            flushes++;
+            for(Registration registration : registrations.values()) {
+                sensors.add(registration.sensor);
+            }
+        }
+        final List<SensorEvent> events = drainFifos();
+        hub.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(events);
+                if(completingFlushes) {
+                    for(Sensor sensor : sensors) {
+                        ((SensorEventListener2) listener).onFlushCompleted(sensor);
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    private void deliver(List<SensorEvent> events) {
+        SensorEventListener target;
+        synchronized (this) {
+            target = listener;
+        }
+        for(SensorEvent event : events) {
+            target.onSensorChanged(event);
+        }
+    }
+
+    private synchronized List<SensorEvent> drainFifos() {
+        List<SensorEvent> events = new ArrayList<>();
+        for(Registration registration : registrations.values()) {
+            events.addAll(registration.fifo);
+            registration.fifo.clear();
+        }
+        return events;
+    }
+}
@@ -0,0 +1,207 @@
+package com.motiongestures.grelib;
+
+import android.hardware.Sensor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ClientMetricsTest {
+    private BurstingSensorManager sensorManager;
+    private ResultClient client;
+
+    @Before
+    public void createClient() {
+        sensorManager = new BurstingSensorManager();
+        client = new ResultClient(sensorManager);
+        //one batch for each sample
+        client.setFlushPolicy(FlushPolicies.bySize(1));
+    }
+
+    @Test
+    public void theJitterComesFromTheSensorTimestamps() throws InterruptedException {
+        client.setMetricsEnabled(true);
+        client.resume();
+        client.connect(null);
+        //intervals of 10, 10, 12 and 9 ms
+        long[] timestamps = {1_000_000_000L, 1_010_000_000L, 1_020_000_000L, 1_032_000_000L, 1_041_000_000L};
+        for(long timestamp : timestamps) {
+            sensorManager.sample(Sensor.TYPE_ACCELEROMETER, timestamp, 0, 0, 9.81f);
+        }
+        client.disconnect();
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+
+        HistogramSnapshot jitter = client.getMetrics().getSensorJitterMicros();
+        assertEquals(3, jitter.getCount());
+        assertEquals(3_000, jitter.getMax());
+        assertEquals((0 + 2_000 + 3_000) / 3.0, jitter.getMean(), 1e-9);
+
+        //the gap of a pause is not jitter
+        client.pause();
+        client.resume();
+        sensorManager.sample(Sensor.TYPE_ACCELEROMETER, 5_000_000_000L, 0, 0, 9.81f);
+        sensorManager.sample(Sensor.TYPE_ACCELEROMETER, 5_010_000_000L, 0, 0, 9.81f);
+        assertEquals(3, client.getMetrics().getSensorJitterMicros().getCount());
+    }
+
+    @Test
+    public void theSamplesDroppedByAFullQueueAreCounted() throws InterruptedException {
+        client.setMetricsEnabled(true);
+        client.resume();
+        client.connect(null);
+        client.blockSending();
+        sampleAccelerometer(0, 100);
+        client.unblockSending();
+        client.disconnect();
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+
+        MetricsSnapshot metrics = client.getMetrics();
+        //the queue holds 16 batches, the sender thread one more
+        assertTrue(metrics.getDroppedSamples() >= 100 - 17);
+        assertEquals(100, metrics.getDroppedSamples() + client.sentSamples);
+        assertEquals(1, metrics.getSamplesPerBatch().getMax());
+        assertEquals(16, metrics.getSendQueueDepth().getMax());
+    }
+
+    @Test
+    public void theResultLatencyRunsFromTheLastSensorEvent() throws InterruptedException {
+        client.setMetricsEnabled(true);
+        client.resultDelayMillis = 50;
+        client.resume();
+        client.connect(null);
+        sampleAccelerometer(0, 10);
+        long beforeEnd = System.nanoTime();
+        client.disconnect();
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        long upperBound = (System.nanoTime() - beforeEnd) / 1000;
+
+        HistogramSnapshot latency = client.getMetrics().getResultLatencyMicros();
+        assertEquals(1, latency.getCount());
+        assertTrue(latency.getMax() >= 50_000);
+        assertTrue(latency.getMax() <= upperBound);
+    }
+
+    @Test
+    public void resetForgetsEverything() throws InterruptedException {
+        client.setMetricsEnabled(true);
+        client.resume();
+        client.connect(null);
+        client.blockSending();
+        sampleAccelerometer(0, 100);
+        client.unblockSending();
+        client.disconnect();
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        MetricsSnapshot metrics = client.getMetrics();
+        assertTrue(metrics.getSensorJitterMicros().getCount() > 0);
+        assertTrue(metrics.getDroppedSamples() > 0);
+        assertEquals(1, metrics.getResultLatencyMicros().getCount());
+
+        client.resetMetrics();
+        assertNothingRecorded(client.getMetrics());
+    }
+
+    @Test
+    public void nothingIsRecordedWhileDisabled() throws InterruptedException {
+        assertFalse(client.isMetricsEnabled());
+        client.resume();
+        client.connect(null);
+        client.blockSending();
+        sampleAccelerometer(0, 100);
+        client.unblockSending();
+        client.disconnect();
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        assertTrue(client.sentSamples < 100);
+        assertNothingRecorded(client.getMetrics());
+    }
+
+    private static void assertNothingRecorded(MetricsSnapshot metrics) {
+        assertEquals(0, metrics.getSensorJitterMicros().getCount());
+        assertEquals(0, metrics.getSamplesPerBatch().getCount());
+        assertEquals(0, metrics.getSendQueueDepth().getCount());
+        assertEquals(0, metrics.getEncodeTimeMicros().getCount());
+        assertEquals(0, metrics.getRequestBytes().getCount());
+        assertEquals(0, metrics.getDecodeTimeMicros().getCount());
+        assertEquals(0, metrics.getResultLatencyMicros().getCount());
+        assertEquals(0, metrics.getBytesSent());
+        assertEquals(0, metrics.getDroppedSamples());
+    }
+
+    private void sampleAccelerometer(int first, int count) {
+        for(int i = first; i < first + count; i++) {
+            sensorManager.sample(Sensor.TYPE_ACCELEROMETER, i * 10_000_000L, 0, 0, 9.81f);
+        }
+    }
+
+    /**
+     * Reports a result when the last batch of a gesture is sent, like the local client does once it has matched it.
+     * Its sender thread can be held to fill the send queue.
+     */
+    private static final class ResultClient extends AbstractGestureRecognitionClient {
+        final CountDownLatch gestureEnded = new CountDownLatch(1);
+        private final Semaphore sending = new Semaphore(Integer.MAX_VALUE);
+        volatile long resultDelayMillis = 0;
+        //written by the sender thread before counting down the latch
+        int sentSamples = 0;
+
+        ResultClient(BurstingSensorManager sensorManager) {
+            super(new BenchmarkContext(sensorManager));
+            setPreRollMillis(0);
+        }
+
+        void blockSending() {
+            sending.drainPermits();
+        }
+
+        void unblockSending() {
+            sending.release(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void connect(String uri) {
+            resetSamplesList();
+            try {
+                startGesture(true);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            sendLastSamples();
+        }
+
+        @Override
+        public void pause() {
+            unregisterSensorListeners();
+        }
+
+        @Override
+        public void resume() {
+            registerSensorListeners();
+        }
+
+        @Override
+        protected void sendSamples(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                                   boolean activeGesture) {
+            sending.acquireUninterruptibly();
+            sending.release();
+            sentSamples += accelerations.size() + gyroscope.size() + magnetometer.size();
+            if(!activeGesture) {
+                try {
+                    Thread.sleep(resultDelayMillis);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                metrics.onResult();
+                gestureEnded.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.motiongestures.grelib;
+
+import android.hardware.Sensor;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+/**
+ * Starts and ends gestures from another thread while the sensor thread keeps sampling, the way the remote client
+ * starts a gesture once its connection is open. Each sample carries its sequence number, so a sample lost or sent
+ * twice around the start or the end of a gesture breaks the sequence the gesture received.
+ */
+public class GestureStartStressTest {
+    private static final int GESTURES = 2_000;
+
+    @Test
+    public void everyGestureReceivesAnUnbrokenSequence() throws Exception {
+        final BurstingSensorManager sensorManager = new BurstingSensorManager();
+        SequenceClient client = new SequenceClient(sensorManager);
+        client.setOverflowPolicy(OverflowPolicy.BLOCK);
+        client.setFlushPolicy(FlushPolicies.bySize(7));
+        client.resume();
+
+        final AtomicBoolean sampling = new AtomicBoolean(true);
+        Thread sensorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                //exact in a float up to 2^24
+                for(int n = 0; sampling.get() && n < 1 << 24; n++) {
+                    sensorManager.sample(Sensor.TYPE_ACCELEROMETER, n * 10_000_000L, n, 0, 0);
+                }
+            }
+        }, "sensors");
+        sensorThread.start();
+
+        Random random = new Random(7);
+        for(int g = 0; g < GESTURES; g++) {
+            client.connect(null);
+            LockSupport.parkNanos(random.nextInt(200_000));
+            client.disconnect();
+        }
+        sampling.set(false);
+        sensorThread.join();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while(client.getCompletedGestures() < GESTURES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(GESTURES, client.getCompletedGestures());
+        assertNull(client.getError(), client.getError());
+        assertTrue(client.getReceivedSamples() > 0);
+    }
+
+    /**
+     * Starts its gestures like the remote client, with the pre-roll samples sent before the gesture.
+     */
+    private static final class SequenceClient extends AbstractGestureRecognitionClient {
+        //used by the sender thread only, published through the volatile fields
+        private final List<Float> gesture = new ArrayList<>();
+        private boolean started = false;
+        private long received = 0;
+        private volatile int completedGestures = 0;
+        private volatile String error;
+
+        SequenceClient(BurstingSensorManager sensorManager) {
+            super(new BenchmarkContext(sensorManager));
+        }
+
+        int getCompletedGestures() {
+            return completedGestures;
+        }
+
+        String getError() {
+            return error;
+        }
+
+        long getReceivedSamples() {
+            return received;
+        }
+
+        @Override
+        public void connect(String uri) {
+            resetSamplesList();
+            try {
+                startGesture(false);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            sendLastSamples();
+        }
+
+        @Override
+        public void pause() {
+            unregisterSensorListeners();
+        }
+
+        @Override
+        public void resume() {
+            registerSensorListeners();
+        }
+
+        @Override
+        protected void sendSamples(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                                   boolean activeGesture) {
+            //the cached samples come first, flagged as inactive, then the gesture until its last inactive batch
+            if(!activeGesture && started) {
+                addAll(accelerations);
+                checkGesture();
+                started = false;
+                return;
+            }
+            if(!activeGesture) {
+                gesture.clear();
+                started = true;
+            }
+            addAll(accelerations);
+        }
+
+        private void addAll(SampleBatch batch) {
+            for(int i = 0; i < batch.size(); i++) {
+                gesture.add(batch.getX(i));
+            }
+            received += batch.size();
+        }
+
+        private void checkGesture() {
+            for(int i = 1; i < gesture.size() && error == null; i++) {
+                if(gesture.get(i) != gesture.get(i - 1) + 1) {
+                    error = "Gesture " + completedGestures + ": sample " + gesture.get(i) + " after " + gesture.get(i - 1);
+                }
+            }
+            completedGestures++;
+        }
+    }
+}
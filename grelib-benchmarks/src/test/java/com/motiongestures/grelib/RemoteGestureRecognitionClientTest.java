@@ -0,0 +1,76 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends samples through the iterable API to an engine recording the requests.
+ */
+public class RemoteGestureRecognitionClientTest {
+    private final BlockingQueue<Greapi.RecognitionRequest> requests = new LinkedBlockingQueue<>();
+    private final InProcessTransport transport = new InProcessTransport(new InProcessTransport.Engine() {
+        @Override
+        public void onRequest(ByteBuffer request, InProcessTransport.Responder responder) {
+            try {
+                requests.add(Greapi.RecognitionRequest.parseFrom(WebSocketTransport.toArray(request)));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+    });
+
+    @Test
+    public void iterableSamplesFollowTheOrientationTransform() throws Exception {
+        RemoteGestureRecognitionClient client = new RemoteGestureRecognitionClient(new BenchmarkContext(), "local", transport);
+        client.setOrientationTransformEnabled(true);
+        client.setReferenceMode(ClientReferenceMode.USER_FACING);
+        client.setSampleEncoding(SampleEncoding.PACKED);
+        client.connect("local");
+        client.sendSamples(samples(0, 10), samples(0, 10), samples(0, 10));
+
+        Greapi.RecognitionRequest request = requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        //the samples are rotated already, the server must not apply the reference mode again
+        assertEquals(Greapi.ReferenceMode.DEVICE_REFERENCE, request.getReferenceMode());
+        assertFalse(request.hasMagnetometer());
+        //sent like the batches, with the encoding of the client
+        assertEquals(0, request.getAcceleration().getSamplesCount());
+        assertEquals(10, request.getAcceleration().getPackedSamples().getXCount());
+        client.close();
+    }
+
+    @Test
+    public void iterableSamplesKeepTheReferenceModeWithoutTransform() throws Exception {
+        RemoteGestureRecognitionClient client = new RemoteGestureRecognitionClient(new BenchmarkContext(), "local", transport);
+        client.setReferenceMode(ClientReferenceMode.LEFT_WRIST);
+        client.setSampleEncoding(SampleEncoding.SAMPLE_LIST);
+        client.connect("local");
+        client.sendSamples(samples(0, 10), samples(0, 10), samples(0, 10));
+
+        Greapi.RecognitionRequest request = requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals(Greapi.ReferenceMode.LEFT_WRIST, request.getReferenceMode());
+        assertEquals(10, request.getAcceleration().getSamplesCount());
+        assertEquals(10, request.getMagnetometer().getSamplesCount());
+        assertEquals(9, request.getGyroscope().getSamples(9).getIndex());
+        client.close();
+    }
+
+    private static List<SensorSample> samples(int first, int count) {
+        List<SensorSample> samples = new ArrayList<>();
+        for(int i = first; i < first + count; i++) {
+            samples.add(new SensorSample(i, 0, 9.81f, i));
+        }
+        return samples;
+    }
+}
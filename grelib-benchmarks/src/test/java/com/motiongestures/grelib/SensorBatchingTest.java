@@ -0,0 +1,289 @@
+package com.motiongestures.grelib;
+
+import android.hardware.Sensor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SensorBatchingTest {
+    private BurstingSensorManager sensorManager;
+    private RecordingClient client;
+
+    @Before
+    public void createClient() {
+        sensorManager = new BurstingSensorManager();
+        client = new RecordingClient(sensorManager);
+    }
+
+    @Test
+    public void registersTheSensorsWithTheirSettings() {
+        client.setSamplingPeriodsUs(5_000, 10_000, 20_000);
+        client.resume();
+        BurstingSensorManager.Registration accelerometer = sensorManager.registration(Sensor.TYPE_ACCELEROMETER);
+        assertEquals(5_000, accelerometer.samplingPeriodUs);
+        assertEquals(0, accelerometer.maxReportLatencyUs);
+        assertEquals(20_000, sensorManager.registration(Sensor.TYPE_MAGNETIC_FIELD).samplingPeriodUs);
+
+        //registered again with the new setting
+        client.setMaxReportLatencyUs(200_000);
+        assertEquals(200_000, sensorManager.registration(Sensor.TYPE_GYROSCOPE_UNCALIBRATED).maxReportLatencyUs);
+        assertEquals(10_000, sensorManager.registration(Sensor.TYPE_GYROSCOPE_UNCALIBRATED).samplingPeriodUs);
+    }
+
+    @Test
+    public void theGestureEndsWithTheSamplesLeftInTheFifos() throws InterruptedException {
+        client.setMaxReportLatencyUs(500_000);
+        client.resume();
+        client.connect(null);
+        assertEquals(1, sensorManager.getFlushes());
+        sampleAllSensors(0, 150);
+        sensorManager.deliverBursts();
+        //the last 20 ms of the gesture are still in the FIFOs when it ends
+        sampleAllSensors(150, 2);
+        client.disconnect();
+        assertEquals(2, sensorManager.getFlushes());
+
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        assertEquals(152, client.gestureAccelerations);
+        assertEquals(152, client.gestureMagnetometers);
+    }
+
+    @Test
+    public void theGestureStartsOnceTheSamplesBeforeItAreFlushed() throws InterruptedException {
+        client.setPreRollMillis(200);
+        client.setMaxReportLatencyUs(500_000);
+        client.resume();
+        //half a second sampled before the gesture, still in the FIFOs when it starts
+        sampleAllSensors(0, 50);
+        client.connect(null);
+        sampleAllSensors(50, 10);
+        client.disconnect();
+
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        //the last 200 ms before the start are the cached samples, the older ones are not part of the gesture
+        assertEquals(20 + 10, client.gestureAccelerations);
+        assertEquals(20 + 10, client.gestureMagnetometers);
+    }
+
+    @Test
+    public void theGestureEndsAfterATimeoutIfTheFlushDoesNotComplete() throws InterruptedException {
+        client.setMaxReportLatencyUs(500_000);
+        client.resume();
+        client.connect(null);
+        //the flush of the gesture start completes before the bursts are delivered, the one of its end does not
+        sensorManager.deliverBursts();
+        sensorManager.setCompletingFlushes(false);
+        sampleAllSensors(0, 10);
+        client.disconnect();
+        assertFalse(client.gestureEnded.await(100, TimeUnit.MILLISECONDS));
+        assertTrue(client.gestureEnded.await(2, TimeUnit.SECONDS));
+        assertEquals(10, client.gestureAccelerations);
+    }
+
+    @Test
+    public void theGestureStartsAfterATimeoutIfTheFlushDoesNotComplete() throws InterruptedException {
+        sensorManager.setCompletingFlushes(false);
+        client.setMaxReportLatencyUs(500_000);
+        client.resume();
+        client.connect(null);
+        //the samples delivered before the timeout are taken for samples from before the gesture
+        Thread.sleep(700);
+        sampleAllSensors(0, 10);
+        client.disconnect();
+        assertTrue(client.gestureEnded.await(2, TimeUnit.SECONDS));
+        assertEquals(10, client.gestureAccelerations);
+    }
+
+    @Test
+    public void withoutReportLatencyTheGestureEndsAtOnce() throws InterruptedException {
+        client.resume();
+        client.connect(null);
+        sampleAllSensors(0, 10);
+        client.disconnect();
+        assertEquals(0, sensorManager.getFlushes());
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        assertEquals(10, client.gestureAccelerations);
+    }
+
+    @Test
+    public void theFrameAlignerWaitsForTheBurstsOfEverySensor() throws InterruptedException {
+        client.setFrameRate(100);
+        client.setMaxReportLatencyUs(500_000);
+        client.resume();
+        client.connect(null);
+        //each FIFO delivers its 50 samples as one burst, one sensor after the other
+        for(int burst = 0; burst < 3; burst++) {
+            sampleAllSensors(burst * 50, 50);
+            sensorManager.deliverBursts();
+        }
+        client.disconnect();
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        assertEquals(150, client.gestureAccelerations);
+        assertEquals(150, client.gestureMagnetometers);
+    }
+
+    @Test
+    public void theOrientationTransformSendsGravityAlignedSamplesWithoutMagnetometer() throws InterruptedException {
+        client.setOrientationTransformEnabled(true);
+        client.setReferenceMode(ClientReferenceMode.USER_FACING);
+        client.resume();
+        client.connect(null);
+        //the device standing on its left side, its x axis up
+        for(int i = 0; i < 10; i++) {
+            long timestamp = i * 10_000_000L;
+            sensorManager.sample(Sensor.TYPE_MAGNETIC_FIELD, timestamp, -40, 0, 20);
+            sensorManager.sample(Sensor.TYPE_ACCELEROMETER, timestamp, 9.81f, 0, 0);
+            sensorManager.sample(Sensor.TYPE_GYROSCOPE_UNCALIBRATED, timestamp, 0, 0, 0);
+        }
+        client.disconnect();
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        assertEquals(10, client.gestureAccelerations);
+        assertEquals(0, client.gestureMagnetometers);
+        assertArrayEquals(new float[]{0, 0, 9.81f}, client.lastAcceleration, 1e-4f);
+    }
+
+    @Test
+    public void theSampleProcessorsStartOverAfterAPause() throws InterruptedException {
+        client.setSampleProcessor(SampleProcessors.lowPass(5, 100));
+        client.resume();
+        client.connect(null);
+        sampleAllSensors(0, 20);
+        client.pause();
+        client.resume();
+        //a fresh low-pass filter starts from its first sample, it does not ramp down from the one before the pause
+        sensorManager.sample(Sensor.TYPE_ACCELEROMETER, 1_000_000_000L, 0, 0, 0);
+        client.disconnect();
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        assertEquals(21, client.gestureAccelerations);
+        assertArrayEquals(new float[]{0, 0, 0}, client.lastAcceleration, 0);
+    }
+
+    @Test
+    public void thePreRollLastsAsLongWhenDecimating() throws InterruptedException {
+        client.setPreRollMillis(200);
+        client.setSampleProcessor(SampleProcessors.decimate(2));
+        client.resume();
+        sampleAllSensors(0, 50);
+        client.connect(null);
+        sampleAllSensors(50, 10);
+        client.disconnect();
+
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        //200 ms at 50 Hz before the start, then one of every two samples
+        assertEquals(10 + 5, client.gestureAccelerations);
+        assertEquals(10 + 5, client.gestureMagnetometers);
+    }
+
+    @Test
+    public void thePreRollOfTheNextGestureDoesNotRepeatTheSamplesOfThePreviousOne() throws InterruptedException {
+        client.setPreRollMillis(200);
+        client.setActivityDetector(new ActivityDetector());
+        client.resume();
+        client.connect(null);
+        sampleWhileRotating(0, 100, true);
+        //the next gesture starts with the cache of the previous one, its own samples are still until the 5th
+        client.connect(null);
+        sampleWhileRotating(100, 5, false);
+        sampleWhileRotating(105, 10, true);
+        client.disconnect();
+
+        assertTrue(client.gestureEnded.await(1, TimeUnit.SECONDS));
+        //every sensor event takes an index, the accelerometer has every third one
+        List<Integer> expected = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            expected.add(i * 3);
+        }
+        //the cached samples are numbered before the first sample of the gesture they are sent with
+        for(int i = -20; i < 15; i++) {
+            expected.add(i * 3);
+        }
+        assertEquals(expected, client.accelerationIndexes);
+    }
+
+    private void sampleWhileRotating(int first, int count, boolean rotating) {
+        for(int i = first; i < first + count; i++) {
+            long timestamp = i * 10_000_000L;
+            sensorManager.sample(Sensor.TYPE_ACCELEROMETER, timestamp, 0, 0, 9.81f);
+            sensorManager.sample(Sensor.TYPE_GYROSCOPE_UNCALIBRATED, timestamp, rotating ? 1 : 0, 0, 0);
+            sensorManager.sample(Sensor.TYPE_MAGNETIC_FIELD, timestamp, 20, 0, -40);
+        }
+    }
+
+    private void sampleAllSensors(int first, int count) {
+        for(int i = first; i < first + count; i++) {
+            long timestamp = i * 10_000_000L;
+            sensorManager.sample(Sensor.TYPE_ACCELEROMETER, timestamp, 0, 0, 9.81f);
+            sensorManager.sample(Sensor.TYPE_GYROSCOPE_UNCALIBRATED, timestamp, 0.1f, 0, 0);
+            sensorManager.sample(Sensor.TYPE_MAGNETIC_FIELD, timestamp, 20, 0, -40);
+        }
+    }
+
+    /**
+     * Counts the samples sent during a gesture, like the local client collects them.
+     */
+    private static final class RecordingClient extends AbstractGestureRecognitionClient {
+        final CountDownLatch gestureEnded = new CountDownLatch(1);
+        //written by the sender thread before counting down the latch
+        int gestureAccelerations = 0;
+        int gestureMagnetometers = 0;
+        final float[] lastAcceleration = new float[3];
+        final List<Integer> accelerationIndexes = new ArrayList<>();
+
+        RecordingClient(BurstingSensorManager sensorManager) {
+            super(new BenchmarkContext(sensorManager));
+            setPreRollMillis(0);
+        }
+
+        @Override
+        public void connect(String uri) {
+            resetSamplesList();
+            try {
+                startGesture(true);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            sendLastSamples();
+        }
+
+        @Override
+        public void pause() {
+            unregisterSensorListeners();
+        }
+
+        @Override
+        public void resume() {
+            registerSensorListeners();
+        }
+
+        @Override
+        protected void sendSamples(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                                   boolean activeGesture) {
+            gestureAccelerations += accelerations.size();
+            for(int i = 0; i < accelerations.size(); i++) {
+                accelerationIndexes.add(accelerations.getIndex(i));
+            }
+            if(!accelerations.isEmpty()) {
+                int last = accelerations.size() - 1;
+                lastAcceleration[0] = accelerations.getX(last);
+                lastAcceleration[1] = accelerations.getY(last);
+                lastAcceleration[2] = accelerations.getZ(last);
+            }
+            gestureMagnetometers += magnetometer.size();
+            if(!activeGesture) {
+                gestureEnded.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.motiongestures.grelib;
+
+import android.view.MotionEvent;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+/**
+ * Draws strokes through motion events carrying historical points, against an engine recording the touch requests
+ * and recognizing every stroke once it ends.
+ */
+public class TouchGestureRecognitionClientTest {
+    private final List<Greapi.RecognitionRequest> requests = Collections.synchronizedList(new ArrayList<Greapi.RecognitionRequest>());
+    private final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+    private final InProcessTransport transport = new InProcessTransport(new InProcessTransport.Engine() {
+        @Override
+        public void onRequest(ByteBuffer request, InProcessTransport.Responder responder) {
+            try {
+                Greapi.RecognitionRequest recognitionRequest = Greapi.RecognitionRequest.parseFrom(WebSocketTransport.toArray(request));
+                requests.add(recognitionRequest);
+                if(!recognitionRequest.getActiveGesture()) {
+                    responder.respond(ByteBuffer.wrap(Greapi.RecognitionResponse.newBuilder()
+                            .setId(recognitionRequest.getId())
+                            .setStatus(Greapi.Status.GestureEnd)
+                            .addNames("circle")
+                            .addLabels(3)
+                            .setConfidence(0.9F)
+                            .build().toByteArray()));
+                }
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+    });
+    private final GestureRecognitionResponseListener listener = new GestureRecognitionResponseListener() {
+        @Override
+        public void gesturesRecognized(List<String> names, List<Integer> labels, float confidence) {
+            results.add(names.get(0));
+        }
+
+        @Override
+        public void gesturesRejected(List<String> names, List<Integer> labels, float confidence) {
+            results.add("rejected");
+        }
+
+        @Override
+        public void gestureTooLong() {
+            results.add("too long");
+        }
+    };
+
+    @Test
+    public void aStrokeIsSentSimplifiedAndRecognized() throws Exception {
+        TouchGestureRecognitionClient client = new TouchGestureRecognitionClient("local", transport);
+        client.setGestureRecognitionResponseListener(listener);
+        client.setFlushPolicy(FlushPolicies.bySize(20));
+
+        List<float[]> stroke = circle(600);
+        drawStroke(client, stroke);
+        assertEquals("circle", results.poll(5, TimeUnit.SECONDS));
+
+        List<Greapi.RecognitionRequest> sent = new ArrayList<>(requests);
+        assertTrue(sent.size() > 1);
+        String session = sent.get(0).getId();
+        List<Greapi.Point> points = new ArrayList<>();
+        for(int i = 0; i < sent.size(); i++) {
+            Greapi.RecognitionRequest request = sent.get(i);
+            assertEquals(session, request.getId());
+            assertEquals(Greapi.RequestType.TouchRequest, request.getRequestType());
+            assertEquals(i < sent.size() - 1, request.getActiveGesture());
+            assertTrue(request.getTouch().getPointsCount() <= 20);
+            points.addAll(request.getTouch().getPointsList());
+        }
+        assertEquals(stroke.size(), client.getCapturedPoints());
+        assertEquals(points.size(), client.getSentPoints());
+        assertTrue(points.size() < stroke.size() / 4);
+        assertPoint(stroke.get(0), points.get(0));
+        assertPoint(stroke.get(stroke.size() - 1), points.get(points.size() - 1));
+        client.close();
+    }
+
+    @Test
+    public void everyStrokeIsItsOwnGesture() throws Exception {
+        TouchGestureRecognitionClient client = new TouchGestureRecognitionClient("local", transport);
+        client.setGestureRecognitionResponseListener(listener);
+        client.setStrokeSimplification(0, 0);
+
+        drawStroke(client, circle(50));
+        assertEquals("circle", results.poll(5, TimeUnit.SECONDS));
+        //a second pointer is ignored, the stroke ends when its own pointer goes up
+        client.onTouchEvent(new MotionEvent(MotionEvent.ACTION_DOWN, new float[]{1}, new float[]{1}));
+        assertTrue(client.onTouchEvent(new MotionEvent(MotionEvent.ACTION_MOVE, new float[]{2, 3}, new float[]{2, 3})));
+        assertTrue(client.onTouchEvent(new MotionEvent(MotionEvent.ACTION_POINTER_UP, new float[]{4}, new float[]{4})));
+        assertFalse(client.onTouchEvent(new MotionEvent(MotionEvent.ACTION_UP, new float[]{5}, new float[]{5})));
+        assertEquals("circle", results.poll(5, TimeUnit.SECONDS));
+
+        List<Greapi.RecognitionRequest> sent = new ArrayList<>(requests);
+        assertEquals(2, sent.size());
+        assertNotEquals(sent.get(0).getId(), sent.get(1).getId());
+        assertEquals(50, sent.get(0).getTouch().getPointsCount());
+        assertEquals(4, sent.get(1).getTouch().getPointsCount());
+        assertEquals(4, sent.get(1).getTouch().getPoints(3).getX(), 0);
+        client.close();
+    }
+
+    //one down event, then move events of up to four historical points each, then the up event
+    private static void drawStroke(TouchGestureRecognitionClient client, List<float[]> stroke) {
+        client.onTouchEvent(new MotionEvent(MotionEvent.ACTION_DOWN, new float[]{stroke.get(0)[0]}, new float[]{stroke.get(0)[1]}));
+        int position = 1;
+        while(position < stroke.size() - 1) {
+            int count = Math.min(1 + position % 5, stroke.size() - 1 - position);
+            float[] x = new float[count];
+            float[] y = new float[count];
+            for(int i = 0; i < count; i++) {
+                x[i] = stroke.get(position + i)[0];
+                y[i] = stroke.get(position + i)[1];
+            }
+            client.onTouchEvent(new MotionEvent(MotionEvent.ACTION_MOVE, x, y));
+            position += count;
+        }
+        float[] last = stroke.get(stroke.size() - 1);
+        client.onTouchEvent(new MotionEvent(MotionEvent.ACTION_UP, new float[]{last[0]}, new float[]{last[1]}));
+    }
+
+    private static List<float[]> circle(int points) {
+        List<float[]> stroke = new ArrayList<>();
+        for(int i = 0; i < points; i++) {
+            double angle = 2 * Math.PI * i / points;
+            stroke.add(new float[]{(float) (500 + 300 * Math.cos(angle)), (float) (800 + 300 * Math.sin(angle))});
+        }
+        return stroke;
+    }
+
+    private static void assertPoint(float[] expected, Greapi.Point point) {
+        assertEquals(expected[0], point.getX(), 1e-3);
+        assertEquals(expected[1], point.getY(), 1e-3);
+    }
+}
@@ -3,16 +3,19 @@ package com.motiongestures.grelib;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.Deque;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-public abstract class AbstractGestureRecognitionClient implements GestureRecognitionClient, SensorEventListener {
+public abstract class AbstractGestureRecognitionClient implements GestureRecognitionClient, SensorEventListener2 {
     private static final String TAG = "AbstractGestureRecognitionClient";
 
     private static final int ACCELEROMETER_TYPE = Sensor.TYPE_ACCELEROMETER;
@@ -20,28 +23,107 @@ public abstract class AbstractGestureRecognitionClient implements GestureRecogni
     private static final int MAGNETOMETER_TYPE = Sensor.TYPE_MAGNETIC_FIELD;
     private static final int GYROSCOPE_TYPE_ALT = Sensor.TYPE_GYROSCOPE;
     private static final int MAGNETOMETER_TYPE_ALT = Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED;
+    /** The sampling period of every sensor unless set otherwise, 100 Hz. */
+    public static final int DEFAULT_SAMPLING_PERIOD_US = 10_000;
+    private static final long SENSOR_FLUSH_TIMEOUT_MILLIS = 500;
+    private static final long SENDER_SHUTDOWN_TIMEOUT_MILLIS = 1000;
+    private static final int DEFAULT_PRE_ROLL_MILLIS = 300;
+    private static final int DEFAULT_REORDER_WINDOW_MILLIS = 30;
 
     private SensorManager sensorManager;
     private Sensor accelerometer;
     private Sensor gyroscope;
     private Sensor magnetometer;
-    protected boolean activeGesture = false;
+    //written while holding gestureLock, see startGesture
+    protected volatile boolean activeGesture = false;
 
-    private Collection<SensorSample> accelerationList = new ConcurrentLinkedDeque<>();
-    private Collection<SensorSample> gyroscopeList  = new ConcurrentLinkedDeque<>();
-    private Collection<SensorSample> magnetometerList  = new ConcurrentLinkedDeque<>();
-    private Deque<SensorSample> accelerationSamplesCache = new ConcurrentLinkedDeque<>();
-    private Deque<SensorSample> gyroscopeSamplesCache = new ConcurrentLinkedDeque<>();
-    private Deque<SensorSample> magnetometerSamplesCache = new ConcurrentLinkedDeque<>();
+    //guards the active gesture batches and serializes the producers of the send pipeline, taken by every sensor event
+    private final Object gestureLock = new Object();
+    private final SampleBatchPool batchPool = new SampleBatchPool(64);
+    final ClientMetrics metrics = new ClientMetrics();
+    private final SendPipeline sendPipeline = new SendPipeline(batchPool, new SendPipeline.Sender() {
+        @Override
+        public void send(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                         boolean activeGesture) throws IOException {
+            sendSamples(accelerations, gyroscope, magnetometer, activeGesture);
+        }
+    }, metrics);
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private volatile FlushPolicy flushPolicy = FlushPolicies.bySize(FlushPolicies.DEFAULT_BATCH_SIZE);
+    private final Runnable flushTimerTask = new Runnable() {
+        @Override
+        public void run() {
+            onFlushTimer();
+        }
+    };
+    private ScheduledExecutorService flushTimer;
+    private ScheduledFuture<?> scheduledFlush;
+    //System.nanoTime() of the first sample added to the active batches, meaningful only while some are pending
+    private long pendingSinceNanos;
+    private SampleBatch accelerationBatch = batchPool.acquire();
+    private SampleBatch gyroscopeBatch = batchPool.acquire();
+    private SampleBatch magnetometerBatch = batchPool.acquire();
+    //the pre-roll caches, guarded by gestureLock
+    private SampleRingBuffer accelerationSamplesCache;
+    private SampleRingBuffer gyroscopeSamplesCache;
+    private SampleRingBuffer magnetometerSamplesCache;
 
     private int index = 0;
-    private int maxSampleCacheSize = 30;
+
+    //the sensor settings and the flushes of the hardware FIFOs, all guarded by gestureLock
+    private int[] samplingPeriodsUs = {DEFAULT_SAMPLING_PERIOD_US, DEFAULT_SAMPLING_PERIOD_US, DEFAULT_SAMPLING_PERIOD_US};
+    private int maxReportLatencyUs = 0;
+    private int preRollMillis;
+    private boolean sensorsRegistered = false;
+    private int pendingFlushCompletions = 0;
+    private boolean gestureEndPending = false;
+    private int gestureEnds = 0;
+    //the completions the gesture start waits for, the flush of the start being the last one requested
+    private int gestureStartFlushCompletions = 0;
+    private boolean gestureStartPending = false;
+    private boolean pendingCachedSamplesActive;
+    private int gestureStarts = 0;
+
+    //the preprocessing stages of each sensor and their working buffer, guarded by gestureLock
+    private SampleProcessor sampleProcessor;
+    private SampleProcessor accelerationProcessor;
+    private SampleProcessor gyroscopeProcessor;
+    private SampleProcessor magnetometerProcessor;
+    private final float[] processedValues = new float[3];
+
+    //the fusion of the sensors on a common timeline, guarded by gestureLock, null when disabled
+    private FrameAligner frameAligner;
+    private int frameRateHz = 0;
+    private int reorderWindowMillis = DEFAULT_REORDER_WINDOW_MILLIS;
+    //the rotation of the samples into the reference frame, guarded by gestureLock, null when disabled
+    private ReferenceFrameTransform referenceFrameTransform;
+    private volatile boolean orientationTransformEnabled = false;
+    private final float[] transformedValues = new float[3];
+    private final FrameAligner.FrameListener frameListener = new FrameAligner.FrameListener() {
+        @Override
+        public void onFrame(float[] frame) {
+            addFrame(frame);
+        }
+    };
+
+    //the activity gate, all guarded by gestureLock
+    private ActivityDetector activityDetector;
+    private int lastForwardedIndex = -1;
+    private long receivedSamples;
+    private long suppressedSamples;
+    private long suppressedStreak;
+    private long activations;
+
+    //guarded by gestureLock, null when not recording
+    private SensorRecorder sensorRecorder;
 
     protected GestureRecognitionResponseListener gestureRecognitionResponseListener;
+    final ResultDispatcher resultDispatcher = new ResultDispatcher();
     protected ClientReferenceMode referenceMode = ClientReferenceMode.DEVICE_REFERENCE;
 
 
     public AbstractGestureRecognitionClient(Context context) {
+        setPreRollMillis(DEFAULT_PRE_ROLL_MILLIS);
         sensorManager = (SensorManager)context.getSystemService(Context.SENSOR_SERVICE);
         accelerometer = sensorManager.getDefaultSensor(ACCELEROMETER_TYPE);
         gyroscope = sensorManager.getDefaultSensor(GYROSCOPE_TYPE);
@@ -65,59 +147,320 @@ public abstract class AbstractGestureRecognitionClient implements GestureRecogni
 
     @Override
     public void onSensorChanged(SensorEvent sensorEvent) {
-        float x = sensorEvent.values[0];
-        float y = sensorEvent.values[1];
-        float z = sensorEvent.values[2];
-        SensorSample sample = new SensorSample(x,y,z,index);
-        switch(sensorEvent.sensor.getType())
+        onSensorSample(sensorEvent.sensor.getType(), sensorEvent.timestamp,
+                sensorEvent.values[0], sensorEvent.values[1], sensorEvent.values[2]);
+    }
+
+    //the samples of the sensors and of a SensorReplayer
+    void onSensorSample(int type, long timestamp, float x, float y, float z) {
+        int sensor = alignedSensor(type);
+        synchronized (gestureLock) {
+            if(sensorRecorder != null) {
+                sensorRecorder.record(type, timestamp, activeGesture, x, y, z);
+            }
+            metrics.onSensorEvent(sensor, timestamp);
+            if(frameAligner != null) {
+                if(sensor >= 0) {
+                    frameAligner.add(sensor, timestamp, x, y, z, frameListener);
+                }
+            } else if(referenceFrameTransform != null && sensor >= 0) {
+                addTransformedSample(type, sensor, timestamp, x, y, z);
+            } else {
+                addSample(type, x, y, z, index++);
+            }
+        }
+    }
+
+    //must be called while holding gestureLock
+    private void addSample(int type, float x, float y, float z, int sampleIndex) {
+        SampleProcessor processor = processorFor(type);
+        if(processor != null) {
+            processedValues[0] = x;
+            processedValues[1] = y;
+            processedValues[2] = z;
+            if(!processor.process(processedValues)) {
+                return;
+            }
+            x = processedValues[0];
+            y = processedValues[1];
+            z = processedValues[2];
+        }
+        boolean forward = activeGesture;
+        if(activeGesture) {
+            receivedSamples++;
+            if(activityDetector != null) {
+                forward = updateActivityGate(type, x, y, z);
+            }
+            if(forward) {
+                lastForwardedIndex = sampleIndex;
+                suppressedStreak = 0;
+            } else {
+                suppressedSamples++;
+                suppressedStreak++;
+            }
+        }
+        boolean startsBatch = forward && pendingSamples() == 0;
+        switch(type)
         {
             case ACCELEROMETER_TYPE:
-                if(activeGesture) {
-                    accelerationList.add(sample);
+                if(forward) {
+                    accelerationBatch.add(x,y,z,sampleIndex);
                 }
-                addSampleToCache(accelerationSamplesCache,sample);
+                accelerationSamplesCache.add(x,y,z,sampleIndex);
                 break;
             case GYROSCOPE_TYPE:
             case GYROSCOPE_TYPE_ALT:
-                if(activeGesture) {
-                    gyroscopeList.add(sample);
+                if(forward) {
+                    gyroscopeBatch.add(x,y,z,sampleIndex);
                 }
-                addSampleToCache(gyroscopeSamplesCache,sample);
+                gyroscopeSamplesCache.add(x,y,z,sampleIndex);
                 break;
             case MAGNETOMETER_TYPE:
             case MAGNETOMETER_TYPE_ALT:
-                if(activeGesture) {
-                    magnetometerList.add(sample);
+                if(forward) {
+                    magnetometerBatch.add(x,y,z,sampleIndex);
                 }
-                addSampleToCache(magnetometerSamplesCache,sample);
+                magnetometerSamplesCache.add(x,y,z,sampleIndex);
                 break;
         }
-        index++;
-        if(shouldSendData()) {
-            try {
-                sendSamples(accelerationList,gyroscopeList,magnetometerList);
-                accelerationList.clear();
-                gyroscopeList.clear();
-                magnetometerList.clear();
-            } catch (IOException ex) {
-                Log.e(TAG, "Error sending acceleration data to the server", ex);
+        int pending = pendingSamples();
+        if(pending > 0) {
+            //one clock read per sample while a batch is pending and none while idle, the FIFO of a batching sensor
+            //delivers hundreds of samples at once
+            long now = System.nanoTime();
+            if(startsBatch) {
+                pendingSinceNanos = now;
+            }
+            if(flushPolicy.shouldFlushOnSample(pending, now - pendingSinceNanos)) {
+                sealActiveBatches(overflowPolicy);
+            }
+        }
+    }
+
+    //must be called while holding gestureLock, the magnetometer samples only feed the orientation estimate
+    private void addTransformedSample(int type, int sensor, long timestamp, float x, float y, float z) {
+        referenceFrameTransform.setReferenceMode(referenceMode);
+        referenceFrameTransform.setHeadingHeld(activeGesture);
+        if(sensor == FrameAligner.MAGNETOMETER) {
+            referenceFrameTransform.onMagnetometer(x, y, z);
+            return;
+        }
+        transformedValues[0] = x;
+        transformedValues[1] = y;
+        transformedValues[2] = z;
+        if(sensor == FrameAligner.ACCELEROMETER) {
+            referenceFrameTransform.onAccelerometer(transformedValues, 0);
+        } else {
+            referenceFrameTransform.onGyroscope(timestamp, transformedValues, 0);
+        }
+        addSample(type, transformedValues[0], transformedValues[1], transformedValues[2], index++);
+    }
+
+    //must be called while holding gestureLock, every sensor of a frame gets the same index
+    private void addFrame(float[] frame) {
+        int frameIndex = index++;
+        if(referenceFrameTransform != null) {
+            referenceFrameTransform.setReferenceMode(referenceMode);
+            referenceFrameTransform.setHeadingHeld(activeGesture);
+            referenceFrameTransform.onFrame(frame, 1.0 / frameRateHz);
+            if(accelerometer != null) {
+                addSample(ACCELEROMETER_TYPE, frame[0], frame[1], frame[2], frameIndex);
+            }
+            if(gyroscope != null) {
+                addSample(GYROSCOPE_TYPE, frame[3], frame[4], frame[5], frameIndex);
             }
+            return;
+        }
+        if(accelerometer != null) {
+            addSample(ACCELEROMETER_TYPE, frame[0], frame[1], frame[2], frameIndex);
+        }
+        if(gyroscope != null) {
+            addSample(GYROSCOPE_TYPE, frame[3], frame[4], frame[5], frameIndex);
+        }
+        if(magnetometer != null) {
+            addSample(MAGNETOMETER_TYPE, frame[6], frame[7], frame[8], frameIndex);
+        }
+    }
+
+    private static int alignedSensor(int type) {
+        switch(type) {
+            case ACCELEROMETER_TYPE:
+                return FrameAligner.ACCELEROMETER;
+            case GYROSCOPE_TYPE:
+            case GYROSCOPE_TYPE_ALT:
+                return FrameAligner.GYROSCOPE;
+            case MAGNETOMETER_TYPE:
+            case MAGNETOMETER_TYPE_ALT:
+                return FrameAligner.MAGNETOMETER;
+            default:
+                return -1;
         }
     }
 
-    protected abstract void sendSamples(Iterable<? extends SensorSample> accelerations,
+    //must be called while holding gestureLock
+    private SampleProcessor processorFor(int type) {
+        switch(type) {
+            case ACCELEROMETER_TYPE:
+                return accelerationProcessor;
+            case GYROSCOPE_TYPE:
+            case GYROSCOPE_TYPE_ALT:
+                return gyroscopeProcessor;
+            case MAGNETOMETER_TYPE:
+            case MAGNETOMETER_TYPE_ALT:
+                return magnetometerProcessor;
+            default:
+                return null;
+        }
+    }
+
+    //must be called while holding gestureLock, returns whether the sample should be sent
+    private boolean updateActivityGate(int type, float x, float y, float z) {
+        boolean wasMoving = activityDetector.isActive();
+        boolean moving;
+        switch(type) {
+            case ACCELEROMETER_TYPE:
+                moving = activityDetector.onAcceleration(x, y, z);
+                break;
+            case GYROSCOPE_TYPE:
+            case GYROSCOPE_TYPE_ALT:
+                moving = activityDetector.onGyroscope(x, y, z);
+                break;
+            default:
+                moving = wasMoving;
+                break;
+        }
+        if(moving && !wasMoving) {
+            activations++;
+            sendPreRoll();
+        } else if(!moving && wasMoving && pendingSamples() > 0) {
+            //do not hold the end of the motion until the next one
+            sealActiveBatches(overflowPolicy);
+        }
+        return moving;
+    }
+
+    //sends the cached samples that were suppressed just before the motion started
+    private void sendPreRoll() {
+        SampleBatch accelerations = batchPool.acquire();
+        SampleBatch gyroscopes = batchPool.acquire();
+        SampleBatch magnetometers = batchPool.acquire();
+        accelerationSamplesCache.snapshot(accelerations);
+        gyroscopeSamplesCache.snapshot(gyroscopes);
+        magnetometerSamplesCache.snapshot(magnetometers);
+        accelerations.removeUpToIndex(lastForwardedIndex);
+        gyroscopes.removeUpToIndex(lastForwardedIndex);
+        magnetometers.removeUpToIndex(lastForwardedIndex);
+        int count = accelerations.size() + gyroscopes.size() + magnetometers.size();
+        if(count > 0 && sendPipeline.handOff(accelerations, gyroscopes, magnetometers, true, overflowPolicy)) {
+            //the cache may also hold samples from before the gesture, they were never counted as suppressed
+            long sent = Math.min(count, suppressedStreak);
+            suppressedSamples -= sent;
+            suppressedStreak -= sent;
+        } else {
+            batchPool.release(accelerations);
+            batchPool.release(gyroscopes);
+            batchPool.release(magnetometers);
+        }
+    }
+
+    /**
+     * Sends samples given as objects. The default implementation copies them into pooled batches and calls
+     * {@link #sendSamples(SampleBatch, SampleBatch, SampleBatch, boolean)} with the current gesture state.
+     */
+    protected void sendSamples(Iterable<? extends SensorSample> accelerations,
                                Iterable<? extends SensorSample> gyroscope,
-                               Iterable<? extends SensorSample> magnetometer) throws IOException;
+                               Iterable<? extends SensorSample> magnetometer) throws IOException {
+        SampleBatch accelerationCopy = toBatch(accelerations);
+        SampleBatch gyroscopeCopy = toBatch(gyroscope);
+        SampleBatch magnetometerCopy = toBatch(magnetometer);
+        try {
+            sendSamples(accelerationCopy, gyroscopeCopy, magnetometerCopy, activeGesture);
+        } finally {
+            releaseCopy(accelerations, accelerationCopy);
+            releaseCopy(gyroscope, gyroscopeCopy);
+            releaseCopy(magnetometer, magnetometerCopy);
+        }
+    }
+
+    /**
+     * Sends batches of samples. It is called on the sender thread and the batches are only valid for the
+     * duration of the call.
+     */
+    protected abstract void sendSamples(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                                        boolean activeGesture) throws IOException;
+
+    //the samples themselves when they are a batch already, otherwise a copy in a batch of the pool
+    private SampleBatch toBatch(Iterable<? extends SensorSample> samples) {
+        if(samples instanceof SampleBatch) {
+            return (SampleBatch) samples;
+        }
+        SampleBatch batch = batchPool.acquire();
+        for(SensorSample sample : samples) {
+            batch.add(sample.getX(), sample.getY(), sample.getZ(), sample.getIndex());
+        }
+        return batch;
+    }
+
+    private void releaseCopy(Iterable<? extends SensorSample> samples, SampleBatch batch) {
+        if(batch != samples) {
+            batchPool.release(batch);
+        }
+    }
 
-    private void addSampleToCache(Deque<SensorSample> samplesCache, SensorSample sensorSample) {
-        samplesCache.addLast(sensorSample);
-        while(samplesCache.size() > maxSampleCacheSize) {
-            samplesCache.removeFirst();
+    //must be called while holding gestureLock
+    private void sealActiveBatches(OverflowPolicy policy) {
+        if(sendPipeline.handOff(accelerationBatch, gyroscopeBatch, magnetometerBatch, activeGesture, policy)) {
+            accelerationBatch = batchPool.acquire();
+            gyroscopeBatch = batchPool.acquire();
+            magnetometerBatch = batchPool.acquire();
         }
     }
 
-    private boolean shouldSendData() {
-        return accelerationList.size() >= 100 || gyroscopeList.size() >= 100 || magnetometerList.size() >= 100;
+    //must be called while holding gestureLock
+    private int pendingSamples() {
+        return Math.max(accelerationBatch.size(), Math.max(gyroscopeBatch.size(), magnetometerBatch.size()));
+    }
+
+    private void onFlushTimer() {
+        synchronized (gestureLock) {
+            int pending = pendingSamples();
+            if(activeGesture && pending > 0 && flushPolicy.shouldFlushOnTimer(pending, System.nanoTime() - pendingSinceNanos)) {
+                sealActiveBatches(overflowPolicy);
+            }
+        }
+    }
+
+    //the flush policy timer is stopped by close, the next gesture starts it again
+    private synchronized void restartFlushTimer() {
+        if(scheduledFlush == null) {
+            scheduleFlushTimer(flushPolicy.getTimerPeriodMillis());
+        }
+    }
+
+    private synchronized void scheduleFlushTimer(long periodMillis) {
+        if(scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if(periodMillis <= 0) {
+            return;
+        }
+        scheduledFlush = sensorTimer().scheduleAtFixedRate(flushTimerTask, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //the timer of the flush policy and of the sensor flushes
+    private synchronized ScheduledExecutorService sensorTimer() {
+        if(flushTimer == null) {
+            flushTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "grelib-flush-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return flushTimer;
     }
 
     @Override
@@ -125,6 +468,302 @@ public abstract class AbstractGestureRecognitionClient implements GestureRecogni
 
     }
 
+    /**
+     * Sets how much sensor data, in milliseconds, is kept before a gesture starts and sent as cached samples
+     * once the connection is established. Changing it discards the samples cached so far.
+     */
+    public void setPreRollMillis(int preRollMillis) {
+        if(preRollMillis < 0) {
+            throw new IllegalArgumentException("Negative pre-roll: " + preRollMillis);
+        }
+        synchronized (gestureLock) {
+            this.preRollMillis = preRollMillis;
+            createSampleCaches();
+        }
+    }
+
+    //must be called while holding gestureLock, the caches hold the samples output by the processors
+    private void createSampleCaches() {
+        accelerationSamplesCache = new SampleRingBuffer(preRollSamples(samplingPeriodsUs[0]));
+        gyroscopeSamplesCache = new SampleRingBuffer(preRollSamples(samplingPeriodsUs[1]));
+        magnetometerSamplesCache = new SampleRingBuffer(preRollSamples(samplingPeriodsUs[2]));
+    }
+
+    //must be called while holding gestureLock
+    private int preRollSamples(int samplingPeriodUs) {
+        long inputPeriodUs = frameRateHz > 0 ? TimeUnit.SECONDS.toMicros(1) / frameRateHz : samplingPeriodUs;
+        long outputPeriodUs = inputPeriodUs * SampleProcessors.decimationOf(sampleProcessor);
+        return (int) ((preRollMillis * 1000L + outputPeriodUs - 1) / outputPeriodUs);
+    }
+
+    public int getPreRollMillis() {
+        synchronized (gestureLock) {
+            return preRollMillis;
+        }
+    }
+
+    /**
+     * Sets the sampling period of each sensor, {@link #DEFAULT_SAMPLING_PERIOD_US} by default. Registered sensors are
+     * registered again, and the pre-roll caches are resized for the new rates, discarding the samples cached so far.
+     */
+    public void setSamplingPeriodsUs(int accelerometerUs, int gyroscopeUs, int magnetometerUs) {
+        if(accelerometerUs <= 0 || gyroscopeUs <= 0 || magnetometerUs <= 0) {
+            throw new IllegalArgumentException("Invalid sampling period");
+        }
+        synchronized (gestureLock) {
+            samplingPeriodsUs = new int[]{accelerometerUs, gyroscopeUs, magnetometerUs};
+            createFrameAligner();
+            createSampleCaches();
+        }
+        reregisterSensorListeners();
+    }
+
+    /**
+     * The sampling periods of the accelerometer, the gyroscope and the magnetometer.
+     */
+    public int[] getSamplingPeriodsUs() {
+        synchronized (gestureLock) {
+            return samplingPeriodsUs.clone();
+        }
+    }
+
+    /**
+     * Lets the sensors keep their events in the FIFO of the sensor hub for up to the given delay and deliver them in
+     * bursts, so that the application processor is not woken for every sample. The FIFOs are flushed when a gesture
+     * starts and ends, and both wait for the flush, so batching adds no latency to the result, but the samples of an
+     * active gesture are sent in bursts too. Pass 0, the default, to receive every event as soon as it is sampled.
+     * Sensors without a FIFO ignore it. Registered sensors are registered again. Each FIFO delivers its burst on its
+     * own, so the reorder window of {@link #setFrameRate(int, int)} is widened by the latency.
+     */
+    public void setMaxReportLatencyUs(int maxReportLatencyUs) {
+        if(maxReportLatencyUs < 0) {
+            throw new IllegalArgumentException("Negative report latency: " + maxReportLatencyUs);
+        }
+        synchronized (gestureLock) {
+            this.maxReportLatencyUs = maxReportLatencyUs;
+            createFrameAligner();
+        }
+        reregisterSensorListeners();
+    }
+
+    public int getMaxReportLatencyUs() {
+        synchronized (gestureLock) {
+            return maxReportLatencyUs;
+        }
+    }
+
+    /**
+     * Sets what happens to a full batch when the send queue is full. Defaults to {@link OverflowPolicy#DROP_NEWEST}.
+     * The cached samples and the last samples of a gesture are always queued as if the policy were {@link OverflowPolicy#BLOCK}.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets when the samples of an active gesture are sent. Defaults to {@link FlushPolicies#bySize(int)} with
+     * {@link FlushPolicies#DEFAULT_BATCH_SIZE} samples. The last samples of a gesture are always sent when it ends.
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        if(flushPolicy == null) {
+            throw new IllegalArgumentException("The flush policy cannot be null");
+        }
+        this.flushPolicy = flushPolicy;
+        scheduleFlushTimer(flushPolicy.getTimerPeriodMillis());
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Aligns the sensors on a common timeline using the hardware timestamps of their events: every tick of the given
+     * rate produces one sample per sensor, interpolated from the events around it, and all the samples of a tick share
+     * the same index. Events are waited for during the default reorder window of 30 ms, which adds to the latency.
+     * Pass 0, the default, to send the events as they arrive. The pre-roll caches are resized for the frame rate,
+     * discarding the samples cached so far.
+     */
+    public void setFrameRate(int frameRateHz) {
+        setFrameRate(frameRateHz, DEFAULT_REORDER_WINDOW_MILLIS);
+    }
+
+    /**
+     * Same as {@link #setFrameRate(int)} with the given reorder window. Events arriving later than that are dropped.
+     * With a report latency, see {@link #setMaxReportLatencyUs(int)}, the window also waits for the bursts of the
+     * other sensors, and the frames held for it are sent when the gesture ends.
+     */
+    public void setFrameRate(int frameRateHz, int reorderWindowMillis) {
+        if(frameRateHz < 0) {
+            throw new IllegalArgumentException("Negative frame rate: " + frameRateHz);
+        }
+        if(reorderWindowMillis < 0) {
+            throw new IllegalArgumentException("Negative reorder window: " + reorderWindowMillis);
+        }
+        synchronized (gestureLock) {
+            this.frameRateHz = frameRateHz;
+            this.reorderWindowMillis = reorderWindowMillis;
+            createFrameAligner();
+            createSampleCaches();
+        }
+    }
+
+    //must be called while holding gestureLock, a new aligner starts its timeline with the next events
+    private void createFrameAligner() {
+        if(frameRateHz == 0) {
+            frameAligner = null;
+            return;
+        }
+        boolean[] present = {accelerometer != null, gyroscope != null, magnetometer != null};
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(reorderWindowMillis) + TimeUnit.MICROSECONDS.toNanos(maxReportLatencyUs);
+        int fastestPeriodUs = Math.min(samplingPeriodsUs[0], Math.min(samplingPeriodsUs[1], samplingPeriodsUs[2]));
+        long windowEvents = windowNanos / TimeUnit.MICROSECONDS.toNanos(fastestPeriodUs);
+        frameAligner = new FrameAligner(TimeUnit.SECONDS.toNanos(1) / frameRateHz, windowNanos,
+                (int) Math.min(Integer.MAX_VALUE, FrameAligner.CAPACITY + windowEvents), present);
+    }
+
+    public int getFrameRate() {
+        synchronized (gestureLock) {
+            return frameRateHz;
+        }
+    }
+
+    /**
+     * Fuses the accelerometer, gyroscope and magnetometer into an orientation estimate on the device, and sends the
+     * acceleration and rotation rate rotated into the frame of the reference mode instead of the device frame: z up,
+     * y along the heading the device had when the gesture started. The magnetometer samples then only correct the
+     * estimate and are not sent, and the remote client sends the requests without the Magnetometer message and in
+     * DEVICE_REFERENCE, as the server has nothing left to rotate. The samples are left in the device frame in
+     * DEVICE_REFERENCE. Disabled by default.
+     */
+    public void setOrientationTransformEnabled(boolean enabled) {
+        synchronized (gestureLock) {
+            referenceFrameTransform = enabled ? new ReferenceFrameTransform() : null;
+            orientationTransformEnabled = enabled;
+        }
+    }
+
+    public boolean isOrientationTransformEnabled() {
+        return orientationTransformEnabled;
+    }
+
+    /**
+     * Sets the preprocessing applied to the samples of every sensor before they are cached, gated and sent,
+     * for example {@link SampleProcessors#downsample(int, int)} to send 50 Hz instead of 100 Hz.
+     * Each sensor gets its own {@link SampleProcessor#copy()}. Pass null, the default, to send the raw samples.
+     * The pre-roll caches hold the processed samples, so they are resized for the output rate of the built-in
+     * decimating stages, discarding the samples cached so far. Other processors are taken to keep the sensor rate.
+     */
+    public void setSampleProcessor(SampleProcessor sampleProcessor) {
+        synchronized (gestureLock) {
+            this.sampleProcessor = sampleProcessor;
+            accelerationProcessor = sampleProcessor == null ? null : sampleProcessor.copy();
+            gyroscopeProcessor = sampleProcessor == null ? null : sampleProcessor.copy();
+            magnetometerProcessor = sampleProcessor == null ? null : sampleProcessor.copy();
+            createSampleCaches();
+        }
+    }
+
+    public SampleProcessor getSampleProcessor() {
+        synchronized (gestureLock) {
+            return sampleProcessor;
+        }
+    }
+
+    /**
+     * Enables the activity gate: during a gesture, samples are only sent while the detector reports motion,
+     * preceded by the pre-roll cached before the motion started. Pass null, the default, to send every sample.
+     * The detector is reset and must not be shared with another client.
+     */
+    public void setActivityDetector(ActivityDetector activityDetector) {
+        synchronized (gestureLock) {
+            if(activityDetector != null) {
+                activityDetector.reset();
+            }
+            this.activityDetector = activityDetector;
+        }
+    }
+
+    public ActivityDetector getActivityDetector() {
+        synchronized (gestureLock) {
+            return activityDetector;
+        }
+    }
+
+    public ActivityGateStats getActivityGateStats() {
+        synchronized (gestureLock) {
+            return new ActivityGateStats(receivedSamples, suppressedSamples, activations);
+        }
+    }
+
+    /**
+     * Records every sample received from the sensors, with the state of the gesture, until it is replaced.
+     * Pass null, the default, to stop recording. Closing the recorder is left to the caller.
+     */
+    public void setSensorRecorder(SensorRecorder sensorRecorder) {
+        synchronized (gestureLock) {
+            this.sensorRecorder = sensorRecorder;
+        }
+    }
+
+    public SensorRecorder getSensorRecorder() {
+        synchronized (gestureLock) {
+            return sensorRecorder;
+        }
+    }
+
+    public SendPipelineStats getSendPipelineStats() {
+        return sendPipeline.getStats();
+    }
+
+    /**
+     * Enables the recording of the latency, throughput and sensor timing metrics returned by {@link #getMetrics()}.
+     * Disabled by default, recording then costs one volatile read per sensor event, batch and request.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        metrics.setEnabled(enabled);
+    }
+
+    public boolean isMetricsEnabled() {
+        return metrics.isEnabled();
+    }
+
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
+    /**
+     * Sets a listener receiving the results as primitive labels and interned names, in addition to the
+     * {@link GestureRecognitionResponseListener}. Pass null, the default, to remove it.
+     */
+    public void setGestureResultListener(GestureResultListener gestureResultListener) {
+        resultDispatcher.setResultListener(gestureResultListener);
+    }
+
+    public GestureResultListener getGestureResultListener() {
+        return resultDispatcher.getResultListener();
+    }
+
+    /**
+     * Sets the executor calling the listeners, for example one posting to the main thread. Pass null, the default,
+     * to call them on the thread producing the results: the response thread of the connection for the remote client,
+     * the sender thread for the local one. A slow listener then delays the next results.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        resultDispatcher.setCallbackExecutor(callbackExecutor);
+    }
+
+    public Executor getCallbackExecutor() {
+        return resultDispatcher.getCallbackExecutor();
+    }
+
     public GestureRecognitionResponseListener getGestureRecognitionResponseListener() {
         return gestureRecognitionResponseListener;
     }
@@ -136,38 +775,292 @@ public abstract class AbstractGestureRecognitionClient implements GestureRecogni
 
     public void setGestureRecognitionResponseListener(GestureRecognitionResponseListener gestureRecognitionResponseListener) {
         this.gestureRecognitionResponseListener = gestureRecognitionResponseListener;
+        resultDispatcher.setResponseListener(gestureRecognitionResponseListener);
+    }
+
+    /**
+     * Stops the threads of the client: the sender once the samples already queued are sent, and the timer of the
+     * flush policy and of the sensor flushes. They no longer keep the client alive, and start again if it is used.
+     */
+    public void close() {
+        if(!sendPipeline.shutdown(SENDER_SHUTDOWN_TIMEOUT_MILLIS)) {
+            Log.e(TAG, "The sender is still sending, it stops once done");
+        }
+        synchronized (this) {
+            if(scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if(flushTimer != null) {
+                //a pending gesture end timeout still runs
+                flushTimer.shutdown();
+                flushTimer = null;
+            }
+        }
     }
 
     protected void resetSamplesList() {
-        index = 0;
-        accelerationList.clear();
-        gyroscopeList.clear();
-        magnetometerList.clear();
+        restartFlushTimer();
+        boolean flush;
+        int gestureStart;
+        synchronized (gestureLock) {
+            if(gestureEndPending) {
+                //the next gesture does not wait for the FIFOs to deliver the end of the previous one
+                endGesture();
+            }
+            gestureStartPending = false;
+            //renumber the cached samples so they stay before the first sample of the gesture
+            accelerationSamplesCache.shiftIndexes(-index);
+            gyroscopeSamplesCache.shiftIndexes(-index);
+            magnetometerSamplesCache.shiftIndexes(-index);
+            index = 0;
+            lastForwardedIndex = -1;
+            metrics.onGestureStart();
+            if(activityDetector != null) {
+                activityDetector.reset();
+            }
+            accelerationBatch.clear();
+            gyroscopeBatch.clear();
+            magnetometerBatch.clear();
+            flush = isBatchingSensors();
+            if(flush) {
+                pendingFlushCompletions += registeredSensorCount();
+                gestureStartFlushCompletions = pendingFlushCompletions;
+            } else {
+                gestureStartFlushCompletions = 0;
+            }
+            gestureStart = ++gestureStarts;
+        }
+        if(!flush) {
+            return;
+        }
+        //the samples just before the gesture are in the FIFOs, the gesture starts once they are in the caches
+        requestSensorFlush(-1);
+        final int timedOutGestureStart = gestureStart;
+        sensorTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (gestureLock) {
+                    if(gestureStartFlushCompletions > 0 && gestureStarts == timedOutGestureStart) {
+                        Log.e(TAG, "The sensors did not complete their flush, starting the gesture");
+                        gestureStartFlushCompletions = 0;
+                        startPendingGesture();
+                    }
+                }
+            }
+        }, SENSOR_FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     protected void sendLastSamples() {
-        //send the last samples
+        int gestureEnd;
+        synchronized (gestureLock) {
+            metrics.onGestureEnd();
+            if(!isBatchingSensors()) {
+                endGesture();
+                return;
+            }
+            //the last samples of the gesture are still in the FIFOs, the gesture ends once they are flushed
+            gestureEndPending = true;
+            gestureEnd = ++gestureEnds;
+            pendingFlushCompletions += registeredSensorCount();
+        }
+        requestSensorFlush(gestureEnd);
+        final int timedOutGestureEnd = gestureEnd;
+        sensorTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (gestureLock) {
+                    if(gestureEndPending && gestureEnds == timedOutGestureEnd) {
+                        Log.e(TAG, "The sensors did not complete their flush, ending the gesture");
+                        pendingFlushCompletions = 0;
+                        endGesture();
+                    }
+                }
+            }
+        }, SENSOR_FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    //must be called while holding gestureLock, sends the last samples
+    private void endGesture() {
+        //a gesture still waiting for its start flush sends its cached samples first
+        gestureStartFlushCompletions = 0;
+        startPendingGesture();
+        gestureEndPending = false;
+        if(frameAligner != null && maxReportLatencyUs > 0) {
+            //the window waiting for the bursts holds the last frames of the gesture, the FIFOs are flushed by now
+            frameAligner.drain(frameListener);
+        }
         activeGesture = false;
+        sealActiveBatches(OverflowPolicy.BLOCK);
+    }
+
+    //must be called while holding gestureLock
+    private boolean isBatchingSensors() {
+        return sensorsRegistered && maxReportLatencyUs > 0 && registeredSensorCount() > 0;
+    }
+
+    private int registeredSensorCount() {
+        return (accelerometer != null ? 1 : 0) + (gyroscope != null ? 1 : 0) + (magnetometer != null ? 1 : 0);
+    }
+
+    //asks the sensors to deliver the events in their FIFOs, the completions were added to pendingFlushCompletions,
+    //gestureEnd is -1 for the flush of a gesture start
+    private void requestSensorFlush(int gestureEnd) {
+        if(sensorManager.flush(this)) {
+            return;
+        }
+        synchronized (gestureLock) {
+            pendingFlushCompletions = Math.max(0, pendingFlushCompletions - registeredSensorCount());
+            if(gestureEnd < 0) {
+                gestureStartFlushCompletions = 0;
+                startPendingGesture();
+            } else if(gestureEndPending && gestureEnds == gestureEnd) {
+                endGesture();
+            }
+        }
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        synchronized (gestureLock) {
+            if(pendingFlushCompletions > 0) {
+                pendingFlushCompletions--;
+            }
+            if(gestureStartFlushCompletions > 0 && --gestureStartFlushCompletions == 0) {
+                //the samples from before the gesture are all in the caches
+                startPendingGesture();
+            }
+            //the completions arrive in order, so none pending means the flush of the gesture end is complete too
+            if(pendingFlushCompletions == 0 && gestureEndPending) {
+                endGesture();
+            }
+        }
+    }
+
+    /**
+     * Queues the samples of the pre-roll caches, flagged with the current value of {@link #activeGesture}.
+     */
+    protected void sendCachedSamples() throws IOException {
+        synchronized (gestureLock) {
+            SampleBatch accelerations = batchPool.acquire();
+            SampleBatch gyroscopes = batchPool.acquire();
+            SampleBatch magnetometers = batchPool.acquire();
+            accelerationSamplesCache.snapshot(accelerations);
+            gyroscopeSamplesCache.snapshot(gyroscopes);
+            magnetometerSamplesCache.snapshot(magnetometers);
+            lastForwardedIndex = index - 1;
+            sendPipeline.handOff(accelerations, gyroscopes, magnetometers, activeGesture, OverflowPolicy.BLOCK);
+        }
+    }
+
+    /**
+     * Queues the samples of the pre-roll caches, flagged with cachedSamplesActive, then forwards the new samples
+     * as part of the gesture. Both happen under the gesture lock, so a sample received meanwhile is sent exactly
+     * once: either with the cached samples or in the first batch of the gesture. With batching sensors, this waits
+     * for the flush requested by {@link #resetSamplesList()}, so that the samples sampled before the gesture go to
+     * the caches and not to the gesture: it returns at once and the caches are queued once the flush completes.
+     */
+    protected void startGesture(boolean cachedSamplesActive) throws IOException {
+        synchronized (gestureLock) {
+            if(gestureStartFlushCompletions > 0) {
+                gestureStartPending = true;
+                pendingCachedSamplesActive = cachedSamplesActive;
+                return;
+            }
+            beginGesture(cachedSamplesActive);
+        }
+    }
+
+    //must be called while holding gestureLock
+    private void startPendingGesture() {
+        if(!gestureStartPending) {
+            return;
+        }
+        gestureStartPending = false;
         try {
-            sendSamples(accelerationList,gyroscopeList,magnetometerList);
+            beginGesture(pendingCachedSamplesActive);
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.e(TAG, "Cannot queue the cached samples", e);
         }
     }
 
-    protected void sendCachedSamples() throws IOException {
-        sendSamples(accelerationSamplesCache,gyroscopeSamplesCache,magnetometerSamplesCache);
+    //must be called while holding gestureLock
+    private void beginGesture(boolean cachedSamplesActive) throws IOException {
+        //what was forwarded before the start is in the caches too
+        accelerationBatch.clear();
+        gyroscopeBatch.clear();
+        magnetometerBatch.clear();
+        activeGesture = cachedSamplesActive;
+        try {
+            sendCachedSamples();
+        } finally {
+            activeGesture = true;
+        }
     }
 
     protected void unregisterSensorListeners() {
+        synchronized (gestureLock) {
+            sensorsRegistered = false;
+            //unregistering drops the events left in the FIFOs
+            pendingFlushCompletions = 0;
+            gestureStartFlushCompletions = 0;
+            startPendingGesture();
+            if(gestureEndPending) {
+                endGesture();
+            }
+        }
         sensorManager.unregisterListener(this,accelerometer);
         sensorManager.unregisterListener(this,gyroscope);
         sensorManager.unregisterListener(this,magnetometer);
     }
 
     protected void registerSensorListeners() {
-        sensorManager.registerListener(this, accelerometer, 10_000);
-        sensorManager.registerListener(this, gyroscope, 10_000);
-        sensorManager.registerListener(this, magnetometer, 10_000);
+        int[] periods;
+        int latency;
+        synchronized (gestureLock) {
+            if(frameAligner != null) {
+                //the timeline restarts after a pause
+                frameAligner.reset();
+            }
+            if(referenceFrameTransform != null) {
+                referenceFrameTransform.reset();
+            }
+            //the filters and the decimation phase start over too, the samples before the pause are not continued
+            resetProcessor(accelerationProcessor);
+            resetProcessor(gyroscopeProcessor);
+            resetProcessor(magnetometerProcessor);
+            metrics.restartSensors();
+            sensorsRegistered = true;
+            periods = samplingPeriodsUs;
+            latency = maxReportLatencyUs;
+        }
+        registerSensorListener(accelerometer, periods[0], latency);
+        registerSensorListener(gyroscope, periods[1], latency);
+        registerSensorListener(magnetometer, periods[2], latency);
+    }
+
+    private static void resetProcessor(SampleProcessor processor) {
+        if(processor != null) {
+            processor.reset();
+        }
+    }
+
+    private void registerSensorListener(Sensor sensor, int samplingPeriodUs, int maxReportLatencyUs) {
+        if(maxReportLatencyUs > 0) {
+            sensorManager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs);
+        } else {
+            sensorManager.registerListener(this, sensor, samplingPeriodUs);
+        }
+    }
+
+    private void reregisterSensorListeners() {
+        boolean registered;
+        synchronized (gestureLock) {
+            registered = sensorsRegistered;
+        }
+        if(registered) {
+            unregisterSensorListeners();
+            registerSensorListeners();
+        }
     }
 }
@@ -0,0 +1,185 @@
+package com.motiongestures.grelib;
+
+/**
+ * Streaming motion detector used to stop sending samples while the device is still.
+ * It keeps a sliding window over the accelerometer and gyroscope samples and measures the standard deviation of the
+ * acceleration magnitude and the RMS angular velocity. Motion starts when either measure reaches its start threshold
+ * and stops once both stay below their stop thresholds for the hold time, so the stop thresholds being lower than the
+ * start ones keeps the state from flickering around a single threshold.
+ * A detector holds the state of one sensor stream and must only be used by one client.
+ */
+public final class ActivityDetector {
+    /** 250 ms at the 100 Hz sampling rate of the client. */
+    public static final int DEFAULT_WINDOW_SAMPLES = 25;
+    /** 0.5 s at the 100 Hz sampling rate of the client. */
+    public static final int DEFAULT_HOLD_SAMPLES = 50;
+    public static final float DEFAULT_ACCELERATION_START = 0.15f;
+    public static final float DEFAULT_ACCELERATION_STOP = 0.08f;
+    public static final float DEFAULT_GYROSCOPE_START = 0.1f;
+    public static final float DEFAULT_GYROSCOPE_STOP = 0.05f;
+
+    private final int windowSamples;
+    private final double accelerationStartVariance;
+    private final double accelerationStopVariance;
+    private final double gyroscopeStartEnergy;
+    private final double gyroscopeStopEnergy;
+    private final int holdSamples;
+
+    private final double[] accelerationWindow;
+    private final double[] gyroscopeWindow;
+    private int accelerationPosition;
+    private int accelerationCount;
+    private double accelerationSum;
+    private double accelerationSquareSum;
+    private int gyroscopePosition;
+    private int gyroscopeCount;
+    private double gyroscopeSum;
+    private boolean active;
+    private int quietSamples;
+
+    /**
+     * A detector with the default thresholds, suited to hand-held gestures.
+     */
+    public ActivityDetector() {
+        this(DEFAULT_WINDOW_SAMPLES, DEFAULT_ACCELERATION_START, DEFAULT_ACCELERATION_STOP,
+                DEFAULT_GYROSCOPE_START, DEFAULT_GYROSCOPE_STOP, DEFAULT_HOLD_SAMPLES);
+    }
+
+    /**
+     * @param windowSamples the number of samples of each sensor the measures are computed on
+     * @param accelerationStart standard deviation of the acceleration magnitude, in m/s^2, starting motion
+     * @param accelerationStop standard deviation of the acceleration magnitude below which motion may stop
+     * @param gyroscopeStart RMS angular velocity, in rad/s, starting motion
+     * @param gyroscopeStop RMS angular velocity below which motion may stop
+     * @param holdSamples the number of consecutive accelerometer samples below both stop thresholds ending motion
+     */
+    public ActivityDetector(int windowSamples, float accelerationStart, float accelerationStop,
+                            float gyroscopeStart, float gyroscopeStop, int holdSamples) {
+        if(windowSamples < 2 || holdSamples < 0) {
+            throw new IllegalArgumentException("Invalid window " + windowSamples + " or hold " + holdSamples);
+        }
+        if(!(accelerationStop >= 0 && accelerationStop <= accelerationStart)
+                || !(gyroscopeStop >= 0 && gyroscopeStop <= gyroscopeStart)) {
+            throw new IllegalArgumentException("Stop thresholds must be positive and not above the start thresholds");
+        }
+        this.windowSamples = windowSamples;
+        this.accelerationStartVariance = (double) accelerationStart * accelerationStart;
+        this.accelerationStopVariance = (double) accelerationStop * accelerationStop;
+        this.gyroscopeStartEnergy = (double) gyroscopeStart * gyroscopeStart;
+        this.gyroscopeStopEnergy = (double) gyroscopeStop * gyroscopeStop;
+        this.holdSamples = holdSamples;
+        accelerationWindow = new double[windowSamples];
+        gyroscopeWindow = new double[windowSamples];
+    }
+
+    /**
+     * Adds an accelerometer sample and returns whether motion is present.
+     */
+    public boolean onAcceleration(float x, float y, float z) {
+        double magnitude = Math.sqrt((double) x * x + (double) y * y + (double) z * z);
+        double removed = accelerationWindow[accelerationPosition];
+        accelerationWindow[accelerationPosition] = magnitude;
+        if(accelerationCount < windowSamples) {
+            accelerationCount++;
+            accelerationSum += magnitude;
+            accelerationSquareSum += magnitude * magnitude;
+        } else {
+            accelerationSum += magnitude - removed;
+            accelerationSquareSum += magnitude * magnitude - removed * removed;
+        }
+        accelerationPosition++;
+        if(accelerationPosition == windowSamples) {
+            accelerationPosition = 0;
+            //recompute the sums once per window so the rounding errors of the running updates do not add up
+            accelerationSum = 0;
+            accelerationSquareSum = 0;
+            for(double value : accelerationWindow) {
+                accelerationSum += value;
+                accelerationSquareSum += value * value;
+            }
+        }
+        update();
+        return active;
+    }
+
+    /**
+     * Adds a gyroscope sample and returns whether motion is present.
+     */
+    public boolean onGyroscope(float x, float y, float z) {
+        double energy = (double) x * x + (double) y * y + (double) z * z;
+        double removed = gyroscopeWindow[gyroscopePosition];
+        gyroscopeWindow[gyroscopePosition] = energy;
+        if(gyroscopeCount < windowSamples) {
+            gyroscopeCount++;
+            gyroscopeSum += energy;
+        } else {
+            gyroscopeSum += energy - removed;
+        }
+        gyroscopePosition++;
+        if(gyroscopePosition == windowSamples) {
+            gyroscopePosition = 0;
+            gyroscopeSum = 0;
+            for(double value : gyroscopeWindow) {
+                gyroscopeSum += value;
+            }
+        }
+        if(!active && gyroscopeEnergy() >= gyroscopeStartEnergy) {
+            start();
+        }
+        return active;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Forgets the samples seen so far and goes back to the still state.
+     */
+    public void reset() {
+        accelerationPosition = 0;
+        accelerationCount = 0;
+        accelerationSum = 0;
+        accelerationSquareSum = 0;
+        gyroscopePosition = 0;
+        gyroscopeCount = 0;
+        gyroscopeSum = 0;
+        active = false;
+        quietSamples = 0;
+    }
+
+    //the hold time is counted in accelerometer samples, so only they can end motion
+    private void update() {
+        double variance = accelerationVariance();
+        double energy = gyroscopeEnergy();
+        if(!active) {
+            if(variance >= accelerationStartVariance || energy >= gyroscopeStartEnergy) {
+                start();
+            }
+        } else if(variance < accelerationStopVariance && energy < gyroscopeStopEnergy) {
+            quietSamples++;
+            if(quietSamples > holdSamples) {
+                active = false;
+            }
+        } else {
+            quietSamples = 0;
+        }
+    }
+
+    private void start() {
+        active = true;
+        quietSamples = 0;
+    }
+
+    private double accelerationVariance() {
+        if(accelerationCount < 2) {
+            return 0;
+        }
+        double mean = accelerationSum / accelerationCount;
+        return Math.max(0, accelerationSquareSum / accelerationCount - mean * mean);
+    }
+
+    private double gyroscopeEnergy() {
+        return gyroscopeCount == 0 ? 0 : gyroscopeSum / gyroscopeCount;
+    }
+}
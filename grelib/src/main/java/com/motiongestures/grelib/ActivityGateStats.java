@@ -0,0 +1,54 @@
+package com.motiongestures.grelib;
+
+/**
+ * Point-in-time counters of the activity gate of a gesture recognition client, see
+ * {@link AbstractGestureRecognitionClient#setActivityDetector(ActivityDetector)}.
+ * Only the samples received during a gesture are counted.
+ */
+public final class ActivityGateStats {
+    private final long receivedSamples;
+    private final long suppressedSamples;
+    private final long activations;
+
+    ActivityGateStats(long receivedSamples, long suppressedSamples, long activations) {
+        this.receivedSamples = receivedSamples;
+        this.suppressedSamples = suppressedSamples;
+        this.activations = activations;
+    }
+
+    public long getReceivedSamples() {
+        return receivedSamples;
+    }
+
+    /**
+     * The samples never sent because no motion was detected around them. Samples sent later as pre-roll are not counted.
+     */
+    public long getSuppressedSamples() {
+        return suppressedSamples;
+    }
+
+    public long getForwardedSamples() {
+        return receivedSamples - suppressedSamples;
+    }
+
+    /**
+     * How many times motion started.
+     */
+    public long getActivations() {
+        return activations;
+    }
+
+    /**
+     * The fraction of the received samples that were suppressed, between 0 and 1.
+     */
+    public double getSuppressionRatio() {
+        return receivedSamples == 0 ? 0 : (double) suppressedSamples / receivedSamples;
+    }
+
+    @Override
+    public String toString() {
+        return "ActivityGateStats{receivedSamples=" + receivedSamples +
+                ", suppressedSamples=" + suppressedSamples +
+                ", activations=" + activations + '}';
+    }
+}
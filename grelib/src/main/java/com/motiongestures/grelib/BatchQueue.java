@@ -0,0 +1,90 @@
+package com.motiongestures.grelib;
+
+/**
+ * Bounded lock-free single-producer/single-consumer queue of sealed batches.
+ * Each slot holds the acceleration, gyroscope and magnetometer batches of one request,
+ * so handing off a request does not allocate.
+ */
+final class BatchQueue {
+    private final SampleBatch[] accelerations;
+    private final SampleBatch[] gyroscopes;
+    private final SampleBatch[] magnetometers;
+    private final boolean[] activeGestures;
+    private final int mask;
+    //next slot to be read, written only by the consumer
+    private volatile long head = 0;
+    //next slot to be written, written only by the producer
+    private volatile long tail = 0;
+
+    BatchQueue(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(1, minCapacity - 1)) << 1;
+        accelerations = new SampleBatch[capacity];
+        gyroscopes = new SampleBatch[capacity];
+        magnetometers = new SampleBatch[capacity];
+        activeGestures = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    int size() {
+        return (int) (tail - head);
+    }
+
+    boolean isEmpty() {
+        return tail == head;
+    }
+
+    boolean offer(SampleBatch acceleration, SampleBatch gyroscope, SampleBatch magnetometer, boolean activeGesture) {
+        long currentTail = tail;
+        if(currentTail - head > mask) {
+            return false;
+        }
+        int slot = (int) (currentTail & mask);
+        accelerations[slot] = acceleration;
+        gyroscopes[slot] = gyroscope;
+        magnetometers[slot] = magnetometer;
+        activeGestures[slot] = activeGesture;
+        tail = currentTail + 1;
+        return true;
+    }
+
+    /**
+     * Returns the slot of the oldest request, or -1 if the queue is empty. Consumer only.
+     */
+    int peek() {
+        long currentHead = head;
+        if(currentHead == tail) {
+            return -1;
+        }
+        return (int) (currentHead & mask);
+    }
+
+    SampleBatch acceleration(int slot) {
+        return accelerations[slot];
+    }
+
+    SampleBatch gyroscope(int slot) {
+        return gyroscopes[slot];
+    }
+
+    SampleBatch magnetometer(int slot) {
+        return magnetometers[slot];
+    }
+
+    boolean activeGesture(int slot) {
+        return activeGestures[slot];
+    }
+
+    /**
+     * Frees the slot returned by {@link #peek()}. Consumer only.
+     */
+    void remove(int slot) {
+        accelerations[slot] = null;
+        gyroscopes[slot] = null;
+        magnetometers[slot] = null;
+        head = head + 1;
+    }
+}
@@ -0,0 +1,137 @@
+package com.motiongestures.grelib;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the metrics of a gesture recognition client. Every method returns after one volatile read while disabled,
+ * and otherwise only updates atomic counters, so it can be called from the sensor, sender and WebSocket threads.
+ * The times are recorded in microseconds.
+ */
+final class ClientMetrics {
+    private static final int SENSORS = 3;
+
+    private volatile boolean enabled = false;
+
+    private final LogLinearHistogram sensorJitter = new LogLinearHistogram();
+    private final LogLinearHistogram samplesPerBatch = new LogLinearHistogram();
+    private final LogLinearHistogram sendQueueDepth = new LogLinearHistogram();
+    private final LogLinearHistogram encodeTime = new LogLinearHistogram();
+    private final LogLinearHistogram requestBytes = new LogLinearHistogram();
+    private final LogLinearHistogram decodeTime = new LogLinearHistogram();
+    private final LogLinearHistogram resultLatency = new LogLinearHistogram();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+
+    //only used by the thread delivering the sensor events, under the gesture lock of the client
+    private final long[] lastTimestamps = new long[SENSORS];
+    private final long[] lastIntervals = new long[SENSORS];
+    private long lastSampleNanos;
+    //System.nanoTime() of the last sample of the gesture waiting for its result, 0 if none
+    private volatile long gestureEndNanos;
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The jitter of a sensor is the difference between two successive intervals of its hardware timestamps.
+     */
+    void onSensorEvent(int sensor, long timestampNanos) {
+        if(!enabled || sensor < 0) {
+            return;
+        }
+        lastSampleNanos = System.nanoTime();
+        long last = lastTimestamps[sensor];
+        lastTimestamps[sensor] = timestampNanos;
+        if(last == 0) {
+            return;
+        }
+        long interval = timestampNanos - last;
+        long lastInterval = lastIntervals[sensor];
+        lastIntervals[sensor] = interval;
+        if(lastInterval != 0) {
+            sensorJitter.record(Math.abs(interval - lastInterval) / 1000);
+        }
+    }
+
+    /**
+     * Forgets the last sensor timestamps, the gap of a pause is not jitter.
+     */
+    void restartSensors() {
+        for(int i = 0; i < SENSORS; i++) {
+            lastTimestamps[i] = 0;
+            lastIntervals[i] = 0;
+        }
+    }
+
+    void onBatchQueued(int samples, int queueDepth) {
+        if(enabled) {
+            samplesPerBatch.record(samples);
+            sendQueueDepth.record(queueDepth);
+        }
+    }
+
+    void onSamplesDropped(int samples) {
+        if(enabled) {
+            droppedSamples.addAndGet(samples);
+        }
+    }
+
+    void onRequestEncoded(long encodeNanos, int bytes) {
+        if(enabled) {
+            encodeTime.record(encodeNanos / 1000);
+            requestBytes.record(bytes);
+            bytesSent.addAndGet(bytes);
+        }
+    }
+
+    void onResponseDecoded(long decodeNanos) {
+        if(enabled) {
+            decodeTime.record(decodeNanos / 1000);
+        }
+    }
+
+    void onGestureStart() {
+        gestureEndNanos = 0;
+    }
+
+    //called under the gesture lock when the gesture ends
+    void onGestureEnd() {
+        if(enabled) {
+            gestureEndNanos = lastSampleNanos;
+        }
+    }
+
+    /**
+     * Records the time from the last sensor event of the gesture to its result, once per gesture.
+     */
+    void onResult() {
+        long end = gestureEndNanos;
+        if(enabled && end != 0) {
+            gestureEndNanos = 0;
+            resultLatency.record((System.nanoTime() - end) / 1000);
+        }
+    }
+
+    void reset() {
+        sensorJitter.reset();
+        samplesPerBatch.reset();
+        sendQueueDepth.reset();
+        encodeTime.reset();
+        requestBytes.reset();
+        decodeTime.reset();
+        resultLatency.reset();
+        bytesSent.set(0);
+        droppedSamples.set(0);
+    }
+
+    MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(sensorJitter.snapshot(), samplesPerBatch.snapshot(), sendQueueDepth.snapshot(),
+                encodeTime.snapshot(), requestBytes.snapshot(), decodeTime.snapshot(), resultLatency.snapshot(),
+                bytesSent.get(), droppedSamples.get());
+    }
+}
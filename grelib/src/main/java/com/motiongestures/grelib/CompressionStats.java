@@ -0,0 +1,59 @@
+package com.motiongestures.grelib;
+
+/**
+ * Point-in-time view of the requests a {@link RemoteGestureRecognitionClient} sent during its current session: their
+ * size before and after the transport compressed them, and the CPU time spent compressing them, 0 when the transport
+ * does not compress. Requests sent again after a reconnection count again.
+ */
+public final class CompressionStats {
+    private final long requests;
+    private final long rawBytes;
+    private final long compressedBytes;
+    private final long compressionNanos;
+
+    CompressionStats(long requests, long rawBytes, long compressedBytes, long compressionNanos) {
+        this.requests = requests;
+        this.rawBytes = rawBytes;
+        this.compressedBytes = compressedBytes;
+        this.compressionNanos = compressionNanos;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * The size of the requests as sent, equal to {@link #getRawBytes()} without compression.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * The compressed size over the raw size, 1 when nothing was sent.
+     */
+    public double getRatio() {
+        return rawBytes == 0 ? 1 : (double) compressedBytes / rawBytes;
+    }
+
+    public long getCompressionNanos() {
+        return compressionNanos;
+    }
+
+    /**
+     * The bytes saved per millisecond spent compressing, to weigh the bandwidth saving against the CPU.
+     */
+    public double getSavedBytesPerMilli() {
+        return compressionNanos == 0 ? 0 : (rawBytes - compressedBytes) * 1e6 / compressionNanos;
+    }
+
+    @Override
+    public String toString() {
+        return requests + " requests, " + rawBytes + " -> " + compressedBytes + " bytes in "
+                + compressionNanos / 1000 + " us";
+    }
+}
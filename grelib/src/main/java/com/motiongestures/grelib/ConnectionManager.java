@@ -0,0 +1,409 @@
+package com.motiongestures.grelib;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one connection to the recognition server open across gesture sessions, over a {@link RecognitionTransport}
+ * which is a WebSocket by default. The connection is pinged
+ * to stay alive and, when it drops without {@link #close()} being called, it is reopened after a jittered exponential
+ * backoff. The payloads sent during the current session are kept in a bounded replay buffer until the server answers
+ * the session, and sent again on a new connection, since the server has lost the session state along with the old one.
+ * Several clients can share the connection, each through its own {@link Channel}: the channels are written round-robin
+ * with only a few frames handed to the socket at a time, so a channel sending a burst does not hold the others back.
+ */
+final class ConnectionManager {
+    private static final String TAG = "ConnectionManager";
+    static final long DEFAULT_PING_INTERVAL_MILLIS = 15_000;
+    static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 250;
+    static final long DEFAULT_MAX_BACKOFF_MILLIS = 30_000;
+    static final int DEFAULT_REPLAY_CAPACITY = 256;
+    //frames handed to the socket and not written yet, the rest wait in the fair queue
+    private static final int MAX_UNSENT_FRAMES = 4;
+
+    interface Listener {
+        /**
+         * Called on a transport thread once a connection is open and, for a reconnection, the buffered payloads are queued.
+         */
+        void onConnected(boolean reconnected);
+
+        /**
+         * Called on a transport thread with a response, which belongs to the listener.
+         */
+        void onBinaryMessage(ByteBuffer message);
+    }
+
+    private final Listener listener;
+    private final RecognitionTransport transport;
+    private final Random random = new Random();
+    private final TransportListener transportListener = new TransportListener();
+    //created on the first drop, guarded by this
+    private ScheduledExecutorService reconnectScheduler;
+
+    private long pingIntervalMillis = DEFAULT_PING_INTERVAL_MILLIS;
+    private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private int replayCapacity = DEFAULT_REPLAY_CAPACITY;
+
+    //all guarded by this
+    private String uri;
+    private RecognitionTransport.Connection connection;
+    private boolean connected = false;
+    private boolean wasConnected = false;
+    private boolean reconnectScheduled = false;
+    private int failedAttempts = 0;
+    private long reconnections = 0;
+    private long replayedPayloads = 0;
+    private long overflowedPayloads = 0;
+    private final List<Channel> channels = new ArrayList<>();
+    private final FairSendQueue<Channel> outgoing = new FairSendQueue<>();
+    private int unsentFrames = 0;
+
+    ConnectionManager(Listener listener) {
+        this(listener, new WebSocketTransport());
+    }
+
+    ConnectionManager(Listener listener, RecognitionTransport transport) {
+        this.listener = listener;
+        this.transport = transport;
+    }
+
+    /**
+     * A new channel for the sessions of one client.
+     */
+    synchronized Channel newChannel() {
+        Channel channel = new Channel();
+        channels.add(channel);
+        return channel;
+    }
+
+    synchronized void setPingIntervalMillis(long pingIntervalMillis) {
+        this.pingIntervalMillis = pingIntervalMillis;
+        if(connection != null) {
+            connection.setPingIntervalMillis(pingIntervalMillis);
+        }
+    }
+
+    synchronized void setBackoffMillis(long initialBackoffMillis, long maxBackoffMillis) {
+        if(initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid backoff " + initialBackoffMillis + " to " + maxBackoffMillis + " ms");
+        }
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    synchronized void setReplayCapacity(int replayCapacity) {
+        if(replayCapacity < 0) {
+            throw new IllegalArgumentException("Negative replay capacity: " + replayCapacity);
+        }
+        this.replayCapacity = replayCapacity;
+    }
+
+    /**
+     * Opens a connection to the URI unless one is already open or opening. A connection to another URI is closed first.
+     */
+    synchronized void open(String uri) {
+        if(uri.equals(this.uri) && connection != null) {
+            return;
+        }
+        if(connection != null) {
+            closeSocket();
+        }
+        this.uri = uri;
+        failedAttempts = 0;
+        wasConnected = false;
+        openSocket();
+    }
+
+    synchronized boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Closes the connection without reconnecting and stops the reconnection thread. {@link #open(String)} opens it
+     * again.
+     */
+    synchronized void close() {
+        closeSocket();
+        uri = null;
+        if(reconnectScheduler != null) {
+            //a reconnection waiting for its delay is dropped
+            reconnectScheduler.shutdownNow();
+            reconnectScheduler = null;
+            reconnectScheduled = false;
+        }
+        outgoing.clear();
+        for(Channel channel : channels) {
+            channel.replayBuffer.clear();
+        }
+    }
+
+    synchronized long getReconnections() {
+        return reconnections;
+    }
+
+    synchronized long getReplayedPayloads() {
+        return replayedPayloads;
+    }
+
+    /**
+     * The payloads dropped from a full replay buffer, a reconnection can then only replay a part of the session.
+     */
+    synchronized long getOverflowedPayloads() {
+        return overflowedPayloads;
+    }
+
+    //must be called while holding the lock
+    private void openSocket() {
+        try {
+            connection = transport.createConnection(uri, transportListener);
+            connection.setPingIntervalMillis(pingIntervalMillis);
+            connection.open();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot create socket connection", e);
+            connection = null;
+            scheduleReconnect();
+        }
+    }
+
+    //must be called while holding the lock
+    private void send(Channel channel, byte[] payload) {
+        if(!connected) {
+            //while the connection is down the queued payloads count against the replay capacity
+            if(replayCapacity == 0) {
+                return;
+            }
+            while(outgoing.size(channel) + channel.replayBuffer.size() >= replayCapacity) {
+                if(channel.replayBuffer.pollFirst() == null) {
+                    outgoing.removeOldest(channel);
+                }
+                overflowedPayloads++;
+            }
+        }
+        outgoing.add(channel, payload);
+        drain();
+    }
+
+    //must be called while holding the lock
+    private void drain() {
+        while(connected && unsentFrames < MAX_UNSENT_FRAMES && outgoing.nextSource() != null) {
+            Channel channel = outgoing.nextSource();
+            byte[] payload = outgoing.poll();
+            if(replayCapacity > 0) {
+                if(channel.replayBuffer.size() >= replayCapacity) {
+                    channel.replayBuffer.removeFirst();
+                    overflowedPayloads++;
+                }
+                channel.replayBuffer.addLast(payload);
+            }
+            unsentFrames++;
+            long compressionNanos = connection.getCompressionNanos();
+            int sentBytes = connection.send(ByteBuffer.wrap(payload));
+            channel.onSent(payload.length, sentBytes, connection.getCompressionNanos() - compressionNanos);
+        }
+    }
+
+    private synchronized void onFrameWritten(RecognitionTransport.Connection socket) {
+        if(socket != connection) {
+            return;
+        }
+        unsentFrames--;
+        drain();
+    }
+
+    //must be called while holding the lock
+    private void closeSocket() {
+        connected = false;
+        unsentFrames = 0;
+        if(connection != null) {
+            //its remaining events are ignored
+            RecognitionTransport.Connection closing = connection;
+            connection = null;
+            closing.close();
+        }
+    }
+
+    //must be called while holding the lock
+    private void scheduleReconnect() {
+        if(uri == null || reconnectScheduled) {
+            return;
+        }
+        //equal jitter: between half and all of the exponential delay, so that clients dropped together spread out
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(failedAttempts, 20));
+        long delay = ceiling / 2 + (long) (random.nextDouble() * (ceiling - ceiling / 2));
+        failedAttempts++;
+        reconnectScheduled = true;
+        if(reconnectScheduler == null) {
+            reconnectScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "grelib-reconnect");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        Log.d(TAG, "Reconnecting in " + delay + " ms");
+        reconnectScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void reconnect() {
+        reconnectScheduled = false;
+        if(uri != null && !connected) {
+            if(connection != null) {
+                connection.close();
+                connection = null;
+            }
+            openSocket();
+        }
+    }
+
+    private void onConnected(RecognitionTransport.Connection socket) {
+        boolean reconnected;
+        synchronized (this) {
+            if(socket != connection) {
+                return;
+            }
+            reconnected = wasConnected;
+            if(reconnected) {
+                reconnections++;
+                //the payloads handed to the old socket go again, ahead of the ones not sent yet
+                for(Channel channel : channels) {
+                    replayedPayloads += channel.replayBuffer.size();
+                    outgoing.addAllFirst(channel, channel.replayBuffer);
+                    channel.replayBuffer.clear();
+                }
+            }
+            connected = true;
+            wasConnected = true;
+            failedAttempts = 0;
+            unsentFrames = 0;
+            drain();
+        }
+        listener.onConnected(reconnected);
+    }
+
+    private synchronized void onConnectionLost(RecognitionTransport.Connection socket) {
+        if(socket != connection) {
+            return;
+        }
+        connected = false;
+        unsentFrames = 0;
+        scheduleReconnect();
+    }
+
+    /**
+     * The sessions of one client on the connection. The payloads of a channel are sent in order.
+     */
+    final class Channel {
+        //the payloads handed to the socket during the current session, guarded by the manager
+        private final ArrayDeque<byte[]> replayBuffer = new ArrayDeque<>();
+        //what the current session sent, guarded by the manager
+        private long sentRequests = 0;
+        private long rawBytes = 0;
+        private long compressedBytes = 0;
+        private long compressionNanos = 0;
+
+        private Channel() {
+        }
+
+        //must be called while holding the lock of the manager
+        private void onSent(int raw, int compressed, long nanos) {
+            sentRequests++;
+            rawBytes += raw;
+            compressedBytes += compressed;
+            compressionNanos += nanos;
+        }
+
+        CompressionStats getCompressionStats() {
+            synchronized (ConnectionManager.this) {
+                return new CompressionStats(sentRequests, rawBytes, compressedBytes, compressionNanos);
+            }
+        }
+
+        /**
+         * Sends the payload, or only buffers it while the connection is down.
+         */
+        void send(byte[] payload) {
+            synchronized (ConnectionManager.this) {
+                ConnectionManager.this.send(this, payload);
+            }
+        }
+
+        /**
+         * Forgets the payloads of the previous session and what it sent.
+         */
+        void startSession() {
+            synchronized (ConnectionManager.this) {
+                replayBuffer.clear();
+                sentRequests = 0;
+                rawBytes = 0;
+                compressedBytes = 0;
+                compressionNanos = 0;
+            }
+        }
+
+        /**
+         * The server answered the session, its payloads do not need to be replayed anymore.
+         */
+        void acknowledge() {
+            synchronized (ConnectionManager.this) {
+                replayBuffer.clear();
+            }
+        }
+
+        /**
+         * Drops the payloads not sent yet and detaches the channel from the connection.
+         */
+        void close() {
+            synchronized (ConnectionManager.this) {
+                outgoing.remove(this);
+                replayBuffer.clear();
+                channels.remove(this);
+            }
+        }
+    }
+
+    private final class TransportListener implements RecognitionTransport.Listener {
+        @Override
+        public void onOpen(RecognitionTransport.Connection connection) {
+            ConnectionManager.this.onConnected(connection);
+        }
+
+        @Override
+        public void onClosed(RecognitionTransport.Connection connection, Exception cause) {
+            if(cause != null) {
+                Log.e(TAG, "Lost the connection to the server", cause);
+            } else {
+                Log.d(TAG, "Disconnected from the server");
+            }
+            onConnectionLost(connection);
+        }
+
+        @Override
+        public void onFrameWritten(RecognitionTransport.Connection connection) {
+            //a frame the transport gave up on stays in the replay buffer for the next connection
+            ConnectionManager.this.onFrameWritten(connection);
+        }
+
+        @Override
+        public void onResponse(RecognitionTransport.Connection connection, ByteBuffer response) {
+            listener.onBinaryMessage(response);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.motiongestures.grelib;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Payloads waiting to be written to a shared connection, one FIFO queue per source, served round-robin so that a
+ * source sending a burst delays the others by at most one payload each. Not thread safe.
+ */
+final class FairSendQueue<S> {
+    private final Map<S, ArrayDeque<byte[]>> queues = new HashMap<>();
+    //the sources with queued payloads, the next one to serve first
+    private final ArrayDeque<S> ready = new ArrayDeque<>();
+    private int size = 0;
+
+    void add(S source, byte[] payload) {
+        queueOf(source).addLast(payload);
+        size++;
+    }
+
+    /**
+     * Puts the payloads, in order, ahead of the ones already queued for the source.
+     */
+    void addAllFirst(S source, Collection<byte[]> payloads) {
+        if(payloads.isEmpty()) {
+            return;
+        }
+        ArrayDeque<byte[]> queue = queueOf(source);
+        byte[][] copy = payloads.toArray(new byte[payloads.size()][]);
+        for(int i = copy.length - 1; i >= 0; i--) {
+            queue.addFirst(copy[i]);
+        }
+        size += copy.length;
+    }
+
+    /**
+     * The source of the payload {@link #poll()} returns next, null if the queue is empty.
+     */
+    S nextSource() {
+        return ready.peekFirst();
+    }
+
+    byte[] poll() {
+        S source = ready.pollFirst();
+        if(source == null) {
+            return null;
+        }
+        ArrayDeque<byte[]> queue = queues.get(source);
+        byte[] payload = queue.pollFirst();
+        size--;
+        if(queue.isEmpty()) {
+            queues.remove(source);
+        } else {
+            ready.addLast(source);
+        }
+        return payload;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int size(S source) {
+        ArrayDeque<byte[]> queue = queues.get(source);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Drops the oldest payload of the source, returns false if it had none.
+     */
+    boolean removeOldest(S source) {
+        ArrayDeque<byte[]> queue = queues.get(source);
+        if(queue == null) {
+            return false;
+        }
+        queue.pollFirst();
+        size--;
+        if(queue.isEmpty()) {
+            queues.remove(source);
+            ready.remove(source);
+        }
+        return true;
+    }
+
+    void remove(S source) {
+        ArrayDeque<byte[]> queue = queues.remove(source);
+        if(queue != null) {
+            size -= queue.size();
+            ready.remove(source);
+        }
+    }
+
+    void clear() {
+        queues.clear();
+        ready.clear();
+        size = 0;
+    }
+
+    private ArrayDeque<byte[]> queueOf(S source) {
+        ArrayDeque<byte[]> queue = queues.get(source);
+        if(queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(source, queue);
+            ready.addLast(source);
+        }
+        return queue;
+    }
+}
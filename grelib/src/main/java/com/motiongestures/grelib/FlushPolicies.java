@@ -0,0 +1,106 @@
+package com.motiongestures.grelib;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The built-in {@link FlushPolicy} implementations.
+ */
+public final class FlushPolicies {
+    /** The number of samples per sensor the client has always sent in one request. */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private FlushPolicies() {
+    }
+
+    /**
+     * Flushes as soon as a sensor has the given number of unsent samples. No timer, this is the default policy.
+     */
+    public static FlushPolicy bySize(int maxSamples) {
+        return new HybridPolicy(maxSamples, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * Flushes when the oldest unsent sample is older than the given age, whatever the number of samples.
+     */
+    public static FlushPolicy byAge(long maxAgeMillis) {
+        return new HybridPolicy(Integer.MAX_VALUE, maxAgeMillis, timerPeriodFor(maxAgeMillis));
+    }
+
+    /**
+     * Flushes when a sensor has the given number of unsent samples or when the oldest of them is older than the given age.
+     */
+    public static FlushPolicy hybrid(int maxSamples, long maxAgeMillis) {
+        return new HybridPolicy(maxSamples, maxAgeMillis, timerPeriodFor(maxAgeMillis));
+    }
+
+    /**
+     * Flushes whatever is pending every given number of milliseconds, and earlier if a sensor
+     * reaches {@link #DEFAULT_BATCH_SIZE} samples.
+     */
+    public static FlushPolicy lowLatency(long intervalMillis) {
+        return new PeriodicPolicy(DEFAULT_BATCH_SIZE, intervalMillis);
+    }
+
+    //checking four times per max age bounds the extra delay added by the timer to a quarter of it
+    private static long timerPeriodFor(long maxAgeMillis) {
+        return Math.max(1, maxAgeMillis / 4);
+    }
+
+    private static final class HybridPolicy implements FlushPolicy {
+        private final int maxSamples;
+        private final long maxAgeNanos;
+        private final long timerPeriodMillis;
+
+        HybridPolicy(int maxSamples, long maxAgeMillis, long timerPeriodMillis) {
+            if(maxSamples <= 0 || maxAgeMillis < 0) {
+                throw new IllegalArgumentException("Invalid flush policy: " + maxSamples + " samples, " + maxAgeMillis + " ms");
+            }
+            this.maxSamples = maxSamples;
+            this.maxAgeNanos = maxAgeMillis == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+            this.timerPeriodMillis = timerPeriodMillis;
+        }
+
+        @Override
+        public boolean shouldFlushOnSample(int pendingSamples, long oldestSampleAgeNanos) {
+            return pendingSamples >= maxSamples || oldestSampleAgeNanos >= maxAgeNanos;
+        }
+
+        @Override
+        public boolean shouldFlushOnTimer(int pendingSamples, long oldestSampleAgeNanos) {
+            return shouldFlushOnSample(pendingSamples, oldestSampleAgeNanos);
+        }
+
+        @Override
+        public long getTimerPeriodMillis() {
+            return timerPeriodMillis;
+        }
+    }
+
+    private static final class PeriodicPolicy implements FlushPolicy {
+        private final int maxSamples;
+        private final long intervalMillis;
+
+        PeriodicPolicy(int maxSamples, long intervalMillis) {
+            if(intervalMillis <= 0) {
+                throw new IllegalArgumentException("Invalid flush interval: " + intervalMillis);
+            }
+            this.maxSamples = maxSamples;
+            this.intervalMillis = intervalMillis;
+        }
+
+        @Override
+        public boolean shouldFlushOnSample(int pendingSamples, long oldestSampleAgeNanos) {
+            return pendingSamples >= maxSamples;
+        }
+
+        @Override
+        public boolean shouldFlushOnTimer(int pendingSamples, long oldestSampleAgeNanos) {
+            return true;
+        }
+
+        @Override
+        public long getTimerPeriodMillis() {
+            return intervalMillis;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.motiongestures.grelib;
+
+/**
+ * Decides when the samples collected during a gesture are sent to the server, trading recognition latency
+ * against the number of requests per second. It is consulted whenever a sample arrives and, if
+ * {@link #getTimerPeriodMillis()} is positive, periodically by a timer so that a flush also happens when samples
+ * arrive slowly or not at all. Built-in policies are available from {@link FlushPolicies}.
+ * Implementations are called with the client's gesture lock held and must be fast.
+ */
+public interface FlushPolicy {
+    /**
+     * Called after a sample has been added.
+     * @param pendingSamples the number of unsent samples of the sensor with the most of them
+     * @param oldestSampleAgeNanos how long ago the oldest unsent sample was added
+     */
+    boolean shouldFlushOnSample(int pendingSamples, long oldestSampleAgeNanos);
+
+    /**
+     * Called by the timer, only while some samples are pending.
+     */
+    boolean shouldFlushOnTimer(int pendingSamples, long oldestSampleAgeNanos);
+
+    /**
+     * The period of the flush timer in milliseconds, 0 if the policy does not need a timer.
+     */
+    long getTimerPeriodMillis();
+}
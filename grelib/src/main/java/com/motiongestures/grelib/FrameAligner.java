@@ -0,0 +1,207 @@
+package com.motiongestures.grelib;
+
+/**
+ * Resamples the accelerometer, gyroscope and magnetometer streams onto one fixed-rate timeline using the hardware
+ * timestamps of the events. The value of each sensor at a tick is linearly interpolated between the events around it,
+ * or held from the last event if the sensor is late. A tick is emitted once an event of any sensor is at least the
+ * reorder window past it, so events arriving out of order within the window are still used; older ones are dropped.
+ * Memory is bounded: each sensor keeps at most {@link #CAPACITY} events by default, a wider reorder window needs
+ * room for the events of the window too.
+ */
+final class FrameAligner {
+    static final int ACCELEROMETER = 0;
+    static final int GYROSCOPE = 1;
+    static final int MAGNETOMETER = 2;
+    static final int SENSORS = 3;
+    static final int CAPACITY = 64;
+    //after a longer silence of every sensor the timeline restarts instead of emitting held values
+    private static final int MAX_GAP_PERIODS = 10;
+
+    interface FrameListener {
+        /**
+         * Called for every tick with the x, y and z values of each sensor, in the order of the sensor constants.
+         * The values of absent sensors are 0.
+         */
+        void onFrame(float[] frame);
+    }
+
+    private final long periodNanos;
+    private final long reorderWindowNanos;
+    private final boolean[] present;
+    private final int capacity;
+    private final long[][] timestamps;
+    private final float[][] values;
+    private final int[] counts = new int[SENSORS];
+    private final float[] frame = new float[SENSORS * 3];
+    private boolean started = false;
+    private long nextTick;
+    private long newest;
+    private long lateEvents = 0;
+
+    FrameAligner(long periodNanos, long reorderWindowNanos, boolean[] present) {
+        this(periodNanos, reorderWindowNanos, CAPACITY, present);
+    }
+
+    FrameAligner(long periodNanos, long reorderWindowNanos, int capacity, boolean[] present) {
+        if(periodNanos <= 0 || reorderWindowNanos < 0) {
+            throw new IllegalArgumentException("Invalid period " + periodNanos + " or reorder window " + reorderWindowNanos);
+        }
+        if(capacity < 2) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.periodNanos = periodNanos;
+        this.reorderWindowNanos = reorderWindowNanos;
+        this.present = present.clone();
+        this.capacity = capacity;
+        timestamps = new long[SENSORS][capacity];
+        values = new float[SENSORS][capacity * 3];
+    }
+
+    void add(int sensor, long timestamp, float x, float y, float z, FrameListener listener) {
+        if(!present[sensor]) {
+            return;
+        }
+        if(started && timestamp < nextTick - periodNanos) {
+            lateEvents++;
+            return;
+        }
+        insert(sensor, timestamp, x, y, z);
+        if(!started) {
+            if(!start()) {
+                return;
+            }
+        } else if(timestamp > newest) {
+            newest = timestamp;
+        }
+        if(newest - reorderWindowNanos - nextTick > MAX_GAP_PERIODS * periodNanos) {
+            nextTick += (newest - reorderWindowNanos - nextTick) / periodNanos * periodNanos;
+        }
+        while(newest - nextTick >= reorderWindowNanos) {
+            emitTick(listener);
+        }
+    }
+
+    /**
+     * Emits the ticks still held for the reorder window, up to the newest event, when no more events are expected
+     * before them. Events older than the last tick are late afterwards.
+     */
+    void drain(FrameListener listener) {
+        if(!started) {
+            return;
+        }
+        while(nextTick <= newest) {
+            emitTick(listener);
+        }
+    }
+
+    /**
+     * The events dropped because they arrived after the reorder window.
+     */
+    long getLateEvents() {
+        return lateEvents;
+    }
+
+    private void emitTick(FrameListener listener) {
+        for(int i = 0; i < SENSORS; i++) {
+            if(present[i]) {
+                interpolate(i, nextTick);
+            }
+        }
+        listener.onFrame(frame);
+        nextTick += periodNanos;
+        for(int i = 0; i < SENSORS; i++) {
+            discardBefore(i, nextTick);
+        }
+    }
+
+    void reset() {
+        started = false;
+        for(int i = 0; i < SENSORS; i++) {
+            counts[i] = 0;
+        }
+    }
+
+    //the timeline starts once every sensor has an event, at the first time all of them can be interpolated
+    private boolean start() {
+        long first = Long.MIN_VALUE;
+        long last = Long.MIN_VALUE;
+        for(int i = 0; i < SENSORS; i++) {
+            if(present[i]) {
+                if(counts[i] == 0) {
+                    return false;
+                }
+                first = Math.max(first, timestamps[i][0]);
+                last = Math.max(last, timestamps[i][counts[i] - 1]);
+            }
+        }
+        started = true;
+        nextTick = first;
+        newest = last;
+        return true;
+    }
+
+    private void insert(int sensor, long timestamp, float x, float y, float z) {
+        long[] times = timestamps[sensor];
+        float[] samples = values[sensor];
+        if(counts[sensor] == capacity) {
+            removeFirst(sensor, 1);
+        }
+        int position = counts[sensor];
+        //events are nearly always in order, so the insertion point is found from the end
+        while(position > 0 && times[position - 1] > timestamp) {
+            times[position] = times[position - 1];
+            samples[position * 3] = samples[(position - 1) * 3];
+            samples[position * 3 + 1] = samples[(position - 1) * 3 + 1];
+            samples[position * 3 + 2] = samples[(position - 1) * 3 + 2];
+            position--;
+        }
+        times[position] = timestamp;
+        samples[position * 3] = x;
+        samples[position * 3 + 1] = y;
+        samples[position * 3 + 2] = z;
+        counts[sensor]++;
+    }
+
+    private void interpolate(int sensor, long tick) {
+        long[] times = timestamps[sensor];
+        float[] samples = values[sensor];
+        int count = counts[sensor];
+        int before = 0;
+        while(before + 1 < count && times[before + 1] <= tick) {
+            before++;
+        }
+        int target = sensor * 3;
+        if(before + 1 == count || times[before] >= tick) {
+            frame[target] = samples[before * 3];
+            frame[target + 1] = samples[before * 3 + 1];
+            frame[target + 2] = samples[before * 3 + 2];
+            return;
+        }
+        int after = before + 1;
+        float weight = (float) ((double) (tick - times[before]) / (times[after] - times[before]));
+        for(int axis = 0; axis < 3; axis++) {
+            float start = samples[before * 3 + axis];
+            frame[target + axis] = start + (samples[after * 3 + axis] - start) * weight;
+        }
+    }
+
+    //keeps the last event at or before the tick, it is needed to interpolate the next one
+    private void discardBefore(int sensor, long tick) {
+        long[] times = timestamps[sensor];
+        int count = counts[sensor];
+        int keep = 0;
+        while(keep + 1 < count && times[keep + 1] <= tick) {
+            keep++;
+        }
+        if(keep > 0) {
+            removeFirst(sensor, keep);
+        }
+    }
+
+    private void removeFirst(int sensor, int removed) {
+        int remaining = counts[sensor] - removed;
+        System.arraycopy(timestamps[sensor], removed, timestamps[sensor], 0, remaining);
+        System.arraycopy(values[sensor], removed * 3, values[sensor], 0, remaining * 3);
+        counts[sensor] = remaining;
+    }
+}
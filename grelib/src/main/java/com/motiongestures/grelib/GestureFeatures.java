@@ -0,0 +1,62 @@
+package com.motiongestures.grelib;
+
+/**
+ * Turns the samples of a gesture into the fixed-length series compared by the local recognizer: the accelerometer and
+ * gyroscope streams are each resampled to the same number of points by linear interpolation, then every axis is
+ * normalized to a zero mean and unit variance, which makes the match independent of the gesture duration, of the
+ * gravity offset and of the amplitude. Points are stored one after the other, {@link #DIMENSIONS} values per point.
+ */
+final class GestureFeatures {
+    /** Accelerometer x, y, z then gyroscope x, y, z. */
+    static final int DIMENSIONS = 6;
+    private static final double MIN_DEVIATION = 1e-6;
+
+    private GestureFeatures() {
+    }
+
+    static void extract(SampleBatch accelerations, SampleBatch gyroscope, int length, float[] target) {
+        resample(accelerations, length, target, 0);
+        resample(gyroscope, length, target, 3);
+        for(int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            normalize(target, length, dimension);
+        }
+    }
+
+    private static void resample(SampleBatch batch, int length, float[] target, int offset) {
+        int count = batch.size;
+        for(int i = 0; i < length; i++) {
+            int position = i * DIMENSIONS + offset;
+            if(count == 0) {
+                target[position] = 0;
+                target[position + 1] = 0;
+                target[position + 2] = 0;
+                continue;
+            }
+            double source = length == 1 ? 0 : (double) i * (count - 1) / (length - 1);
+            int before = (int) source;
+            int after = Math.min(before + 1, count - 1);
+            float weight = (float) (source - before);
+            target[position] = batch.x[before] + (batch.x[after] - batch.x[before]) * weight;
+            target[position + 1] = batch.y[before] + (batch.y[after] - batch.y[before]) * weight;
+            target[position + 2] = batch.z[before] + (batch.z[after] - batch.z[before]) * weight;
+        }
+    }
+
+    private static void normalize(float[] series, int length, int dimension) {
+        double sum = 0;
+        double squareSum = 0;
+        for(int i = 0; i < length; i++) {
+            double value = series[i * DIMENSIONS + dimension];
+            sum += value;
+            squareSum += value * value;
+        }
+        double mean = sum / length;
+        double deviation = Math.sqrt(Math.max(0, squareSum / length - mean * mean));
+        //a still axis is only centered, scaling its noise up would make it as important as the moving ones
+        double scale = deviation < MIN_DEVIATION ? 1 : 1 / deviation;
+        for(int i = 0; i < length; i++) {
+            int position = i * DIMENSIONS + dimension;
+            series[position] = (float) ((series[position] - mean) * scale);
+        }
+    }
+}
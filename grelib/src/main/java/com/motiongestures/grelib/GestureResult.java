@@ -0,0 +1,65 @@
+package com.motiongestures.grelib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A result on its way to the listeners of a client, taken from and returned to the pool of its dispatcher so that
+ * delivering it through the callback executor does not allocate.
+ */
+final class GestureResult implements Runnable {
+    static final int RECOGNIZED = 0;
+    static final int REJECTED = 1;
+    static final int TOO_LONG = 2;
+
+    private final ResultDispatcher dispatcher;
+    int kind;
+    float confidence;
+    int count;
+    int[] labels = new int[4];
+    String[] names = new String[4];
+    //the lists given to a GestureRecognitionResponseListener, built from the arrays when not set
+    List<String> nameList;
+    List<Integer> labelList;
+
+    GestureResult(ResultDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    void reset(int kind, int count, float confidence) {
+        this.kind = kind;
+        this.count = count;
+        this.confidence = confidence;
+        if(labels.length < count) {
+            labels = new int[count];
+            names = new String[count];
+        }
+        nameList = null;
+        labelList = null;
+    }
+
+    List<String> nameList() {
+        if(nameList == null) {
+            nameList = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                nameList.add(names[i]);
+            }
+        }
+        return nameList;
+    }
+
+    List<Integer> labelList() {
+        if(labelList == null) {
+            labelList = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                labelList.add(labels[i]);
+            }
+        }
+        return labelList;
+    }
+
+    @Override
+    public void run() {
+        dispatcher.dispatch(this);
+    }
+}
@@ -0,0 +1,12 @@
+package com.motiongestures.grelib;
+
+/**
+ * Receives the results of a client like {@link GestureRecognitionResponseListener}, without allocating for each one:
+ * the labels are primitive and the names come from a table of the client, the same instance for the same label.
+ * The arrays are reused and only valid during the call, their first count elements are the results.
+ */
+public interface GestureResultListener {
+    void gesturesRecognized(int[] labels, String[] names, int count, float confidence);
+    void gesturesRejected(int[] labels, String[] names, int count, float confidence);
+    void gestureTooLong();
+}
@@ -0,0 +1,45 @@
+package com.motiongestures.grelib;
+
+/**
+ * A recorded gesture of a {@link GestureTemplateLibrary}, stored as the normalized series it is matched with.
+ */
+public final class GestureTemplate {
+    private final String name;
+    private final int label;
+    final float[] series;
+    //the Sakoe-Chiba envelope of the series, for the LB_Keogh lower bound
+    final float[] upper;
+    final float[] lower;
+
+    GestureTemplate(String name, int label, float[] series, int length, int bandRadius) {
+        this.name = name;
+        this.label = label;
+        this.series = series;
+        upper = new float[series.length];
+        lower = new float[series.length];
+        int dimensions = GestureFeatures.DIMENSIONS;
+        for(int i = 0; i < length; i++) {
+            int from = Math.max(0, i - bandRadius);
+            int to = Math.min(length - 1, i + bandRadius);
+            for(int dimension = 0; dimension < dimensions; dimension++) {
+                float max = Float.NEGATIVE_INFINITY;
+                float min = Float.POSITIVE_INFINITY;
+                for(int j = from; j <= to; j++) {
+                    float value = series[j * dimensions + dimension];
+                    max = Math.max(max, value);
+                    min = Math.min(min, value);
+                }
+                upper[i * dimensions + dimension] = max;
+                lower[i * dimensions + dimension] = min;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLabel() {
+        return label;
+    }
+}
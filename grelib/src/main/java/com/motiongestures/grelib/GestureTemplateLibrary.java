@@ -0,0 +1,155 @@
+package com.motiongestures.grelib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The gestures recognized by a {@link LocalGestureRecognitionClient}. Templates are recorded with
+ * {@link #addTemplate(String, int, SampleBatch, SampleBatch)} and saved to or loaded from a file.
+ * Every gesture is resampled to the same length and the warping of the match is limited to a band of
+ * {@link #getBandRadius()} points around the diagonal.
+ * Templates can be added while the library is used for recognition, the {@link TemplateIndex} searched by the
+ * matcher is then rebuilt by the next match.
+ */
+public final class GestureTemplateLibrary {
+    public static final int DEFAULT_LENGTH = 64;
+    public static final int DEFAULT_BAND_RADIUS = 6;
+    private static final int MAGIC = 0x47524554;
+    private static final int VERSION = 1;
+
+    private final int length;
+    private final int bandRadius;
+    private volatile GestureTemplate[] templates = new GestureTemplate[0];
+    private volatile TemplateIndex index = new TemplateIndex(templates);
+
+    public GestureTemplateLibrary() {
+        this(DEFAULT_LENGTH, DEFAULT_BAND_RADIUS);
+    }
+
+    public GestureTemplateLibrary(int length, int bandRadius) {
+        if(length < 2 || bandRadius < 0) {
+            throw new IllegalArgumentException("Invalid length " + length + " or band radius " + bandRadius);
+        }
+        this.length = length;
+        this.bandRadius = bandRadius;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getBandRadius() {
+        return bandRadius;
+    }
+
+    public int size() {
+        return templates.length;
+    }
+
+    public GestureTemplate getTemplate(int position) {
+        return templates[position];
+    }
+
+    /**
+     * Records a gesture from its accelerometer and gyroscope samples.
+     */
+    public GestureTemplate addTemplate(String name, int label, SampleBatch accelerations, SampleBatch gyroscope) {
+        float[] series = new float[length * GestureFeatures.DIMENSIONS];
+        GestureFeatures.extract(accelerations, gyroscope, length, series);
+        GestureTemplate template = new GestureTemplate(name, label, series, length, bandRadius);
+        add(template);
+        return template;
+    }
+
+    private synchronized void add(GestureTemplate template) {
+        GestureTemplate[] grown = Arrays.copyOf(templates, templates.length + 1);
+        grown[templates.length] = template;
+        templates = grown;
+    }
+
+    /**
+     * The index of the current templates, built again if templates were added since the last call.
+     */
+    TemplateIndex index() {
+        TemplateIndex current = index;
+        if(current.templates != templates) {
+            synchronized (this) {
+                current = index;
+                if(current.templates != templates) {
+                    current = new TemplateIndex(templates);
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public void save(File file) throws IOException {
+        try(OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(outputStream);
+        }
+    }
+
+    public void write(OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        GestureTemplate[] current = templates;
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(length);
+        output.writeInt(bandRadius);
+        output.writeInt(current.length);
+        for(GestureTemplate template : current) {
+            output.writeUTF(template.getName());
+            output.writeInt(template.getLabel());
+            for(float value : template.series) {
+                output.writeFloat(value);
+            }
+        }
+        output.flush();
+    }
+
+    public static GestureTemplateLibrary load(File file) throws IOException {
+        try(InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            return read(inputStream);
+        }
+    }
+
+    public static GestureTemplateLibrary read(InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        if(input.readInt() != MAGIC) {
+            throw new IOException("Not a gesture template file");
+        }
+        int version = input.readInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported gesture template file version " + version);
+        }
+        int length = input.readInt();
+        int bandRadius = input.readInt();
+        int count = input.readInt();
+        if(length < 2 || length > 1 << 16 || bandRadius < 0 || count < 0) {
+            throw new IOException("Corrupted gesture template file");
+        }
+        GestureTemplateLibrary library = new GestureTemplateLibrary(length, bandRadius);
+        GestureTemplate[] templates = new GestureTemplate[count];
+        for(int i = 0; i < count; i++) {
+            String name = input.readUTF();
+            int label = input.readInt();
+            float[] series = new float[length * GestureFeatures.DIMENSIONS];
+            for(int j = 0; j < series.length; j++) {
+                series[j] = input.readFloat();
+            }
+            templates[i] = new GestureTemplate(name, label, series, length, bandRadius);
+        }
+        library.templates = templates;
+        return library;
+    }
+}
@@ -0,0 +1,110 @@
+package com.motiongestures.grelib;
+
+import java.util.Arrays;
+
+/**
+ * Numbers the requests of a session and tracks the ones the server has not answered yet, with their send time,
+ * so that responses echoing the sequence give the round trip time and a slow server cannot build a backlog.
+ * A request left unanswered for longer than the timeout is given up on and frees its slot.
+ * The last {@link #HISTORY} round trip times are kept for the percentiles.
+ */
+final class InFlightWindow {
+    static final int HISTORY = 1024;
+
+    private final int[] sequences;
+    private final long[] sendTimes;
+    private final long timeoutNanos;
+    private int inFlight = 0;
+    private int nextSequence = 1;
+    private long expired = 0;
+    private final long[] roundTrips = new long[HISTORY];
+    private long roundTripCount = 0;
+
+    InFlightWindow(int capacity, long timeoutNanos) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Invalid window size: " + capacity);
+        }
+        sequences = new int[capacity];
+        sendTimes = new long[capacity];
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    int capacity() {
+        return sequences.length;
+    }
+
+    synchronized boolean hasRoom(long now) {
+        if(inFlight == sequences.length) {
+            for(int i = 0; i < sequences.length; i++) {
+                if(sequences[i] != 0 && now - sendTimes[i] > timeoutNanos) {
+                    sequences[i] = 0;
+                    inFlight--;
+                    expired++;
+                }
+            }
+        }
+        return inFlight < sequences.length;
+    }
+
+    /**
+     * Takes a slot for a request sent now and returns its sequence. {@link #hasRoom} must have returned true.
+     */
+    synchronized int send(long now) {
+        for(int i = 0; i < sequences.length; i++) {
+            if(sequences[i] == 0) {
+                int sequence = nextSequence;
+                nextSequence = nextSequence == Integer.MAX_VALUE ? 1 : nextSequence + 1;
+                sequences[i] = sequence;
+                sendTimes[i] = now;
+                inFlight++;
+                return sequence;
+            }
+        }
+        throw new IllegalStateException("The in-flight window is full");
+    }
+
+    /**
+     * Frees the slot of the answered request and returns its round trip time, -1 if it is not in flight.
+     */
+    synchronized long acknowledge(int sequence, long now) {
+        if(sequence == 0) {
+            return -1;
+        }
+        for(int i = 0; i < sequences.length; i++) {
+            if(sequences[i] == sequence) {
+                sequences[i] = 0;
+                inFlight--;
+                long roundTrip = now - sendTimes[i];
+                roundTrips[(int) (roundTripCount++ % HISTORY)] = roundTrip;
+                return roundTrip;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Forgets the requests in flight, the sequence starts again at 1.
+     */
+    synchronized void reset() {
+        Arrays.fill(sequences, 0);
+        inFlight = 0;
+        nextSequence = 1;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized long getExpired() {
+        return expired;
+    }
+
+    /**
+     * The recent round trip times, sorted.
+     */
+    synchronized long[] sortedRoundTrips() {
+        long[] sorted = Arrays.copyOf(roundTrips, (int) Math.min(roundTripCount, HISTORY));
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,116 @@
+package com.motiongestures.grelib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Hands the requests to a recognition engine in the same process, without a network stack and without copying:
+ * the engine receives the buffers the client encoded and its responses go as they are to the response thread.
+ * This is how an on-device engine plugs in, and how benchmarks measure the client without a socket. The URI of the
+ * connection is ignored. Every connection calls the engine on its own thread, in the order of the requests.
+ */
+public final class InProcessTransport implements RecognitionTransport {
+    /**
+     * A recognition engine. It is called by all the connections of the transport, each on its own thread.
+     */
+    public interface Engine {
+        /**
+         * Handles one encoded {@code RecognitionRequest}. The buffer must not be modified, it may be sent again
+         * after a reconnection. Responses can be given to the responder during the call or later.
+         */
+        void onRequest(ByteBuffer request, Responder responder);
+    }
+
+    public interface Responder {
+        /**
+         * Sends an encoded {@code RecognitionResponse} to the client. The buffer belongs to the client from then on.
+         */
+        void respond(ByteBuffer response);
+    }
+
+    private final Engine engine;
+
+    public InProcessTransport(Engine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public Connection createConnection(String uri, Listener listener) {
+        return new EngineConnection(listener);
+    }
+
+    private final class EngineConnection implements Connection, Responder {
+        private final Listener listener;
+        private final ExecutorService thread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "grelib-in-process");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        private volatile boolean open = false;
+
+        EngineConnection(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void open() {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    open = true;
+                    listener.onOpen(EngineConnection.this);
+                }
+            });
+        }
+
+        @Override
+        public int send(final ByteBuffer request) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(open) {
+                        engine.onRequest(request.duplicate(), EngineConnection.this);
+                    }
+                    listener.onFrameWritten(EngineConnection.this);
+                }
+            });
+            return request.remaining();
+        }
+
+        @Override
+        public long getCompressionNanos() {
+            return 0;
+        }
+
+        @Override
+        public void respond(ByteBuffer response) {
+            if(open) {
+                listener.onResponse(this, response);
+            }
+        }
+
+        @Override
+        public void setPingIntervalMillis(long pingIntervalMillis) {
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            thread.shutdown();
+        }
+
+        private void execute(Runnable task) {
+            try {
+                thread.execute(task);
+            } catch (RejectedExecutionException e) {
+                //closed
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.motiongestures.grelib;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Recognizes gestures on the device, without a network connection, by matching them against the templates of a
+ * {@link GestureTemplateLibrary}. A gesture starts with {@link #connect(String)}, whose URI is ignored, and is
+ * recognized when {@link #disconnect()} ends it. The listener is called on the sender thread of the client.
+ * The reference mode is ignored: the templates have to be recorded holding the device the way it will be used.
+ */
+public class LocalGestureRecognitionClient extends AbstractGestureRecognitionClient {
+    private static final String TAG = "LocalGestureRecognitionClient";
+    /** 10 s at the 100 Hz sampling rate. */
+    private static final int MAX_GESTURE_SAMPLES = 1000;
+    /** The mean squared distance per point, between normalized gestures, above which a gesture is rejected. */
+    public static final float DEFAULT_REJECTION_DISTANCE = 2.0f;
+
+    private volatile GestureTemplateLibrary templateLibrary;
+    private volatile float rejectionDistance = DEFAULT_REJECTION_DISTANCE;
+
+    //only used on the sender thread
+    private final TemplateMatcher matcher = new TemplateMatcher();
+    private final SampleBatch gestureAccelerations = new SampleBatch(MAX_GESTURE_SAMPLES);
+    private final SampleBatch gestureGyroscope = new SampleBatch(MAX_GESTURE_SAMPLES);
+    private boolean gestureTooLong = false;
+
+    public LocalGestureRecognitionClient(Context context, GestureTemplateLibrary templateLibrary) {
+        super(context);
+        this.templateLibrary = templateLibrary;
+    }
+
+    public void setTemplateLibrary(GestureTemplateLibrary templateLibrary) {
+        this.templateLibrary = templateLibrary;
+    }
+
+    public GestureTemplateLibrary getTemplateLibrary() {
+        return templateLibrary;
+    }
+
+    /**
+     * Sets the mean squared distance per point above which the closest template is reported as rejected.
+     */
+    public void setRejectionDistance(float rejectionDistance) {
+        if(!(rejectionDistance > 0)) {
+            throw new IllegalArgumentException("Invalid rejection distance: " + rejectionDistance);
+        }
+        this.rejectionDistance = rejectionDistance;
+    }
+
+    public float getRejectionDistance() {
+        return rejectionDistance;
+    }
+
+    @Override
+    public void pause() {
+        unregisterSensorListeners();
+    }
+
+    @Override
+    public void resume() {
+        registerSensorListeners();
+    }
+
+    @Override
+    public void connect(String uri) {
+        super.resetSamplesList();
+        try {
+            super.startGesture(true);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot queue the cached samples", e);
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        super.sendLastSamples();
+    }
+
+    @Override
+    protected void sendSamples(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                               boolean activeGesture) {
+        if(!gestureTooLong) {
+            if(gestureAccelerations.size() + accelerations.size() > MAX_GESTURE_SAMPLES
+                    || gestureGyroscope.size() + gyroscope.size() > MAX_GESTURE_SAMPLES) {
+                gestureTooLong = true;
+                resultDispatcher.deliver(resultDispatcher.obtain(GestureResult.TOO_LONG, 0, 0));
+            } else {
+                gestureAccelerations.addAll(accelerations);
+                gestureGyroscope.addAll(gyroscope);
+            }
+        }
+        if(!activeGesture) {
+            if(!gestureTooLong) {
+                recognize();
+            }
+            gestureAccelerations.clear();
+            gestureGyroscope.clear();
+            gestureTooLong = false;
+        }
+    }
+
+    private void recognize() {
+        GestureTemplateLibrary library = templateLibrary;
+        if(library == null || gestureAccelerations.size() < 2) {
+            return;
+        }
+        int position = matcher.match(library, gestureAccelerations, gestureGyroscope);
+        metrics.onResult();
+        if(position < 0 || !resultDispatcher.hasListeners()) {
+            return;
+        }
+        GestureTemplate template = library.getTemplate(position);
+        double distance = matcher.getBestDistance() / library.getLength();
+        float confidence = (float) Math.max(0, 1 - distance / rejectionDistance);
+        GestureResult result = resultDispatcher.obtain(distance <= rejectionDistance ? GestureResult.RECOGNIZED : GestureResult.REJECTED,
+                1, confidence);
+        result.labels[0] = template.getLabel();
+        result.names[0] = template.getName();
+        resultDispatcher.deliver(result);
+    }
+}
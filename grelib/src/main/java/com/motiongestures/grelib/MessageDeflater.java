@@ -0,0 +1,46 @@
+package com.motiongestures.grelib;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the messages of one WebSocket connection for the permessage-deflate extension (RFC 7692): raw deflate
+ * ending each message with a sync flush, whose trailing 00 00 FF FF is left out. With context takeover the window of
+ * the previous messages is kept, so the repeated structure of the requests compresses to back references.
+ * Not thread safe.
+ */
+final class MessageDeflater {
+    private final Deflater deflater;
+    private final boolean contextTakeover;
+    private byte[] output = new byte[1024];
+
+    MessageDeflater(int level, boolean contextTakeover) {
+        deflater = new Deflater(level, true);
+        this.contextTakeover = contextTakeover;
+    }
+
+    /**
+     * Returns the compressed payload of the message, to be sent in full: with context takeover the compressor has
+     * moved on, so the message cannot be sent uncompressed instead even if that would be shorter.
+     */
+    byte[] deflate(byte[] message, int offset, int length) {
+        if(!contextTakeover) {
+            deflater.reset();
+        }
+        deflater.setInput(message, offset, length);
+        int written = 0;
+        while(true) {
+            written += deflater.deflate(output, written, output.length - written, Deflater.SYNC_FLUSH);
+            if(written < output.length) {
+                break;
+            }
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+        //a sync flush always ends with an empty stored block, the receiver appends it back
+        return Arrays.copyOf(output, written - 4);
+    }
+
+    void end() {
+        deflater.end();
+    }
+}
@@ -0,0 +1,96 @@
+package com.motiongestures.grelib;
+
+/**
+ * Point-in-time copy of the metrics of a gesture recognition client, see
+ * {@link AbstractGestureRecognitionClient#setMetricsEnabled(boolean)}. The times are in microseconds.
+ */
+public final class MetricsSnapshot {
+    private final HistogramSnapshot sensorJitterMicros;
+    private final HistogramSnapshot samplesPerBatch;
+    private final HistogramSnapshot sendQueueDepth;
+    private final HistogramSnapshot encodeTimeMicros;
+    private final HistogramSnapshot requestBytes;
+    private final HistogramSnapshot decodeTimeMicros;
+    private final HistogramSnapshot resultLatencyMicros;
+    private final long bytesSent;
+    private final long droppedSamples;
+
+    MetricsSnapshot(HistogramSnapshot sensorJitterMicros, HistogramSnapshot samplesPerBatch,
+                    HistogramSnapshot sendQueueDepth, HistogramSnapshot encodeTimeMicros,
+                    HistogramSnapshot requestBytes, HistogramSnapshot decodeTimeMicros,
+                    HistogramSnapshot resultLatencyMicros, long bytesSent, long droppedSamples) {
+        this.sensorJitterMicros = sensorJitterMicros;
+        this.samplesPerBatch = samplesPerBatch;
+        this.sendQueueDepth = sendQueueDepth;
+        this.encodeTimeMicros = encodeTimeMicros;
+        this.requestBytes = requestBytes;
+        this.decodeTimeMicros = decodeTimeMicros;
+        this.resultLatencyMicros = resultLatencyMicros;
+        this.bytesSent = bytesSent;
+        this.droppedSamples = droppedSamples;
+    }
+
+    /**
+     * The difference between successive intervals of the hardware timestamps of each sensor.
+     */
+    public HistogramSnapshot getSensorJitterMicros() {
+        return sensorJitterMicros;
+    }
+
+    /**
+     * The samples of all the sensors in each batch queued for sending.
+     */
+    public HistogramSnapshot getSamplesPerBatch() {
+        return samplesPerBatch;
+    }
+
+    /**
+     * The depth of the send queue after each batch was queued.
+     */
+    public HistogramSnapshot getSendQueueDepth() {
+        return sendQueueDepth;
+    }
+
+    public HistogramSnapshot getEncodeTimeMicros() {
+        return encodeTimeMicros;
+    }
+
+    public HistogramSnapshot getRequestBytes() {
+        return requestBytes;
+    }
+
+    public HistogramSnapshot getDecodeTimeMicros() {
+        return decodeTimeMicros;
+    }
+
+    /**
+     * The time from the last sensor event of a gesture to its result being delivered to the listener.
+     */
+    public HistogramSnapshot getResultLatencyMicros() {
+        return resultLatencyMicros;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * The samples dropped because the send queue was full.
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{sensorJitterMicros=" + sensorJitterMicros +
+                ", samplesPerBatch=" + samplesPerBatch +
+                ", sendQueueDepth=" + sendQueueDepth +
+                ", encodeTimeMicros=" + encodeTimeMicros +
+                ", requestBytes=" + requestBytes +
+                ", decodeTimeMicros=" + decodeTimeMicros +
+                ", resultLatencyMicros=" + resultLatencyMicros +
+                ", bytesSent=" + bytesSent +
+                ", droppedSamples=" + droppedSamples + '}';
+    }
+}
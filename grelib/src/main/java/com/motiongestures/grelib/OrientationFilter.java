@@ -0,0 +1,236 @@
+package com.motiongestures.grelib;
+
+/**
+ * Estimates the orientation of the device from its gyroscope, corrected by the accelerometer and, when there is one,
+ * the magnetometer: a nonlinear complementary filter on the rotation quaternion (Mahony). The rotation rate is
+ * integrated, and the directions of gravity and of the magnetic field it predicts are pulled towards the measured
+ * ones, which also learns the gyroscope bias. The estimate rotates the device frame into the earth frame, x pointing
+ * to the magnetic north, y to the west and z up. The first accelerometer reading sets the initial orientation, so
+ * the filter does not have to converge from an arbitrary one. Allocation free, not thread safe.
+ */
+final class OrientationFilter {
+    /** The proportional gain of the correction, in rad/s per unit of direction error. */
+    static final double DEFAULT_PROPORTIONAL_GAIN = 1.0;
+    /** The integral gain of the correction, which learns the gyroscope bias. */
+    static final double DEFAULT_INTEGRAL_GAIN = 0.05;
+    //the bias is only learned from errors below about 6 degrees, larger ones come from a wrong estimate, not the bias
+    private static final double MAX_INTEGRATED_ERROR = 0.1;
+    //below this horizontal part of the unit field, near the magnetic poles or in a disturbed field, the heading is not corrected
+    private static final double MIN_HORIZONTAL_FIELD = 0.1;
+
+    private final double proportionalGain;
+    private final double integralGain;
+    //the rotation from the device frame to the earth frame
+    private double q0 = 1;
+    private double q1 = 0;
+    private double q2 = 0;
+    private double q3 = 0;
+    //the learned opposite of the gyroscope bias
+    private double biasX = 0;
+    private double biasY = 0;
+    private double biasZ = 0;
+    private boolean initialized = false;
+
+    OrientationFilter() {
+        this(DEFAULT_PROPORTIONAL_GAIN, DEFAULT_INTEGRAL_GAIN);
+    }
+
+    OrientationFilter(double proportionalGain, double integralGain) {
+        if(proportionalGain < 0 || integralGain < 0) {
+            throw new IllegalArgumentException("Negative gain: " + proportionalGain + ", " + integralGain);
+        }
+        this.proportionalGain = proportionalGain;
+        this.integralGain = integralGain;
+    }
+
+    boolean isInitialized() {
+        return initialized;
+    }
+
+    void reset() {
+        q0 = 1;
+        q1 = 0;
+        q2 = 0;
+        q3 = 0;
+        biasX = 0;
+        biasY = 0;
+        biasZ = 0;
+        initialized = false;
+    }
+
+    /**
+     * Sets the orientation from gravity and the magnetic field measured at rest. Without a magnetic field, all
+     * zeros, the north is taken along the x axis of the device, or its y axis when x is vertical.
+     */
+    void initialize(float ax, float ay, float az, float mx, float my, float mz) {
+        double norm = Math.sqrt(ax * ax + ay * ay + az * az);
+        if(norm == 0) {
+            return;
+        }
+        //the earth axes in device coordinates are the rows of the rotation
+        double upX = ax / norm;
+        double upY = ay / norm;
+        double upZ = az / norm;
+        double westX = upY * mz - upZ * my;
+        double westY = upZ * mx - upX * mz;
+        double westZ = upX * my - upY * mx;
+        double westNorm = Math.sqrt(westX * westX + westY * westY + westZ * westZ);
+        if(westNorm < 1e-6) {
+            //up x (device x), or up x (device y) when x is almost vertical
+            boolean useY = Math.abs(upX) > 0.9;
+            westX = useY ? -upZ : 0;
+            westY = useY ? 0 : upZ;
+            westZ = useY ? upX : -upY;
+            westNorm = Math.sqrt(westX * westX + westY * westY + westZ * westZ);
+        }
+        westX /= westNorm;
+        westY /= westNorm;
+        westZ /= westNorm;
+        double northX = westY * upZ - westZ * upY;
+        double northY = westZ * upX - westX * upZ;
+        double northZ = westX * upY - westY * upX;
+        setFromRows(northX, northY, northZ, westX, westY, westZ, upX, upY, upZ);
+        biasX = 0;
+        biasY = 0;
+        biasZ = 0;
+        initialized = true;
+    }
+
+    /**
+     * Advances the estimate by one gyroscope reading, in rad/s, over the given time in seconds. The accelerometer
+     * reading corrects the tilt and the magnetometer reading the heading, either can be all zeros to skip it.
+     */
+    void update(float gx, float gy, float gz, float ax, float ay, float az, float mx, float my, float mz, double dt) {
+        double rateX = gx;
+        double rateY = gy;
+        double rateZ = gz;
+        double accelerationNorm = Math.sqrt(ax * ax + ay * ay + az * az);
+        if(accelerationNorm > 0) {
+            double errorX = 0;
+            double errorY = 0;
+            double errorZ = 0;
+            double q0q1 = q0 * q1;
+            double q0q2 = q0 * q2;
+            double q0q3 = q0 * q3;
+            double q1q1 = q1 * q1;
+            double q1q2 = q1 * q2;
+            double q1q3 = q1 * q3;
+            double q2q2 = q2 * q2;
+            double q2q3 = q2 * q3;
+            double q3q3 = q3 * q3;
+            //the estimated direction of gravity in the device frame, the third row of the rotation
+            double upX = 2 * (q1q3 - q0q2);
+            double upY = 2 * (q0q1 + q2q3);
+            double upZ = 1 - 2 * (q1q1 + q2q2);
+            double x = ax / accelerationNorm;
+            double y = ay / accelerationNorm;
+            double z = az / accelerationNorm;
+            errorX += y * upZ - z * upY;
+            errorY += z * upX - x * upZ;
+            errorZ += x * upY - y * upX;
+
+            double fieldNorm = Math.sqrt(mx * mx + my * my + mz * mz);
+            if(fieldNorm > 0) {
+                x = mx / fieldNorm;
+                y = my / fieldNorm;
+                z = mz / fieldNorm;
+                //the measured field in the earth frame, then the horizontal reference it gives
+                double hx = 2 * (x * (0.5 - q2q2 - q3q3) + y * (q1q2 - q0q3) + z * (q1q3 + q0q2));
+                double hy = 2 * (x * (q1q2 + q0q3) + y * (0.5 - q1q1 - q3q3) + z * (q2q3 - q0q1));
+                double bx = Math.sqrt(hx * hx + hy * hy);
+                if(bx > MIN_HORIZONTAL_FIELD) {
+                    double bz = 2 * (x * (q1q3 - q0q2) + y * (q2q3 + q0q1) + z * (0.5 - q1q1 - q2q2));
+                    //the direction of that reference in the device frame
+                    double wx = 2 * (bx * (0.5 - q2q2 - q3q3) + bz * (q1q3 - q0q2));
+                    double wy = 2 * (bx * (q1q2 - q0q3) + bz * (q0q1 + q2q3));
+                    double wz = 2 * (bx * (q0q2 + q1q3) + bz * (0.5 - q1q1 - q2q2));
+                    //only the vertical part of the error, the magnetometer corrects the heading and not the tilt,
+                    //scaled so that a heading error corrects as fast as a tilt error whatever the inclination
+                    double heading = ((y * wz - z * wy) * upX + (z * wx - x * wz) * upY + (x * wy - y * wx) * upZ) / (bx * bx);
+                    errorX += heading * upX;
+                    errorY += heading * upY;
+                    errorZ += heading * upZ;
+                }
+            }
+            if(integralGain > 0 && errorX * errorX + errorY * errorY + errorZ * errorZ < MAX_INTEGRATED_ERROR * MAX_INTEGRATED_ERROR) {
+                biasX += integralGain * errorX * dt;
+                biasY += integralGain * errorY * dt;
+                biasZ += integralGain * errorZ * dt;
+            }
+            rateX += proportionalGain * errorX + biasX;
+            rateY += proportionalGain * errorY + biasY;
+            rateZ += proportionalGain * errorZ + biasZ;
+        }
+        double halfX = 0.5 * rateX * dt;
+        double halfY = 0.5 * rateY * dt;
+        double halfZ = 0.5 * rateZ * dt;
+        double n0 = q0 - q1 * halfX - q2 * halfY - q3 * halfZ;
+        double n1 = q1 + q0 * halfX + q2 * halfZ - q3 * halfY;
+        double n2 = q2 + q0 * halfY - q1 * halfZ + q3 * halfX;
+        double n3 = q3 + q0 * halfZ + q1 * halfY - q2 * halfX;
+        double norm = Math.sqrt(n0 * n0 + n1 * n1 + n2 * n2 + n3 * n3);
+        q0 = n0 / norm;
+        q1 = n1 / norm;
+        q2 = n2 / norm;
+        q3 = n3 / norm;
+    }
+
+    /**
+     * Rotates the vector at the given offset from the device frame into the earth frame, in place.
+     */
+    void toEarthFrame(float[] values, int offset) {
+        double x = values[offset];
+        double y = values[offset + 1];
+        double z = values[offset + 2];
+        values[offset] = (float) ((1 - 2 * (q2 * q2 + q3 * q3)) * x + 2 * (q1 * q2 - q0 * q3) * y + 2 * (q1 * q3 + q0 * q2) * z);
+        values[offset + 1] = (float) (2 * (q1 * q2 + q0 * q3) * x + (1 - 2 * (q1 * q1 + q3 * q3)) * y + 2 * (q2 * q3 - q0 * q1) * z);
+        values[offset + 2] = (float) (2 * (q1 * q3 - q0 * q2) * x + 2 * (q2 * q3 + q0 * q1) * y + (1 - 2 * (q1 * q1 + q2 * q2)) * z);
+    }
+
+    double getQ0() {
+        return q0;
+    }
+
+    double getQ1() {
+        return q1;
+    }
+
+    double getQ2() {
+        return q2;
+    }
+
+    double getQ3() {
+        return q3;
+    }
+
+    //the quaternion of the rotation whose rows are given, Shepperd's method
+    private void setFromRows(double r00, double r01, double r02, double r10, double r11, double r12,
+                             double r20, double r21, double r22) {
+        double trace = r00 + r11 + r22;
+        if(trace > 0) {
+            double s = 2 * Math.sqrt(trace + 1);
+            q0 = 0.25 * s;
+            q1 = (r21 - r12) / s;
+            q2 = (r02 - r20) / s;
+            q3 = (r10 - r01) / s;
+        } else if(r00 > r11 && r00 > r22) {
+            double s = 2 * Math.sqrt(1 + r00 - r11 - r22);
+            q0 = (r21 - r12) / s;
+            q1 = 0.25 * s;
+            q2 = (r01 + r10) / s;
+            q3 = (r02 + r20) / s;
+        } else if(r11 > r22) {
+            double s = 2 * Math.sqrt(1 + r11 - r00 - r22);
+            q0 = (r02 - r20) / s;
+            q1 = (r01 + r10) / s;
+            q2 = 0.25 * s;
+            q3 = (r12 + r21) / s;
+        } else {
+            double s = 2 * Math.sqrt(1 + r22 - r00 - r11);
+            q0 = (r10 - r01) / s;
+            q1 = (r02 + r20) / s;
+            q2 = (r12 + r21) / s;
+            q3 = 0.25 * s;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.motiongestures.grelib;
+
+/**
+ * What the sensor thread does when a full batch is ready but the send queue has no room left.
+ */
+public enum OverflowPolicy {
+    /** Discard the batch that could not be queued. The sensor thread is never delayed. */
+    DROP_NEWEST,
+    /**
+     * Wait until the sender frees a slot. No samples are lost, but sensor delivery is delayed, and so is a gesture
+     * starting or ending meanwhile since the client keeps its gesture lock while waiting.
+     */
+    BLOCK,
+    /** Keep appending to the current batch and try again with the next sample. No samples are lost, the request grows. */
+    COALESCE
+}
@@ -0,0 +1,87 @@
+package com.motiongestures.grelib;
+
+/**
+ * Fixed-point precision used by {@link SampleEncoding#QUANTIZED_DELTA} for one sensor.
+ * A value v is sent as the integer round(v / step) and restored as that integer times the step,
+ * so the reconstruction error is at most step / 2 (plus one float rounding). Values whose quantized form does not
+ * fit in an int are clamped to the largest representable value and NaN is sent as 0.
+ */
+public final class Quantization {
+    /** 0.001 m/s^2, well below the noise of phone accelerometers. */
+    public static final Quantization DEFAULT_ACCELERATION = ofStep(0.001f);
+    /** 0.0001 rad/s. */
+    public static final Quantization DEFAULT_GYROSCOPE = ofStep(0.0001f);
+    /** 0.01 microtesla. */
+    public static final Quantization DEFAULT_MAGNETOMETER = ofStep(0.01f);
+
+    private final float step;
+
+    private Quantization(float step) {
+        if(!(step > 0) || Float.isInfinite(step)) {
+            throw new IllegalArgumentException("Invalid quantization step: " + step);
+        }
+        this.step = step;
+    }
+
+    /**
+     * Quantization with the given step (precision), in the unit of the sensor.
+     */
+    public static Quantization ofStep(float step) {
+        return new Quantization(step);
+    }
+
+    /**
+     * Quantization keeping the given number of decimals, a step of 10^-decimals.
+     */
+    public static Quantization ofDecimals(int decimals) {
+        return new Quantization((float) Math.pow(10, -decimals));
+    }
+
+    public float getStep() {
+        return step;
+    }
+
+    /**
+     * The number of quantization steps per unit of the sensor.
+     */
+    public double getScale() {
+        return 1.0 / step;
+    }
+
+    public float getMaxError() {
+        return step / 2;
+    }
+
+    int quantize(float value) {
+        double scaled = Math.rint(value / (double) step);
+        if(scaled >= Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        if(scaled <= Integer.MIN_VALUE) {
+            return Integer.MIN_VALUE;
+        }
+        //NaN is converted to 0
+        return (int) scaled;
+    }
+
+    static float restore(int quantized, float step) {
+        return (float) (quantized * (double) step);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Float.compare(((Quantization) o).step, step) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Float.floatToIntBits(step);
+    }
+
+    @Override
+    public String toString() {
+        return "Quantization{step=" + step + '}';
+    }
+}
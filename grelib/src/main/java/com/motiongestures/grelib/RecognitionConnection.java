@@ -0,0 +1,240 @@
+package com.motiongestures.grelib;
+
+import android.util.Log;
+
+import com.google.protobuf.CodedInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import GREProtocol.Greapi;
+
+/**
+ * A connection to the recognition server that several {@link RemoteGestureRecognitionClient}s can share, for example
+ * the phone and watch streams of an application, so that their sessions go over one WebSocket instead of one each.
+ * Every client keeps its own reference mode, sensitivity and listener. The requests of the clients are written
+ * round-robin and the responses are routed to the client by the session id echoed by the server; with a server
+ * that does not echo it, only a connection with a single client gets its responses.
+ * The responses are decoded and handled off the thread reading the socket, in order, so that a slow listener does
+ * not hold back the reception of the next responses.
+ */
+public final class RecognitionConnection {
+    private static final String TAG = "RecognitionConnection";
+
+    //decodes the responses of all the connections, each connection using at most one thread at a time
+    private static final ExecutorService RESPONSE_THREADS = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "grelib-responses");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    interface Session {
+        void onResponse(Greapi.RecognitionResponse response, long decodeNanos);
+
+        /**
+         * Called once no more responses are queued, after the session received some.
+         */
+        void onResponsesHandled();
+
+        void onConnected(boolean reconnected);
+    }
+
+    private final ConnectionManager manager;
+    private final List<Session> attached = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, Session> sessionsById = new ConcurrentHashMap<>();
+    //null for the connection owned by a single client, which connects wherever the client is told to
+    private final String uri;
+
+    /**
+     * Opens a connection to the server, to be shared by the clients created with it.
+     */
+    public RecognitionConnection(String uri) {
+        this(uri, new WebSocketTransport());
+    }
+
+    /**
+     * Opens a connection to the server over the transport, to be shared by the clients created with it.
+     */
+    public RecognitionConnection(String uri, RecognitionTransport transport) {
+        if(uri == null) {
+            throw new IllegalArgumentException("The URI cannot be null");
+        }
+        this.uri = uri;
+        manager = new ConnectionManager(new Dispatcher(), transport);
+        manager.open(uri);
+    }
+
+    RecognitionConnection(RecognitionTransport transport) {
+        this.uri = null;
+        manager = new ConnectionManager(new Dispatcher(), transport);
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    boolean isShared() {
+        return uri != null;
+    }
+
+    /**
+     * Opens the connection again after {@link #close()}.
+     */
+    public void open() {
+        manager.open(uri);
+    }
+
+    void open(String uri) {
+        manager.open(uri);
+    }
+
+    /**
+     * Closes the connection for all its clients, until {@link #open()} or the next gesture of one of them.
+     */
+    public void close() {
+        manager.close();
+    }
+
+    public boolean isConnected() {
+        return manager.isConnected();
+    }
+
+    /**
+     * Sets how often the open connection is pinged to keep it alive, 0 to disable the pings.
+     */
+    public void setPingIntervalMillis(long pingIntervalMillis) {
+        manager.setPingIntervalMillis(pingIntervalMillis);
+    }
+
+    /**
+     * Sets the delays before reconnecting after the connection dropped: the first attempt waits about the initial
+     * delay and every failed attempt doubles it, up to the maximum. Each delay is randomized between half and all of it.
+     */
+    public void setReconnectBackoffMillis(long initialBackoffMillis, long maxBackoffMillis) {
+        manager.setBackoffMillis(initialBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * Sets how many requests of the current gesture of each client are kept to be sent again after a reconnection.
+     * Pass 0 to keep none.
+     */
+    public void setReplayCapacity(int replayCapacity) {
+        manager.setReplayCapacity(replayCapacity);
+    }
+
+    public long getReconnections() {
+        return manager.getReconnections();
+    }
+
+    /**
+     * The number of clients using the connection.
+     */
+    public int getClientCount() {
+        return attached.size();
+    }
+
+    ConnectionManager.Channel attach(Session session) {
+        attached.add(session);
+        return manager.newChannel();
+    }
+
+    void detach(Session session, ConnectionManager.Channel channel) {
+        attached.remove(session);
+        sessionsById.values().remove(session);
+        channel.close();
+    }
+
+    /**
+     * Routes the responses of the new session to the client and forgets its previous session.
+     */
+    void startSession(Session session, ConnectionManager.Channel channel, String previousId, String id) {
+        if(previousId != null) {
+            sessionsById.remove(previousId, session);
+        }
+        sessionsById.put(id, session);
+        channel.startSession();
+    }
+
+    private Session sessionOf(String id) {
+        if(id.isEmpty()) {
+            return attached.size() == 1 ? attached.get(0) : null;
+        }
+        return sessionsById.get(id);
+    }
+
+    private final class Dispatcher implements ConnectionManager.Listener, Runnable {
+        private final ConcurrentLinkedQueue<ByteBuffer> received = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        //the sessions which received responses since the queue was last empty, only used by the decoding thread
+        private final List<Session> handling = new ArrayList<>();
+
+        @Override
+        public void onConnected(boolean reconnected) {
+            for(Session session : attached) {
+                session.onConnected(reconnected);
+            }
+        }
+
+        @Override
+        public void onBinaryMessage(ByteBuffer message) {
+            received.add(message);
+            if(scheduled.compareAndSet(false, true)) {
+                RESPONSE_THREADS.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                ByteBuffer message;
+                while((message = received.poll()) != null) {
+                    dispatch(message);
+                }
+                //a burst of responses, typically acknowledgements, is handled as a whole
+                for(int i = 0; i < handling.size(); i++) {
+                    handling.get(i).onResponsesHandled();
+                }
+                handling.clear();
+                scheduled.set(false);
+            } while(!received.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        private void dispatch(ByteBuffer message) {
+            long start = System.nanoTime();
+            Greapi.RecognitionResponse response;
+            try {
+                //reads the array of the buffer in place when it has one
+                response = Greapi.RecognitionResponse.parseFrom(CodedInputStream.newInstance(message));
+            } catch (IOException ex) {
+                Log.e(TAG, "Error deserializing the recognition response", ex);
+                return;
+            }
+            long decodeNanos = System.nanoTime() - start;
+            Session session = sessionOf(response.getId());
+            if(session == null) {
+                Log.d(TAG, "Received a response for no current session: " + response.getId());
+                return;
+            }
+            if(!handling.contains(session)) {
+                handling.add(session);
+            }
+            try {
+                session.onResponse(response, decodeNanos);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error handling the recognition response", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.motiongestures.grelib;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+
+import GREProtocol.Greapi;
+
+/**
+ * Writes motion {@code RecognitionRequest} messages straight from sample batches, without building the
+ * intermediate protobuf objects. The output is byte for byte what the generated {@code GREProtocol.Greapi}
+ * classes produce for the same request, including the proto3 rule of skipping fields holding default values.
+ * The samples are written as SensorSample lists, packed blocks or quantized blocks, see {@link SampleEncoding}.
+ * Encoding is done in two steps: {@link #prepare} computes the size of the message and {@link #writeTo} writes it,
+ * so the caller can choose the destination array. An instance is not thread-safe.
+ */
+final class RecognitionRequestEncoder {
+    private static final int ID_FIELD = 1;
+    private static final int ACCELERATION_FIELD = 2;
+    private static final int GYROSCOPE_FIELD = 3;
+    private static final int MAGNETOMETER_FIELD = 4;
+    private static final int SENSITIVITY_FIELD = 5;
+    private static final int ACTIVE_GESTURE_FIELD = 7;
+    private static final int REFERENCE_MODE_FIELD = 10;
+    private static final int SAMPLE_ENCODING_FIELD = 11;
+    private static final int SEQUENCE_FIELD = 12;
+    private static final int SAMPLES_FIELD = 1;
+    private static final int X_FIELD = 1;
+    private static final int Y_FIELD = 2;
+    private static final int Z_FIELD = 3;
+    private static final int INDEX_FIELD = 4;
+    private static final int START_INDEX_FIELD = 4;
+    private static final int INDEX_DELTAS_FIELD = 5;
+    private static final int STEP_FIELD = 1;
+    private static final int QUANTIZED_START_INDEX_FIELD = 2;
+    private static final int QUANTIZED_INDEX_DELTAS_FIELD = 3;
+    //the x, y and z fields of the quantized blocks
+    private static final int[] QUANTIZED_AXIS_FIELDS = {4, 5, 6};
+    //a float field is a one byte tag followed by four bytes
+    private static final int FLOAT_FIELD_SIZE = 5;
+
+    private static final int ACCELERATION = 0;
+    private static final int GYROSCOPE = 1;
+    private static final int MAGNETOMETER = 2;
+    private static final int[] SENSOR_FIELDS = {ACCELERATION_FIELD, GYROSCOPE_FIELD, MAGNETOMETER_FIELD};
+    //the packedSamples field number inside the Acceleration, Gyroscope and Magnetometer messages
+    private static final int[] PACKED_SAMPLES_FIELDS = {6, 3, 2};
+    private static final int[] QUANTIZED_SAMPLES_FIELDS = {7, 4, 3};
+
+    private SampleEncoding sampleEncoding = SampleEncoding.SAMPLE_LIST;
+    private final Quantization[] quantizations = {Quantization.DEFAULT_ACCELERATION,
+            Quantization.DEFAULT_GYROSCOPE, Quantization.DEFAULT_MAGNETOMETER};
+
+    private int sequence = 0;
+    private String id;
+    private int sensitivity;
+    private boolean activeGesture;
+    private int referenceMode;
+    private final SampleBatch[] batches = new SampleBatch[3];
+    //size of the body of the Acceleration, Gyroscope and Magnetometer messages
+    private final int[] sensorSizes = new int[3];
+    //size of the body of the packed blocks
+    private final int[] blockSizes = new int[3];
+    //size of the packed index deltas, -1 if the indexes are consecutive and the deltas are left out
+    private final int[] indexDeltasSizes = new int[3];
+    //quantized deltas of the x, y and z columns of each sensor and their encoded size
+    private final int[][][] quantizedDeltas = new int[3][3][0];
+    private final int[][] quantizedDeltasSizes = new int[3][3];
+    private int size;
+
+    private byte[] buffer = new byte[4096];
+
+    void setSampleEncoding(SampleEncoding sampleEncoding) {
+        this.sampleEncoding = sampleEncoding;
+    }
+
+    SampleEncoding getSampleEncoding() {
+        return sampleEncoding;
+    }
+
+    /**
+     * Sets the sequence number written in the next prepared requests, 0 to leave it out.
+     */
+    void setSequence(int sequence) {
+        this.sequence = sequence;
+    }
+
+    void setQuantizations(Quantization acceleration, Quantization gyroscope, Quantization magnetometer) {
+        quantizations[ACCELERATION] = acceleration;
+        quantizations[GYROSCOPE] = gyroscope;
+        quantizations[MAGNETOMETER] = magnetometer;
+    }
+
+    /**
+     * Captures the request to encode and returns its serialized size. The batches must not change until the
+     * request has been written. A null batch leaves its sensor message out of the request.
+     */
+    int prepare(String id, int sensitivity, boolean activeGesture, int referenceMode,
+                SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer) {
+        this.id = id == null ? "" : id;
+        this.sensitivity = sensitivity;
+        this.activeGesture = activeGesture;
+        this.referenceMode = referenceMode;
+        batches[ACCELERATION] = accelerations;
+        batches[GYROSCOPE] = gyroscope;
+        batches[MAGNETOMETER] = magnetometer;
+
+        int total = 0;
+        if(!this.id.isEmpty()) {
+            total += CodedOutputStream.computeStringSize(ID_FIELD, this.id);
+        }
+        for(int sensor = 0; sensor < batches.length; sensor++) {
+            if(batches[sensor] == null) {
+                continue;
+            }
+            switch(sampleEncoding) {
+                case PACKED:
+                    sensorSizes[sensor] = computePackedSensorSize(sensor);
+                    break;
+                case QUANTIZED_DELTA:
+                    sensorSizes[sensor] = computeQuantizedSensorSize(sensor);
+                    break;
+                default:
+                    sensorSizes[sensor] = computeSamplesSize(batches[sensor]);
+                    break;
+            }
+            total += computeMessageSize(sensorSizes[sensor]);
+        }
+        if(sensitivity != 0) {
+            total += CodedOutputStream.computeUInt32Size(SENSITIVITY_FIELD, sensitivity);
+        }
+        if(activeGesture) {
+            total += 2;
+        }
+        if(referenceMode != 0) {
+            total += CodedOutputStream.computeInt32Size(REFERENCE_MODE_FIELD, referenceMode);
+        }
+        if(sampleEncoding != SampleEncoding.SAMPLE_LIST) {
+            total += CodedOutputStream.computeInt32Size(SAMPLE_ENCODING_FIELD, protobufSampleEncoding());
+        }
+        if(sequence != 0) {
+            total += CodedOutputStream.computeUInt32Size(SEQUENCE_FIELD, sequence);
+        }
+        size = total;
+        return total;
+    }
+
+    /**
+     * Writes the prepared request at the given offset, which must have room for the size returned by {@link #prepare}.
+     */
+    void writeTo(byte[] target, int offset) throws IOException {
+        CodedOutputStream output = CodedOutputStream.newInstance(target, offset, size);
+        if(!id.isEmpty()) {
+            output.writeString(ID_FIELD, id);
+        }
+        for(int sensor = 0; sensor < batches.length; sensor++) {
+            if(batches[sensor] == null) {
+                continue;
+            }
+            //the sensor message only holds the samples, its unit is always the default one (SI and RADS)
+            output.writeTag(SENSOR_FIELDS[sensor], WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(sensorSizes[sensor]);
+            switch(sampleEncoding) {
+                case PACKED:
+                    writePackedBlock(output, sensor);
+                    break;
+                case QUANTIZED_DELTA:
+                    writeQuantizedBlock(output, sensor);
+                    break;
+                default:
+                    writeSamples(output, batches[sensor]);
+                    break;
+            }
+        }
+        if(sensitivity != 0) {
+            output.writeUInt32(SENSITIVITY_FIELD, sensitivity);
+        }
+        if(activeGesture) {
+            output.writeBool(ACTIVE_GESTURE_FIELD, true);
+        }
+        if(referenceMode != 0) {
+            output.writeEnum(REFERENCE_MODE_FIELD, referenceMode);
+        }
+        if(sampleEncoding != SampleEncoding.SAMPLE_LIST) {
+            output.writeEnum(SAMPLE_ENCODING_FIELD, protobufSampleEncoding());
+        }
+        if(sequence != 0) {
+            output.writeUInt32(SEQUENCE_FIELD, sequence);
+        }
+        output.checkNoSpaceLeft();
+    }
+
+    /**
+     * Encodes the request into the reusable buffer of this encoder and returns its length.
+     * The buffer is only valid until the next call.
+     */
+    int encode(String id, int sensitivity, boolean activeGesture, int referenceMode,
+               SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer) throws IOException {
+        int length = prepare(id, sensitivity, activeGesture, referenceMode, accelerations, gyroscope, magnetometer);
+        if(buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        writeTo(buffer, 0);
+        return length;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    private int protobufSampleEncoding() {
+        switch(sampleEncoding) {
+            case PACKED:
+                return Greapi.SampleEncoding.PACKED.getNumber();
+            case QUANTIZED_DELTA:
+                return Greapi.SampleEncoding.QUANTIZED_DELTA.getNumber();
+            default:
+                return Greapi.SampleEncoding.SAMPLE_LIST.getNumber();
+        }
+    }
+
+    private static int computeMessageSize(int messageSize) {
+        return 1 + CodedOutputStream.computeUInt32SizeNoTag(messageSize) + messageSize;
+    }
+
+    private static int computeSamplesSize(SampleBatch batch) {
+        int total = 0;
+        for(int i = 0; i < batch.size; i++) {
+            total += computeMessageSize(computeSampleSize(batch, i));
+        }
+        return total;
+    }
+
+    private static int computeSampleSize(SampleBatch batch, int position) {
+        int total = 0;
+        if(batch.x[position] != 0F) {
+            total += FLOAT_FIELD_SIZE;
+        }
+        if(batch.y[position] != 0F) {
+            total += FLOAT_FIELD_SIZE;
+        }
+        if(batch.z[position] != 0F) {
+            total += FLOAT_FIELD_SIZE;
+        }
+        if(batch.index[position] != 0) {
+            total += 1 + CodedOutputStream.computeInt32SizeNoTag(batch.index[position]);
+        }
+        return total;
+    }
+
+    private static void writeSamples(CodedOutputStream output, SampleBatch batch) throws IOException {
+        for(int i = 0; i < batch.size; i++) {
+            output.writeTag(SAMPLES_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(computeSampleSize(batch, i));
+            if(batch.x[i] != 0F) {
+                output.writeFloat(X_FIELD, batch.x[i]);
+            }
+            if(batch.y[i] != 0F) {
+                output.writeFloat(Y_FIELD, batch.y[i]);
+            }
+            if(batch.z[i] != 0F) {
+                output.writeFloat(Z_FIELD, batch.z[i]);
+            }
+            if(batch.index[i] != 0) {
+                output.writeInt32(INDEX_FIELD, batch.index[i]);
+            }
+        }
+    }
+
+    private int computePackedSensorSize(int sensor) {
+        SampleBatch batch = batches[sensor];
+        int count = batch.size;
+        int block = 0;
+        if(count > 0) {
+            block += 3 * computeMessageSize(count * 4);
+            if(batch.index[0] != 0) {
+                block += 1 + CodedOutputStream.computeInt32SizeNoTag(batch.index[0]);
+            }
+        }
+        indexDeltasSizes[sensor] = computeIndexDeltasSize(batch);
+        if(indexDeltasSizes[sensor] >= 0) {
+            block += computeMessageSize(indexDeltasSizes[sensor]);
+        }
+        blockSizes[sensor] = block;
+        return computeMessageSize(block);
+    }
+
+    private int computeQuantizedSensorSize(int sensor) {
+        SampleBatch batch = batches[sensor];
+        int count = batch.size;
+        //the step is never 0, so it is always written
+        int block = FLOAT_FIELD_SIZE;
+        if(count > 0 && batch.index[0] != 0) {
+            block += 1 + CodedOutputStream.computeInt32SizeNoTag(batch.index[0]);
+        }
+        indexDeltasSizes[sensor] = computeIndexDeltasSize(batch);
+        if(indexDeltasSizes[sensor] >= 0) {
+            block += computeMessageSize(indexDeltasSizes[sensor]);
+        }
+        Quantization quantization = quantizations[sensor];
+        for(int axis = 0; axis < 3; axis++) {
+            float[] column = axis == 0 ? batch.x : axis == 1 ? batch.y : batch.z;
+            int[] deltas = quantizedDeltas[sensor][axis];
+            if(deltas.length < count) {
+                deltas = new int[Math.max(count, deltas.length * 2)];
+                quantizedDeltas[sensor][axis] = deltas;
+            }
+            int previous = 0;
+            int deltasSize = 0;
+            for(int i = 0; i < count; i++) {
+                int quantized = quantization.quantize(column[i]);
+                deltas[i] = quantized - previous;
+                previous = quantized;
+                deltasSize += CodedOutputStream.computeSInt32SizeNoTag(deltas[i]);
+            }
+            quantizedDeltasSizes[sensor][axis] = deltasSize;
+            if(count > 0) {
+                block += computeMessageSize(deltasSize);
+            }
+        }
+        blockSizes[sensor] = block;
+        return computeMessageSize(block);
+    }
+
+    //returns -1 if every index is the previous one plus 1, so that the deltas can be left out
+    private static int computeIndexDeltasSize(SampleBatch batch) {
+        for(int i = 1; i < batch.size; i++) {
+            if(batch.index[i] != batch.index[i - 1] + 1) {
+                int deltasSize = 0;
+                for(int j = 1; j < batch.size; j++) {
+                    deltasSize += CodedOutputStream.computeSInt32SizeNoTag(batch.index[j] - batch.index[j - 1]);
+                }
+                return deltasSize;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeIndexDeltas(CodedOutputStream output, int field, SampleBatch batch, int deltasSize) throws IOException {
+        output.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(deltasSize);
+        for(int i = 1; i < batch.size; i++) {
+            output.writeSInt32NoTag(batch.index[i] - batch.index[i - 1]);
+        }
+    }
+
+    private void writePackedBlock(CodedOutputStream output, int sensor) throws IOException {
+        SampleBatch batch = batches[sensor];
+        int count = batch.size;
+        output.writeTag(PACKED_SAMPLES_FIELDS[sensor], WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(blockSizes[sensor]);
+        if(count > 0) {
+            writePackedFloats(output, X_FIELD, batch.x, count);
+            writePackedFloats(output, Y_FIELD, batch.y, count);
+            writePackedFloats(output, Z_FIELD, batch.z, count);
+            if(batch.index[0] != 0) {
+                output.writeInt32(START_INDEX_FIELD, batch.index[0]);
+            }
+        }
+        if(indexDeltasSizes[sensor] >= 0) {
+            writeIndexDeltas(output, INDEX_DELTAS_FIELD, batch, indexDeltasSizes[sensor]);
+        }
+    }
+
+    private void writeQuantizedBlock(CodedOutputStream output, int sensor) throws IOException {
+        SampleBatch batch = batches[sensor];
+        int count = batch.size;
+        output.writeTag(QUANTIZED_SAMPLES_FIELDS[sensor], WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(blockSizes[sensor]);
+        output.writeFloat(STEP_FIELD, quantizations[sensor].getStep());
+        if(count > 0 && batch.index[0] != 0) {
+            output.writeInt32(QUANTIZED_START_INDEX_FIELD, batch.index[0]);
+        }
+        if(indexDeltasSizes[sensor] >= 0) {
+            writeIndexDeltas(output, QUANTIZED_INDEX_DELTAS_FIELD, batch, indexDeltasSizes[sensor]);
+        }
+        if(count > 0) {
+            for(int axis = 0; axis < 3; axis++) {
+                int[] deltas = quantizedDeltas[sensor][axis];
+                output.writeTag(QUANTIZED_AXIS_FIELDS[axis], WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(quantizedDeltasSizes[sensor][axis]);
+                for(int i = 0; i < count; i++) {
+                    output.writeSInt32NoTag(deltas[i]);
+                }
+            }
+        }
+    }
+
+    private static void writePackedFloats(CodedOutputStream output, int field, float[] values, int count) throws IOException {
+        output.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(count * 4);
+        for(int i = 0; i < count; i++) {
+            output.writeFloatNoTag(values[i]);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.motiongestures.grelib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Carries the encoded recognition requests of a {@link RecognitionConnection} to a recognition engine and the encoded
+ * responses back. The connection takes care of reconnecting, replaying and sharing, a transport only moves frames:
+ * {@link WebSocketTransport} is the default, {@link TcpTransport} sends length-prefixed frames over a plain socket and
+ * {@link InProcessTransport} hands the buffers to an engine running in the same process.
+ */
+public interface RecognitionTransport {
+    /**
+     * Creates a connection to the URI, not opened yet. The events of the connection are reported to the listener on
+     * threads of the transport, never from within the methods of the connection, which are called with locks held.
+     */
+    Connection createConnection(String uri, Listener listener) throws IOException;
+
+    interface Connection {
+        /**
+         * Starts opening the connection, then reports {@link Listener#onOpen} or {@link Listener#onClosed}.
+         */
+        void open();
+
+        /**
+         * Sends one request, without blocking. The buffer must not be modified, the connection keeps it to send it
+         * again after a reconnection, and {@link Listener#onFrameWritten} is reported once it is written or given up on.
+         * Returns the size of the request as sent, framing aside, smaller than the buffer if the transport compressed it.
+         */
+        int send(ByteBuffer request);
+
+        /**
+         * The CPU time the sending threads spent compressing the requests sent so far, 0 if the transport does not
+         * compress them. Called with the same lock held as {@link #send(ByteBuffer)}.
+         */
+        long getCompressionNanos();
+
+        /**
+         * How often an idle connection is checked, 0 to disable it. Transports without such a check ignore it.
+         */
+        void setPingIntervalMillis(long pingIntervalMillis);
+
+        /**
+         * Closes the connection. It may still report events, which are ignored.
+         */
+        void close();
+    }
+
+    interface Listener {
+        void onOpen(Connection connection);
+
+        /**
+         * The connection could not be opened or was lost, the cause is null if it was closed cleanly.
+         */
+        void onClosed(Connection connection, Exception cause);
+
+        void onFrameWritten(Connection connection);
+
+        /**
+         * Receives one response. The buffer belongs to the listener from then on.
+         */
+        void onResponse(Connection connection, ByteBuffer response);
+    }
+}
@@ -0,0 +1,72 @@
+package com.motiongestures.grelib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The layout of the files written by {@link SensorRecorder}, little endian: the magic number and the version, then
+ * records made of a kind byte, the int length of the payload and the payload. A session record holds the start time
+ * of the session in milliseconds since the epoch and its metadata, the sample records after it belong to it.
+ * A sample record stores its samples column by column: the count and the timestamp of the first sample, then the int
+ * offsets of the timestamps from it, the sensor types, the flags and the x, y and z values.
+ */
+final class RecordingFormat {
+    static final int MAGIC = 0x43455247; //"GREC"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+
+    static final byte SESSION_RECORD = 1;
+    static final byte SAMPLES_RECORD = 2;
+    static final int RECORD_HEADER_BYTES = 5;
+
+    static final int SAMPLES_HEADER_BYTES = 12;
+    static final int BYTES_PER_SAMPLE = 18;
+    static final byte FLAG_ACTIVE_GESTURE = 1;
+
+    private RecordingFormat() {
+    }
+
+    static int samplesPayloadBytes(int count) {
+        return SAMPLES_HEADER_BYTES + count * BYTES_PER_SAMPLE;
+    }
+
+    /**
+     * Checks the header of the file and returns the length of its complete records. A record cut short, when the
+     * process died while writing it, is not counted.
+     */
+    static long validLength(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+        if(header.getInt(0) != MAGIC) {
+            throw new IOException("Not a sensor recording");
+        }
+        if(header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported recording version " + header.getInt(4));
+        }
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = HEADER_BYTES;
+        while(position + RECORD_HEADER_BYTES <= size) {
+            recordHeader.clear();
+            readFully(channel, recordHeader, position);
+            byte kind = recordHeader.get(0);
+            int length = recordHeader.getInt(1);
+            if((kind != SESSION_RECORD && kind != SAMPLES_RECORD) || length < 0
+                    || position + RECORD_HEADER_BYTES + length > size) {
+                break;
+            }
+            position += RECORD_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated sensor recording");
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.motiongestures.grelib;
+
+/**
+ * Rotates the acceleration and rotation rate samples from the device frame into the frame of a
+ * {@link ClientReferenceMode}, using the orientation estimated by an {@link OrientationFilter} from the three sensors.
+ * The frame has z up and y along the heading of the device, the horizontal direction it points to: away from the
+ * screen, or along its top when held flat, for {@link ClientReferenceMode#USER_FACING}, and along the forearm
+ * towards the hand for the wrist modes. The heading follows the device between gestures and is held during one, so
+ * a gesture is described relative to the way the user was facing when it started. In
+ * {@link ClientReferenceMode#DEVICE_REFERENCE} the samples are left in the device frame.
+ * Allocation free, not thread safe.
+ */
+final class ReferenceFrameTransform {
+    //a longer gap between two gyroscope readings is not integrated
+    private static final double MAX_GYROSCOPE_GAP_SECONDS = 0.1;
+    //the heading is left unchanged when the pointing axis is this close to vertical
+    private static final double MIN_HORIZONTAL_NORM = 1e-3;
+
+    private final OrientationFilter filter;
+    private ClientReferenceMode referenceMode = ClientReferenceMode.DEVICE_REFERENCE;
+    private boolean headingHeld = false;
+    //the forward direction in the earth frame
+    private double headingX = 1;
+    private double headingY = 0;
+    private final float[] acceleration = new float[3];
+    private final float[] magneticField = new float[3];
+    private boolean hasAcceleration = false;
+    private long lastGyroscopeTimestamp = 0;
+    private boolean hasGyroscope = false;
+    private final float[] axis = new float[3];
+
+    ReferenceFrameTransform() {
+        this(new OrientationFilter());
+    }
+
+    ReferenceFrameTransform(OrientationFilter filter) {
+        this.filter = filter;
+    }
+
+    void setReferenceMode(ClientReferenceMode referenceMode) {
+        this.referenceMode = referenceMode;
+    }
+
+    /**
+     * Holds the heading during a gesture, or lets it follow the device.
+     */
+    void setHeadingHeld(boolean headingHeld) {
+        this.headingHeld = headingHeld;
+    }
+
+    void reset() {
+        filter.reset();
+        hasAcceleration = false;
+        hasGyroscope = false;
+        magneticField[0] = 0;
+        magneticField[1] = 0;
+        magneticField[2] = 0;
+    }
+
+    /**
+     * Takes an accelerometer reading and rotates it in place.
+     */
+    void onAccelerometer(float[] values, int offset) {
+        acceleration[0] = values[offset];
+        acceleration[1] = values[offset + 1];
+        acceleration[2] = values[offset + 2];
+        hasAcceleration = true;
+        if(!filter.isInitialized()) {
+            filter.initialize(acceleration[0], acceleration[1], acceleration[2],
+                    magneticField[0], magneticField[1], magneticField[2]);
+        }
+        rotate(values, offset);
+    }
+
+    /**
+     * Takes a magnetometer reading, which corrects the heading of the following gyroscope readings.
+     */
+    void onMagnetometer(float x, float y, float z) {
+        magneticField[0] = x;
+        magneticField[1] = y;
+        magneticField[2] = z;
+    }
+
+    /**
+     * Takes a gyroscope reading with its timestamp in nanoseconds, advances the orientation and rotates the reading
+     * in place.
+     */
+    void onGyroscope(long timestamp, float[] values, int offset) {
+        if(hasGyroscope) {
+            double dt = (timestamp - lastGyroscopeTimestamp) * 1e-9;
+            if(dt > 0 && dt <= MAX_GYROSCOPE_GAP_SECONDS) {
+                advance(values, offset, dt);
+            }
+        }
+        lastGyroscopeTimestamp = timestamp;
+        hasGyroscope = true;
+        rotate(values, offset);
+    }
+
+    /**
+     * Takes the accelerometer, gyroscope and magnetometer readings of a frame of the given duration in seconds,
+     * as given by a {@link FrameAligner}, and rotates the acceleration and the rotation rate in place.
+     */
+    void onFrame(float[] frame, double dt) {
+        onMagnetometer(frame[6], frame[7], frame[8]);
+        acceleration[0] = frame[0];
+        acceleration[1] = frame[1];
+        acceleration[2] = frame[2];
+        hasAcceleration = true;
+        if(!filter.isInitialized()) {
+            filter.initialize(frame[0], frame[1], frame[2], frame[6], frame[7], frame[8]);
+        } else {
+            advance(frame, 3, dt);
+        }
+        rotate(frame, 0);
+        rotate(frame, 3);
+    }
+
+    private void advance(float[] rate, int offset, double dt) {
+        if(!filter.isInitialized()) {
+            return;
+        }
+        float ax = hasAcceleration ? acceleration[0] : 0;
+        float ay = hasAcceleration ? acceleration[1] : 0;
+        float az = hasAcceleration ? acceleration[2] : 0;
+        filter.update(rate[offset], rate[offset + 1], rate[offset + 2], ax, ay, az,
+                magneticField[0], magneticField[1], magneticField[2], dt);
+    }
+
+    private void rotate(float[] values, int offset) {
+        if(referenceMode == ClientReferenceMode.DEVICE_REFERENCE || !filter.isInitialized()) {
+            return;
+        }
+        if(!headingHeld) {
+            updateHeading();
+        }
+        filter.toEarthFrame(values, offset);
+        double x = values[offset];
+        double y = values[offset + 1];
+        //x to the right of the heading, y along it
+        values[offset] = (float) (x * headingY - y * headingX);
+        values[offset + 1] = (float) (x * headingX + y * headingY);
+    }
+
+    private void updateHeading() {
+        switch(referenceMode) {
+            case LEFT_WRIST:
+                axis[0] = 1;
+                axis[1] = 0;
+                axis[2] = 0;
+                break;
+            case RIGHT_WRIST:
+                axis[0] = -1;
+                axis[1] = 0;
+                axis[2] = 0;
+                break;
+            default:
+                //the top of the device when flat, the back of the screen when upright, a mix in between
+                axis[0] = 0;
+                axis[1] = 1;
+                axis[2] = -1;
+                break;
+        }
+        filter.toEarthFrame(axis, 0);
+        double norm = Math.sqrt(axis[0] * axis[0] + axis[1] * axis[1]);
+        if(norm > MIN_HORIZONTAL_NORM) {
+            headingX = axis[0] / norm;
+            headingY = axis[1] / norm;
+        }
+    }
+}
@@ -3,62 +3,270 @@ package com.motiongestures.grelib;
 import android.content.Context;
 import android.util.Log;
 
-import com.neovisionaries.ws.client.WebSocket;
-import com.neovisionaries.ws.client.WebSocketAdapter;
-import com.neovisionaries.ws.client.WebSocketException;
-import com.neovisionaries.ws.client.WebSocketFactory;
-import com.neovisionaries.ws.client.WebSocketFrame;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import GREProtocol.Greapi;
 
 public class RemoteGestureRecognitionClient extends AbstractGestureRecognitionClient {
     private static final String TAG = "RemoteGestureRecognitionClient";
-    private SocketAdapter socketAdapter = new SocketAdapter();
+    public static final int DEFAULT_SENSITIVITY = 150;
+    private static final long RESPONSE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private final RecognitionConnection connection;
+    private final SessionHandler sessionHandler = new SessionHandler();
+    //the channel of this client on the connection, null once detached from a shared connection
+    private volatile ConnectionManager.Channel channel;
+    private volatile int sensitivity = DEFAULT_SENSITIVITY;
+    //set by connect() until the cached samples are sent on an open connection
+    private final AtomicBoolean sessionPending = new AtomicBoolean(false);
+    private volatile String uri;
+    //guards the encoder and the held batches, used by the sender thread and by the responses freeing the window
+    private final Object sendLock = new Object();
+    private final RecognitionRequestEncoder requestEncoder = new RecognitionRequestEncoder();
+    private volatile InFlightWindow inFlightWindow;
+    //the batches waiting for room in the window, merged into one request
+    private final SampleBatch heldAccelerations = new SampleBatch();
+    private final SampleBatch heldGyroscope = new SampleBatch();
+    private final SampleBatch heldMagnetometer = new SampleBatch();
+    private boolean holding = false;
+    private final AtomicLong coalescedBatches = new AtomicLong();
+    private volatile SampleEncoding sampleEncoding = SampleEncoding.SAMPLE_LIST;
+    private volatile Quantization[] quantizations = {Quantization.DEFAULT_ACCELERATION,
+            Quantization.DEFAULT_GYROSCOPE, Quantization.DEFAULT_MAGNETOMETER};
 
-    private WebSocket webSocket;
-    private String currentSessionId = null;
+    private volatile String currentSessionId = null;
 
     public RemoteGestureRecognitionClient(Context context) {
+        this(context, new RecognitionConnection(new WebSocketTransport()), null);
+    }
+
+    /**
+     * Creates a client already connecting to the server, so that the first gesture does not wait for the connection.
+     */
+    public RemoteGestureRecognitionClient(Context context, String uri) {
+        this(context, new RecognitionConnection(new WebSocketTransport()), uri);
+    }
+
+    /**
+     * Creates a client connecting to the server over the given transport instead of a WebSocket,
+     * already connecting if the URI is not null.
+     */
+    public RemoteGestureRecognitionClient(Context context, String uri, RecognitionTransport transport) {
+        this(context, new RecognitionConnection(transport), uri);
+    }
+
+    /**
+     * Creates a client sending its sessions over a connection shared with other clients. The URI given to
+     * {@link #connect(String)} is then ignored, the client always uses the URI of the shared connection, and
+     * pausing or closing the client leaves the connection open for the others.
+     */
+    public RemoteGestureRecognitionClient(Context context, RecognitionConnection connection) {
+        this(context, connection, connection.getUri());
+    }
+
+    private RemoteGestureRecognitionClient(Context context, RecognitionConnection connection, String uri) {
         super(context);
+        this.connection = connection;
+        channel = connection.attach(sessionHandler);
+        if(uri != null) {
+            preconnect(uri);
+        }
+    }
+
+    /**
+     * Opens the connection to the server ahead of the next {@link #connect(String)} to the same URI.
+     * The connection is then kept open across gestures, and reopened after {@link #resume()}, until {@link #pause()}.
+     */
+    public void preconnect(String uri) {
+        this.uri = connection.isShared() ? connection.getUri() : uri;
+        attachedChannel();
+        connection.open(this.uri);
     }
 
     @Override
     public void pause() {
         unregisterSensorListeners();
-        if(webSocket != null) {
-            webSocket.removeListener(socketAdapter);
-            webSocket.disconnect();
+        if(!connection.isShared()) {
+            connection.close();
         }
     }
 
     @Override
     public void resume() {
         registerSensorListeners();
+        String lastUri = uri;
+        if(lastUri != null) {
+            connection.open(lastUri);
+        }
     }
 
+    /**
+     * Ends the gesture. The connection stays open for the next one.
+     */
     @Override
     public void disconnect() {
         super.sendLastSamples();
-        webSocket.sendClose();
     }
 
+    /**
+     * Closes the connection to the server, until the next {@link #connect(String)} or {@link #preconnect(String)},
+     * after sending the samples already queued. A client of a shared connection is only detached from it.
+     */
+    @Override
+    public void close() {
+        super.close();
+        uri = null;
+        if(connection.isShared()) {
+            synchronized (sessionHandler) {
+                if(channel != null) {
+                    connection.detach(sessionHandler, channel);
+                    channel = null;
+                }
+            }
+        } else {
+            connection.close();
+        }
+    }
+
+    /**
+     * The connection of the client, shared with other clients or not.
+     */
+    public RecognitionConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Sets how often the open connection is pinged to keep it alive, 0 to disable the pings.
+     */
+    public void setPingIntervalMillis(long pingIntervalMillis) {
+        connection.setPingIntervalMillis(pingIntervalMillis);
+    }
+
+    /**
+     * Sets the delays before reconnecting after the connection dropped: the first attempt waits about the initial
+     * delay and every failed attempt doubles it, up to the maximum. Each delay is randomized between half and all of it.
+     */
+    public void setReconnectBackoffMillis(long initialBackoffMillis, long maxBackoffMillis) {
+        connection.setReconnectBackoffMillis(initialBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * Sets how many requests of the current gesture are kept to be sent again after a reconnection.
+     * Pass 0 to keep none.
+     */
+    public void setReplayCapacity(int replayCapacity) {
+        connection.setReplayCapacity(replayCapacity);
+    }
+
+    public long getReconnections() {
+        return connection.getReconnections();
+    }
+
+    /**
+     * Sets the sensitivity sent with the requests, {@link #DEFAULT_SENSITIVITY} by default. Takes effect with the next request.
+     */
+    public void setSensitivity(int sensitivity) {
+        this.sensitivity = sensitivity;
+    }
+
+    public int getSensitivity() {
+        return sensitivity;
+    }
+
+    private ConnectionManager.Channel attachedChannel() {
+        synchronized (sessionHandler) {
+            if(channel == null) {
+                channel = connection.attach(sessionHandler);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Numbers the requests and allows at most the given number of them to wait for a response echoing their number,
+     * which needs a server supporting it. While the window is full the batches are merged into one request sent
+     * when a response frees a slot, so a slow server receives fewer, bigger requests instead of a growing backlog.
+     * The last request of a gesture is never held. Pass 0, the default, to send the requests without sequence.
+     */
+    public void setInFlightWindow(int requests) {
+        synchronized (sendLock) {
+            inFlightWindow = requests == 0 ? null : new InFlightWindow(requests, RESPONSE_TIMEOUT_NANOS);
+        }
+    }
+
+    /**
+     * The round trip times of the sequenced requests, empty if the in-flight window is disabled.
+     */
+    public RoundTripStats getRoundTripStats() {
+        InFlightWindow window = inFlightWindow;
+        if(window == null) {
+            return new RoundTripStats(new long[0], 0, 0, coalescedBatches.get());
+        }
+        return new RoundTripStats(window.sortedRoundTrips(), window.getInFlight(), window.getExpired(), coalescedBatches.get());
+    }
+
+    /**
+     * The size of the requests of the current session before and after compression, see
+     * {@link WebSocketTransport#enableCompression(int, boolean)}, and the time spent compressing them.
+     */
+    public CompressionStats getCompressionStats() {
+        ConnectionManager.Channel current = channel;
+        return current == null ? new CompressionStats(0, 0, 0, 0) : current.getCompressionStats();
+    }
+
+    /**
+     * Selects how the samples are laid out in the requests. Anything but {@link SampleEncoding#SAMPLE_LIST} needs a server supporting it.
+     * Takes effect with the next request.
+     */
+    public void setSampleEncoding(SampleEncoding sampleEncoding) {
+        this.sampleEncoding = sampleEncoding;
+    }
+
+    public SampleEncoding getSampleEncoding() {
+        return sampleEncoding;
+    }
+
+    /**
+     * Sets the precision of each sensor when the {@link SampleEncoding#QUANTIZED_DELTA} encoding is used.
+     */
+    public void setQuantization(Quantization acceleration, Quantization gyroscope, Quantization magnetometer) {
+        quantizations = new Quantization[]{acceleration, gyroscope, magnetometer};
+    }
+
+    /**
+     * Starts a gesture. It begins at once on an open connection, otherwise the connection is opened first.
+     */
     public void connect(String uri) {
         super.resetSamplesList();
+        this.uri = connection.isShared() ? connection.getUri() : uri;
+        String previousSessionId = currentSessionId;
+        currentSessionId = UUID.randomUUID().toString();
+        synchronized (sendLock) {
+            if(inFlightWindow != null) {
+                inFlightWindow.reset();
+            }
+            clearHeldBatches();
+        }
+        connection.startSession(sessionHandler, attachedChannel(), previousSessionId, currentSessionId);
+        sessionPending.set(true);
+        connection.open(this.uri);
+        if(connection.isConnected()) {
+            startPendingSession();
+        }
+    }
+
+    private void startPendingSession() {
+        if(!sessionPending.compareAndSet(true, false)) {
+            return;
+        }
         try {
-            webSocket = new WebSocketFactory().createSocket(uri);
-            webSocket.addListener(socketAdapter);
-            currentSessionId = UUID.randomUUID().toString();
-            webSocket.connectAsynchronously();
+            //runs on the thread of the connection while the sensors keep adding samples
+            super.startGesture(false);
         } catch (IOException e) {
-            Log.e(TAG, "Cannot create socket connection", e);
+            Log.e(TAG, "Cannot send the cached samples", e);
         }
     }
 
@@ -77,96 +285,152 @@ public class RemoteGestureRecognitionClient extends AbstractGestureRecognitionCl
         }
     }
 
-    private Iterable<? extends Greapi.SensorSample> convertToProtobufSamples(Iterable<? extends SensorSample> samples) {
-        List<Greapi.SensorSample> protobufSamples = new ArrayList<>();
-        for(SensorSample sensorSample : samples) {
-            protobufSamples.add(Greapi.SensorSample.newBuilder()
-                    .setX(sensorSample.getX())
-                    .setY(sensorSample.getY())
-                    .setZ(sensorSample.getZ())
-                    .setIndex(sensorSample.getIndex())
-                    .build());
+    @Override
+    protected void sendSamples(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                               boolean activeGesture) throws IOException {
+        synchronized (sendLock) {
+            InFlightWindow window = inFlightWindow;
+            if(window == null) {
+                sendRequest(accelerations, gyroscope, magnetometer, activeGesture, 0);
+                return;
+            }
+            if(!holding && window.hasRoom(System.nanoTime())) {
+                sendRequest(accelerations, gyroscope, magnetometer, activeGesture, window.send(System.nanoTime()));
+                return;
+            }
+            heldAccelerations.addAll(accelerations);
+            heldGyroscope.addAll(gyroscope);
+            heldMagnetometer.addAll(magnetometer);
+            holding = true;
+            coalescedBatches.incrementAndGet();
+            if(!activeGesture) {
+                //the end of the gesture does not wait, it goes without a sequence if there is no room
+                int sequence = window.hasRoom(System.nanoTime()) ? window.send(System.nanoTime()) : 0;
+                sendRequest(heldAccelerations, heldGyroscope, heldMagnetometer, false, sequence);
+                clearHeldBatches();
+            } else {
+                sendHeldBatches(window);
+            }
         }
-        return protobufSamples;
     }
 
-    @Override
-    protected void sendSamples(Iterable<? extends SensorSample> accelerations,
-                             Iterable<? extends SensorSample> gyroscope,
-                             Iterable<? extends SensorSample> magnetometer) throws IOException {
-        Greapi.Acceleration accelerationMessage = Greapi.Acceleration.newBuilder()
-                .addAllSamples(convertToProtobufSamples(accelerations))
-                .setUnit(Greapi.AccelerationUnit.SI)
-                .build();
-        Greapi.Gyroscope gyroscopeMessage = Greapi.Gyroscope.newBuilder()
-                .addAllSamples(convertToProtobufSamples(gyroscope))
-                .setUnit(Greapi.GyroscopeUnit.RADS)
-                .build();
-        Greapi.Magnetometer magnetometerMessage = Greapi.Magnetometer.newBuilder()
-                .addAllSamples(convertToProtobufSamples(magnetometer))
-                .build();
-        Greapi.RecognitionRequest recognition = Greapi.RecognitionRequest.newBuilder()
-                .setId(currentSessionId)
-                .setSensitivity(150)
-                .setActiveGesture(activeGesture)
-                .setReferenceMode(convertToProtobufReferenceMode(referenceMode))
-                .setAcceleration(accelerationMessage)
-                .setGyroscope(gyroscopeMessage)
-                .setMagnetometer(magnetometerMessage)
-                .build();
-
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        recognition.writeTo(outputStream);
-        webSocket.sendBinary(outputStream.toByteArray());
-    }
-
-
-    private final class SocketAdapter extends WebSocketAdapter {
-        @Override
-        public void onBinaryMessage(WebSocket websocket, byte[] binary) throws Exception {
-            try{
-                ByteArrayInputStream inputStream = new ByteArrayInputStream(binary);
-                final Greapi.RecognitionResponse recognitionResponse = Greapi.RecognitionResponse.parseFrom(inputStream);
-                if(recognitionResponse.getStatus() == Greapi.Status.GestureEnd) {
-                    if(gestureRecognitionResponseListener != null) {
-                        gestureRecognitionResponseListener.gesturesRecognized(recognitionResponse.getNamesList(),
-                                recognitionResponse.getLabelsList(),recognitionResponse.getConfidence());
-                    }
-                } else if(recognitionResponse.getStatus() == Greapi.Status.GestureRejected) {
-                    if(gestureRecognitionResponseListener!= null) {
-                        gestureRecognitionResponseListener.gesturesRejected(recognitionResponse.getNamesList(),
-                                recognitionResponse.getLabelsList(), recognitionResponse.getConfidence());
-                    }
-                } else if(recognitionResponse.getStatus() == Greapi.Status.GestureTooLong) {
-                    if(gestureRecognitionResponseListener!= null) {
-                        gestureRecognitionResponseListener.gestureTooLong();
-                    }
-                } else {
-                    Log.d(TAG,"Received recognition response with status "+recognitionResponse.getStatus());
+    //must be called while holding sendLock
+    private void sendHeldBatches(InFlightWindow window) throws IOException {
+        if(holding && window.hasRoom(System.nanoTime())) {
+            sendRequest(heldAccelerations, heldGyroscope, heldMagnetometer, true, window.send(System.nanoTime()));
+            clearHeldBatches();
+        }
+    }
+
+    //must be called while holding sendLock
+    private void clearHeldBatches() {
+        heldAccelerations.clear();
+        heldGyroscope.clear();
+        heldMagnetometer.clear();
+        holding = false;
+    }
+
+    //must be called while holding sendLock
+    private void sendRequest(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                             boolean activeGesture, int sequence) throws IOException {
+        Quantization[] currentQuantizations = quantizations;
+        requestEncoder.setSampleEncoding(sampleEncoding);
+        requestEncoder.setQuantizations(currentQuantizations[0], currentQuantizations[1], currentQuantizations[2]);
+        requestEncoder.setSequence(sequence);
+        long start = System.nanoTime();
+        //transformed samples are already in the reference frame and carry no magnetometer
+        boolean transformed = isOrientationTransformEnabled();
+        int size = requestEncoder.prepare(currentSessionId, sensitivity, activeGesture,
+                transformed ? Greapi.ReferenceMode.DEVICE_REFERENCE.getNumber() : convertToProtobufReferenceMode(referenceMode).getNumber(),
+                accelerations, gyroscope, transformed ? null : magnetometer);
+        //the socket and the replay buffer keep the payload, so it cannot be a reused buffer
+        byte[] payload = new byte[size];
+        requestEncoder.writeTo(payload, 0);
+        metrics.onRequestEncoded(System.nanoTime() - start, size);
+        send(payload);
+    }
+
+    private void sendHeldRequests() {
+        synchronized (sendLock) {
+            InFlightWindow window = inFlightWindow;
+            if(window != null) {
+                try {
+                    sendHeldBatches(window);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot send the held samples", e);
                 }
-            }catch(IOException ex) {
-                Log.e(TAG,"Error deserializing the recognition response",ex);
             }
         }
+    }
+
+    private void send(byte[] payload) {
+        ConnectionManager.Channel current = channel;
+        if(current == null) {
+            Log.d(TAG, "The client is closed, dropping a request");
+            return;
+        }
+        current.send(payload);
+    }
+
+
+    private void acknowledge() {
+        ConnectionManager.Channel current = channel;
+        if(current != null) {
+            current.acknowledge();
+        }
+    }
+
+    private final class SessionHandler implements RecognitionConnection.Session {
+        //only used by the response thread of the connection
+        private boolean acknowledgedRequests = false;
+        private int responsesWithoutResult = 0;
+
         @Override
-        public void onConnected(WebSocket websocket, Map<String, List<String>> headers) throws Exception {
-            Log.d(TAG,"Connected to server");
-            activeGesture = false;
-            RemoteGestureRecognitionClient.super.sendCachedSamples();
-            activeGesture = true;
+        public void onResponse(Greapi.RecognitionResponse recognitionResponse, long decodeNanos) {
+            metrics.onResponseDecoded(decodeNanos);
+            InFlightWindow window = inFlightWindow;
+            if(window != null && window.acknowledge(recognitionResponse.getSequence(), System.nanoTime()) >= 0) {
+                //the held batches are sent once the responses queued with this one are handled
+                acknowledgedRequests = true;
+            }
+            switch(recognitionResponse.getStatus()) {
+                case GestureEnd:
+                    onResult(GestureResult.RECOGNIZED, recognitionResponse);
+                    break;
+                case GestureRejected:
+                    onResult(GestureResult.REJECTED, recognitionResponse);
+                    break;
+                case GestureTooLong:
+                    onResult(GestureResult.TOO_LONG, recognitionResponse);
+                    break;
+                default:
+                    responsesWithoutResult++;
+                    break;
+            }
+        }
+
+        private void onResult(int kind, Greapi.RecognitionResponse recognitionResponse) {
+            acknowledge();
+            metrics.onResult();
+            resultDispatcher.deliver(kind, recognitionResponse);
         }
 
         @Override
-        public void onError(WebSocket websocket, WebSocketException cause) throws Exception {
-            super.onError(websocket, cause);
-            Log.e(TAG,"Received an error communicating with the server:",cause);
+        public void onResponsesHandled() {
+            if(responsesWithoutResult > 0) {
+                Log.d(TAG, "Received " + responsesWithoutResult + " responses without result");
+                responsesWithoutResult = 0;
+            }
+            if(acknowledgedRequests) {
+                acknowledgedRequests = false;
+                sendHeldRequests();
+            }
         }
 
         @Override
-        public void onDisconnected(WebSocket websocket, WebSocketFrame serverCloseFrame, WebSocketFrame clientCloseFrame, boolean closedByServer) throws Exception {
-            super.onDisconnected(websocket, serverCloseFrame, clientCloseFrame, closedByServer);
-            int code = closedByServer?serverCloseFrame.getCloseCode():clientCloseFrame.getCloseCode();
-            Log.e(TAG,"Disconnected from server with code "+code);
+        public void onConnected(boolean reconnected) {
+            Log.d(TAG,"Connected to server");
+            startPendingSession();
         }
     }
 }
@@ -0,0 +1,170 @@
+package com.motiongestures.grelib;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import GREProtocol.Greapi;
+
+/**
+ * Delivers the results of a client to its listeners, through its callback executor if it has one. The results come
+ * from a small pool and the names from a table indexed by label, so that delivering a result does not allocate.
+ */
+final class ResultDispatcher {
+    private static final String TAG = "ResultDispatcher";
+    private static final int RESULT_POOL_SIZE = 8;
+    private static final int MAX_INTERNED_LABEL = 4096;
+
+    private volatile GestureRecognitionResponseListener responseListener;
+    private volatile GestureResultListener resultListener;
+    private volatile Executor callbackExecutor;
+    //guarded by themselves
+    private final ArrayDeque<GestureResult> resultPool = new ArrayDeque<>();
+    private String[] namesByLabel = new String[64];
+
+    void setResponseListener(GestureRecognitionResponseListener responseListener) {
+        this.responseListener = responseListener;
+    }
+
+    GestureRecognitionResponseListener getResponseListener() {
+        return responseListener;
+    }
+
+    void setResultListener(GestureResultListener resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    GestureResultListener getResultListener() {
+        return resultListener;
+    }
+
+    void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    boolean hasListeners() {
+        return responseListener != null || resultListener != null;
+    }
+
+    GestureResult obtain(int kind, int count, float confidence) {
+        GestureResult result;
+        synchronized (resultPool) {
+            result = resultPool.pollFirst();
+        }
+        if(result == null) {
+            result = new GestureResult(this);
+        }
+        result.reset(kind, count, confidence);
+        return result;
+    }
+
+    /**
+     * The name kept for the label, so that the listeners get the same instance for every result.
+     */
+    String internName(int label, String name) {
+        if(label < 0 || label >= MAX_INTERNED_LABEL) {
+            return name;
+        }
+        synchronized (resultPool) {
+            if(label >= namesByLabel.length) {
+                namesByLabel = Arrays.copyOf(namesByLabel, Math.min(MAX_INTERNED_LABEL, Math.max(label + 1, namesByLabel.length * 2)));
+            }
+            String interned = namesByLabel[label];
+            if(interned == null || !interned.equals(name)) {
+                namesByLabel[label] = name;
+                interned = name;
+            }
+            return interned;
+        }
+    }
+
+    /**
+     * Delivers the result carried by a GestureEnd, GestureRejected or GestureTooLong response.
+     */
+    void deliver(int kind, Greapi.RecognitionResponse response) {
+        if(!hasListeners()) {
+            return;
+        }
+        int count = kind == GestureResult.TOO_LONG ? 0 : response.getLabelsCount();
+        GestureResult result = obtain(kind, count, response.getConfidence());
+        for(int i = 0; i < count; i++) {
+            int label = response.getLabels(i);
+            result.labels[i] = label;
+            result.names[i] = internName(label, i < response.getNamesCount() ? response.getNames(i) : "");
+        }
+        if(kind != GestureResult.TOO_LONG) {
+            result.nameList = response.getNamesList();
+            result.labelList = response.getLabelsList();
+        }
+        deliver(result);
+    }
+
+    /**
+     * Calls the listeners with the result, through the callback executor if there is one.
+     */
+    void deliver(GestureResult result) {
+        Executor executor = callbackExecutor;
+        if(executor == null) {
+            dispatch(result);
+            return;
+        }
+        try {
+            executor.execute(result);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "The callback executor rejected a result", e);
+            release(result);
+        }
+    }
+
+    void dispatch(GestureResult result) {
+        try {
+            GestureRecognitionResponseListener listener = responseListener;
+            GestureResultListener primitiveListener = resultListener;
+            switch(result.kind) {
+                case GestureResult.RECOGNIZED:
+                    if(listener != null) {
+                        listener.gesturesRecognized(result.nameList(), result.labelList(), result.confidence);
+                    }
+                    if(primitiveListener != null) {
+                        primitiveListener.gesturesRecognized(result.labels, result.names, result.count, result.confidence);
+                    }
+                    break;
+                case GestureResult.REJECTED:
+                    if(listener != null) {
+                        listener.gesturesRejected(result.nameList(), result.labelList(), result.confidence);
+                    }
+                    if(primitiveListener != null) {
+                        primitiveListener.gesturesRejected(result.labels, result.names, result.count, result.confidence);
+                    }
+                    break;
+                default:
+                    if(listener != null) {
+                        listener.gestureTooLong();
+                    }
+                    if(primitiveListener != null) {
+                        primitiveListener.gestureTooLong();
+                    }
+                    break;
+            }
+        } finally {
+            release(result);
+        }
+    }
+
+    private void release(GestureResult result) {
+        result.nameList = null;
+        result.labelList = null;
+        synchronized (resultPool) {
+            if(resultPool.size() < RESULT_POOL_SIZE) {
+                resultPool.addLast(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.motiongestures.grelib;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time view of the sequenced requests of a {@link RemoteGestureRecognitionClient}: round trip times of the
+ * recent requests, requests in flight and what the in-flight window did to the batches.
+ */
+public final class RoundTripStats {
+    private final long[] sortedRoundTrips;
+    private final int inFlight;
+    private final long expiredRequests;
+    private final long coalescedBatches;
+
+    RoundTripStats(long[] sortedRoundTrips, int inFlight, long expiredRequests, long coalescedBatches) {
+        this.sortedRoundTrips = sortedRoundTrips;
+        this.inFlight = inFlight;
+        this.expiredRequests = expiredRequests;
+        this.coalescedBatches = coalescedBatches;
+    }
+
+    /**
+     * The number of round trip times the percentiles are computed on, at most the last 1024.
+     */
+    public int getCount() {
+        return sortedRoundTrips.length;
+    }
+
+    /**
+     * The round trip time under which the given percentage of the recent requests were answered, 0 if none was.
+     */
+    public double getPercentileMillis(double percentile) {
+        if(percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+        if(sortedRoundTrips.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sortedRoundTrips.length) - 1;
+        return toMillis(sortedRoundTrips[Math.max(0, rank)]);
+    }
+
+    public double getMaxMillis() {
+        return sortedRoundTrips.length == 0 ? 0 : toMillis(sortedRoundTrips[sortedRoundTrips.length - 1]);
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * The requests given up on because no response came in time.
+     */
+    public long getExpiredRequests() {
+        return expiredRequests;
+    }
+
+    /**
+     * The batches merged into a later request because the window was full.
+     */
+    public long getCoalescedBatches() {
+        return coalescedBatches;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "RoundTripStats{count=" + getCount() +
+                ", p50=" + getPercentileMillis(50) +
+                ", p90=" + getPercentileMillis(90) +
+                ", p99=" + getPercentileMillis(99) +
+                ", inFlight=" + inFlight +
+                ", expiredRequests=" + expiredRequests +
+                ", coalescedBatches=" + coalescedBatches + '}';
+    }
+}
@@ -0,0 +1,152 @@
+package com.motiongestures.grelib;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A growable batch of samples of one sensor, stored column by column.
+ * Batches are reused: once sent they are cleared and handed back to their pool.
+ * Iterating over a batch hands out the same {@link SensorSample} instance for every element,
+ * so the iterated samples must not be retained by the caller.
+ */
+public final class SampleBatch implements Iterable<SensorSample> {
+    private static final int DEFAULT_CAPACITY = 128;
+
+    float[] x;
+    float[] y;
+    float[] z;
+    int[] index;
+    int size = 0;
+
+    public SampleBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SampleBatch(int initialCapacity) {
+        x = new float[initialCapacity];
+        y = new float[initialCapacity];
+        z = new float[initialCapacity];
+        index = new int[initialCapacity];
+    }
+
+    public void add(float sampleX, float sampleY, float sampleZ, int sampleIndex) {
+        if(size == x.length) {
+            grow(size + 1);
+        }
+        x[size] = sampleX;
+        y[size] = sampleY;
+        z[size] = sampleZ;
+        index[size] = sampleIndex;
+        size++;
+    }
+
+    public void addAll(SampleBatch other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.x, 0, x, size, other.size);
+        System.arraycopy(other.y, 0, y, size, other.size);
+        System.arraycopy(other.z, 0, z, size, other.size);
+        System.arraycopy(other.index, 0, index, size, other.size);
+        size += other.size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public float getX(int position) {
+        return x[checkPosition(position)];
+    }
+
+    public float getY(int position) {
+        return y[checkPosition(position)];
+    }
+
+    public float getZ(int position) {
+        return z[checkPosition(position)];
+    }
+
+    public int getIndex(int position) {
+        return index[checkPosition(position)];
+    }
+
+    //removes the leading samples whose index is not after the given one, the indexes being increasing
+    void removeUpToIndex(int lastIndex) {
+        int first = 0;
+        while(first < size && index[first] <= lastIndex) {
+            first++;
+        }
+        if(first == 0) {
+            return;
+        }
+        size -= first;
+        System.arraycopy(x, first, x, 0, size);
+        System.arraycopy(y, first, y, 0, size);
+        System.arraycopy(z, first, z, 0, size);
+        System.arraycopy(index, first, index, 0, size);
+    }
+
+    void ensureCapacity(int capacity) {
+        if(x.length < capacity) {
+            grow(capacity);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, x.length * 2);
+        float[] newX = new float[capacity];
+        float[] newY = new float[capacity];
+        float[] newZ = new float[capacity];
+        int[] newIndex = new int[capacity];
+        System.arraycopy(x, 0, newX, 0, size);
+        System.arraycopy(y, 0, newY, 0, size);
+        System.arraycopy(z, 0, newZ, 0, size);
+        System.arraycopy(index, 0, newIndex, 0, size);
+        x = newX;
+        y = newY;
+        z = newZ;
+        index = newIndex;
+    }
+
+    private int checkPosition(int position) {
+        if(position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + " of a batch with " + size + " samples");
+        }
+        return position;
+    }
+
+    @Override
+    public Iterator<SensorSample> iterator() {
+        return new Iterator<SensorSample>() {
+            private final SensorSample current = new SensorSample(0, 0, 0, 0);
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < size;
+            }
+
+            @Override
+            public SensorSample next() {
+                if(position >= size) {
+                    throw new NoSuchElementException();
+                }
+                current.set(x[position], y[position], z[position], index[position]);
+                position++;
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
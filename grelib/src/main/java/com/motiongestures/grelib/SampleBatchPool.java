@@ -0,0 +1,33 @@
+package com.motiongestures.grelib;
+
+/**
+ * Bounded pool of cleared {@link SampleBatch} objects, so that batches are recycled instead of
+ * being allocated for every send. Batches released while the pool is full are left to the garbage collector.
+ */
+final class SampleBatchPool {
+    private final SampleBatch[] batches;
+    private int count = 0;
+
+    SampleBatchPool(int maxPooled) {
+        batches = new SampleBatch[maxPooled];
+    }
+
+    synchronized SampleBatch acquire() {
+        if(count == 0) {
+            return new SampleBatch();
+        }
+        count--;
+        SampleBatch batch = batches[count];
+        batches[count] = null;
+        return batch;
+    }
+
+    void release(SampleBatch batch) {
+        batch.clear();
+        synchronized (this) {
+            if(count < batches.length) {
+                batches[count++] = batch;
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.motiongestures.grelib;
+
+/**
+ * How the sensor samples of a recognition request are laid out on the wire.
+ */
+public enum SampleEncoding {
+    /** One SensorSample message per sample. Understood by every server version. */
+    SAMPLE_LIST,
+    /** One PackedSensorBlock per sensor with packed x, y and z columns. Much smaller, but needs a server supporting it. */
+    PACKED,
+    /**
+     * One QuantizedSensorBlock per sensor: fixed-point values, delta encoded as zigzag varints, with a precision
+     * configured per sensor by a {@link Quantization}. The smallest, but lossy and needs a server supporting it.
+     */
+    QUANTIZED_DELTA
+}
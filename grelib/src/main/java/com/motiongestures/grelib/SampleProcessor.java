@@ -0,0 +1,24 @@
+package com.motiongestures.grelib;
+
+/**
+ * A streaming preprocessing stage applied to the samples of one sensor before they are cached and sent.
+ * Stages keep a constant amount of state and are built and combined with {@link SampleProcessors}.
+ */
+public interface SampleProcessor {
+    /**
+     * Processes a sample in place.
+     * @param values the x, y and z values of the sample, replaced by the output of the stage
+     * @return false if the stage does not output a sample for this input, as a decimator does
+     */
+    boolean process(float[] values);
+
+    /**
+     * Forgets the previous samples.
+     */
+    void reset();
+
+    /**
+     * A stage with the same settings and a fresh state, as every sensor needs its own.
+     */
+    SampleProcessor copy();
+}
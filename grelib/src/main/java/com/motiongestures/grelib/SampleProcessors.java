@@ -0,0 +1,327 @@
+package com.motiongestures.grelib;
+
+/**
+ * The built-in {@link SampleProcessor} stages.
+ */
+public final class SampleProcessors {
+    private static final int DEFAULT_DOWNSAMPLING_TAPS = 31;
+
+    private SampleProcessors() {
+    }
+
+    /**
+     * Runs the given stages one after the other, stopping at the first one which drops the sample.
+     */
+    public static SampleProcessor chain(SampleProcessor... stages) {
+        return new Chain(stages);
+    }
+
+    /**
+     * Second order Butterworth low-pass IIR filter.
+     */
+    public static SampleProcessor lowPass(float cutoffHz, float sampleRateHz) {
+        return new BiquadLowPass(cutoffHz, sampleRateHz);
+    }
+
+    /**
+     * Windowed-sinc low-pass FIR filter with the given odd number of taps.
+     */
+    public static SampleProcessor firLowPass(int taps, float cutoffHz, float sampleRateHz) {
+        return new FirLowPass(taps, cutoffHz, sampleRateHz, 1);
+    }
+
+    /**
+     * Keeps one sample out of the given number, without filtering.
+     */
+    public static SampleProcessor decimate(int factor) {
+        return new Decimator(factor);
+    }
+
+    /**
+     * Reduces the rate of the samples from the input rate to the output rate, which must divide it.
+     * A FIR low-pass filter cutting at 80% of the output Nyquist frequency removes what would alias, and is only
+     * computed for the samples that are kept.
+     */
+    public static SampleProcessor downsample(int inputRateHz, int outputRateHz) {
+        if(outputRateHz <= 0 || inputRateHz % outputRateHz != 0) {
+            throw new IllegalArgumentException("Cannot downsample from " + inputRateHz + " Hz to " + outputRateHz + " Hz");
+        }
+        return new FirLowPass(DEFAULT_DOWNSAMPLING_TAPS, outputRateHz * 0.4f, inputRateHz, inputRateHz / outputRateHz);
+    }
+
+    /**
+     * Divides the values by the given full scale, for example the standard gravity for an accelerometer.
+     */
+    public static SampleProcessor normalize(float fullScale) {
+        return new Normalizer(fullScale);
+    }
+
+    /**
+     * The number of input samples for each output sample of the given processor, 1 for null. Processors other than
+     * the built-in stages are taken to keep the rate.
+     */
+    static int decimationOf(SampleProcessor processor) {
+        if(processor instanceof Chain) {
+            int decimation = 1;
+            for(SampleProcessor stage : ((Chain) processor).stages) {
+                decimation *= decimationOf(stage);
+            }
+            return decimation;
+        }
+        if(processor instanceof FirLowPass) {
+            return ((FirLowPass) processor).decimation;
+        }
+        if(processor instanceof Decimator) {
+            return ((Decimator) processor).factor;
+        }
+        return 1;
+    }
+
+    private static final class Chain implements SampleProcessor {
+        private final SampleProcessor[] stages;
+
+        Chain(SampleProcessor[] stages) {
+            this.stages = stages.clone();
+        }
+
+        @Override
+        public boolean process(float[] values) {
+            for(SampleProcessor stage : stages) {
+                if(!stage.process(values)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            for(SampleProcessor stage : stages) {
+                stage.reset();
+            }
+        }
+
+        @Override
+        public SampleProcessor copy() {
+            SampleProcessor[] copies = new SampleProcessor[stages.length];
+            for(int i = 0; i < stages.length; i++) {
+                copies[i] = stages[i].copy();
+            }
+            return new Chain(copies);
+        }
+    }
+
+    private static final class BiquadLowPass implements SampleProcessor {
+        private final float cutoffHz;
+        private final float sampleRateHz;
+        private final double b0;
+        private final double b1;
+        private final double b2;
+        private final double a1;
+        private final double a2;
+        //transposed direct form II state, two values per axis
+        private final double[] state = new double[6];
+        private boolean primed = false;
+
+        BiquadLowPass(float cutoffHz, float sampleRateHz) {
+            if(!(cutoffHz > 0 && cutoffHz < sampleRateHz / 2)) {
+                throw new IllegalArgumentException("The cutoff must be between 0 and " + sampleRateHz / 2 + " Hz");
+            }
+            this.cutoffHz = cutoffHz;
+            this.sampleRateHz = sampleRateHz;
+            double w0 = 2 * Math.PI * cutoffHz / sampleRateHz;
+            double alpha = Math.sin(w0) / (2 * Math.sqrt(0.5));
+            double cos = Math.cos(w0);
+            double a0 = 1 + alpha;
+            b0 = (1 - cos) / 2 / a0;
+            b1 = (1 - cos) / a0;
+            b2 = b0;
+            a1 = -2 * cos / a0;
+            a2 = (1 - alpha) / a0;
+        }
+
+        @Override
+        public boolean process(float[] values) {
+            if(!primed) {
+                //start from the steady state of the first sample instead of ramping up from 0
+                for(int axis = 0; axis < 3; axis++) {
+                    state[axis * 2] = values[axis] * (1 - b0);
+                    state[axis * 2 + 1] = values[axis] * (b2 - a2);
+                }
+                primed = true;
+            }
+            for(int axis = 0; axis < 3; axis++) {
+                double input = values[axis];
+                double output = b0 * input + state[axis * 2];
+                state[axis * 2] = b1 * input - a1 * output + state[axis * 2 + 1];
+                state[axis * 2 + 1] = b2 * input - a2 * output;
+                values[axis] = (float) output;
+            }
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            primed = false;
+        }
+
+        @Override
+        public SampleProcessor copy() {
+            return new BiquadLowPass(cutoffHz, sampleRateHz);
+        }
+    }
+
+    private static final class FirLowPass implements SampleProcessor {
+        private final float cutoffHz;
+        private final float sampleRateHz;
+        private final int decimation;
+        private final float[] coefficients;
+        //the last samples of each axis, in a ring
+        private final float[] history;
+        private int position = 0;
+        private int count = 0;
+        private int skipped = 0;
+
+        FirLowPass(int taps, float cutoffHz, float sampleRateHz, int decimation) {
+            if(taps < 1 || taps % 2 == 0) {
+                throw new IllegalArgumentException("The number of taps must be odd: " + taps);
+            }
+            if(!(cutoffHz > 0 && cutoffHz < sampleRateHz / 2) || decimation < 1) {
+                throw new IllegalArgumentException("Invalid cutoff " + cutoffHz + " Hz or decimation " + decimation);
+            }
+            this.cutoffHz = cutoffHz;
+            this.sampleRateHz = sampleRateHz;
+            this.decimation = decimation;
+            coefficients = new float[taps];
+            history = new float[taps * 3];
+            double normalizedCutoff = 2.0 * cutoffHz / sampleRateHz;
+            double middle = (taps - 1) / 2.0;
+            double sum = 0;
+            double[] values = new double[taps];
+            for(int i = 0; i < taps; i++) {
+                double t = i - middle;
+                double sinc = t == 0 ? normalizedCutoff : Math.sin(Math.PI * normalizedCutoff * t) / (Math.PI * t);
+                double hamming = taps == 1 ? 1 : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (taps - 1));
+                values[i] = sinc * hamming;
+                sum += values[i];
+            }
+            //unit gain at 0 Hz
+            for(int i = 0; i < taps; i++) {
+                coefficients[i] = (float) (values[i] / sum);
+            }
+        }
+
+        @Override
+        public boolean process(float[] values) {
+            int taps = coefficients.length;
+            if(count == 0) {
+                //fill the history with the first sample instead of ramping up from 0
+                for(int i = 0; i < taps; i++) {
+                    history[i * 3] = values[0];
+                    history[i * 3 + 1] = values[1];
+                    history[i * 3 + 2] = values[2];
+                }
+            }
+            history[position * 3] = values[0];
+            history[position * 3 + 1] = values[1];
+            history[position * 3 + 2] = values[2];
+            int newest = position;
+            position = position + 1 == taps ? 0 : position + 1;
+            count++;
+            if(skipped > 0) {
+                skipped--;
+                return false;
+            }
+            skipped = decimation - 1;
+            double x = 0;
+            double y = 0;
+            double z = 0;
+            int sample = newest;
+            for(int i = 0; i < taps; i++) {
+                float coefficient = coefficients[i];
+                x += coefficient * history[sample * 3];
+                y += coefficient * history[sample * 3 + 1];
+                z += coefficient * history[sample * 3 + 2];
+                sample = sample == 0 ? taps - 1 : sample - 1;
+            }
+            values[0] = (float) x;
+            values[1] = (float) y;
+            values[2] = (float) z;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            position = 0;
+            count = 0;
+            skipped = 0;
+        }
+
+        @Override
+        public SampleProcessor copy() {
+            return new FirLowPass(coefficients.length, cutoffHz, sampleRateHz, decimation);
+        }
+    }
+
+    private static final class Decimator implements SampleProcessor {
+        private final int factor;
+        private int skipped = 0;
+
+        Decimator(int factor) {
+            if(factor < 1) {
+                throw new IllegalArgumentException("Invalid decimation factor: " + factor);
+            }
+            this.factor = factor;
+        }
+
+        @Override
+        public boolean process(float[] values) {
+            if(skipped > 0) {
+                skipped--;
+                return false;
+            }
+            skipped = factor - 1;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            skipped = 0;
+        }
+
+        @Override
+        public SampleProcessor copy() {
+            return new Decimator(factor);
+        }
+    }
+
+    private static final class Normalizer implements SampleProcessor {
+        private final float fullScale;
+        private final float inverse;
+
+        Normalizer(float fullScale) {
+            if(!(fullScale > 0) || Float.isInfinite(fullScale)) {
+                throw new IllegalArgumentException("Invalid full scale: " + fullScale);
+            }
+            this.fullScale = fullScale;
+            this.inverse = 1 / fullScale;
+        }
+
+        @Override
+        public boolean process(float[] values) {
+            values[0] *= inverse;
+            values[1] *= inverse;
+            values[2] *= inverse;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public SampleProcessor copy() {
+            return new Normalizer(fullScale);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.motiongestures.grelib;
+
+/**
+ * Fixed capacity ring buffer holding the most recent samples of one sensor in primitive columns.
+ * Not thread safe: the clients add the samples and take the snapshots while holding their gesture lock.
+ */
+final class SampleRingBuffer {
+    private final int retained;
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final int[] index;
+    private long written = 0;
+
+    SampleRingBuffer(int retained) {
+        if(retained < 0) {
+            throw new IllegalArgumentException("Negative ring buffer size: " + retained);
+        }
+        this.retained = retained;
+        x = new float[retained];
+        y = new float[retained];
+        z = new float[retained];
+        index = new int[retained];
+    }
+
+    int getRetained() {
+        return retained;
+    }
+
+    /**
+     * Appends a sample, overwriting the oldest one when full.
+     */
+    void add(float sampleX, float sampleY, float sampleZ, int sampleIndex) {
+        if(retained == 0) {
+            return;
+        }
+        int slot = (int) (written % retained);
+        x[slot] = sampleX;
+        y[slot] = sampleY;
+        z[slot] = sampleZ;
+        index[slot] = sampleIndex;
+        written++;
+    }
+
+    /**
+     * Adds the given offset to the index of every retained sample, keeping their order.
+     */
+    void shiftIndexes(int offset) {
+        int count = (int) Math.min(written, retained);
+        for(int i = 0; i < count; i++) {
+            index[i] += offset;
+        }
+    }
+
+    /**
+     * Replaces the contents of the given batch with the last retained samples, oldest first, and returns their count.
+     */
+    int snapshot(SampleBatch target) {
+        int count = (int) Math.min(written, retained);
+        long start = written - count;
+        target.ensureCapacity(count);
+        for(int i = 0; i < count; i++) {
+            int slot = (int) ((start + i) % retained);
+            target.x[i] = x[slot];
+            target.y[i] = y[slot];
+            target.z[i] = z[slot];
+            target.index[i] = index[slot];
+        }
+        target.size = count;
+        return count;
+    }
+}
@@ -0,0 +1,187 @@
+package com.motiongestures.grelib;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Encoder/sender stage of a gesture recognition client. The sensor thread hands off sealed batches
+ * through a bounded single-producer/single-consumer queue and a dedicated thread encodes and sends them,
+ * then returns the batches to their pool.
+ * Only the queue is lock-free: callers must serialize {@link #handOff} themselves so that it only ever sees one
+ * producer at a time. The clients do it with their gesture lock, which every sensor event takes, and a hand-off
+ * waiting for room under {@link OverflowPolicy#BLOCK} keeps holding it.
+ * The thread is started by the first hand-off and exits after {@link #shutdown(long)}, a later hand-off starts a new one.
+ */
+final class SendPipeline implements Runnable {
+    private static final String TAG = "SendPipeline";
+    private static final int QUEUE_CAPACITY = 16;
+    private static final long BLOCK_PARK_NANOS = 200_000;
+
+    interface Sender {
+        void send(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                  boolean activeGesture) throws IOException;
+    }
+
+    private final BatchQueue queue = new BatchQueue(QUEUE_CAPACITY);
+    private final SampleBatchPool pool;
+    private final Sender sender;
+    private final ClientMetrics metrics;
+    //guarded by this for the writes, the thread clears it when it exits
+    private volatile Thread thread;
+    private volatile boolean stopping = false;
+
+    private volatile int maxQueueDepth = 0;
+    private final AtomicLong droppedBatches = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+    private final AtomicLong encodedBatches = new AtomicLong();
+    private final AtomicLong encodeTimeNanos = new AtomicLong();
+
+    SendPipeline(SampleBatchPool pool, Sender sender) {
+        this(pool, sender, new ClientMetrics());
+    }
+
+    SendPipeline(SampleBatchPool pool, Sender sender, ClientMetrics metrics) {
+        this.pool = pool;
+        this.sender = sender;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues the batches for sending. Returns false only with the {@link OverflowPolicy#COALESCE} policy
+     * when the queue is full, in which case the caller keeps ownership of the batches.
+     * Otherwise the batches belong to the pipeline from now on.
+     */
+    boolean handOff(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer,
+                    boolean activeGesture, OverflowPolicy overflowPolicy) {
+        Thread sendingThread = ensureStarted();
+        while(!queue.offer(accelerations, gyroscope, magnetometer, activeGesture)) {
+            switch(overflowPolicy) {
+                case COALESCE:
+                    return false;
+                case DROP_NEWEST:
+                    int samples = accelerations.size() + gyroscope.size() + magnetometer.size();
+                    droppedBatches.incrementAndGet();
+                    droppedSamples.addAndGet(samples);
+                    metrics.onSamplesDropped(samples);
+                    pool.release(accelerations);
+                    pool.release(gyroscope);
+                    pool.release(magnetometer);
+                    return true;
+                case BLOCK:
+                    LockSupport.unpark(sendingThread);
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    break;
+            }
+        }
+        int depth = queue.size();
+        if(depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+        metrics.onBatchQueued(accelerations.size() + gyroscope.size() + magnetometer.size(), depth);
+        //the thread may have exited after a shutdown since it was read, then a new one sends the batches
+        LockSupport.unpark(ensureStarted());
+        return true;
+    }
+
+    /**
+     * Stops the sender thread once the batches already queued are sent, so that it no longer holds the sender.
+     * Waits up to the given time for it and returns false if it was still sending when the timeout expired,
+     * in which case it exits on its own once done.
+     */
+    boolean shutdown(long timeoutMillis) {
+        Thread current;
+        synchronized (this) {
+            current = thread;
+            if(current == null) {
+                return true;
+            }
+            stopping = true;
+        }
+        LockSupport.unpark(current);
+        try {
+            current.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !current.isAlive();
+    }
+
+    /**
+     * Waits until every queued batch has been sent. Returns false if the timeout expired first.
+     */
+    boolean awaitEmpty(long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while(!queue.isEmpty()) {
+            if(System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+        }
+        return true;
+    }
+
+    SendPipelineStats getStats() {
+        return new SendPipelineStats(queue.size(), maxQueueDepth, droppedBatches.get(), droppedSamples.get(),
+                encodedBatches.get(), encodeTimeNanos.get());
+    }
+
+    private Thread ensureStarted() {
+        Thread current = thread;
+        if(current == null) {
+            synchronized (this) {
+                current = thread;
+                if(current == null) {
+                    current = new Thread(this, "grelib-sender");
+                    current.setDaemon(true);
+                    stopping = false;
+                    thread = current;
+                    current.start();
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            int slot = queue.peek();
+            if(slot < 0) {
+                if(stopping && exitIfIdle()) {
+                    return;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+            SampleBatch accelerations = queue.acceleration(slot);
+            SampleBatch gyroscope = queue.gyroscope(slot);
+            SampleBatch magnetometer = queue.magnetometer(slot);
+            long start = System.nanoTime();
+            try {
+                sender.send(accelerations, gyroscope, magnetometer, queue.activeGesture(slot));
+            } catch (IOException | RuntimeException ex) {
+                Log.e(TAG, "Error sending sensor data to the server", ex);
+            } finally {
+                encodeTimeNanos.addAndGet(System.nanoTime() - start);
+                encodedBatches.incrementAndGet();
+                queue.remove(slot);
+                pool.release(accelerations);
+                pool.release(gyroscope);
+                pool.release(magnetometer);
+            }
+        }
+    }
+
+    //clears the thread unless a batch was queued meanwhile, a hand-off racing with it then starts a new thread
+    private synchronized boolean exitIfIdle() {
+        if(!queue.isEmpty()) {
+            return false;
+        }
+        thread = null;
+        stopping = false;
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.motiongestures.grelib;
+
+/**
+ * Point-in-time counters of the send pipeline of a gesture recognition client.
+ */
+public final class SendPipelineStats {
+    private final int queueDepth;
+    private final int maxQueueDepth;
+    private final long droppedBatches;
+    private final long droppedSamples;
+    private final long encodedBatches;
+    private final long encodeTimeNanos;
+
+    SendPipelineStats(int queueDepth, int maxQueueDepth, long droppedBatches, long droppedSamples,
+                      long encodedBatches, long encodeTimeNanos) {
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.droppedBatches = droppedBatches;
+        this.droppedSamples = droppedSamples;
+        this.encodedBatches = encodedBatches;
+        this.encodeTimeNanos = encodeTimeNanos;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getDroppedBatches() {
+        return droppedBatches;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    public long getEncodedBatches() {
+        return encodedBatches;
+    }
+
+    public long getEncodeTimeNanos() {
+        return encodeTimeNanos;
+    }
+
+    public double getAverageEncodeTimeNanos() {
+        return encodedBatches == 0 ? 0 : (double) encodeTimeNanos / encodedBatches;
+    }
+
+    @Override
+    public String toString() {
+        return "SendPipelineStats{queueDepth=" + queueDepth +
+                ", maxQueueDepth=" + maxQueueDepth +
+                ", droppedBatches=" + droppedBatches +
+                ", droppedSamples=" + droppedSamples +
+                ", encodedBatches=" + encodedBatches +
+                ", encodeTimeNanos=" + encodeTimeNanos + '}';
+    }
+}
@@ -0,0 +1,275 @@
+package com.motiongestures.grelib;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Records the sensor samples received by a client, see
+ * {@link AbstractGestureRecognitionClient#setSensorRecorder(SensorRecorder)}, to be replayed later with a
+ * {@link SensorReplayer}. The samples are appended to the file in blocks stored column by column, about 18 bytes per
+ * sample, each recorder starting a new session with its metadata, so one file can hold many sessions. A full block
+ * is encoded on the sensor thread and written by the thread of the recorder, in one of two buffers so that the next
+ * block can be encoded meanwhile: the sensor thread only waits if the disk is a whole block behind. A crash loses at
+ * most the samples of the current block and of the one being written.
+ */
+public final class SensorRecorder implements Closeable {
+    private static final String TAG = "SensorRecorder";
+    public static final int DEFAULT_BLOCK_SAMPLES = 512;
+    private static final int BLOCK_BUFFERS = 2;
+
+    private final FileChannel channel;
+    //the encoded blocks not being written, the writer returns them once written
+    private final BlockingQueue<ByteBuffer> freeBlocks = new ArrayBlockingQueue<>(BLOCK_BUFFERS);
+    private final ExecutorService writer;
+    //set by the writer, the recording stops at the next sample
+    private volatile IOException writeError;
+    private final long[] timestamps;
+    private final byte[] types;
+    private final byte[] flags;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] zs;
+    private int count = 0;
+    private long recordedSamples = 0;
+    private boolean closed = false;
+
+    public SensorRecorder(File file) throws IOException {
+        this(file, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Opens the file, creating it if needed, and starts a session with the given metadata, for example the device
+     * model or the name of the gesture being performed.
+     */
+    public SensorRecorder(File file, Map<String, String> metadata) throws IOException {
+        this(file, metadata, DEFAULT_BLOCK_SAMPLES);
+    }
+
+    public SensorRecorder(File file, Map<String, String> metadata, int blockSamples) throws IOException {
+        if(blockSamples <= 0) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSamples);
+        }
+        timestamps = new long[blockSamples];
+        types = new byte[blockSamples];
+        flags = new byte[blockSamples];
+        xs = new float[blockSamples];
+        ys = new float[blockSamples];
+        zs = new float[blockSamples];
+        for(int i = 0; i < BLOCK_BUFFERS; i++) {
+            freeBlocks.add(ByteBuffer.allocateDirect(RecordingFormat.RECORD_HEADER_BYTES + RecordingFormat.samplesPayloadBytes(blockSamples))
+                    .order(ByteOrder.LITTLE_ENDIAN));
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if(channel.size() < RecordingFormat.HEADER_BYTES) {
+                ByteBuffer header = ByteBuffer.allocate(RecordingFormat.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(RecordingFormat.MAGIC).putInt(RecordingFormat.VERSION).flip();
+                channel.truncate(0);
+                writeFully(header, 0);
+            } else {
+                //drop what a crash left of a record, the new records would not be readable after it
+                channel.truncate(RecordingFormat.validLength(channel));
+            }
+            channel.position(channel.size());
+            writeSession(metadata);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "grelib-recorder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void writeSession(Map<String, String> metadata) throws IOException {
+        byte[][] entries = new byte[metadata.size() * 2][];
+        int length = 12;
+        int i = 0;
+        for(Map.Entry<String, String> entry : metadata.entrySet()) {
+            entries[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            entries[i + 1] = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            length += 8 + entries[i].length + entries[i + 1].length;
+            i += 2;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RecordingFormat.RECORD_HEADER_BYTES + length).order(ByteOrder.LITTLE_ENDIAN);
+        record.put(RecordingFormat.SESSION_RECORD).putInt(length);
+        record.putLong(System.currentTimeMillis()).putInt(metadata.size());
+        for(byte[] bytes : entries) {
+            record.putInt(bytes.length).put(bytes);
+        }
+        record.flip();
+        writeFully(record, -1);
+    }
+
+    /**
+     * Adds a sample to the current block. Errors are logged and stop the recording, they never reach the client.
+     */
+    synchronized void record(int type, long timestamp, boolean activeGesture, float x, float y, float z) {
+        if(closed || type < 0 || type > Byte.MAX_VALUE) {
+            return;
+        }
+        if(writeError != null) {
+            Log.e(TAG, "Cannot write the recording, stopping it", writeError);
+            count = 0;
+            closed = true;
+            return;
+        }
+        if(count > 0) {
+            long offset = timestamp - timestamps[0];
+            if(offset > Integer.MAX_VALUE || offset < Integer.MIN_VALUE) {
+                //the timestamps of a block are stored as int offsets, after a long pause a new block starts
+                submitBlock();
+            }
+        }
+        timestamps[count] = timestamp;
+        types[count] = (byte) type;
+        flags[count] = activeGesture ? RecordingFormat.FLAG_ACTIVE_GESTURE : 0;
+        xs[count] = x;
+        ys[count] = y;
+        zs[count] = z;
+        count++;
+        recordedSamples++;
+        if(count == timestamps.length) {
+            submitBlock();
+        }
+    }
+
+    //encodes the current block and hands it to the writer
+    private void submitBlock() {
+        if(count == 0) {
+            return;
+        }
+        final ByteBuffer block;
+        try {
+            block = freeBlocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.e(TAG, "Interrupted while waiting for the writer, dropping " + count + " samples");
+            count = 0;
+            return;
+        }
+        block.clear();
+        block.put(RecordingFormat.SAMPLES_RECORD).putInt(RecordingFormat.samplesPayloadBytes(count));
+        long first = timestamps[0];
+        block.putInt(count).putLong(first);
+        for(int i = 0; i < count; i++) {
+            block.putInt((int) (timestamps[i] - first));
+        }
+        block.put(types, 0, count);
+        block.put(flags, 0, count);
+        for(int i = 0; i < count; i++) {
+            block.putFloat(xs[i]);
+        }
+        for(int i = 0; i < count; i++) {
+            block.putFloat(ys[i]);
+        }
+        for(int i = 0; i < count; i++) {
+            block.putFloat(zs[i]);
+        }
+        block.flip();
+        count = 0;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if(writeError == null) {
+                        writeFully(block, -1);
+                    }
+                } catch (IOException e) {
+                    writeError = e;
+                } finally {
+                    freeBlocks.add(block);
+                }
+            }
+        });
+    }
+
+    //waits until the writer has written the blocks submitted so far
+    private void awaitWriter() throws IOException {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the writer", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if(writeError != null) {
+            throw writeError;
+        }
+    }
+
+    //writes at the given position, or at the current position of the channel if negative
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(position < 0) {
+                channel.write(buffer);
+            } else {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+    }
+
+    /**
+     * Writes the samples of the current block, even if it is not full, and waits until they are written.
+     */
+    public synchronized void flush() throws IOException {
+        if(!closed) {
+            submitBlock();
+            awaitWriter();
+        }
+    }
+
+    /**
+     * The number of samples recorded by this recorder, written or still in the current block.
+     */
+    public synchronized long getRecordedSamples() {
+        return recordedSamples;
+    }
+
+    /**
+     * Writes the current block and closes the file. The samples received afterwards are ignored.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(writer.isShutdown()) {
+            return;
+        }
+        boolean recording = !closed;
+        closed = true;
+        try {
+            if(recording) {
+                submitBlock();
+                awaitWriter();
+            }
+        } finally {
+            writer.shutdown();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.motiongestures.grelib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the samples of a file written by {@link SensorRecorder} to a client, as if they came from its sensors.
+ * The file is memory mapped and the samples are read in place, so replaying at {@link #MAX_SPEED} is only bounded
+ * by the client. The original timestamps are passed on whatever the speed. The client should be paused, so that its
+ * own sensors do not add samples, and replays are run on the calling thread.
+ */
+public final class SensorReplayer implements Closeable {
+    /** Replays the samples without waiting between them. */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    interface Target {
+        void onSensorSample(int type, long timestamp, float x, float y, float z);
+
+        void onGestureStart();
+
+        void onGestureEnd();
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final List<Session> sessions = new ArrayList<>();
+    private long sampleCount = 0;
+    private volatile double speed = 1;
+
+    public SensorReplayer(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long length = RecordingFormat.validLength(channel);
+            if(length > Integer.MAX_VALUE) {
+                throw new IOException("Recordings over 2 GB cannot be replayed");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+            index((int) length);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void index(int length) {
+        Session session = null;
+        int position = RecordingFormat.HEADER_BYTES;
+        while(position < length) {
+            byte kind = buffer.get(position);
+            int payload = position + RecordingFormat.RECORD_HEADER_BYTES;
+            if(kind == RecordingFormat.SESSION_RECORD) {
+                session = new Session(buffer.getLong(payload), readMetadata(payload + 8));
+                sessions.add(session);
+            } else if(session != null) {
+                session.addBlock(payload);
+                sampleCount += buffer.getInt(payload);
+            }
+            position = payload + buffer.getInt(position + 1);
+        }
+    }
+
+    private Map<String, String> readMetadata(int position) {
+        int entries = buffer.getInt(position);
+        position += 4;
+        Map<String, String> metadata = new LinkedHashMap<>();
+        for(int i = 0; i < entries; i++) {
+            String key = readString(position);
+            position += 4 + buffer.getInt(position);
+            String value = readString(position);
+            position += 4 + buffer.getInt(position);
+            metadata.put(key, value);
+        }
+        return Collections.unmodifiableMap(metadata);
+    }
+
+    private String readString(int position) {
+        byte[] bytes = new byte[buffer.getInt(position)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public Map<String, String> getSessionMetadata(int session) {
+        return sessions.get(session).metadata;
+    }
+
+    /**
+     * When the session was started, in milliseconds since the epoch.
+     */
+    public long getSessionStartTimeMillis(int session) {
+        return sessions.get(session).startTimeMillis;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Sets how many times faster than recorded the samples are replayed, 1 by default, or {@link #MAX_SPEED}.
+     */
+    public void setSpeed(double speed) {
+        if(!(speed > 0)) {
+            throw new IllegalArgumentException("Invalid speed: " + speed);
+        }
+        this.speed = speed;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Replays the samples of every session to the client, returns the number of samples replayed.
+     */
+    public long replay(AbstractGestureRecognitionClient client) throws InterruptedException {
+        return replay(new ClientTarget(client, false, null));
+    }
+
+    /**
+     * Replays the samples and the gestures of every session: the client is connected to the URI when a recorded
+     * gesture starts and disconnected when it ends. Returns the number of samples replayed.
+     */
+    public long replay(AbstractGestureRecognitionClient client, String uri) throws InterruptedException {
+        return replay(new ClientTarget(client, true, uri));
+    }
+
+    long replay(Target target) throws InterruptedException {
+        long replayed = 0;
+        for(Session session : sessions) {
+            replayed += replay(target, session);
+        }
+        return replayed;
+    }
+
+    //the sessions are replayed back to back, the time between them is not waited
+    private long replay(Target target, Session session) throws InterruptedException {
+        double currentSpeed = speed;
+        long startNanos = System.nanoTime();
+        long firstTimestamp = 0;
+        boolean gesture = false;
+        long replayed = 0;
+        for(int b = 0; b < session.blockCount; b++) {
+            int position = session.blocks[b];
+            int count = buffer.getInt(position);
+            long base = buffer.getLong(position + 4);
+            int offsets = position + RecordingFormat.SAMPLES_HEADER_BYTES;
+            int types = offsets + 4 * count;
+            int flags = types + count;
+            int xs = flags + count;
+            int ys = xs + 4 * count;
+            int zs = ys + 4 * count;
+            for(int i = 0; i < count; i++) {
+                long timestamp = base + buffer.getInt(offsets + 4 * i);
+                if(replayed == 0) {
+                    firstTimestamp = timestamp;
+                }
+                if(currentSpeed != MAX_SPEED) {
+                    long waitNanos = startNanos + (long) ((timestamp - firstTimestamp) / currentSpeed) - System.nanoTime();
+                    if(waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+                boolean active = (buffer.get(flags + i) & RecordingFormat.FLAG_ACTIVE_GESTURE) != 0;
+                if(active != gesture) {
+                    gesture = active;
+                    if(active) {
+                        target.onGestureStart();
+                    } else {
+                        target.onGestureEnd();
+                    }
+                }
+                target.onSensorSample(buffer.get(types + i), timestamp, buffer.getFloat(xs + 4 * i),
+                        buffer.getFloat(ys + 4 * i), buffer.getFloat(zs + 4 * i));
+                replayed++;
+            }
+        }
+        if(gesture) {
+            target.onGestureEnd();
+        }
+        return replayed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static final class Session {
+        final long startTimeMillis;
+        final Map<String, String> metadata;
+        //the positions of the payloads of the sample records
+        int[] blocks = new int[16];
+        int blockCount = 0;
+
+        Session(long startTimeMillis, Map<String, String> metadata) {
+            this.startTimeMillis = startTimeMillis;
+            this.metadata = metadata;
+        }
+
+        void addBlock(int position) {
+            if(blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+            }
+            blocks[blockCount++] = position;
+        }
+    }
+
+    private static final class ClientTarget implements Target {
+        private final AbstractGestureRecognitionClient client;
+        private final boolean gestures;
+        private final String uri;
+
+        ClientTarget(AbstractGestureRecognitionClient client, boolean gestures, String uri) {
+            this.client = client;
+            this.gestures = gestures;
+            this.uri = uri;
+        }
+
+        @Override
+        public void onSensorSample(int type, long timestamp, float x, float y, float z) {
+            client.onSensorSample(type, timestamp, x, y, z);
+        }
+
+        @Override
+        public void onGestureStart() {
+            if(gestures) {
+                client.connect(uri);
+            }
+        }
+
+        @Override
+        public void onGestureEnd() {
+            if(gestures) {
+                client.disconnect();
+            }
+        }
+    }
+}
@@ -15,6 +15,13 @@ public class SensorSample {
         this.index = index;
     }
 
+    void set(float x, float y, float z, int index) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.index = index;
+    }
+
     public float getX() {
         return x;
     }
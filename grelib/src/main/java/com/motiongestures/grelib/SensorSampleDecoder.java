@@ -0,0 +1,95 @@
+package com.motiongestures.grelib;
+
+import java.util.List;
+
+import GREProtocol.Greapi;
+
+/**
+ * Restores the samples of a recognition request whatever their {@link SampleEncoding}, for servers and test harnesses.
+ * Every method appends the decoded samples to the given batch.
+ * Quantized values are restored with an error of at most half of the step of their block.
+ */
+public final class SensorSampleDecoder {
+
+    private SensorSampleDecoder() {
+    }
+
+    public static void decode(Greapi.Acceleration acceleration, SampleBatch target) {
+        if(acceleration.hasQuantizedSamples()) {
+            decode(acceleration.getQuantizedSamples(), target);
+        } else if(acceleration.hasPackedSamples()) {
+            decode(acceleration.getPackedSamples(), target);
+        } else {
+            decode(acceleration.getSamplesList(), target);
+        }
+    }
+
+    public static void decode(Greapi.Gyroscope gyroscope, SampleBatch target) {
+        if(gyroscope.hasQuantizedSamples()) {
+            decode(gyroscope.getQuantizedSamples(), target);
+        } else if(gyroscope.hasPackedSamples()) {
+            decode(gyroscope.getPackedSamples(), target);
+        } else {
+            decode(gyroscope.getSamplesList(), target);
+        }
+    }
+
+    public static void decode(Greapi.Magnetometer magnetometer, SampleBatch target) {
+        if(magnetometer.hasQuantizedSamples()) {
+            decode(magnetometer.getQuantizedSamples(), target);
+        } else if(magnetometer.hasPackedSamples()) {
+            decode(magnetometer.getPackedSamples(), target);
+        } else {
+            decode(magnetometer.getSamplesList(), target);
+        }
+    }
+
+    public static void decode(List<Greapi.SensorSample> samples, SampleBatch target) {
+        for(Greapi.SensorSample sample : samples) {
+            target.add(sample.getX(), sample.getY(), sample.getZ(), sample.getIndex());
+        }
+    }
+
+    public static void decode(Greapi.PackedSensorBlock block, SampleBatch target) {
+        int count = block.getXCount();
+        if(block.getYCount() != count || block.getZCount() != count) {
+            throw new IllegalArgumentException("Packed block columns have different sizes");
+        }
+        checkIndexDeltas(block.getIndexDeltasCount(), count);
+        int index = block.getStartIndex();
+        for(int i = 0; i < count; i++) {
+            if(i > 0) {
+                index += block.getIndexDeltasCount() == 0 ? 1 : block.getIndexDeltas(i - 1);
+            }
+            target.add(block.getX(i), block.getY(i), block.getZ(i), index);
+        }
+    }
+
+    public static void decode(Greapi.QuantizedSensorBlock block, SampleBatch target) {
+        int count = block.getXCount();
+        if(block.getYCount() != count || block.getZCount() != count) {
+            throw new IllegalArgumentException("Quantized block columns have different sizes");
+        }
+        checkIndexDeltas(block.getIndexDeltasCount(), count);
+        float step = block.getStep();
+        int index = block.getStartIndex();
+        int x = 0;
+        int y = 0;
+        int z = 0;
+        for(int i = 0; i < count; i++) {
+            if(i > 0) {
+                index += block.getIndexDeltasCount() == 0 ? 1 : block.getIndexDeltas(i - 1);
+            }
+            x += block.getX(i);
+            y += block.getY(i);
+            z += block.getZ(i);
+            target.add(Quantization.restore(x, step), Quantization.restore(y, step), Quantization.restore(z, step), index);
+        }
+    }
+
+    private static void checkIndexDeltas(int deltas, int count) {
+        if(deltas != 0 && deltas != count - 1) {
+            throw new IllegalArgumentException("Expected " + (count - 1) + " index deltas, found " + deltas);
+        }
+    }
+}
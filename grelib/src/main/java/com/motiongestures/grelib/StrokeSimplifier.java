@@ -0,0 +1,219 @@
+package com.motiongestures.grelib;
+
+import java.util.Arrays;
+
+/**
+ * Simplifies a touch stroke while it is drawn. The points are first resampled at a fixed spacing along the path,
+ * which evens out the density of the touch events, then simplified with Ramer-Douglas-Peucker over windows of
+ * consecutive resampled points. The last point of a window is kept and starts the next one, so every window is
+ * simplified once, as soon as it is full or the pending points are needed. The kept points are collected in
+ * primitive arrays until taken. Not thread safe.
+ */
+final class StrokeSimplifier {
+    static final int DEFAULT_WINDOW = 64;
+
+    private final float spacing;
+    private final float squaredTolerance;
+
+    //the last point added and the length of the path since the last resampled point
+    private boolean started = false;
+    private float lastX;
+    private float lastY;
+    private float travelled;
+
+    //the resampled points not simplified yet, the first one is already kept when anchored
+    private final float[] windowX;
+    private final float[] windowY;
+    private int windowSize = 0;
+    private boolean anchored = false;
+    private final boolean[] keep;
+    private final int[] stack;
+
+    //the kept points not taken yet
+    float[] x = new float[DEFAULT_WINDOW];
+    float[] y = new float[DEFAULT_WINDOW];
+    int size = 0;
+
+    /**
+     * @param spacing the distance between the resampled points, 0 to keep the points as added
+     * @param tolerance the largest distance of a dropped point to the simplified path, 0 to keep every point
+     */
+    StrokeSimplifier(float spacing, float tolerance) {
+        this(spacing, tolerance, DEFAULT_WINDOW);
+    }
+
+    StrokeSimplifier(float spacing, float tolerance, int window) {
+        if(spacing < 0 || tolerance < 0 || window < 3) {
+            throw new IllegalArgumentException("Invalid stroke simplification: spacing " + spacing
+                    + ", tolerance " + tolerance + ", window " + window);
+        }
+        this.spacing = spacing;
+        this.squaredTolerance = tolerance * tolerance;
+        windowX = new float[window];
+        windowY = new float[window];
+        keep = new boolean[window];
+        stack = new int[2 * window];
+    }
+
+    void add(float pointX, float pointY) {
+        if(!started) {
+            started = true;
+            lastX = pointX;
+            lastY = pointY;
+            travelled = 0;
+            addResampled(pointX, pointY);
+            return;
+        }
+        if(spacing == 0) {
+            if(pointX != lastX || pointY != lastY) {
+                lastX = pointX;
+                lastY = pointY;
+                addResampled(pointX, pointY);
+            }
+            return;
+        }
+        float fromX = lastX;
+        float fromY = lastY;
+        float distance = (float) Math.hypot(pointX - fromX, pointY - fromY);
+        //travelled is below the spacing, so the distance is positive inside the loop
+        while(travelled + distance >= spacing) {
+            float step = spacing - travelled;
+            float t = step / distance;
+            fromX += t * (pointX - fromX);
+            fromY += t * (pointY - fromY);
+            addResampled(fromX, fromY);
+            distance -= step;
+            travelled = 0;
+        }
+        travelled += distance;
+        lastX = pointX;
+        lastY = pointY;
+    }
+
+    /**
+     * Ends the stroke: its last point is kept whatever the spacing, and every pending point is simplified.
+     * The next point added starts a new stroke.
+     */
+    void finish() {
+        if(!started) {
+            return;
+        }
+        if(spacing > 0 && travelled > 0) {
+            addResampled(lastX, lastY);
+        }
+        simplifyWindow();
+        started = false;
+        windowSize = 0;
+        anchored = false;
+    }
+
+    /**
+     * Simplifies the pending points now, so that they can all be taken.
+     */
+    void flush() {
+        simplifyWindow();
+    }
+
+    /**
+     * The number of points kept or waiting to be simplified.
+     */
+    int pendingPoints() {
+        return size + windowSize - (anchored ? 1 : 0);
+    }
+
+    /**
+     * Forgets the kept points, once taken.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Forgets the stroke and the kept points.
+     */
+    void reset() {
+        started = false;
+        windowSize = 0;
+        anchored = false;
+        size = 0;
+    }
+
+    private void addResampled(float pointX, float pointY) {
+        windowX[windowSize] = pointX;
+        windowY[windowSize] = pointY;
+        windowSize++;
+        if(windowSize == windowX.length) {
+            simplifyWindow();
+        }
+    }
+
+    private void simplifyWindow() {
+        if(windowSize == 0 || (anchored && windowSize == 1)) {
+            return;
+        }
+        int last = windowSize - 1;
+        if(squaredTolerance == 0 || windowSize <= 2) {
+            Arrays.fill(keep, 0, windowSize, true);
+        } else {
+            Arrays.fill(keep, 0, windowSize, false);
+            keep[0] = true;
+            keep[last] = true;
+            int top = 0;
+            stack[top++] = 0;
+            stack[top++] = last;
+            while(top > 0) {
+                int end = stack[--top];
+                int start = stack[--top];
+                int farthest = -1;
+                float farthestDistance = squaredTolerance;
+                for(int i = start + 1; i < end; i++) {
+                    float distance = squaredDistance(i, start, end);
+                    if(distance > farthestDistance) {
+                        farthest = i;
+                        farthestDistance = distance;
+                    }
+                }
+                if(farthest >= 0) {
+                    keep[farthest] = true;
+                    stack[top++] = start;
+                    stack[top++] = farthest;
+                    stack[top++] = farthest;
+                    stack[top++] = end;
+                }
+            }
+        }
+        for(int i = anchored ? 1 : 0; i < windowSize; i++) {
+            if(keep[i]) {
+                addKept(windowX[i], windowY[i]);
+            }
+        }
+        windowX[0] = windowX[last];
+        windowY[0] = windowY[last];
+        windowSize = 1;
+        anchored = true;
+    }
+
+    //squared distance from a point of the window to the segment between two others
+    private float squaredDistance(int point, int start, int end) {
+        float segmentX = windowX[end] - windowX[start];
+        float segmentY = windowY[end] - windowY[start];
+        float pointX = windowX[point] - windowX[start];
+        float pointY = windowY[point] - windowY[start];
+        float squaredLength = segmentX * segmentX + segmentY * segmentY;
+        float t = squaredLength == 0 ? 0 : (pointX * segmentX + pointY * segmentY) / squaredLength;
+        t = Math.max(0, Math.min(1, t));
+        float dx = pointX - t * segmentX;
+        float dy = pointY - t * segmentY;
+        return dx * dx + dy * dy;
+    }
+
+    private void addKept(float pointX, float pointY) {
+        if(size == x.length) {
+            x = Arrays.copyOf(x, size * 2);
+            y = Arrays.copyOf(y, size * 2);
+        }
+        x[size] = pointX;
+        y[size] = pointY;
+        size++;
+    }
+}
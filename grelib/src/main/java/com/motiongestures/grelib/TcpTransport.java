@@ -0,0 +1,177 @@
+package com.motiongestures.grelib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Sends the requests over a plain TCP connection to a URI like tcp://host:port, each request and each response
+ * framed by its length as a 4-byte big-endian integer. Every connection has a reading and a writing thread.
+ * There is no ping, a positive ping interval enables TCP keep-alive instead.
+ */
+public final class TcpTransport implements RecognitionTransport {
+    public static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = 10_000;
+    /** Larger frames are taken for a corrupted stream and close the connection. */
+    public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    private final int connectionTimeoutMillis;
+
+    public TcpTransport() {
+        this(DEFAULT_CONNECTION_TIMEOUT_MILLIS);
+    }
+
+    public TcpTransport(int connectionTimeoutMillis) {
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+    }
+
+    @Override
+    public Connection createConnection(String uri, Listener listener) throws IOException {
+        URI parsed;
+        try {
+            parsed = new URI(uri);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URI " + uri, e);
+        }
+        if(!"tcp".equals(parsed.getScheme()) || parsed.getHost() == null || parsed.getPort() < 0) {
+            throw new IOException("Expected tcp://host:port, got " + uri);
+        }
+        return new SocketConnection(parsed.getHost(), parsed.getPort(), listener);
+    }
+
+    private final class SocketConnection implements Connection {
+        //marks the end of the writes in the queue
+        private final ByteBuffer endOfWrites = ByteBuffer.allocate(0);
+
+        private final String host;
+        private final int port;
+        private final Listener listener;
+        private final Socket socket = new Socket();
+        private final BlockingQueue<ByteBuffer> writes = new LinkedBlockingQueue<>();
+        private volatile boolean closed = false;
+
+        SocketConnection(String host, int port, Listener listener) {
+            this.host = host;
+            this.port = port;
+            this.listener = listener;
+        }
+
+        @Override
+        public void open() {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    read();
+                }
+            }, "grelib-tcp-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void read() {
+            Exception cause = null;
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port), connectionTimeoutMillis);
+                Thread writer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        write();
+                    }
+                }, "grelib-tcp-writer");
+                writer.setDaemon(true);
+                writer.start();
+                listener.onOpen(this);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while(!closed) {
+                    int length;
+                    try {
+                        length = input.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if(length < 0 || length > MAX_FRAME_BYTES) {
+                        throw new IOException("Invalid frame length " + length);
+                    }
+                    byte[] response = new byte[length];
+                    input.readFully(response);
+                    listener.onResponse(this, ByteBuffer.wrap(response));
+                }
+            } catch (IOException e) {
+                cause = closed ? null : e;
+            }
+            shutDown();
+            listener.onClosed(this, cause);
+        }
+
+        private void write() {
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                while(true) {
+                    ByteBuffer request = writes.take();
+                    if(request == endOfWrites) {
+                        return;
+                    }
+                    output.writeInt(request.remaining());
+                    if(request.hasArray()) {
+                        output.write(request.array(), request.arrayOffset() + request.position(), request.remaining());
+                    } else {
+                        output.write(WebSocketTransport.toArray(request));
+                    }
+                    //a burst of requests goes in as few segments as possible
+                    if(writes.isEmpty()) {
+                        output.flush();
+                    }
+                    listener.onFrameWritten(this);
+                }
+            } catch (IOException | InterruptedException e) {
+                //the reader sees the socket closing and reports it
+                shutDown();
+            }
+        }
+
+        @Override
+        public int send(ByteBuffer request) {
+            writes.add(request);
+            return request.remaining();
+        }
+
+        @Override
+        public long getCompressionNanos() {
+            return 0;
+        }
+
+        @Override
+        public void setPingIntervalMillis(long pingIntervalMillis) {
+            try {
+                socket.setKeepAlive(pingIntervalMillis > 0);
+            } catch (IOException e) {
+                //the socket is closed
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            shutDown();
+        }
+
+        private void shutDown() {
+            writes.add(endOfWrites);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //already closed
+            }
+        }
+    }
+}
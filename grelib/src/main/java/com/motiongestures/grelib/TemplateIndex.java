@@ -0,0 +1,126 @@
+package com.motiongestures.grelib;
+
+/**
+ * A tree over the templates of a library, so that a match does not have to bound every template. The templates are
+ * split in two around two distant ones until at most {@link #LEAF_SIZE} are left, and every node keeps the union of
+ * the envelopes of its templates. The LB_Keogh bound of a node envelope is a lower bound of the distance to all of
+ * its templates, so a whole branch of gestures far from the query is dismissed with one bound.
+ * The nodes are stored in arrays, node 0 is the root. An index is immutable once built.
+ */
+final class TemplateIndex {
+    static final int LEAF_SIZE = 8;
+    private static final int NO_CHILD = -1;
+
+    final GestureTemplate[] templates;
+    //the positions of the templates, every node covering a contiguous range of them
+    final int[] members;
+    final int[] first;
+    final int[] end;
+    final int[] left;
+    final int[] right;
+    final float[][] upper;
+    final float[][] lower;
+    final int nodeCount;
+
+    TemplateIndex(GestureTemplate[] templates) {
+        this.templates = templates;
+        int count = templates.length;
+        members = new int[count];
+        for(int i = 0; i < count; i++) {
+            members[i] = i;
+        }
+        //a split leaves at least one template on each side, so there are fewer than 2 nodes per template
+        int capacity = Math.max(1, 2 * count);
+        first = new int[capacity];
+        end = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        upper = new float[capacity][];
+        lower = new float[capacity][];
+        nodeCount = count == 0 ? 0 : build(0, count, 0);
+    }
+
+    boolean isLeaf(int node) {
+        return left[node] == NO_CHILD;
+    }
+
+    //builds the node covering members[from, to) at the given position, returns the next free position
+    private int build(int from, int to, int node) {
+        first[node] = from;
+        end[node] = to;
+        int next = node + 1;
+        if(to - from <= LEAF_SIZE) {
+            left[node] = NO_CHILD;
+            right[node] = NO_CHILD;
+            float[] nodeUpper = templates[members[from]].upper.clone();
+            float[] nodeLower = templates[members[from]].lower.clone();
+            for(int i = from + 1; i < to; i++) {
+                union(nodeUpper, nodeLower, templates[members[i]].upper, templates[members[i]].lower);
+            }
+            upper[node] = nodeUpper;
+            lower[node] = nodeLower;
+            return next;
+        }
+        int middle = split(from, to);
+        left[node] = next;
+        next = build(from, middle, next);
+        right[node] = next;
+        next = build(middle, to, next);
+        float[] nodeUpper = upper[left[node]].clone();
+        float[] nodeLower = lower[left[node]].clone();
+        union(nodeUpper, nodeLower, upper[right[node]], lower[right[node]]);
+        upper[node] = nodeUpper;
+        lower[node] = nodeLower;
+        return next;
+    }
+
+    //moves the templates closer to one of two distant templates before those closer to the other
+    private int split(int from, int to) {
+        float[] firstPivot = templates[farthest(from, to, templates[members[from]].series)].series;
+        float[] secondPivot = templates[farthest(from, to, firstPivot)].series;
+        int middle = from;
+        for(int i = from; i < to; i++) {
+            float[] series = templates[members[i]].series;
+            if(squaredDistance(series, firstPivot) <= squaredDistance(series, secondPivot)) {
+                int swap = members[middle];
+                members[middle] = members[i];
+                members[i] = swap;
+                middle++;
+            }
+        }
+        if(middle == from || middle == to) {
+            //all the templates are the same
+            middle = (from + to) >>> 1;
+        }
+        return middle;
+    }
+
+    private int farthest(int from, int to, float[] series) {
+        int farthest = members[from];
+        double largest = -1;
+        for(int i = from; i < to; i++) {
+            double distance = squaredDistance(templates[members[i]].series, series);
+            if(distance > largest) {
+                largest = distance;
+                farthest = members[i];
+            }
+        }
+        return farthest;
+    }
+
+    private static double squaredDistance(float[] first, float[] second) {
+        double sum = 0;
+        for(int i = 0; i < first.length; i++) {
+            double difference = first[i] - second[i];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    private static void union(float[] upper, float[] lower, float[] otherUpper, float[] otherLower) {
+        for(int i = 0; i < upper.length; i++) {
+            upper[i] = Math.max(upper[i], otherUpper[i]);
+            lower[i] = Math.min(lower[i], otherLower[i]);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.motiongestures.grelib;
+
+import java.util.Arrays;
+
+/**
+ * Finds the template of a {@link GestureTemplateLibrary} closest to a gesture by dynamic time warping.
+ * The search goes down the {@link TemplateIndex} of the library best first: nodes and templates are visited in
+ * increasing order of the LB_Keogh lower bound of their envelope and the search stops as soon as a bound reaches the
+ * best distance found, so the branches far from the gesture are dismissed without bounding each of their templates
+ * and most templates never get a full DTW. The LB_Kim bound skips some more and each DTW is abandoned once all the
+ * cells of a row exceed the best distance.
+ * Distances are sums of squared differences along the warping path. A matcher keeps its working buffers between
+ * calls and must be used by one thread at a time.
+ */
+final class TemplateMatcher {
+    private static final int DIMENSIONS = GestureFeatures.DIMENSIONS;
+
+    private float[] query = new float[0];
+    //a binary min-heap of the nodes and templates to visit, keyed by their lower bound
+    private long[] heap = new long[0];
+    private int heapSize;
+    private double[] previousRow = new double[0];
+    private double[] currentRow = new double[0];
+
+    private int bestTemplate;
+    private double bestDistance;
+    //the number of DTW computed by the last match, full or abandoned
+    int computedDistances;
+    //the number of LB_Keogh bounds computed by the last match, of nodes and of templates
+    int computedBounds;
+
+    /**
+     * Matches the gesture and returns the position of the closest template in the library, -1 if it is empty.
+     */
+    int match(GestureTemplateLibrary library, SampleBatch accelerations, SampleBatch gyroscope) {
+        int length = library.getLength();
+        if(query.length != length * DIMENSIONS) {
+            query = new float[length * DIMENSIONS];
+            previousRow = new double[length];
+            currentRow = new double[length];
+        }
+        GestureFeatures.extract(accelerations, gyroscope, length, query);
+        return match(library.index(), length, library.getBandRadius(), query);
+    }
+
+    int match(TemplateIndex index, int length, int bandRadius, float[] series) {
+        int nodes = index.nodeCount;
+        //every node and every template is queued at most once
+        if(heap.length < nodes + index.templates.length) {
+            heap = new long[nodes + index.templates.length];
+        }
+        bestTemplate = -1;
+        bestDistance = Double.POSITIVE_INFINITY;
+        computedDistances = 0;
+        computedBounds = 0;
+        heapSize = 0;
+        if(nodes > 0) {
+            push(series, index.upper[0], index.lower[0], length, 0);
+        }
+        while(heapSize > 0) {
+            long entry = pop();
+            float bound = Float.intBitsToFloat((int) (entry >>> 32));
+            if(bound >= bestDistance) {
+                break;
+            }
+            int id = (int) entry;
+            if(id >= nodes) {
+                GestureTemplate template = index.templates[id - nodes];
+                if(lowerBoundKim(series, template.series, length) >= bestDistance) {
+                    continue;
+                }
+                computedDistances++;
+                double distance = distance(series, template.series, length, bandRadius, bestDistance);
+                if(distance < bestDistance) {
+                    bestDistance = distance;
+                    bestTemplate = id - nodes;
+                }
+            } else if(index.isLeaf(id)) {
+                for(int i = index.first[id]; i < index.end[id]; i++) {
+                    GestureTemplate template = index.templates[index.members[i]];
+                    push(series, template.upper, template.lower, length, nodes + index.members[i]);
+                }
+            } else {
+                push(series, index.upper[index.left[id]], index.lower[index.left[id]], length, index.left[id]);
+                push(series, index.upper[index.right[id]], index.lower[index.right[id]], length, index.right[id]);
+            }
+        }
+        return bestTemplate;
+    }
+
+    //queues a node or a template by the lower bound of its envelope, unless it cannot beat the best distance
+    private void push(float[] series, float[] upper, float[] lower, int length, int id) {
+        computedBounds++;
+        double exactBound = lowerBoundKeogh(series, upper, lower, length);
+        if(exactBound >= bestDistance) {
+            return;
+        }
+        //the bits of a positive float sort like its value, so the entries compare as longs
+        float bound = (float) exactBound;
+        if(bound > exactBound) {
+            //round down so that the bound stays a lower bound
+            bound = Math.nextDown(bound);
+        }
+        long entry = ((long) Float.floatToIntBits(bound) << 32) | id;
+        int position = heapSize++;
+        while(position > 0) {
+            int parent = (position - 1) >>> 1;
+            if(heap[parent] <= entry) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = entry;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int position = 0;
+        while(true) {
+            int child = 2 * position + 1;
+            if(child >= heapSize) {
+                break;
+            }
+            if(child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if(heap[child] >= last) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = last;
+        return top;
+    }
+
+    /**
+     * The distance to the template returned by the last match.
+     */
+    double getBestDistance() {
+        return bestDistance;
+    }
+
+    /**
+     * Banded DTW distance, or infinity once it is known to exceed the given limit.
+     */
+    double distance(float[] first, float[] second, int length, int bandRadius, double limit) {
+        if(previousRow.length < length) {
+            previousRow = new double[length];
+            currentRow = new double[length];
+        }
+        double[] previous = previousRow;
+        double[] current = currentRow;
+        Arrays.fill(previous, 0, length, Double.POSITIVE_INFINITY);
+        for(int i = 0; i < length; i++) {
+            int from = Math.max(0, i - bandRadius);
+            int to = Math.min(length - 1, i + bandRadius);
+            Arrays.fill(current, 0, length, Double.POSITIVE_INFINITY);
+            double rowMinimum = Double.POSITIVE_INFINITY;
+            for(int j = from; j <= to; j++) {
+                double best;
+                if(i == 0 && j == 0) {
+                    best = 0;
+                } else {
+                    best = previous[j];
+                    if(j > 0) {
+                        best = Math.min(best, Math.min(previous[j - 1], current[j - 1]));
+                    }
+                }
+                double cell = best + cost(first, i, second, j);
+                current[j] = cell;
+                rowMinimum = Math.min(rowMinimum, cell);
+            }
+            if(rowMinimum >= limit) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[length - 1];
+    }
+
+    private static double cost(float[] first, int i, float[] second, int j) {
+        double sum = 0;
+        int a = i * DIMENSIONS;
+        int b = j * DIMENSIONS;
+        for(int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            double difference = first[a + dimension] - second[b + dimension];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    //every warping path starts and ends at the corners
+    private static double lowerBoundKim(float[] query, float[] template, int length) {
+        return cost(query, 0, template, 0) + cost(query, length - 1, template, length - 1);
+    }
+
+    //every point of the query is matched with some point of the template within the band
+    private static double lowerBoundKeogh(float[] query, float[] upper, float[] lower, int length) {
+        double sum = 0;
+        for(int position = 0; position < length * DIMENSIONS; position++) {
+            float value = query[position];
+            if(value > upper[position]) {
+                double difference = value - upper[position];
+                sum += difference * difference;
+            } else if(value < lower[position]) {
+                double difference = lower[position] - value;
+                sum += difference * difference;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,34 @@
+package com.motiongestures.grelib;
+
+import android.os.Debug;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The CPU time of the calling thread in nanoseconds, to measure work without the time the thread waited.
+ * Uses the {@link ThreadMXBean} of the JVM, or {@link Debug#threadCpuTimeNanos()} on Android, which has no
+ * java.lang.management.
+ */
+final class ThreadCpuClock {
+    private static final ThreadMXBean THREADS = threadMXBean();
+
+    private ThreadCpuClock() {
+    }
+
+    static long nanos() {
+        if(THREADS != null) {
+            return THREADS.getCurrentThreadCpuTime();
+        }
+        return Math.max(0, Debug.threadCpuTimeNanos());
+    }
+
+    private static ThreadMXBean threadMXBean() {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            return threads.isCurrentThreadCpuTimeSupported() ? threads : null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package com.motiongestures.grelib;
+
+import android.util.Log;
+import android.view.MotionEvent;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import GREProtocol.Greapi;
+
+/**
+ * Recognizes touch gestures: every stroke, from the first pointer going down to it going up, is one gesture sent to
+ * the server as touch requests. The points of the stroke, historical points of the motion events included, are
+ * resampled and simplified while it is drawn (see {@link #setStrokeSimplification(float, float)}) and sent as the
+ * {@link FlushPolicy} decides, the last request ending the gesture once the pointer goes up. The results are
+ * delivered like those of the motion clients.
+ */
+public class TouchGestureRecognitionClient implements GestureRecognitionClient {
+    private static final String TAG = "TouchGestureRecognitionClient";
+    public static final int DEFAULT_SENSITIVITY = RemoteGestureRecognitionClient.DEFAULT_SENSITIVITY;
+    /** The distance between the resampled points by default, in the coordinates of the touch events. */
+    public static final float DEFAULT_RESAMPLE_SPACING = 8;
+    /** The largest distance of a dropped point to the simplified stroke by default. */
+    public static final float DEFAULT_SIMPLIFICATION_TOLERANCE = 1.5F;
+    private static final int NO_POINTER = -1;
+
+    private final RecognitionConnection connection;
+    private final SessionHandler sessionHandler = new SessionHandler();
+    private final ResultDispatcher resultDispatcher = new ResultDispatcher();
+    //the channel of this client on the connection, null once detached from a shared connection
+    private volatile ConnectionManager.Channel channel;
+    private volatile String uri;
+    private volatile int sensitivity = DEFAULT_SENSITIVITY;
+
+    //guards the stroke, used by the thread of the touch events and by the flush timer
+    private final Object strokeLock = new Object();
+    private StrokeSimplifier simplifier = new StrokeSimplifier(DEFAULT_RESAMPLE_SPACING, DEFAULT_SIMPLIFICATION_TOLERANCE);
+    //the simplifier set during a stroke, used from the next one
+    private StrokeSimplifier pendingSimplifier;
+    private final TouchRequestEncoder requestEncoder = new TouchRequestEncoder();
+    private FlushPolicy flushPolicy = FlushPolicies.bySize(FlushPolicies.DEFAULT_BATCH_SIZE);
+    private int pointerId = NO_POINTER;
+    private long pendingSinceNanos;
+    private String currentSessionId = null;
+    private long capturedPoints = 0;
+    private long sentPoints = 0;
+    private long sentRequests = 0;
+
+    private ScheduledExecutorService flushTimer;
+    private ScheduledFuture<?> scheduledFlush;
+    private final Runnable flushTimerTask = new Runnable() {
+        @Override
+        public void run() {
+            onFlushTimer();
+        }
+    };
+
+    public TouchGestureRecognitionClient() {
+        this(new RecognitionConnection(new WebSocketTransport()), null);
+    }
+
+    /**
+     * Creates a client already connecting to the server, so that the first stroke does not wait for the connection.
+     */
+    public TouchGestureRecognitionClient(String uri) {
+        this(new RecognitionConnection(new WebSocketTransport()), uri);
+    }
+
+    /**
+     * Creates a client connecting to the server over the given transport instead of a WebSocket,
+     * already connecting if the URI is not null.
+     */
+    public TouchGestureRecognitionClient(String uri, RecognitionTransport transport) {
+        this(new RecognitionConnection(transport), uri);
+    }
+
+    /**
+     * Creates a client sending its strokes over a connection shared with other clients, motion clients included.
+     * The URI given to {@link #connect(String)} is then ignored, and pausing or closing the client leaves the
+     * connection open for the others.
+     */
+    public TouchGestureRecognitionClient(RecognitionConnection connection) {
+        this(connection, connection.getUri());
+    }
+
+    private TouchGestureRecognitionClient(RecognitionConnection connection, String uri) {
+        this.connection = connection;
+        channel = connection.attach(sessionHandler);
+        if(uri != null) {
+            connect(uri);
+        }
+    }
+
+    /**
+     * Opens the connection to the server receiving the next strokes. The gestures themselves start and end with
+     * the strokes given to {@link #onTouchEvent(MotionEvent)}.
+     */
+    @Override
+    public void connect(String uri) {
+        this.uri = connection.isShared() ? connection.getUri() : uri;
+        attachedChannel();
+        connection.open(this.uri);
+    }
+
+    /**
+     * Ends the current stroke, if any. The connection stays open for the next one.
+     */
+    @Override
+    public void disconnect() {
+        synchronized (strokeLock) {
+            if(pointerId != NO_POINTER) {
+                endStroke();
+            }
+        }
+    }
+
+    /**
+     * Ends the current stroke and closes a connection not shared with other clients, until {@link #resume()}.
+     */
+    @Override
+    public void pause() {
+        disconnect();
+        if(!connection.isShared()) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void resume() {
+        String lastUri = uri;
+        if(lastUri != null) {
+            connection.open(lastUri);
+        }
+    }
+
+    /**
+     * Closes the connection to the server, until the next {@link #connect(String)}.
+     * A client of a shared connection is only detached from it.
+     */
+    public void close() {
+        disconnect();
+        uri = null;
+        scheduleFlushTimer(0);
+        synchronized (this) {
+            if(flushTimer != null) {
+                flushTimer.shutdown();
+                flushTimer = null;
+            }
+        }
+        if(connection.isShared()) {
+            synchronized (sessionHandler) {
+                if(channel != null) {
+                    connection.detach(sessionHandler, channel);
+                    channel = null;
+                }
+            }
+        } else {
+            connection.close();
+        }
+    }
+
+    public RecognitionConnection getConnection() {
+        return connection;
+    }
+
+    private ConnectionManager.Channel attachedChannel() {
+        synchronized (sessionHandler) {
+            if(channel == null) {
+                channel = connection.attach(sessionHandler);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Touch gestures have no reference mode, it only applies to the motion clients.
+     */
+    @Override
+    public void setReferenceMode(ClientReferenceMode referenceMode) {
+    }
+
+    @Override
+    public void setGestureRecognitionResponseListener(GestureRecognitionResponseListener gestureRecognitionResponseListener) {
+        resultDispatcher.setResponseListener(gestureRecognitionResponseListener);
+    }
+
+    public GestureRecognitionResponseListener getGestureRecognitionResponseListener() {
+        return resultDispatcher.getResponseListener();
+    }
+
+    /**
+     * Sets a listener receiving the results as primitive labels and interned names, in addition to the
+     * {@link GestureRecognitionResponseListener}. Pass null, the default, to remove it.
+     */
+    public void setGestureResultListener(GestureResultListener gestureResultListener) {
+        resultDispatcher.setResultListener(gestureResultListener);
+    }
+
+    public GestureResultListener getGestureResultListener() {
+        return resultDispatcher.getResultListener();
+    }
+
+    /**
+     * Sets the executor calling the listeners, for example one posting to the main thread. Pass null, the default,
+     * to call them on the response thread of the connection.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        resultDispatcher.setCallbackExecutor(callbackExecutor);
+    }
+
+    public Executor getCallbackExecutor() {
+        return resultDispatcher.getCallbackExecutor();
+    }
+
+    public void setSensitivity(int sensitivity) {
+        this.sensitivity = sensitivity;
+    }
+
+    public int getSensitivity() {
+        return sensitivity;
+    }
+
+    /**
+     * Sets when the points of a stroke are sent, with the number of points kept or waiting to be simplified as the
+     * pending samples. {@link FlushPolicies#bySize(int)} with {@link FlushPolicies#DEFAULT_BATCH_SIZE} by default.
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        if(flushPolicy == null) {
+            throw new IllegalArgumentException("The flush policy cannot be null");
+        }
+        synchronized (strokeLock) {
+            this.flushPolicy = flushPolicy;
+        }
+        scheduleFlushTimer(flushPolicy.getTimerPeriodMillis());
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        synchronized (strokeLock) {
+            return flushPolicy;
+        }
+    }
+
+    /**
+     * Sets how the strokes are reduced before being sent: the points are resampled every given spacing along the
+     * stroke, then the resampled points closer than the tolerance to the line through their neighbours are dropped.
+     * Both are in the coordinates of the touch events, pass 0 to keep every point. Applies from the next stroke.
+     */
+    public void setStrokeSimplification(float resampleSpacing, float tolerance) {
+        StrokeSimplifier next = new StrokeSimplifier(resampleSpacing, tolerance);
+        synchronized (strokeLock) {
+            if(pointerId == NO_POINTER) {
+                simplifier = next;
+            } else {
+                pendingSimplifier = next;
+            }
+        }
+    }
+
+    /**
+     * The number of points given to the client, historical points included.
+     */
+    public long getCapturedPoints() {
+        synchronized (strokeLock) {
+            return capturedPoints;
+        }
+    }
+
+    /**
+     * The number of points sent to the server once resampled and simplified.
+     */
+    public long getSentPoints() {
+        synchronized (strokeLock) {
+            return sentPoints;
+        }
+    }
+
+    public long getSentRequests() {
+        synchronized (strokeLock) {
+            return sentRequests;
+        }
+    }
+
+    /**
+     * Feeds a touch event of the view the gestures are drawn on, typically from its {@code onTouchEvent} or an
+     * {@code OnTouchListener}. The first pointer going down starts a stroke, the other pointers are ignored, and
+     * the stroke ends when that pointer goes up or the event is cancelled.
+     * @return whether the event belongs to a stroke
+     */
+    public boolean onTouchEvent(MotionEvent event) {
+        synchronized (strokeLock) {
+            switch(event.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    if(pointerId != NO_POINTER) {
+                        endStroke();
+                    }
+                    pointerId = event.getPointerId(0);
+                    startStroke();
+                    addPoint(event.getX(0), event.getY(0));
+                    return true;
+                case MotionEvent.ACTION_MOVE:
+                    return addPoints(event);
+                case MotionEvent.ACTION_POINTER_UP:
+                    if(pointerId == NO_POINTER || event.getPointerId(event.getActionIndex()) != pointerId) {
+                        return false;
+                    }
+                    addPoints(event);
+                    endStroke();
+                    return true;
+                case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_CANCEL:
+                    if(pointerId == NO_POINTER) {
+                        return false;
+                    }
+                    addPoints(event);
+                    endStroke();
+                    return true;
+                default:
+                    return pointerId != NO_POINTER;
+            }
+        }
+    }
+
+    //must be called while holding strokeLock, adds the historical points of the stroke pointer then its current one
+    private boolean addPoints(MotionEvent event) {
+        int pointerIndex = pointerId == NO_POINTER ? -1 : event.findPointerIndex(pointerId);
+        if(pointerIndex < 0) {
+            return false;
+        }
+        int history = event.getHistorySize();
+        for(int i = 0; i < history; i++) {
+            addPoint(event.getHistoricalX(pointerIndex, i), event.getHistoricalY(pointerIndex, i));
+        }
+        addPoint(event.getX(pointerIndex), event.getY(pointerIndex));
+        return true;
+    }
+
+    //must be called while holding strokeLock
+    private void startStroke() {
+        if(pendingSimplifier != null) {
+            simplifier = pendingSimplifier;
+            pendingSimplifier = null;
+        }
+        simplifier.reset();
+        String previousSessionId = currentSessionId;
+        currentSessionId = UUID.randomUUID().toString();
+        connection.startSession(sessionHandler, attachedChannel(), previousSessionId, currentSessionId);
+        String currentUri = uri;
+        if(currentUri != null) {
+            connection.open(currentUri);
+        }
+    }
+
+    //must be called while holding strokeLock
+    private void addPoint(float x, float y) {
+        int before = simplifier.pendingPoints();
+        simplifier.add(x, y);
+        capturedPoints++;
+        int pending = simplifier.pendingPoints();
+        if(pending == 0) {
+            return;
+        }
+        if(before == 0) {
+            pendingSinceNanos = System.nanoTime();
+        }
+        if(flushPolicy.shouldFlushOnSample(pending, System.nanoTime() - pendingSinceNanos)) {
+            simplifier.flush();
+            sendPoints(true);
+        }
+    }
+
+    //must be called while holding strokeLock
+    private void endStroke() {
+        simplifier.finish();
+        sendPoints(false);
+        pointerId = NO_POINTER;
+    }
+
+    private void onFlushTimer() {
+        synchronized (strokeLock) {
+            int pending = simplifier.pendingPoints();
+            if(pointerId != NO_POINTER && pending > 0
+                    && flushPolicy.shouldFlushOnTimer(pending, System.nanoTime() - pendingSinceNanos)) {
+                simplifier.flush();
+                sendPoints(true);
+            }
+        }
+    }
+
+    //must be called while holding strokeLock
+    private void sendPoints(boolean activeGesture) {
+        if(activeGesture && simplifier.size == 0) {
+            return;
+        }
+        int size = requestEncoder.prepare(currentSessionId, sensitivity, activeGesture,
+                simplifier.x, simplifier.y, simplifier.size);
+        //the socket and the replay buffer keep the payload, so it cannot be a reused buffer
+        byte[] payload = new byte[size];
+        try {
+            requestEncoder.writeTo(payload, 0);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot encode the touch request", e);
+            return;
+        } finally {
+            sentPoints += simplifier.size;
+            simplifier.clear();
+        }
+        sentRequests++;
+        ConnectionManager.Channel current = channel;
+        if(current == null) {
+            Log.d(TAG, "The client is closed, dropping a request");
+            return;
+        }
+        current.send(payload);
+    }
+
+    private synchronized void scheduleFlushTimer(long periodMillis) {
+        if(scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if(periodMillis <= 0) {
+            return;
+        }
+        if(flushTimer == null) {
+            flushTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "grelib-touch-flush-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        scheduledFlush = flushTimer.scheduleAtFixedRate(flushTimerTask, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private final class SessionHandler implements RecognitionConnection.Session {
+        @Override
+        public void onResponse(Greapi.RecognitionResponse recognitionResponse, long decodeNanos) {
+            switch(recognitionResponse.getStatus()) {
+                case GestureEnd:
+                    onResult(GestureResult.RECOGNIZED, recognitionResponse);
+                    break;
+                case GestureRejected:
+                    onResult(GestureResult.REJECTED, recognitionResponse);
+                    break;
+                case GestureTooLong:
+                    onResult(GestureResult.TOO_LONG, recognitionResponse);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void onResult(int kind, Greapi.RecognitionResponse recognitionResponse) {
+            ConnectionManager.Channel current = channel;
+            if(current != null) {
+                current.acknowledge();
+            }
+            resultDispatcher.deliver(kind, recognitionResponse);
+        }
+
+        @Override
+        public void onResponsesHandled() {
+        }
+
+        @Override
+        public void onConnected(boolean reconnected) {
+            Log.d(TAG, "Connected to server");
+        }
+    }
+}
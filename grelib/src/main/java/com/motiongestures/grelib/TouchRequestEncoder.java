@@ -0,0 +1,110 @@
+package com.motiongestures.grelib;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+
+import GREProtocol.Greapi;
+
+/**
+ * Writes touch {@code RecognitionRequest} messages straight from the point arrays of a {@link StrokeSimplifier},
+ * byte for byte what the generated {@code GREProtocol.Greapi} classes produce for the same request.
+ * Like {@link RecognitionRequestEncoder}, {@link #prepare} computes the size and {@link #writeTo} writes the message.
+ * An instance is not thread-safe.
+ */
+final class TouchRequestEncoder {
+    private static final int ID_FIELD = 1;
+    private static final int SENSITIVITY_FIELD = 5;
+    private static final int ACTIVE_GESTURE_FIELD = 7;
+    private static final int REQUEST_TYPE_FIELD = 8;
+    private static final int TOUCH_FIELD = 9;
+    private static final int POINTS_FIELD = 1;
+    private static final int X_FIELD = 1;
+    private static final int Y_FIELD = 2;
+    //a float field is a one byte tag followed by four bytes
+    private static final int FLOAT_FIELD_SIZE = 5;
+
+    private String id;
+    private int sensitivity;
+    private boolean activeGesture;
+    private float[] x;
+    private float[] y;
+    private int count;
+    private int touchSize;
+    private int size;
+
+    /**
+     * Captures the request to encode and returns its serialized size. The points must not change until the
+     * request has been written.
+     */
+    int prepare(String id, int sensitivity, boolean activeGesture, float[] x, float[] y, int count) {
+        this.id = id == null ? "" : id;
+        this.sensitivity = sensitivity;
+        this.activeGesture = activeGesture;
+        this.x = x;
+        this.y = y;
+        this.count = count;
+
+        touchSize = 0;
+        for(int i = 0; i < count; i++) {
+            touchSize += 2 + computePointSize(i);
+        }
+        int total = 0;
+        if(!this.id.isEmpty()) {
+            total += CodedOutputStream.computeStringSize(ID_FIELD, this.id);
+        }
+        if(sensitivity != 0) {
+            total += CodedOutputStream.computeUInt32Size(SENSITIVITY_FIELD, sensitivity);
+        }
+        if(activeGesture) {
+            total += 2;
+        }
+        total += CodedOutputStream.computeEnumSize(REQUEST_TYPE_FIELD, Greapi.RequestType.TouchRequest.getNumber());
+        total += 1 + CodedOutputStream.computeUInt32SizeNoTag(touchSize) + touchSize;
+        size = total;
+        return total;
+    }
+
+    /**
+     * Writes the prepared request at the given offset, which must have room for the size returned by {@link #prepare}.
+     */
+    void writeTo(byte[] target, int offset) throws IOException {
+        CodedOutputStream output = CodedOutputStream.newInstance(target, offset, size);
+        if(!id.isEmpty()) {
+            output.writeString(ID_FIELD, id);
+        }
+        if(sensitivity != 0) {
+            output.writeUInt32(SENSITIVITY_FIELD, sensitivity);
+        }
+        if(activeGesture) {
+            output.writeBool(ACTIVE_GESTURE_FIELD, true);
+        }
+        output.writeEnum(REQUEST_TYPE_FIELD, Greapi.RequestType.TouchRequest.getNumber());
+        output.writeTag(TOUCH_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(touchSize);
+        for(int i = 0; i < count; i++) {
+            output.writeTag(POINTS_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(computePointSize(i));
+            if(x[i] != 0F) {
+                output.writeFloat(X_FIELD, x[i]);
+            }
+            if(y[i] != 0F) {
+                output.writeFloat(Y_FIELD, y[i]);
+            }
+        }
+        output.checkNoSpaceLeft();
+    }
+
+    //at most ten bytes, so the length of a point always fits in one byte
+    private int computePointSize(int position) {
+        int total = 0;
+        if(x[position] != 0F) {
+            total += FLOAT_FIELD_SIZE;
+        }
+        if(y[position] != 0F) {
+            total += FLOAT_FIELD_SIZE;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,198 @@
+package com.motiongestures.grelib;
+
+import android.util.Log;
+
+import com.neovisionaries.ws.client.WebSocket;
+import com.neovisionaries.ws.client.WebSocketAdapter;
+import com.neovisionaries.ws.client.WebSocketException;
+import com.neovisionaries.ws.client.WebSocketExtension;
+import com.neovisionaries.ws.client.WebSocketFactory;
+import com.neovisionaries.ws.client.WebSocketFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * The default transport: one binary WebSocket message per request and per response. The requests can be compressed
+ * with the permessage-deflate extension when the server supports it, see {@link #enableCompression(int, boolean)}.
+ */
+public final class WebSocketTransport implements RecognitionTransport {
+    private static final String TAG = "WebSocketTransport";
+    public static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = 10_000;
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+    private final WebSocketFactory factory = new WebSocketFactory();
+    //NO_COMPRESSION when the extension is not offered
+    private volatile int compressionLevel = Deflater.NO_COMPRESSION;
+    private volatile boolean contextTakeover = false;
+
+    public WebSocketTransport() {
+        factory.setConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Offers permessage-deflate to the server on the next connections, the requests are sent uncompressed if it
+     * declines. The level goes from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or is
+     * {@link Deflater#DEFAULT_COMPRESSION}. With context takeover the compression window, 32 KB on each end, is kept
+     * across the messages of a connection, so what the requests repeat is mostly sent once; without it every message
+     * is compressed on its own.
+     */
+    public void enableCompression(int level, boolean contextTakeover) {
+        if((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.contextTakeover = contextTakeover;
+        this.compressionLevel = level;
+    }
+
+    public void disableCompression() {
+        compressionLevel = Deflater.NO_COMPRESSION;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionLevel != Deflater.NO_COMPRESSION;
+    }
+
+    @Override
+    public Connection createConnection(String uri, Listener listener) throws IOException {
+        WebSocket webSocket = factory.createSocket(uri);
+        int level = compressionLevel;
+        boolean takeover = contextTakeover;
+        if(level != Deflater.NO_COMPRESSION) {
+            //no window bits are offered, java.util.zip only deflates with the largest window
+            webSocket.addExtension(takeover ? WebSocketExtension.PERMESSAGE_DEFLATE
+                    : WebSocketExtension.PERMESSAGE_DEFLATE + "; " + CLIENT_NO_CONTEXT_TAKEOVER + "; " + SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        return new SocketConnection(webSocket, listener, level, takeover);
+    }
+
+    private static final class SocketConnection extends WebSocketAdapter implements Connection {
+        private final WebSocket webSocket;
+        private final Listener listener;
+        private final int compressionLevel;
+        private final boolean contextTakeover;
+        //set once the server agreed to the compression, before the connection is reported open
+        private volatile MessageDeflater deflater;
+        //guarded by the lock held around send()
+        private long compressionNanos = 0;
+
+        SocketConnection(WebSocket webSocket, Listener listener, int compressionLevel, boolean contextTakeover) {
+            this.webSocket = webSocket;
+            this.listener = listener;
+            this.compressionLevel = compressionLevel;
+            this.contextTakeover = contextTakeover;
+            webSocket.addListener(this);
+        }
+
+        @Override
+        public void open() {
+            webSocket.connectAsynchronously();
+        }
+
+        @Override
+        public int send(ByteBuffer request) {
+            MessageDeflater current = deflater;
+            if(current == null) {
+                webSocket.sendBinary(toArray(request));
+                return request.remaining();
+            }
+            byte[] compressed;
+            long start;
+            if(request.hasArray()) {
+                start = ThreadCpuClock.nanos();
+                compressed = current.deflate(request.array(), request.arrayOffset() + request.position(), request.remaining());
+            } else {
+                byte[] bytes = toArray(request);
+                start = ThreadCpuClock.nanos();
+                compressed = current.deflate(bytes, 0, bytes.length);
+            }
+            compressionNanos += ThreadCpuClock.nanos() - start;
+            //the frame is compressed already, RSV1 tells the socket not to compress it again
+            webSocket.sendFrame(WebSocketFrame.createBinaryFrame(compressed).setRsv1(true));
+            return compressed.length;
+        }
+
+        @Override
+        public long getCompressionNanos() {
+            return compressionNanos;
+        }
+
+        @Override
+        public void setPingIntervalMillis(long pingIntervalMillis) {
+            webSocket.setPingInterval(pingIntervalMillis);
+        }
+
+        @Override
+        public void close() {
+            webSocket.disconnect();
+            //called with the same lock held as send()
+            MessageDeflater current = deflater;
+            deflater = null;
+            if(current != null) {
+                current.end();
+            }
+        }
+
+        @Override
+        public void onConnected(WebSocket websocket, Map<String, List<String>> headers) throws Exception {
+            List<WebSocketExtension> extensions = websocket.getAgreedExtensions();
+            if(extensions != null) {
+                for(WebSocketExtension extension : extensions) {
+                    if(WebSocketExtension.PERMESSAGE_DEFLATE.equals(extension.getName())) {
+                        //the server may turn off the context takeover of the client
+                        deflater = new MessageDeflater(compressionLevel,
+                                contextTakeover && !extension.containsParameter(CLIENT_NO_CONTEXT_TAKEOVER));
+                    }
+                }
+            }
+            listener.onOpen(this);
+        }
+
+        @Override
+        public void onConnectError(WebSocket websocket, WebSocketException exception) throws Exception {
+            listener.onClosed(this, exception);
+        }
+
+        @Override
+        public void onDisconnected(WebSocket websocket, WebSocketFrame serverCloseFrame, WebSocketFrame clientCloseFrame,
+                                   boolean closedByServer) throws Exception {
+            WebSocketFrame closeFrame = closedByServer ? serverCloseFrame : clientCloseFrame;
+            Log.d(TAG, "Disconnected with code " + (closeFrame == null ? "none" : closeFrame.getCloseCode()));
+            listener.onClosed(this, null);
+        }
+
+        @Override
+        public void onFrameSent(WebSocket websocket, WebSocketFrame frame) throws Exception {
+            if(frame.isBinaryFrame()) {
+                listener.onFrameWritten(this);
+            }
+        }
+
+        @Override
+        public void onFrameUnsent(WebSocket websocket, WebSocketFrame frame) throws Exception {
+            if(frame.isBinaryFrame()) {
+                listener.onFrameWritten(this);
+            }
+        }
+
+        @Override
+        public void onBinaryMessage(WebSocket websocket, byte[] binary) throws Exception {
+            listener.onResponse(this, ByteBuffer.wrap(binary));
+        }
+    }
+
+    //the payloads of the client are whole arrays, which go to the socket without a copy
+    static byte[] toArray(ByteBuffer buffer) {
+        if(buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,90 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ActivityDetectorTest {
+    private final Random random = new Random(3);
+
+    @Test
+    public void staysIdleOnADesk() {
+        ActivityDetector detector = new ActivityDetector();
+        for(int i = 0; i < 1000; i++) {
+            assertFalse(still(detector));
+        }
+    }
+
+    @Test
+    public void detectsMotionAndStopsAfterTheHoldTime() {
+        ActivityDetector detector = new ActivityDetector();
+        for(int i = 0; i < 100; i++) {
+            still(detector);
+        }
+        boolean started = false;
+        for(int i = 0; i < 20 && !started; i++) {
+            started = shaking(detector, i);
+        }
+        assertTrue(started);
+        for(int i = 0; i < 100; i++) {
+            shaking(detector, i);
+        }
+        int stillSamples = 0;
+        while(still(detector)) {
+            stillSamples++;
+            assertTrue(stillSamples < 200);
+        }
+        //the window has to empty before the hold time starts
+        assertTrue(stillSamples >= ActivityDetector.DEFAULT_HOLD_SAMPLES);
+    }
+
+    @Test
+    public void rotationAloneIsMotion() {
+        ActivityDetector detector = new ActivityDetector();
+        boolean moving = false;
+        for(int i = 0; i < 50; i++) {
+            still(detector);
+            moving = detector.onGyroscope(0.5f, 0, 0);
+        }
+        assertTrue(moving);
+    }
+
+    @Test
+    public void hysteresisKeepsMotionBetweenTheThresholds() {
+        ActivityDetector detector = new ActivityDetector(10, 1f, 0.2f, 1f, 0.2f, 0);
+        for(int i = 0; i < 10; i++) {
+            detector.onAcceleration(0, 0, i % 2 == 0 ? 8 : 12);
+        }
+        assertTrue(detector.isActive());
+        //a standard deviation of 0.5, under the start threshold but above the stop one
+        for(int i = 0; i < 100; i++) {
+            assertTrue(detector.onAcceleration(0, 0, i % 2 == 0 ? 9.5f : 10.5f));
+        }
+        for(int i = 0; i < 11; i++) {
+            detector.onAcceleration(0, 0, 10);
+        }
+        assertFalse(detector.isActive());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAStopThresholdAboveTheStartOne() {
+        new ActivityDetector(25, 0.1f, 0.2f, 0.1f, 0.05f, 10);
+    }
+
+    private boolean still(ActivityDetector detector) {
+        detector.onGyroscope(noise(0.003), noise(0.003), noise(0.003));
+        return detector.onAcceleration(noise(0.02), noise(0.02), 9.81f + noise(0.02));
+    }
+
+    private boolean shaking(ActivityDetector detector, int sample) {
+        float swing = (float) (4 * Math.sin(sample * 0.4));
+        detector.onGyroscope(swing * 0.2f, noise(0.003), noise(0.003));
+        return detector.onAcceleration(swing, noise(0.02), 9.81f + swing * 0.3f);
+    }
+
+    private float noise(double deviation) {
+        return (float) (random.nextGaussian() * deviation);
+    }
+}
@@ -0,0 +1,175 @@
+package com.motiongestures.grelib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+    private static final String SESSION = "session";
+
+    private RecognitionServer server;
+    private final BlockingQueue<Boolean> connections = new LinkedBlockingQueue<>();
+    private final BlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+    private final ConnectionManager.Listener listener = new ConnectionManager.Listener() {
+        @Override
+        public void onConnected(boolean reconnected) {
+            connections.add(reconnected);
+        }
+
+        @Override
+        public void onBinaryMessage(ByteBuffer message) {
+            byte[] binary = new byte[message.remaining()];
+            message.get(binary);
+            responses.add(binary);
+        }
+    };
+
+    @Before
+    public void startServer() throws InterruptedException {
+        server = new RecognitionServer(0);
+        server.setRecordingRequests(true);
+        server.startAndWait();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.stop(1000);
+    }
+
+    @Test
+    public void replaysTheSessionAfterTheConnectionIsKilled() throws Exception {
+        ConnectionManager manager = new ConnectionManager(listener);
+        ConnectionManager.Channel channel = manager.newChannel();
+        manager.setBackoffMillis(20, 100);
+        manager.open(server.uri());
+        assertEquals(Boolean.FALSE, connections.poll(5, TimeUnit.SECONDS));
+
+        server.killAfterRequests(3);
+        channel.startSession();
+        for(int i = 1; i <= 5; i++) {
+            channel.send(request(i, true));
+        }
+        assertEquals(Boolean.TRUE, connections.poll(5, TimeUnit.SECONDS));
+        channel.send(request(6, false));
+        Greapi.RecognitionResponse response = Greapi.RecognitionResponse.parseFrom(responses.poll(5, TimeUnit.SECONDS));
+        assertEquals(Greapi.Status.GestureEnd, response.getStatus());
+
+        List<List<Greapi.RecognitionRequest>> received = server.getRecordedRequests();
+        assertEquals(2, received.size());
+        List<Greapi.RecognitionRequest> replayed = received.get(1);
+        assertEquals(6, replayed.size());
+        for(int i = 0; i < 6; i++) {
+            assertEquals(i + 1, replayed.get(i).getSensitivity());
+        }
+        assertEquals(1, manager.getReconnections());
+        manager.close();
+    }
+
+    @Test
+    public void closingStopsTheReconnectionThread() throws Exception {
+        Set<Thread> before = reconnectionThreads();
+        ConnectionManager manager = new ConnectionManager(listener);
+        ConnectionManager.Channel channel = manager.newChannel();
+        manager.setBackoffMillis(20, 100);
+        manager.open(server.uri());
+        assertEquals(Boolean.FALSE, connections.poll(5, TimeUnit.SECONDS));
+        server.killAfterRequests(1);
+        channel.startSession();
+        channel.send(request(1, true));
+        assertEquals(Boolean.TRUE, connections.poll(5, TimeUnit.SECONDS));
+
+        Set<Thread> started = reconnectionThreads();
+        started.removeAll(before);
+        assertEquals(1, started.size());
+        manager.close();
+        Thread thread = started.iterator().next();
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void acknowledgedSessionsAreNotReplayed() throws Exception {
+        ConnectionManager manager = new ConnectionManager(listener);
+        ConnectionManager.Channel channel = manager.newChannel();
+        manager.setBackoffMillis(20, 100);
+        manager.open(server.uri());
+        assertEquals(Boolean.FALSE, connections.poll(5, TimeUnit.SECONDS));
+        channel.startSession();
+        channel.send(request(1, true));
+        channel.send(request(2, false));
+        assertNotNull(responses.poll(5, TimeUnit.SECONDS));
+        channel.acknowledge();
+
+        server.killAfterRequests(1);
+        channel.startSession();
+        channel.send(request(3, true));
+        assertEquals(Boolean.TRUE, connections.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, manager.getReplayedPayloads());
+        manager.close();
+    }
+
+    @Test
+    public void preconnectedSessionsAnswerSooner() throws Exception {
+        server.setHandshakeDelayMillis(150);
+        long cold = timeToFirstResponse(new ConnectionManager(listener), false);
+        long warm = timeToFirstResponse(new ConnectionManager(listener), true);
+        assertTrue("cold " + cold + " ns, preconnected " + warm + " ns", warm < cold);
+        assertTrue("preconnected " + warm + " ns", warm < TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aNegativeReplayCapacityIsRejected() {
+        new ConnectionManager(listener).setReplayCapacity(-1);
+    }
+
+    private long timeToFirstResponse(ConnectionManager manager, boolean preconnect) throws Exception {
+        ConnectionManager.Channel channel = manager.newChannel();
+        if(preconnect) {
+            manager.open(server.uri());
+            assertNotNull(connections.poll(5, TimeUnit.SECONDS));
+        }
+        long start = System.nanoTime();
+        channel.startSession();
+        manager.open(server.uri());
+        if(!manager.isConnected()) {
+            assertNotNull(connections.poll(5, TimeUnit.SECONDS));
+        }
+        channel.send(request(1, true));
+        channel.send(request(2, false));
+        assertNotNull(responses.poll(5, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        manager.close();
+        return elapsed;
+    }
+
+    private static Set<Thread> reconnectionThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(thread.getName().equals("grelib-reconnect")) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    private static byte[] request(int sequence, boolean activeGesture) {
+        return Greapi.RecognitionRequest.newBuilder()
+                .setId(SESSION)
+                .setSensitivity(sequence)
+                .setActiveGesture(activeGesture)
+                .build()
+                .toByteArray();
+    }
+}
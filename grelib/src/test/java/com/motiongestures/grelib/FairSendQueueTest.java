@@ -0,0 +1,61 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FairSendQueueTest {
+    @Test
+    public void sourcesAreServedRoundRobin() {
+        FairSendQueue<String> queue = new FairSendQueue<>();
+        for(int i = 0; i < 100; i++) {
+            queue.add("burst", new byte[]{(byte) i});
+        }
+        queue.add("quiet", new byte[]{-1});
+        queue.add("quiet", new byte[]{-2});
+        assertEquals(102, queue.size());
+
+        //the quiet source waits for at most one payload of the burst each time
+        assertEquals("burst", queue.nextSource());
+        assertEquals(0, queue.poll()[0]);
+        assertEquals("quiet", queue.nextSource());
+        assertEquals(-1, queue.poll()[0]);
+        assertEquals(1, queue.poll()[0]);
+        assertEquals(-2, queue.poll()[0]);
+        for(int i = 2; i < 100; i++) {
+            assertEquals("burst", queue.nextSource());
+            assertEquals(i, queue.poll()[0]);
+        }
+        assertNull(queue.nextSource());
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void replayedPayloadsGoFirstInOrder() {
+        FairSendQueue<String> queue = new FairSendQueue<>();
+        queue.add("a", new byte[]{3});
+        queue.addAllFirst("a", Arrays.asList(new byte[]{1}, new byte[]{2}));
+        assertEquals(3, queue.size("a"));
+        assertEquals(1, queue.poll()[0]);
+        assertEquals(2, queue.poll()[0]);
+        assertEquals(3, queue.poll()[0]);
+    }
+
+    @Test
+    public void removingASourceDropsItsPayloads() {
+        FairSendQueue<String> queue = new FairSendQueue<>();
+        queue.add("a", new byte[]{1});
+        queue.add("a", new byte[]{2});
+        queue.add("b", new byte[]{3});
+        assertTrue(queue.removeOldest("a"));
+        assertEquals(1, queue.size("a"));
+        queue.remove("a");
+        assertEquals(1, queue.size());
+        assertEquals("b", queue.nextSource());
+        assertEquals(3, queue.poll()[0]);
+        assertFalse(queue.removeOldest("a"));
+    }
+}
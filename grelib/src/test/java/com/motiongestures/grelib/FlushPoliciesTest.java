@@ -0,0 +1,50 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FlushPoliciesTest {
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void sizePolicyIgnoresAgeAndNeedsNoTimer() {
+        FlushPolicy policy = FlushPolicies.bySize(100);
+        assertFalse(policy.shouldFlushOnSample(99, 60_000 * MILLISECOND));
+        assertTrue(policy.shouldFlushOnSample(100, 0));
+        assertEquals(0, policy.getTimerPeriodMillis());
+    }
+
+    @Test
+    public void agePolicyFlushesOldSamplesFromTheTimer() {
+        FlushPolicy policy = FlushPolicies.byAge(200);
+        assertFalse(policy.shouldFlushOnSample(10_000, 199 * MILLISECOND));
+        assertTrue(policy.shouldFlushOnSample(1, 200 * MILLISECOND));
+        assertTrue(policy.shouldFlushOnTimer(1, 250 * MILLISECOND));
+        assertEquals(50, policy.getTimerPeriodMillis());
+    }
+
+    @Test
+    public void hybridPolicyFlushesOnEitherLimit() {
+        FlushPolicy policy = FlushPolicies.hybrid(50, 500);
+        assertTrue(policy.shouldFlushOnSample(50, 0));
+        assertTrue(policy.shouldFlushOnTimer(3, 500 * MILLISECOND));
+        assertFalse(policy.shouldFlushOnTimer(49, 499 * MILLISECOND));
+    }
+
+    @Test
+    public void lowLatencyPolicyFlushesOnEveryTick() {
+        FlushPolicy policy = FlushPolicies.lowLatency(20);
+        assertFalse(policy.shouldFlushOnSample(1, 100 * MILLISECOND));
+        assertTrue(policy.shouldFlushOnSample(FlushPolicies.DEFAULT_BATCH_SIZE, 0));
+        assertTrue(policy.shouldFlushOnTimer(1, 0));
+        assertEquals(20, policy.getTimerPeriodMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidSizes() {
+        FlushPolicies.bySize(0);
+    }
+}
@@ -0,0 +1,109 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameAlignerTest {
+    private static final long MILLISECOND = 1_000_000;
+    private static final long PERIOD = 10 * MILLISECOND;
+
+    private final List<float[]> frames = new ArrayList<>();
+    private final FrameAligner.FrameListener listener = new FrameAligner.FrameListener() {
+        @Override
+        public void onFrame(float[] frame) {
+            frames.add(frame.clone());
+        }
+    };
+
+    @Test
+    public void interpolatesJitteryStreamsOntoOneTimeline() {
+        FrameAligner aligner = new FrameAligner(PERIOD, 30 * MILLISECOND, new boolean[]{true, true, true});
+        Random random = new Random(2);
+        long[] next = {0, 3 * MILLISECOND, 7 * MILLISECOND};
+        long[] periods = {5 * MILLISECOND, 10 * MILLISECOND, 20 * MILLISECOND};
+        for(int event = 0; event < 3000; event++) {
+            int sensor = 0;
+            for(int i = 1; i < 3; i++) {
+                if(next[i] < next[sensor]) {
+                    sensor = i;
+                }
+            }
+            long timestamp = next[sensor];
+            //a linear signal is interpolated exactly
+            float value = timestamp / (float) MILLISECOND;
+            aligner.add(sensor, timestamp, value, sensor, -value, listener);
+            next[sensor] += periods[sensor] + (random.nextInt(3) - 1) * MILLISECOND;
+        }
+        assertTrue(frames.size() > 500);
+        float firstTick = frames.get(0)[0];
+        for(int i = 0; i < frames.size(); i++) {
+            float[] frame = frames.get(i);
+            float expected = firstTick + i * 10;
+            for(int sensor = 0; sensor < 3; sensor++) {
+                assertEquals(expected, frame[sensor * 3], 1e-2f);
+                assertEquals(sensor, frame[sensor * 3 + 1], 0f);
+                assertEquals(-expected, frame[sensor * 3 + 2], 1e-2f);
+            }
+        }
+        assertEquals(0, aligner.getLateEvents());
+    }
+
+    @Test
+    public void usesReorderedEventsAndDropsLateOnes() {
+        FrameAligner aligner = new FrameAligner(PERIOD, 30 * MILLISECOND, new boolean[]{true, true, false});
+        aligner.add(0, 0, 0, 0, 0, listener);
+        aligner.add(1, 0, 0, 0, 0, listener);
+        aligner.add(0, 30 * MILLISECOND, 30, 0, 0, listener);
+        assertEquals(1, frames.size());
+        //20 ms late but inside the window
+        aligner.add(1, 10 * MILLISECOND, 10, 0, 0, listener);
+        aligner.add(1, 30 * MILLISECOND, 30, 0, 0, listener);
+        aligner.add(0, 40 * MILLISECOND, 40, 0, 0, listener);
+        assertEquals(2, frames.size());
+        assertEquals(10f, frames.get(1)[0], 1e-4f);
+        assertEquals(10f, frames.get(1)[3], 0f);
+        //absent sensors stay at 0
+        assertEquals(0f, frames.get(1)[6], 0f);
+
+        aligner.add(0, 70 * MILLISECOND, 70, 0, 0, listener);
+        assertEquals(5, frames.size());
+        aligner.add(1, 5 * MILLISECOND, 5, 0, 0, listener);
+        assertEquals(1, aligner.getLateEvents());
+    }
+
+    @Test
+    public void restartsAfterASilence() {
+        FrameAligner aligner = new FrameAligner(PERIOD, 0, new boolean[]{true, false, false});
+        for(int i = 0; i < 10; i++) {
+            aligner.add(0, i * PERIOD, i, 0, 0, listener);
+        }
+        assertEquals(10, frames.size());
+        aligner.add(0, 60_000 * MILLISECOND, 1, 0, 0, listener);
+        assertTrue(frames.size() < 10 + FrameAligner.CAPACITY);
+    }
+
+    @Test
+    public void aWindowCoveringTheBurstsKeepsEveryEvent() {
+        //three sensors delivering 50 events each in turn, as FIFOs flushed one after the other
+        FrameAligner aligner = new FrameAligner(PERIOD, 530 * MILLISECOND, 64 + 53, new boolean[]{true, true, true});
+        for(int burst = 0; burst < 3; burst++) {
+            for(int sensor = 0; sensor < 3; sensor++) {
+                for(int i = burst * 50; i < burst * 50 + 50; i++) {
+                    aligner.add(sensor, i * PERIOD, i, 0, 0, listener);
+                }
+            }
+        }
+        aligner.drain(listener);
+        assertEquals(0, aligner.getLateEvents());
+        assertEquals(150, frames.size());
+        for(int i = 0; i < frames.size(); i++) {
+            assertEquals(i, frames.get(i)[3], 0f);
+            assertEquals(i, frames.get(i)[6], 0f);
+        }
+    }
+}
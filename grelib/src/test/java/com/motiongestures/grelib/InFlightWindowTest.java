@@ -0,0 +1,54 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InFlightWindowTest {
+    private static final long MILLISECOND = 1_000_000;
+
+    @Test
+    public void tracksRoundTripsOfAnsweredRequests() {
+        InFlightWindow window = new InFlightWindow(2, 1000 * MILLISECOND);
+        assertTrue(window.hasRoom(0));
+        int first = window.send(0);
+        int second = window.send(5 * MILLISECOND);
+        assertEquals(1, first);
+        assertEquals(2, second);
+        assertFalse(window.hasRoom(10 * MILLISECOND));
+
+        assertEquals(20 * MILLISECOND, window.acknowledge(second, 25 * MILLISECOND));
+        assertEquals(-1, window.acknowledge(second, 26 * MILLISECOND));
+        assertEquals(-1, window.acknowledge(0, 26 * MILLISECOND));
+        assertTrue(window.hasRoom(30 * MILLISECOND));
+        assertEquals(3, window.send(30 * MILLISECOND));
+        assertEquals(40 * MILLISECOND, window.acknowledge(first, 40 * MILLISECOND));
+        assertArrayEquals(new long[]{20 * MILLISECOND, 40 * MILLISECOND}, window.sortedRoundTrips());
+    }
+
+    @Test
+    public void unansweredRequestsExpire() {
+        InFlightWindow window = new InFlightWindow(1, 100 * MILLISECOND);
+        window.send(0);
+        assertFalse(window.hasRoom(100 * MILLISECOND));
+        assertTrue(window.hasRoom(101 * MILLISECOND));
+        assertEquals(1, window.getExpired());
+        assertEquals(0, window.getInFlight());
+    }
+
+    @Test
+    public void percentilesOfTheRecentRoundTrips() {
+        InFlightWindow window = new InFlightWindow(1, Long.MAX_VALUE);
+        for(int i = 1; i <= 2000; i++) {
+            int sequence = window.send(0);
+            window.acknowledge(sequence, i * MILLISECOND);
+        }
+        RoundTripStats stats = new RoundTripStats(window.sortedRoundTrips(), window.getInFlight(), 0, 0);
+        assertEquals(InFlightWindow.HISTORY, stats.getCount());
+        //only the last 1024 of 1..2000 ms are kept
+        assertEquals(977 + 511, stats.getPercentileMillis(50), 1e-9);
+        assertEquals(2000, stats.getPercentileMillis(100), 1e-9);
+        assertEquals(977, stats.getPercentileMillis(0), 1e-9);
+        assertEquals(2000, stats.getMaxMillis(), 1e-9);
+    }
+}
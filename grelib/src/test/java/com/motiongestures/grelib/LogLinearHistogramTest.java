@@ -0,0 +1,79 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LogLinearHistogramTest {
+    @Test
+    public void everyValueFallsInABucketBoundingIt() {
+        Random random = new Random(3);
+        for(int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() & Long.MAX_VALUE) >>> random.nextInt(63);
+            int bucket = LogLinearHistogram.bucketOf(value);
+            assertTrue(bucket >= 0 && bucket < LogLinearHistogram.BUCKETS);
+            assertTrue(value <= LogLinearHistogram.upperBoundOf(bucket));
+            assertTrue(bucket == 0 || value > LogLinearHistogram.upperBoundOf(bucket - 1));
+        }
+        assertEquals(LogLinearHistogram.BUCKETS - 1, LogLinearHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LogLinearHistogram.upperBoundOf(LogLinearHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketPrecision() {
+        Random random = new Random(5);
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        long[] values = new long[10_000];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 15);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        for(double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = snapshot.getPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " vs " + exact, estimate >= exact && estimate <= exact * 1.125 + 1);
+        }
+        assertEquals(values[values.length - 1], snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void resetClearsTheHistogram() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        histogram.record(42);
+        histogram.record(-1);
+        histogram.reset();
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(50));
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() {
+        ClientMetrics metrics = new ClientMetrics();
+        metrics.onBatchQueued(100, 1);
+        metrics.onRequestEncoded(1000, 300);
+        assertEquals(0, metrics.snapshot().getSamplesPerBatch().getCount());
+        assertEquals(0, metrics.snapshot().getBytesSent());
+
+        metrics.setEnabled(true);
+        //10 ms intervals with one event 1 ms late
+        for(long timestamp : new long[]{10_000_000, 20_000_000, 31_000_000, 40_000_000}) {
+            metrics.onSensorEvent(FrameAligner.ACCELEROMETER, timestamp);
+        }
+        metrics.onRequestEncoded(1000, 300);
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getSensorJitterMicros().getCount());
+        assertEquals(2000, snapshot.getSensorJitterMicros().getMax());
+        assertEquals(300, snapshot.getBytesSent());
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getBytesSent());
+    }
+}
@@ -0,0 +1,256 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the filter on the readings of a device following a known rotation: the gyroscope gives the body rates of the
+ * rotation, the accelerometer and the magnetometer gravity and the earth field seen from the rotated device, all with
+ * noise and a gyroscope bias.
+ */
+public class OrientationFilterTest {
+    private static final double GRAVITY = 9.81;
+    //a field of 50 uT pointing north and down with an inclination of 60 degrees
+    private static final double[] EARTH_FIELD = {25, 0, -43.3};
+    private static final double RATE_HZ = 100;
+
+    @Test
+    public void theFirstReadingsGiveTheOrientation() {
+        Random random = new Random(1);
+        for(int round = 0; round < 100; round++) {
+            double[] truth = randomRotation(random);
+            OrientationFilter filter = new OrientationFilter();
+            float[] a = toDevice(truth, new double[]{0, 0, GRAVITY});
+            float[] m = toDevice(truth, EARTH_FIELD);
+            filter.initialize(a[0], a[1], a[2], m[0], m[1], m[2]);
+            assertEquals(0, angleBetween(truth, filter), 0.05);
+        }
+    }
+
+    @Test
+    public void aContinuousRotationIsTracked() {
+        Motion motion = new Motion(new Random(2), true);
+        double worst = 0;
+        double total = 0;
+        int samples = 0;
+        for(int i = 0; i < 30 * RATE_HZ; i++) {
+            motion.step();
+            //after the bias has been learned
+            if(i > 5 * RATE_HZ) {
+                double error = angleBetween(motion.truth, motion.filter);
+                worst = Math.max(worst, error);
+                total += error;
+                samples++;
+            }
+        }
+        assertTrue("Worst error " + worst, worst < 3);
+        assertTrue("Mean error " + total / samples, total / samples < 1.5);
+    }
+
+    @Test
+    public void theTiltStaysAccurateWithoutMagnetometer() {
+        Motion motion = new Motion(new Random(3), false);
+        double worst = 0;
+        for(int i = 0; i < 30 * RATE_HZ; i++) {
+            motion.step();
+            if(i > 5 * RATE_HZ) {
+                //the angle between the true and the estimated vertical of the device
+                float[] up = toDevice(motion.truth, new double[]{0, 0, 1});
+                float[] estimated = {up[0], up[1], up[2]};
+                motion.filter.toEarthFrame(estimated, 0);
+                worst = Math.max(worst, Math.toDegrees(Math.acos(Math.min(1, estimated[2]))));
+            }
+        }
+        assertTrue("Worst tilt error " + worst, worst < 3);
+    }
+
+    @Test
+    public void aWrongStartConverges() {
+        Motion motion = new Motion(new Random(4), true);
+        //start 90 degrees off around the x axis
+        motion.filter.initialize(0, (float) GRAVITY, 0, 0, 0, 0);
+        for(int i = 0; i < 10 * RATE_HZ; i++) {
+            motion.step();
+        }
+        assertTrue(angleBetween(motion.truth, motion.filter) < 3);
+    }
+
+    @Test
+    public void samplesAreRotatedIntoTheHeadingOfTheGestureStart() {
+        Random random = new Random(5);
+        for(int round = 0; round < 20; round++) {
+            //a device held flat, screen up, pointing to any direction
+            double yaw = random.nextDouble() * 2 * Math.PI;
+            double[] truth = {Math.cos(yaw / 2), 0, 0, Math.sin(yaw / 2)};
+            ReferenceFrameTransform transform = new ReferenceFrameTransform();
+            transform.setReferenceMode(ClientReferenceMode.USER_FACING);
+            float[] m = toDevice(truth, EARTH_FIELD);
+            transform.onMagnetometer(m[0], m[1], m[2]);
+            float[] a = toDevice(truth, new double[]{0, 0, GRAVITY});
+            transform.onAccelerometer(a, 0);
+            //once the gesture has started, a push along the top of the device is a push forward
+            transform.setHeadingHeld(true);
+            float[] push = {0, 2, (float) GRAVITY};
+            transform.onAccelerometer(push, 0);
+            assertEquals(0, push[0], 1e-3);
+            assertEquals(2, push[1], 1e-3);
+            assertEquals(GRAVITY, push[2], 1e-3);
+        }
+    }
+
+    @Test
+    public void theHeadingIsHeldDuringAGesture() {
+        ReferenceFrameTransform transform = new ReferenceFrameTransform();
+        transform.setReferenceMode(ClientReferenceMode.USER_FACING);
+        float[] rest = {0, 0, (float) GRAVITY};
+        transform.onAccelerometer(rest, 0);
+        transform.setHeadingHeld(true);
+        //a quarter turn to the left in one second, the device y axis then points to the left of the user
+        long timestamp = 0;
+        float[] rate = new float[3];
+        for(int i = 0; i <= RATE_HZ; i++) {
+            rate[0] = 0;
+            rate[1] = 0;
+            rate[2] = (float) (Math.PI / 2);
+            transform.onGyroscope(timestamp, rate, 0);
+            timestamp += (long) (1e9 / RATE_HZ);
+        }
+        float[] push = {0, 2, (float) GRAVITY};
+        transform.onAccelerometer(push, 0);
+        assertEquals(-2, push[0], 0.05);
+        assertEquals(0, push[1], 0.05);
+
+        //between gestures the heading follows the device again
+        transform.setHeadingHeld(false);
+        push[0] = 0;
+        push[1] = 2;
+        push[2] = (float) GRAVITY;
+        transform.onAccelerometer(push, 0);
+        assertEquals(0, push[0], 1e-3);
+        assertEquals(2, push[1], 1e-3);
+    }
+
+    @Test
+    public void theWristModesPointAlongTheForearm() {
+        float[] push = new float[3];
+        for(ClientReferenceMode mode : new ClientReferenceMode[]{ClientReferenceMode.LEFT_WRIST, ClientReferenceMode.RIGHT_WRIST}) {
+            ReferenceFrameTransform transform = new ReferenceFrameTransform();
+            transform.setReferenceMode(mode);
+            float[] rest = {0, 0, (float) GRAVITY};
+            transform.onAccelerometer(rest, 0);
+            push[0] = mode == ClientReferenceMode.LEFT_WRIST ? 2 : -2;
+            push[1] = 0;
+            push[2] = (float) GRAVITY;
+            transform.onAccelerometer(push, 0);
+            assertEquals(0, push[0], 1e-3);
+            assertEquals(2, push[1], 1e-3);
+        }
+    }
+
+    @Test
+    public void theDeviceReferenceLeavesTheSamples() {
+        ReferenceFrameTransform transform = new ReferenceFrameTransform();
+        float[] a = {1, 2, 3};
+        transform.onAccelerometer(a, 0);
+        float[] g = {0.1F, 0.2F, 0.3F};
+        transform.onGyroscope(10_000_000, g, 0);
+        assertArrayEquals(new float[]{1, 2, 3}, a, 0);
+        assertArrayEquals(new float[]{0.1F, 0.2F, 0.3F}, g, 0);
+    }
+
+    /**
+     * A device turning with changing body rates, and the filter following it from the readings.
+     */
+    private static final class Motion {
+        private final Random random;
+        private final boolean magnetometer;
+        private final double[] bias;
+        final double[] truth;
+        final OrientationFilter filter = new OrientationFilter();
+        private double time = 0;
+
+        Motion(Random random, boolean magnetometer) {
+            this.random = random;
+            this.magnetometer = magnetometer;
+            bias = new double[]{0.02, -0.015, 0.01};
+            truth = randomRotation(random);
+            float[] a = toDevice(truth, new double[]{0, 0, GRAVITY});
+            float[] m = magnetometer ? toDevice(truth, EARTH_FIELD) : new float[3];
+            filter.initialize(a[0], a[1], a[2], m[0], m[1], m[2]);
+        }
+
+        void step() {
+            double dt = 1 / RATE_HZ;
+            double[] rate = {0.8 * Math.sin(time), 1.2 * Math.cos(0.7 * time), 0.5 * Math.sin(0.3 * time + 1)};
+            //integrated in small steps, the filter only sees the rate at the end of the period
+            for(int i = 0; i < 10; i++) {
+                rotate(truth, rate, dt / 10);
+            }
+            time += dt;
+            float[] a = toDevice(truth, new double[]{0, 0, GRAVITY});
+            float[] m = magnetometer ? toDevice(truth, EARTH_FIELD) : new float[3];
+            for(int axis = 0; axis < 3; axis++) {
+                a[axis] += (float) (random.nextGaussian() * 0.05);
+                if(magnetometer) {
+                    m[axis] += (float) (random.nextGaussian() * 0.5);
+                }
+            }
+            filter.update((float) (rate[0] + bias[0] + random.nextGaussian() * 0.01),
+                    (float) (rate[1] + bias[1] + random.nextGaussian() * 0.01),
+                    (float) (rate[2] + bias[2] + random.nextGaussian() * 0.01),
+                    a[0], a[1], a[2], m[0], m[1], m[2], dt);
+        }
+    }
+
+    private static double[] randomRotation(Random random) {
+        double[] q = {random.nextGaussian(), random.nextGaussian(), random.nextGaussian(), random.nextGaussian()};
+        double norm = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        for(int i = 0; i < 4; i++) {
+            q[i] /= norm;
+        }
+        return q;
+    }
+
+    //q = q * exp(rate * dt / 2), the body rates turning the device
+    private static void rotate(double[] q, double[] rate, double dt) {
+        double speed = Math.sqrt(rate[0] * rate[0] + rate[1] * rate[1] + rate[2] * rate[2]);
+        if(speed == 0) {
+            return;
+        }
+        double half = speed * dt / 2;
+        double w = Math.cos(half);
+        double s = Math.sin(half) / speed;
+        double x = rate[0] * s;
+        double y = rate[1] * s;
+        double z = rate[2] * s;
+        double q0 = q[0] * w - q[1] * x - q[2] * y - q[3] * z;
+        double q1 = q[0] * x + q[1] * w + q[2] * z - q[3] * y;
+        double q2 = q[0] * y - q[1] * z + q[2] * w + q[3] * x;
+        double q3 = q[0] * z + q[1] * y - q[2] * x + q[3] * w;
+        q[0] = q0;
+        q[1] = q1;
+        q[2] = q2;
+        q[3] = q3;
+    }
+
+    //the earth vector seen from the device, the transposed rotation
+    private static float[] toDevice(double[] q, double[] v) {
+        double q0 = q[0];
+        double q1 = q[1];
+        double q2 = q[2];
+        double q3 = q[3];
+        return new float[]{
+                (float) ((1 - 2 * (q2 * q2 + q3 * q3)) * v[0] + 2 * (q1 * q2 + q0 * q3) * v[1] + 2 * (q1 * q3 - q0 * q2) * v[2]),
+                (float) (2 * (q1 * q2 - q0 * q3) * v[0] + (1 - 2 * (q1 * q1 + q3 * q3)) * v[1] + 2 * (q2 * q3 + q0 * q1) * v[2]),
+                (float) (2 * (q1 * q3 + q0 * q2) * v[0] + 2 * (q2 * q3 - q0 * q1) * v[1] + (1 - 2 * (q1 * q1 + q2 * q2)) * v[2])};
+    }
+
+    //in degrees
+    private static double angleBetween(double[] truth, OrientationFilter filter) {
+        double dot = truth[0] * filter.getQ0() + truth[1] * filter.getQ1() + truth[2] * filter.getQ2() + truth[3] * filter.getQ3();
+        return Math.toDegrees(2 * Math.acos(Math.min(1, Math.abs(dot))));
+    }
+}
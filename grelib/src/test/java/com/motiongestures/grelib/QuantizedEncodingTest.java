@@ -0,0 +1,132 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+public class QuantizedEncodingTest {
+    @Test
+    public void quantizedEncodingMatchesTheGeneratedClasses() throws IOException {
+        Random random = new Random(11);
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        encoder.setSampleEncoding(SampleEncoding.QUANTIZED_DELTA);
+        Quantization quantization = Quantization.ofStep(0.01f);
+        encoder.setQuantizations(quantization, quantization, quantization);
+        for(int round = 0; round < 200; round++) {
+            SampleBatch accelerations = RecognitionRequestEncoderTest.randomBatch(random);
+            SampleBatch gyroscope = RecognitionRequestEncoderTest.consecutiveBatch(random);
+            SampleBatch magnetometer = RecognitionRequestEncoderTest.randomBatch(random);
+
+            byte[] expected = Greapi.RecognitionRequest.newBuilder()
+                    .setId("quantized")
+                    .setAcceleration(Greapi.Acceleration.newBuilder().setQuantizedSamples(toQuantizedBlock(accelerations, quantization)))
+                    .setGyroscope(Greapi.Gyroscope.newBuilder().setQuantizedSamples(toQuantizedBlock(gyroscope, quantization)))
+                    .setMagnetometer(Greapi.Magnetometer.newBuilder().setQuantizedSamples(toQuantizedBlock(magnetometer, quantization)))
+                    .setReferenceMode(Greapi.ReferenceMode.USER_FACING)
+                    .setSampleEncoding(Greapi.SampleEncoding.QUANTIZED_DELTA)
+                    .build()
+                    .toByteArray();
+            int length = encoder.encode("quantized", 0, false, Greapi.ReferenceMode.USER_FACING.getNumber(),
+                    accelerations, gyroscope, magnetometer);
+            assertArrayEquals(expected, Arrays.copyOf(encoder.buffer(), length));
+        }
+    }
+
+    @Test
+    public void decodedSamplesStayWithinHalfAStep() throws IOException {
+        SampleBatch accelerations = new SampleBatch();
+        SampleBatch gyroscope = new SampleBatch();
+        SampleBatch magnetometer = new SampleBatch();
+        new SyntheticMotion(5).fill(accelerations, gyroscope, magnetometer, 1000);
+        accelerations.add(1e30f, -1e30f, Float.NaN, 99999);
+
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        encoder.setSampleEncoding(SampleEncoding.QUANTIZED_DELTA);
+        int length = encoder.encode("id", 150, true, 0, accelerations, gyroscope, magnetometer);
+        Greapi.RecognitionRequest request = Greapi.RecognitionRequest.parseFrom(Arrays.copyOf(encoder.buffer(), length));
+        assertEquals(Greapi.SampleEncoding.QUANTIZED_DELTA, request.getSampleEncoding());
+
+        SampleBatch decoded = new SampleBatch();
+        SensorSampleDecoder.decode(request.getAcceleration(), decoded);
+        assertEquals(accelerations.size(), decoded.size());
+        //out of range values are clamped and NaN is sent as 0
+        int last = accelerations.size() - 1;
+        assertEquals(Integer.MAX_VALUE * (double) 0.001f, decoded.getX(last), 1e3);
+        assertEquals(Integer.MIN_VALUE * (double) 0.001f, decoded.getY(last), 1e3);
+        assertEquals(0f, decoded.getZ(last), 0f);
+        accelerations.clear();
+        new SyntheticMotion(5).fill(accelerations, new SampleBatch(), new SampleBatch(), 1000);
+        assertWithinHalfStep(accelerations, decoded, Quantization.DEFAULT_ACCELERATION, 1000);
+
+        decoded.clear();
+        SensorSampleDecoder.decode(request.getGyroscope(), decoded);
+        assertWithinHalfStep(gyroscope, decoded, Quantization.DEFAULT_GYROSCOPE, gyroscope.size());
+
+        decoded.clear();
+        SensorSampleDecoder.decode(request.getMagnetometer(), decoded);
+        assertWithinHalfStep(magnetometer, decoded, Quantization.DEFAULT_MAGNETOMETER, magnetometer.size());
+    }
+
+    @Test
+    public void compressionRatioOnSyntheticMotion() throws IOException {
+        SyntheticMotion motion = new SyntheticMotion(1);
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        long[] totals = new long[SampleEncoding.values().length];
+        SampleBatch accelerations = new SampleBatch();
+        SampleBatch gyroscope = new SampleBatch();
+        SampleBatch magnetometer = new SampleBatch();
+        //one minute of data in requests of 100 samples per sensor
+        for(int request = 0; request < 60; request++) {
+            accelerations.clear();
+            gyroscope.clear();
+            magnetometer.clear();
+            motion.fill(accelerations, gyroscope, magnetometer, 100);
+            for(SampleEncoding encoding : SampleEncoding.values()) {
+                encoder.setSampleEncoding(encoding);
+                totals[encoding.ordinal()] += encoder.prepare("5f0e2352-8c1b-4c57-9a49-7a7c8d0bfe1e", 150, true, 0,
+                        accelerations, gyroscope, magnetometer);
+            }
+        }
+        long list = totals[SampleEncoding.SAMPLE_LIST.ordinal()];
+        long packed = totals[SampleEncoding.PACKED.ordinal()];
+        long quantized = totals[SampleEncoding.QUANTIZED_DELTA.ordinal()];
+        assertTrue("packed " + packed + " list " + list, packed < list);
+        assertTrue("quantized " + quantized + " list " + list, quantized * 3 < list);
+    }
+
+    private static void assertWithinHalfStep(SampleBatch expected, SampleBatch actual, Quantization quantization, int count) {
+        double tolerance = quantization.getMaxError() * 1.0001 + 1e-5;
+        for(int i = 0; i < count; i++) {
+            assertEquals(expected.getX(i), actual.getX(i), tolerance);
+            assertEquals(expected.getY(i), actual.getY(i), tolerance);
+            assertEquals(expected.getZ(i), actual.getZ(i), tolerance);
+            assertEquals(expected.getIndex(i), actual.getIndex(i));
+        }
+    }
+
+    private static Greapi.QuantizedSensorBlock toQuantizedBlock(SampleBatch batch, Quantization quantization) {
+        Greapi.QuantizedSensorBlock.Builder block = Greapi.QuantizedSensorBlock.newBuilder()
+                .setStep(quantization.getStep());
+        Greapi.PackedSensorBlock packed = RecognitionRequestEncoderTest.toPackedBlock(batch);
+        block.setStartIndex(packed.getStartIndex()).addAllIndexDeltas(packed.getIndexDeltasList());
+        int previousX = 0;
+        int previousY = 0;
+        int previousZ = 0;
+        for(int i = 0; i < batch.size(); i++) {
+            int x = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.rint(batch.getX(i) / (double) quantization.getStep())));
+            int y = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.rint(batch.getY(i) / (double) quantization.getStep())));
+            int z = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.rint(batch.getZ(i) / (double) quantization.getStep())));
+            block.addX(x - previousX).addY(y - previousY).addZ(z - previousZ);
+            previousX = x;
+            previousY = y;
+            previousZ = z;
+        }
+        return block.build();
+    }
+}
@@ -0,0 +1,144 @@
+package com.motiongestures.grelib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+public class RecognitionConnectionTest {
+    private RecognitionServer server;
+
+    @Before
+    public void startServer() throws InterruptedException {
+        server = new RecognitionServer(0);
+        server.setRecordingRequests(true);
+        server.startAndWait();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.stop(1000);
+    }
+
+    @Test
+    public void responsesAreRoutedBySessionId() throws Exception {
+        RecognitionConnection connection = new RecognitionConnection(server.uri());
+        RecordingSession phone = new RecordingSession();
+        RecordingSession watch = new RecordingSession();
+        ConnectionManager.Channel phoneChannel = connection.attach(phone);
+        ConnectionManager.Channel watchChannel = connection.attach(watch);
+        connection.startSession(phone, phoneChannel, null, "phone-1");
+        connection.startSession(watch, watchChannel, null, "watch-1");
+
+        for(int i = 0; i < 20; i++) {
+            phoneChannel.send(request("phone-1", true));
+            if(i < 2) {
+                watchChannel.send(request("watch-1", true));
+            }
+        }
+        watchChannel.send(request("watch-1", false));
+        phoneChannel.send(request("phone-1", false));
+
+        assertEquals("watch-1", watch.responses.poll(5, TimeUnit.SECONDS).getId());
+        assertEquals("phone-1", phone.responses.poll(5, TimeUnit.SECONDS).getId());
+        assertNull(phone.responses.poll(100, TimeUnit.MILLISECONDS));
+        assertNull(watch.responses.poll(0, TimeUnit.MILLISECONDS));
+        //decoded and handled away from the socket
+        assertTrue(phone.responseThread.startsWith("grelib-responses"));
+        assertTrue(phone.handled.tryAcquire(1, TimeUnit.SECONDS));
+        //one socket for both
+        assertEquals(1, server.getRecordedRequests().size());
+        assertEquals(24, server.getRecordedRequests().get(0).size());
+
+        //the previous session of a client is forgotten
+        connection.startSession(phone, phoneChannel, "phone-1", "phone-2");
+        phoneChannel.send(request("phone-1", true));
+        phoneChannel.send(request("phone-1", false));
+        assertNull(phone.responses.poll(300, TimeUnit.MILLISECONDS));
+
+        connection.detach(watch, watchChannel);
+        assertEquals(1, connection.getClientCount());
+        connection.close();
+    }
+
+    @Test
+    public void aBurstOfResponsesIsHandledAsAWhole() throws Exception {
+        RecognitionConnection connection = new RecognitionConnection(server.uri());
+        RecordingSession session = new RecordingSession();
+        session.blockFirstResponse();
+        ConnectionManager.Channel channel = connection.attach(session);
+        connection.startSession(session, channel, null, "phone-1");
+
+        //the server answers each sequenced request with an IdleStatus, they queue up behind the first one
+        for(int sequence = 1; sequence <= 10; sequence++) {
+            channel.send(request("phone-1", true, sequence));
+        }
+        assertNotNull(session.responses.poll(5, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(server.getRecordedRequests().get(0).size() < 10 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        session.unblock.release();
+
+        for(int i = 1; i < 10; i++) {
+            assertEquals(Greapi.Status.IdleStatus, session.responses.poll(5, TimeUnit.SECONDS).getStatus());
+        }
+        assertTrue(session.handled.tryAcquire(1, TimeUnit.SECONDS));
+        assertFalse(session.handled.tryAcquire(200, TimeUnit.MILLISECONDS));
+        connection.close();
+    }
+
+    private static byte[] request(String id, boolean activeGesture) {
+        return request(id, activeGesture, 0);
+    }
+
+    private static byte[] request(String id, boolean activeGesture, int sequence) {
+        return Greapi.RecognitionRequest.newBuilder()
+                .setId(id)
+                .setActiveGesture(activeGesture)
+                .setSequence(sequence)
+                .build()
+                .toByteArray();
+    }
+
+    private static final class RecordingSession implements RecognitionConnection.Session {
+        final BlockingQueue<Greapi.RecognitionResponse> responses = new LinkedBlockingQueue<>();
+        final Semaphore handled = new Semaphore(0);
+        final Semaphore unblock = new Semaphore(0);
+        volatile String responseThread;
+        private volatile boolean blocking = false;
+
+        //holds the response thread in the first response until unblock is released
+        void blockFirstResponse() {
+            blocking = true;
+        }
+
+        @Override
+        public void onResponse(Greapi.RecognitionResponse response, long decodeNanos) {
+            responseThread = Thread.currentThread().getName();
+            responses.add(response);
+            if(blocking) {
+                blocking = false;
+                unblock.acquireUninterruptibly();
+            }
+        }
+
+        @Override
+        public void onResponsesHandled() {
+            handled.release();
+        }
+
+        @Override
+        public void onConnected(boolean reconnected) {
+        }
+    }
+}
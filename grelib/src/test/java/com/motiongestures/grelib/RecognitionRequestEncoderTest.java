@@ -0,0 +1,256 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+public class RecognitionRequestEncoderTest {
+    @Test
+    public void encodingMatchesTheGeneratedClasses() throws IOException {
+        Random random = new Random(42);
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        for(int round = 0; round < 200; round++) {
+            SampleBatch accelerations = randomBatch(random);
+            SampleBatch gyroscope = randomBatch(random);
+            SampleBatch magnetometer = randomBatch(random);
+            String id = random.nextInt(10) == 0 ? "" : "session-" + random.nextInt();
+            int sensitivity = random.nextInt(10) == 0 ? 0 : random.nextInt(300);
+            boolean activeGesture = random.nextBoolean();
+            Greapi.ReferenceMode referenceMode = Greapi.ReferenceMode.forNumber(random.nextInt(4));
+
+            byte[] expected = generated(id, sensitivity, activeGesture, referenceMode,
+                    accelerations, gyroscope, magnetometer).toByteArray();
+            int length = encoder.encode(id, sensitivity, activeGesture, referenceMode.getNumber(),
+                    accelerations, gyroscope, magnetometer);
+            assertArrayEquals(expected, Arrays.copyOf(encoder.buffer(), length));
+        }
+    }
+
+    @Test
+    public void encodedRequestParsesBack() throws IOException {
+        SampleBatch accelerations = new SampleBatch();
+        accelerations.add(1.5f, 0f, -9.81f, 0);
+        accelerations.add(-0f, Float.MIN_VALUE, Float.MAX_VALUE, 3);
+        SampleBatch gyroscope = new SampleBatch();
+        gyroscope.add(0.25f, 0.5f, 0.75f, -1);
+        SampleBatch magnetometer = new SampleBatch();
+
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        int size = encoder.prepare("id", 150, true, Greapi.ReferenceMode.LEFT_WRIST.getNumber(),
+                accelerations, gyroscope, magnetometer);
+        byte[] payload = new byte[size + 7];
+        encoder.writeTo(payload, 7);
+        Greapi.RecognitionRequest request = Greapi.RecognitionRequest.parseFrom(Arrays.copyOfRange(payload, 7, payload.length));
+
+        assertEquals("id", request.getId());
+        assertEquals(150, request.getSensitivity());
+        assertTrue(request.getActiveGesture());
+        assertEquals(Greapi.ReferenceMode.LEFT_WRIST, request.getReferenceMode());
+        assertEquals(Greapi.RequestType.MotionRequest, request.getRequestType());
+        assertSamples(accelerations, request.getAcceleration().getSamplesList());
+        assertSamples(gyroscope, request.getGyroscope().getSamplesList());
+        assertSamples(magnetometer, request.getMagnetometer().getSamplesList());
+    }
+
+    @Test
+    public void sequenceIsWrittenLikeTheGeneratedClasses() throws IOException {
+        Random random = new Random(5);
+        SampleBatch accelerations = randomBatch(random);
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        for(int sequence : new int[]{1, 127, 128, Integer.MAX_VALUE}) {
+            encoder.setSequence(sequence);
+            byte[] expected = generated("sequenced", 0, false, Greapi.ReferenceMode.DEVICE_REFERENCE,
+                    accelerations, new SampleBatch(), new SampleBatch())
+                    .toBuilder()
+                    .setSequence(sequence)
+                    .build()
+                    .toByteArray();
+            int length = encoder.encode("sequenced", 0, false, 0, accelerations, new SampleBatch(), new SampleBatch());
+            assertArrayEquals(expected, Arrays.copyOf(encoder.buffer(), length));
+        }
+    }
+
+    @Test
+    public void packedEncodingMatchesTheGeneratedClasses() throws IOException {
+        Random random = new Random(7);
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        encoder.setSampleEncoding(SampleEncoding.PACKED);
+        for(int round = 0; round < 200; round++) {
+            SampleBatch accelerations = random.nextBoolean() ? randomBatch(random) : consecutiveBatch(random);
+            SampleBatch gyroscope = randomBatch(random);
+            SampleBatch magnetometer = consecutiveBatch(random);
+
+            byte[] expected = Greapi.RecognitionRequest.newBuilder()
+                    .setId("packed")
+                    .setSensitivity(150)
+                    .setActiveGesture(true)
+                    .setAcceleration(Greapi.Acceleration.newBuilder().setPackedSamples(toPackedBlock(accelerations)))
+                    .setGyroscope(Greapi.Gyroscope.newBuilder().setPackedSamples(toPackedBlock(gyroscope)))
+                    .setMagnetometer(Greapi.Magnetometer.newBuilder().setPackedSamples(toPackedBlock(magnetometer)))
+                    .setSampleEncoding(Greapi.SampleEncoding.PACKED)
+                    .build()
+                    .toByteArray();
+            int length = encoder.encode("packed", 150, true, 0, accelerations, gyroscope, magnetometer);
+            assertArrayEquals(expected, Arrays.copyOf(encoder.buffer(), length));
+
+            Greapi.RecognitionRequest request = Greapi.RecognitionRequest.parseFrom(Arrays.copyOf(encoder.buffer(), length));
+            assertBlock(accelerations, request.getAcceleration().getPackedSamples());
+            assertBlock(gyroscope, request.getGyroscope().getPackedSamples());
+            assertBlock(magnetometer, request.getMagnetometer().getPackedSamples());
+        }
+    }
+
+    @Test
+    public void packedEncodingIsSmallerThanTheSampleList() throws IOException {
+        Random random = new Random(3);
+        SampleBatch accelerations = new SampleBatch();
+        SampleBatch gyroscope = new SampleBatch();
+        SampleBatch magnetometer = new SampleBatch();
+        for(int i = 0; i < 100; i++) {
+            accelerations.add(random.nextFloat(), random.nextFloat(), 9.81f, i * 3);
+            gyroscope.add(random.nextFloat(), random.nextFloat(), random.nextFloat(), i * 3 + 1);
+            magnetometer.add(random.nextFloat(), random.nextFloat(), random.nextFloat(), i * 3 + 2);
+        }
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        int listSize = encoder.prepare("id", 150, true, 0, accelerations, gyroscope, magnetometer);
+        encoder.setSampleEncoding(SampleEncoding.PACKED);
+        int packedSize = encoder.prepare("id", 150, true, 0, accelerations, gyroscope, magnetometer);
+        //3 x 100 samples: the list spends about 21 bytes per sample, the packed block 12 bytes plus one delta byte
+        assertTrue("list " + listSize + " packed " + packedSize, packedSize * 10 < listSize * 7);
+    }
+
+    @Test
+    public void aNullBatchLeavesItsSensorOut() throws IOException {
+        Random random = new Random(4);
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        for(SampleEncoding sampleEncoding : SampleEncoding.values()) {
+            encoder.setSampleEncoding(sampleEncoding);
+            SampleBatch accelerations = consecutiveBatch(random);
+            SampleBatch gyroscope = consecutiveBatch(random);
+            int length = encoder.encode("id", 150, true, 0, accelerations, gyroscope, null);
+            Greapi.RecognitionRequest request = Greapi.RecognitionRequest.parseFrom(Arrays.copyOf(encoder.buffer(), length));
+            assertFalse(request.hasMagnetometer());
+            assertTrue(request.hasAcceleration());
+            assertTrue(request.hasGyroscope());
+            if(sampleEncoding == SampleEncoding.SAMPLE_LIST) {
+                byte[] expected = generated("id", 150, true, Greapi.ReferenceMode.DEVICE_REFERENCE,
+                        accelerations, gyroscope, new SampleBatch()).toBuilder().clearMagnetometer().build().toByteArray();
+                assertArrayEquals(expected, Arrays.copyOf(encoder.buffer(), length));
+            }
+        }
+    }
+
+    static Greapi.PackedSensorBlock toPackedBlock(SampleBatch batch) {
+        Greapi.PackedSensorBlock.Builder block = Greapi.PackedSensorBlock.newBuilder();
+        boolean consecutive = true;
+        for(int i = 0; i < batch.size(); i++) {
+            block.addX(batch.getX(i)).addY(batch.getY(i)).addZ(batch.getZ(i));
+            if(i > 0 && batch.getIndex(i) != batch.getIndex(i - 1) + 1) {
+                consecutive = false;
+            }
+        }
+        if(batch.size() > 0) {
+            block.setStartIndex(batch.getIndex(0));
+        }
+        if(!consecutive) {
+            for(int i = 1; i < batch.size(); i++) {
+                block.addIndexDeltas(batch.getIndex(i) - batch.getIndex(i - 1));
+            }
+        }
+        return block.build();
+    }
+
+    static SampleBatch consecutiveBatch(Random random) {
+        SampleBatch batch = new SampleBatch();
+        int size = random.nextInt(120);
+        int start = random.nextInt(1000) - 10;
+        for(int i = 0; i < size; i++) {
+            batch.add(randomValue(random), randomValue(random), randomValue(random), start + i);
+        }
+        return batch;
+    }
+
+    static Greapi.RecognitionRequest generated(String id, int sensitivity, boolean activeGesture,
+                                               Greapi.ReferenceMode referenceMode, SampleBatch accelerations,
+                                               SampleBatch gyroscope, SampleBatch magnetometer) {
+        return Greapi.RecognitionRequest.newBuilder()
+                .setId(id)
+                .setSensitivity(sensitivity)
+                .setActiveGesture(activeGesture)
+                .setReferenceMode(referenceMode)
+                .setAcceleration(Greapi.Acceleration.newBuilder()
+                        .addAllSamples(toProtobuf(accelerations))
+                        .setUnit(Greapi.AccelerationUnit.SI))
+                .setGyroscope(Greapi.Gyroscope.newBuilder()
+                        .addAllSamples(toProtobuf(gyroscope))
+                        .setUnit(Greapi.GyroscopeUnit.RADS))
+                .setMagnetometer(Greapi.Magnetometer.newBuilder()
+                        .addAllSamples(toProtobuf(magnetometer)))
+                .build();
+    }
+
+    static SampleBatch randomBatch(Random random) {
+        SampleBatch batch = new SampleBatch();
+        int size = random.nextInt(120);
+        for(int i = 0; i < size; i++) {
+            batch.add(randomValue(random), randomValue(random), randomValue(random), random.nextInt(8) == 0 ? 0 : random.nextInt());
+        }
+        return batch;
+    }
+
+    static float randomValue(Random random) {
+        switch(random.nextInt(6)) {
+            case 0:
+                return 0f;
+            case 1:
+                return -0f;
+            default:
+                return (random.nextFloat() - 0.5f) * 40f;
+        }
+    }
+
+    private static Iterable<Greapi.SensorSample> toProtobuf(SampleBatch batch) {
+        Greapi.SensorSample[] samples = new Greapi.SensorSample[batch.size()];
+        for(int i = 0; i < batch.size(); i++) {
+            samples[i] = Greapi.SensorSample.newBuilder()
+                    .setX(batch.getX(i))
+                    .setY(batch.getY(i))
+                    .setZ(batch.getZ(i))
+                    .setIndex(batch.getIndex(i))
+                    .build();
+        }
+        return Arrays.asList(samples);
+    }
+
+    private static void assertBlock(SampleBatch expected, Greapi.PackedSensorBlock block) {
+        assertEquals(expected.size(), block.getXCount());
+        assertEquals(expected.size(), block.getYCount());
+        assertEquals(expected.size(), block.getZCount());
+        int index = block.getStartIndex();
+        for(int i = 0; i < expected.size(); i++) {
+            if(i > 0) {
+                index += block.getIndexDeltasCount() == 0 ? 1 : block.getIndexDeltas(i - 1);
+            }
+            assertEquals(Float.floatToRawIntBits(expected.getX(i)), Float.floatToRawIntBits(block.getX(i)));
+            assertEquals(Float.floatToRawIntBits(expected.getY(i)), Float.floatToRawIntBits(block.getY(i)));
+            assertEquals(Float.floatToRawIntBits(expected.getZ(i)), Float.floatToRawIntBits(block.getZ(i)));
+            assertEquals(expected.getIndex(i), index);
+        }
+    }
+
+    private static void assertSamples(SampleBatch expected, java.util.List<Greapi.SensorSample> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getX(i), actual.get(i).getX(), 0f);
+            assertEquals(expected.getY(i), actual.get(i).getY(), 0f);
+            assertEquals(expected.getZ(i), actual.get(i).getZ(), 0f);
+            assertEquals(expected.getIndex(i), actual.get(i).getIndex());
+        }
+    }
+}
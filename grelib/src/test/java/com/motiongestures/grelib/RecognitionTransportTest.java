@@ -0,0 +1,139 @@
+package com.motiongestures.grelib;
+
+import com.google.protobuf.CodedInputStream;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+public class RecognitionTransportTest {
+    @Test
+    public void inProcessEngineReceivesTheEncodedBuffers() throws Exception {
+        final List<ByteBuffer> received = new CopyOnWriteArrayList<>();
+        InProcessTransport transport = new InProcessTransport(new InProcessTransport.Engine() {
+            @Override
+            public void onRequest(ByteBuffer request, InProcessTransport.Responder responder) {
+                received.add(request);
+                try {
+                    Greapi.RecognitionRequest parsed = Greapi.RecognitionRequest.parseFrom(CodedInputStream.newInstance(request));
+                    if(!parsed.getActiveGesture()) {
+                        responder.respond(ByteBuffer.wrap(gestureEnd(parsed.getId())));
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        RecognitionConnection connection = new RecognitionConnection("in-process:", transport);
+        QueueSession session = new QueueSession();
+        ConnectionManager.Channel channel = connection.attach(session);
+        connection.startSession(session, channel, null, "local");
+        channel.send(request("local", true));
+        channel.send(request("local", false));
+
+        assertEquals("local", session.responses.poll(5, TimeUnit.SECONDS).getId());
+        assertEquals(2, received.size());
+        //the engine reads the array the client encoded
+        assertTrue(received.get(0).hasArray());
+        connection.close();
+    }
+
+    @Test
+    public void tcpFramesAreLengthPrefixed() throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final BlockingQueue<Greapi.RecognitionRequest> requests = new LinkedBlockingQueue<>();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try(Socket socket = server.accept()) {
+                    DataInputStream input = new DataInputStream(socket.getInputStream());
+                    DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                    while(true) {
+                        byte[] frame = new byte[input.readInt()];
+                        input.readFully(frame);
+                        Greapi.RecognitionRequest request = Greapi.RecognitionRequest.parseFrom(frame);
+                        requests.add(request);
+                        if(!request.getActiveGesture()) {
+                            byte[] response = gestureEnd(request.getId());
+                            output.writeInt(response.length);
+                            output.write(response);
+                            output.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    //the client closed the connection
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        RecognitionConnection connection = new RecognitionConnection("tcp://127.0.0.1:" + server.getLocalPort(),
+                new TcpTransport());
+        QueueSession session = new QueueSession();
+        ConnectionManager.Channel channel = connection.attach(session);
+        connection.startSession(session, channel, null, "tcp");
+        for(int i = 0; i < 10; i++) {
+            channel.send(request("tcp", true));
+        }
+        channel.send(request("tcp", false));
+
+        assertEquals("tcp", session.responses.poll(5, TimeUnit.SECONDS).getId());
+        assertEquals(11, requests.size());
+        connection.close();
+        server.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void tcpNeedsAHostAndAPort() throws IOException {
+        new TcpTransport().createConnection("ws://localhost/recognition", null);
+    }
+
+    private static byte[] request(String id, boolean activeGesture) {
+        return Greapi.RecognitionRequest.newBuilder()
+                .setId(id)
+                .setActiveGesture(activeGesture)
+                .build()
+                .toByteArray();
+    }
+
+    private static byte[] gestureEnd(String id) {
+        return Greapi.RecognitionResponse.newBuilder()
+                .setStatus(Greapi.Status.GestureEnd)
+                .setId(id)
+                .build()
+                .toByteArray();
+    }
+
+    private static final class QueueSession implements RecognitionConnection.Session {
+        final BlockingQueue<Greapi.RecognitionResponse> responses = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onResponse(Greapi.RecognitionResponse response, long decodeNanos) {
+            responses.add(response);
+        }
+
+        @Override
+        public void onResponsesHandled() {
+        }
+
+        @Override
+        public void onConnected(boolean reconnected) {
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.motiongestures.grelib;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+public class ResultDispatcherTest {
+    private ResultDispatcher dispatcher;
+    private RecordingListener listener;
+
+    @Before
+    public void createDispatcher() {
+        dispatcher = new ResultDispatcher();
+        listener = new RecordingListener();
+        dispatcher.setResultListener(listener);
+    }
+
+    @Test
+    public void deliveredResultsAreReused() throws Exception {
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 3, "wave"));
+        dispatcher.deliver(GestureResult.REJECTED, response(Greapi.Status.GestureRejected, 5, "circle"));
+        assertEquals(Arrays.asList("recognized 3 wave", "rejected 5 circle"), listener.calls);
+        //the second result is the first one back from the pool
+        assertSame(listener.labelArrays.get(0), listener.labelArrays.get(1));
+
+        //results still waiting for the callback executor are not handed out again
+        QueuedExecutor executor = new QueuedExecutor();
+        dispatcher.setCallbackExecutor(executor);
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 3, "wave"));
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 4, "shake"));
+        assertNotSame(executor.tasks.get(0), executor.tasks.get(1));
+        executor.runAll();
+        assertEquals(Arrays.asList("recognized 3 wave", "rejected 5 circle", "recognized 3 wave", "recognized 4 shake"),
+                listener.calls);
+        assertNotSame(listener.labelArrays.get(2), listener.labelArrays.get(3));
+    }
+
+    @Test
+    public void namesAreInternedByLabel() throws Exception {
+        //parsed responses hold their own instance of each name
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 3, "wave"));
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 3, "wave"));
+        assertSame(listener.names.get(0), listener.names.get(1));
+
+        //a label renamed by the server gets its new name
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 3, "wave left"));
+        assertEquals("wave left", listener.names.get(2));
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 3, "wave left"));
+        assertSame(listener.names.get(2), listener.names.get(3));
+
+        //labels beyond the table keep the names of their responses
+        String name = new String("far");
+        assertSame(name, dispatcher.internName(100_000, name));
+        assertSame(name, dispatcher.internName(-1, name));
+        assertSame("near", dispatcher.internName(1000, "near"));
+        assertSame("near", dispatcher.internName(1000, new String("near")));
+    }
+
+    @Test
+    public void theCallbackExecutorRunsTheListeners() throws Exception {
+        QueuedExecutor executor = new QueuedExecutor();
+        dispatcher.setCallbackExecutor(executor);
+        RecordingResponseListener responseListener = new RecordingResponseListener();
+        dispatcher.setResponseListener(responseListener);
+        dispatcher.deliver(GestureResult.TOO_LONG, response(Greapi.Status.GestureTooLong, 0, ""));
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 7, "tap"));
+        assertTrue(listener.calls.isEmpty());
+        assertTrue(responseListener.calls.isEmpty());
+
+        executor.runAll();
+        assertEquals(Arrays.asList("too long", "recognized 7 tap"), listener.calls);
+        assertEquals(Arrays.asList("too long", "recognized [7] [tap]"), responseListener.calls);
+
+        //a result rejected by the executor is dropped
+        executor.rejecting = true;
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 8, "swipe"));
+        executor.rejecting = false;
+        dispatcher.setCallbackExecutor(null);
+        dispatcher.deliver(GestureResult.RECOGNIZED, response(Greapi.Status.GestureEnd, 9, "pinch"));
+        assertEquals(Arrays.asList("too long", "recognized 7 tap", "recognized 9 pinch"), listener.calls);
+        assertEquals(3, responseListener.calls.size());
+    }
+
+    private static Greapi.RecognitionResponse response(Greapi.Status status, int label, String name) throws Exception {
+        Greapi.RecognitionResponse.Builder builder = Greapi.RecognitionResponse.newBuilder()
+                .setStatus(status)
+                .setConfidence(0.5f);
+        if(status != Greapi.Status.GestureTooLong) {
+            builder.addLabels(label).addNames(name);
+        }
+        //parsed like the responses of a connection
+        return Greapi.RecognitionResponse.parseFrom(builder.build().toByteArray());
+    }
+
+    private static final class QueuedExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+        boolean rejecting = false;
+
+        @Override
+        public void execute(Runnable task) {
+            if(rejecting) {
+                throw new RejectedExecutionException("rejected by the test");
+            }
+            tasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> queued = new ArrayList<>(tasks);
+            tasks.clear();
+            for(Runnable task : queued) {
+                task.run();
+            }
+        }
+    }
+
+    private static final class RecordingListener implements GestureResultListener {
+        final List<String> calls = new ArrayList<>();
+        final List<int[]> labelArrays = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+
+        @Override
+        public void gesturesRecognized(int[] labels, String[] names, int count, float confidence) {
+            record("recognized", labels, names, count);
+        }
+
+        @Override
+        public void gesturesRejected(int[] labels, String[] names, int count, float confidence) {
+            record("rejected", labels, names, count);
+        }
+
+        @Override
+        public void gestureTooLong() {
+            calls.add("too long");
+        }
+
+        private void record(String kind, int[] labels, String[] names, int count) {
+            assertEquals(1, count);
+            calls.add(kind + " " + labels[0] + " " + names[0]);
+            labelArrays.add(labels);
+            this.names.add(names[0]);
+        }
+    }
+
+    private static final class RecordingResponseListener implements GestureRecognitionResponseListener {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void gesturesRecognized(List<String> names, List<Integer> labels, float confidence) {
+            calls.add("recognized " + labels + " " + names);
+        }
+
+        @Override
+        public void gesturesRejected(List<String> names, List<Integer> labels, float confidence) {
+            calls.add("rejected " + labels + " " + names);
+        }
+
+        @Override
+        public void gestureTooLong() {
+            calls.add("too long");
+        }
+    }
+}
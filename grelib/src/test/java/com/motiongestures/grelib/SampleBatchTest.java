@@ -0,0 +1,55 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleBatchTest {
+    @Test
+    public void batchGrowsPastItsInitialCapacity() {
+        SampleBatch batch = new SampleBatch(4);
+        for(int i = 0; i < 100; i++) {
+            batch.add(i, -i, i * 0.5f, i);
+        }
+        assertEquals(100, batch.size());
+        for(int i = 0; i < 100; i++) {
+            assertEquals(i, batch.getX(i), 0f);
+            assertEquals(-i, batch.getY(i), 0f);
+            assertEquals(i * 0.5f, batch.getZ(i), 0f);
+            assertEquals(i, batch.getIndex(i));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void clearedBatchRejectsReads() {
+        SampleBatch batch = new SampleBatch();
+        batch.add(1, 2, 3, 4);
+        batch.clear();
+        batch.getX(0);
+    }
+
+    @Test
+    public void removesTheLeadingSamplesUpToAnIndex() {
+        SampleBatch batch = new SampleBatch();
+        for(int i = 0; i < 10; i++) {
+            batch.add(i, i, i, i * 3);
+        }
+        batch.removeUpToIndex(13);
+        assertEquals(5, batch.size());
+        assertEquals(15, batch.getIndex(0));
+        assertEquals(5f, batch.getX(0), 0f);
+        batch.removeUpToIndex(-1);
+        assertEquals(5, batch.size());
+    }
+
+    @Test
+    public void poolRecyclesReleasedBatches() {
+        SampleBatchPool pool = new SampleBatchPool(2);
+        SampleBatch batch = pool.acquire();
+        batch.add(1, 2, 3, 4);
+        pool.release(batch);
+        SampleBatch recycled = pool.acquire();
+        assertSame(batch, recycled);
+        assertTrue(recycled.isEmpty());
+    }
+}
@@ -0,0 +1,92 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleProcessorsTest {
+    private static final float RATE = 100;
+
+    @Test
+    public void lowPassFiltersKeepConstantSignals() {
+        assertEquals(7f, outputAmplitude(SampleProcessors.lowPass(20, RATE), 0, 7), 1e-4f);
+        assertEquals(7f, outputAmplitude(SampleProcessors.firLowPass(31, 20, RATE), 0, 7), 1e-4f);
+    }
+
+    @Test
+    public void lowPassFiltersAttenuateHighFrequencies() {
+        assertEquals(1f, outputAmplitude(SampleProcessors.lowPass(20, RATE), 2, 0), 0.05f);
+        assertTrue(outputAmplitude(SampleProcessors.lowPass(20, RATE), 45, 0) < 0.1f);
+        assertEquals(1f, outputAmplitude(SampleProcessors.firLowPass(31, 20, RATE), 2, 0), 0.05f);
+        assertTrue(outputAmplitude(SampleProcessors.firLowPass(31, 20, RATE), 45, 0) < 0.01f);
+    }
+
+    @Test
+    public void downsamplingHalvesTheRateAndRemovesAliases() {
+        SampleProcessor processor = SampleProcessors.downsample(100, 50);
+        float[] values = new float[3];
+        int outputs = 0;
+        float maximum = 0;
+        for(int i = 0; i < 1000; i++) {
+            //40 Hz would alias to 10 Hz at 50 Hz
+            values[0] = (float) Math.sin(2 * Math.PI * 40 * i / RATE);
+            if(processor.process(values)) {
+                outputs++;
+                if(i > 100) {
+                    maximum = Math.max(maximum, Math.abs(values[0]));
+                }
+            }
+        }
+        assertEquals(500, outputs);
+        assertTrue("alias amplitude " + maximum, maximum < 0.02f);
+    }
+
+    @Test
+    public void chainStopsAtTheFirstDroppingStage() {
+        SampleProcessor chain = SampleProcessors.chain(SampleProcessors.decimate(3), SampleProcessors.normalize(2));
+        float[] values = {4, 6, 8};
+        assertTrue(chain.process(values));
+        assertArrayEquals(new float[]{2, 3, 4}, values, 0f);
+        values[0] = 4;
+        assertFalse(chain.process(values));
+        assertEquals(4f, values[0], 0f);
+        assertFalse(chain.process(values));
+        assertTrue(chain.process(values));
+    }
+
+    @Test
+    public void theDecimationOfAChainMultipliesItsStages() {
+        assertEquals(1, SampleProcessors.decimationOf(null));
+        assertEquals(1, SampleProcessors.decimationOf(SampleProcessors.lowPass(20, RATE)));
+        assertEquals(2, SampleProcessors.decimationOf(SampleProcessors.downsample(100, 50)));
+        assertEquals(6, SampleProcessors.decimationOf(SampleProcessors.chain(SampleProcessors.decimate(3),
+                SampleProcessors.normalize(2), SampleProcessors.downsample(50, 25))));
+    }
+
+    @Test
+    public void copiesHaveTheirOwnState() {
+        SampleProcessor original = SampleProcessors.decimate(2);
+        SampleProcessor copy = original.copy();
+        float[] values = new float[3];
+        assertTrue(original.process(values));
+        assertTrue(copy.process(values));
+        assertFalse(original.process(values));
+        original.reset();
+        assertTrue(original.process(values));
+    }
+
+    private static float outputAmplitude(SampleProcessor processor, double frequency, float offset) {
+        float[] values = new float[3];
+        float maximum = 0;
+        for(int i = 0; i < 2000; i++) {
+            values[0] = offset + (float) Math.sin(2 * Math.PI * frequency * i / RATE);
+            values[1] = values[0];
+            values[2] = values[0];
+            processor.process(values);
+            if(i > 500) {
+                maximum = Math.max(maximum, Math.abs(values[2]));
+            }
+        }
+        return maximum;
+    }
+}
@@ -0,0 +1,72 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleRingBufferTest {
+    @Test
+    public void snapshotReturnsSamplesInOrderBeforeWrapping() {
+        SampleRingBuffer buffer = new SampleRingBuffer(30);
+        for(int i = 0; i < 10; i++) {
+            buffer.add(i, i * 2, i * 3, i);
+        }
+        SampleBatch snapshot = new SampleBatch();
+        assertEquals(10, buffer.snapshot(snapshot));
+        assertEquals(expected(0, 10), copy(snapshot));
+    }
+
+    @Test
+    public void snapshotKeepsOnlyTheRetainedSamples() {
+        SampleRingBuffer buffer = new SampleRingBuffer(30);
+        for(int i = 0; i < 1000; i++) {
+            buffer.add(i, i * 2, i * 3, i);
+        }
+        SampleBatch snapshot = new SampleBatch();
+        assertEquals(30, buffer.snapshot(snapshot));
+        assertEquals(expected(970, 1000), copy(snapshot));
+    }
+
+    @Test
+    public void shiftingRenumbersTheRetainedSamples() {
+        SampleRingBuffer buffer = new SampleRingBuffer(30);
+        for(int i = 0; i < 1000; i++) {
+            buffer.add(i, i * 2, i * 3, i);
+        }
+        buffer.shiftIndexes(-1000);
+        SampleBatch snapshot = new SampleBatch();
+        assertEquals(30, buffer.snapshot(snapshot));
+        for(int i = 0; i < snapshot.size(); i++) {
+            assertEquals(970 + i, snapshot.getX(i), 0);
+            assertEquals(i - 30, snapshot.getIndex(i));
+        }
+    }
+
+    @Test
+    public void anEmptyBufferKeepsNothing() {
+        SampleRingBuffer buffer = new SampleRingBuffer(0);
+        buffer.add(1, 2, 3, 0);
+        SampleBatch snapshot = new SampleBatch();
+        assertEquals(0, buffer.snapshot(snapshot));
+        assertTrue(snapshot.isEmpty());
+    }
+
+    private static List<SensorSample> expected(int from, int to) {
+        List<SensorSample> samples = new ArrayList<>();
+        for(int i = from; i < to; i++) {
+            samples.add(new SensorSample(i, i * 2, i * 3, i));
+        }
+        return samples;
+    }
+
+    private static List<SensorSample> copy(Iterable<SensorSample> samples) {
+        List<SensorSample> copy = new ArrayList<>();
+        for(SensorSample sample : samples) {
+            copy.add(new SensorSample(sample.getX(), sample.getY(), sample.getZ(), sample.getIndex()));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,143 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SendPipelineTest {
+    @Test
+    public void batchesAreSentInOrderOnTheSenderThread() {
+        final List<Integer> sent = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        SampleBatchPool pool = new SampleBatchPool(64);
+        SendPipeline pipeline = new SendPipeline(pool, new SendPipeline.Sender() {
+            @Override
+            public void send(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer, boolean activeGesture) {
+                sent.add(accelerations.getIndex(0));
+                threads.add(Thread.currentThread());
+            }
+        });
+        for(int i = 0; i < 100; i++) {
+            assertTrue(pipeline.handOff(batch(pool, i), batch(pool, i), batch(pool, i), true, OverflowPolicy.BLOCK));
+        }
+        assertTrue(pipeline.awaitEmpty(5000));
+        assertEquals(100, sent.size());
+        for(int i = 0; i < 100; i++) {
+            assertEquals(i, (int) sent.get(i));
+            assertNotSame(Thread.currentThread(), threads.get(i));
+        }
+        assertEquals(100, pipeline.getStats().getEncodedBatches());
+    }
+
+    @Test
+    public void shutdownSendsTheQueuedBatchesAndStopsTheThread() {
+        final List<Integer> sent = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        SampleBatchPool pool = new SampleBatchPool(64);
+        SendPipeline pipeline = new SendPipeline(pool, new SendPipeline.Sender() {
+            @Override
+            public void send(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer, boolean activeGesture) {
+                sent.add(accelerations.getIndex(0));
+                threads.add(Thread.currentThread());
+            }
+        });
+        for(int i = 0; i < 10; i++) {
+            assertTrue(pipeline.handOff(batch(pool, i), batch(pool, i), batch(pool, i), true, OverflowPolicy.BLOCK));
+        }
+        assertTrue(pipeline.shutdown(5000));
+        assertEquals(10, sent.size());
+        Thread first = threads.get(0);
+        assertFalse(first.isAlive());
+        assertTrue(pipeline.shutdown(5000));
+
+        //a hand-off after the shutdown starts a new thread
+        assertTrue(pipeline.handOff(batch(pool, 10), batch(pool, 10), batch(pool, 10), true, OverflowPolicy.BLOCK));
+        assertTrue(pipeline.shutdown(5000));
+        assertEquals(11, sent.size());
+        assertEquals(10, (int) sent.get(10));
+        assertNotSame(first, threads.get(10));
+        assertFalse(threads.get(10).isAlive());
+    }
+
+    @Test
+    public void overflowPoliciesWhenTheSenderIsStalled() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        SampleBatchPool pool = new SampleBatchPool(64);
+        SendPipeline pipeline = new SendPipeline(pool, new SendPipeline.Sender() {
+            @Override
+            public void send(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer, boolean activeGesture) throws java.io.IOException {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        //one batch is held by the stalled sender, the queue fills up behind it
+        int queued = 0;
+        while(pipeline.getStats().getDroppedBatches() == 0) {
+            assertTrue(pipeline.handOff(batch(pool, queued), batch(pool, queued), batch(pool, queued), true, OverflowPolicy.DROP_NEWEST));
+            queued++;
+            assertTrue(queued < 100);
+        }
+        assertEquals(3, pipeline.getStats().getDroppedSamples());
+        assertFalse(pipeline.handOff(batch(pool, 0), batch(pool, 0), batch(pool, 0), true, OverflowPolicy.COALESCE));
+        assertEquals(1, pipeline.getStats().getDroppedBatches());
+        assertTrue(pipeline.getStats().getMaxQueueDepth() >= 15);
+        release.countDown();
+        assertTrue(pipeline.awaitEmpty(5000));
+    }
+
+    @Test
+    public void everySampleIsSentOnceWhileTheBatchesAreRecycled() {
+        final int samples = 200_000;
+        final int[] next = {0};
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        //a small pool, so the producer keeps refilling the batches the sender just released
+        final SampleBatchPool pool = new SampleBatchPool(4);
+        SendPipeline pipeline = new SendPipeline(pool, new SendPipeline.Sender() {
+            @Override
+            public void send(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer, boolean activeGesture) {
+                for(int i = 0; i < accelerations.size(); i++) {
+                    int index = accelerations.getIndex(i);
+                    if(index != next[0] || accelerations.getX(i) != index || gyroscope.getIndex(i) != index) {
+                        errors.add("Expected sample " + next[0] + ", got " + index);
+                    }
+                    next[0] = index + 1;
+                }
+                if(activeGesture == (accelerations.size() % 2 == 0)) {
+                    errors.add("Wrong flag for a batch of " + accelerations.size());
+                }
+            }
+        });
+        int index = 0;
+        for(int size = 1; index < samples; size = size % 50 + 1) {
+            SampleBatch accelerations = pool.acquire();
+            SampleBatch gyroscope = pool.acquire();
+            for(int i = 0; i < size; i++, index++) {
+                accelerations.add(index, 0, 0, index);
+                gyroscope.add(0, index, 0, index);
+            }
+            assertTrue(pipeline.handOff(accelerations, gyroscope, pool.acquire(), size % 2 != 0, OverflowPolicy.BLOCK));
+        }
+        //the sender removes a batch from the queue after sending it, its writes are visible once the queue is empty
+        assertTrue(pipeline.awaitEmpty(10_000));
+        if(!errors.isEmpty()) {
+            fail(errors.get(0) + ", " + errors.size() + " errors");
+        }
+        assertEquals(index, next[0]);
+        assertEquals(0, pipeline.getStats().getDroppedSamples());
+    }
+
+    private static SampleBatch batch(SampleBatchPool pool, int index) {
+        SampleBatch batch = pool.acquire();
+        batch.add(index, index, index, index);
+        return batch;
+    }
+}
@@ -0,0 +1,151 @@
+package com.motiongestures.grelib;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SensorRecordingTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysTheRecordedSessions() throws Exception {
+        File file = folder.newFile("session.grec");
+        SensorRecorder recorder = new SensorRecorder(file, Collections.singletonMap("gesture", "circle"), 4);
+        for(int i = 0; i < 10; i++) {
+            recorder.record(1 + i % 3, 1000L + i * 10_000_000L, i >= 3 && i < 7, i, -i, i * 0.5f);
+        }
+        //longer than the int timestamp offsets of a block
+        recorder.record(4, 5_000_000_000L, false, 42, 0, 0);
+        recorder.close();
+        recorder = new SensorRecorder(file, Collections.<String, String>emptyMap(), 4);
+        recorder.record(2, 7, true, 1, 2, 3);
+        recorder.close();
+        assertEquals(1, recorder.getRecordedSamples());
+
+        SensorReplayer replayer = new SensorReplayer(file);
+        replayer.setSpeed(SensorReplayer.MAX_SPEED);
+        assertEquals(2, replayer.getSessionCount());
+        assertEquals("circle", replayer.getSessionMetadata(0).get("gesture"));
+        assertTrue(replayer.getSessionMetadata(1).isEmpty());
+        assertEquals(12, replayer.getSampleCount());
+
+        RecordingTarget target = new RecordingTarget();
+        assertEquals(12, replayer.replay(target));
+        replayer.close();
+        assertEquals("1@1000 0.0,0.0,0.0", target.events.get(0));
+        assertEquals("start", target.events.get(3));
+        assertEquals("1@30001000 3.0,-3.0,1.5", target.events.get(4));
+        assertEquals("end", target.events.get(8));
+        assertEquals("4@5000000000 42.0,0.0,0.0", target.events.get(12));
+        //the gesture of the second session ends with it
+        assertEquals("start", target.events.get(13));
+        assertEquals("2@7 1.0,2.0,3.0", target.events.get(14));
+        assertEquals("end", target.events.get(15));
+        assertEquals(16, target.events.size());
+    }
+
+    @Test
+    public void ignoresARecordCutShort() throws Exception {
+        File file = folder.newFile("crashed.grec");
+        SensorRecorder recorder = new SensorRecorder(file, Collections.<String, String>emptyMap(), 2);
+        for(int i = 0; i < 4; i++) {
+            recorder.record(1, i, false, i, i, i);
+        }
+        recorder.close();
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(raw.length() - 3);
+        raw.close();
+
+        SensorReplayer replayer = new SensorReplayer(file);
+        assertEquals(2, replayer.getSampleCount());
+        replayer.close();
+
+        //the next session is appended after the last complete record
+        recorder = new SensorRecorder(file, Collections.<String, String>emptyMap(), 2);
+        recorder.record(1, 9, false, 9, 9, 9);
+        recorder.close();
+        replayer = new SensorReplayer(file);
+        assertEquals(2, replayer.getSessionCount());
+        assertEquals(3, replayer.getSampleCount());
+        replayer.close();
+    }
+
+    @Test
+    public void blocksWrittenInTheBackgroundKeepTheirOrder() throws Exception {
+        File file = folder.newFile("many.grec");
+        //small blocks, so the sensor thread keeps waiting for one of the two buffers
+        SensorRecorder recorder = new SensorRecorder(file, Collections.<String, String>emptyMap(), 16);
+        for(int i = 0; i < 10_000; i++) {
+            recorder.record(1, i, false, i, 0, 0);
+        }
+        recorder.flush();
+        SensorReplayer replayer = new SensorReplayer(file);
+        assertEquals(10_000, replayer.getSampleCount());
+        replayer.close();
+        recorder.close();
+
+        replayer = new SensorReplayer(file);
+        replayer.setSpeed(SensorReplayer.MAX_SPEED);
+        RecordingTarget target = new RecordingTarget();
+        assertEquals(10_000, replayer.replay(target));
+        replayer.close();
+        for(int i = 0; i < 10_000; i++) {
+            assertEquals("1@" + i + " " + (float) i + ",0.0,0.0", target.events.get(i));
+        }
+    }
+
+    @Test
+    public void waitsForTheTimestampsAtTheGivenSpeed() throws Exception {
+        File file = folder.newFile("timed.grec");
+        SensorRecorder recorder = new SensorRecorder(file);
+        for(int i = 0; i <= 20; i++) {
+            recorder.record(1, i * 10_000_000L, false, 0, 0, 0);
+        }
+        recorder.close();
+        SensorReplayer replayer = new SensorReplayer(file);
+        replayer.setSpeed(2);
+        long start = System.nanoTime();
+        replayer.replay(new RecordingTarget());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        replayer.close();
+        assertTrue("Replayed 200 ms at twice the speed in " + elapsedMillis + " ms", elapsedMillis >= 95);
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        File file = folder.newFile("other.bin");
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.writeLong(12345);
+        raw.close();
+        new SensorReplayer(file);
+    }
+
+    private static final class RecordingTarget implements SensorReplayer.Target {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onSensorSample(int type, long timestamp, float x, float y, float z) {
+            events.add(type + "@" + timestamp + " " + x + "," + y + "," + z);
+        }
+
+        @Override
+        public void onGestureStart() {
+            events.add("start");
+        }
+
+        @Override
+        public void onGestureEnd() {
+            events.add("end");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StrokeSimplifierTest {
+
+    @Test
+    public void aStraightStrokeKeepsItsEnds() {
+        StrokeSimplifier simplifier = new StrokeSimplifier(4, 0.5F);
+        //short enough for one window, a longer stroke also keeps the ends of its windows
+        for(int i = 0; i <= 300; i++) {
+            simplifier.add(i * 0.7F, i * 0.35F);
+        }
+        simplifier.finish();
+        assertEquals(2, simplifier.size);
+        assertEquals(0, simplifier.x[0], 0);
+        assertEquals(0, simplifier.y[0], 0);
+        assertEquals(210, simplifier.x[1], 1e-3);
+        assertEquals(105, simplifier.y[1], 1e-3);
+    }
+
+    @Test
+    public void pointsAreResampledAtTheSpacing() {
+        StrokeSimplifier simplifier = new StrokeSimplifier(5, 0);
+        //uneven steps along a straight line, as touch events come
+        float x = 0;
+        Random random = new Random(3);
+        while(x < 100) {
+            x += random.nextFloat() * 9;
+            simplifier.add(x, 0);
+        }
+        simplifier.finish();
+        for(int i = 1; i < simplifier.size - 1; i++) {
+            assertEquals(5, simplifier.x[i] - simplifier.x[i - 1], 1e-3);
+        }
+        assertEquals(x, simplifier.x[simplifier.size - 1], 0);
+    }
+
+    @Test
+    public void droppedPointsStayWithinTheTolerance() {
+        float tolerance = 1.5F;
+        StrokeSimplifier resampler = new StrokeSimplifier(2, 0);
+        StrokeSimplifier simplifier = new StrokeSimplifier(2, tolerance, 16);
+        for(int i = 0; i < 2000; i++) {
+            double t = i / 100.0;
+            float x = (float) (100 * Math.cos(t) + 20 * Math.sin(3 * t));
+            float y = (float) (100 * Math.sin(t));
+            resampler.add(x, y);
+            simplifier.add(x, y);
+            if(i % 97 == 0) {
+                //the points taken early are simplified on their own
+                simplifier.flush();
+            }
+        }
+        resampler.finish();
+        simplifier.finish();
+
+        assertTrue(simplifier.size < resampler.size / 3);
+        for(int i = 0; i < resampler.size; i++) {
+            assertTrue("Point " + i, distanceToPath(simplifier, resampler.x[i], resampler.y[i]) <= tolerance + 1e-3);
+        }
+        assertEquals(resampler.x[0], simplifier.x[0], 0);
+        assertEquals(resampler.x[resampler.size - 1], simplifier.x[simplifier.size - 1], 0);
+    }
+
+    @Test
+    public void pendingPointsCountTheWindowOnce() {
+        StrokeSimplifier simplifier = new StrokeSimplifier(0, 0, 4);
+        for(int i = 0; i < 10; i++) {
+            simplifier.add(i, i * i);
+            assertEquals(i + 1, simplifier.pendingPoints());
+        }
+        simplifier.flush();
+        assertEquals(10, simplifier.size);
+        simplifier.clear();
+        assertEquals(0, simplifier.pendingPoints());
+        simplifier.add(10, 100);
+        simplifier.finish();
+        assertEquals(1, simplifier.size);
+        assertEquals(10, simplifier.x[0], 0);
+    }
+
+    @Test
+    public void aNewStrokeStartsAfterFinish() {
+        StrokeSimplifier simplifier = new StrokeSimplifier(3, 1);
+        simplifier.add(0, 0);
+        simplifier.add(10, 0);
+        simplifier.finish();
+        simplifier.clear();
+        simplifier.add(50, 50);
+        simplifier.add(50, 60);
+        simplifier.finish();
+        assertEquals(2, simplifier.size);
+        assertEquals(50, simplifier.y[0], 0);
+        assertEquals(60, simplifier.y[1], 0);
+    }
+
+    private static double distanceToPath(StrokeSimplifier path, float x, float y) {
+        double best = Double.MAX_VALUE;
+        for(int i = 1; i < path.size; i++) {
+            double segmentX = path.x[i] - path.x[i - 1];
+            double segmentY = path.y[i] - path.y[i - 1];
+            double length = segmentX * segmentX + segmentY * segmentY;
+            double t = length == 0 ? 0 : ((x - path.x[i - 1]) * segmentX + (y - path.y[i - 1]) * segmentY) / length;
+            t = Math.max(0, Math.min(1, t));
+            best = Math.min(best, Math.hypot(x - path.x[i - 1] - t * segmentX, y - path.y[i - 1] - t * segmentY));
+        }
+        return best;
+    }
+}
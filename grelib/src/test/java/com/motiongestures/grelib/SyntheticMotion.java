@@ -0,0 +1,46 @@
+package com.motiongestures.grelib;
+
+import java.util.Random;
+
+/**
+ * Generates plausible 100 Hz accelerometer, gyroscope and magnetometer streams: a device slowly rotating in the
+ * earth's gravity and magnetic field, with periodic gesture-like bursts and sensor noise. The samples are indexed
+ * the way the client indexes them, with one counter shared by the three sensors.
+ */
+final class SyntheticMotion {
+    private static final double SAMPLE_PERIOD = 0.01;
+    private static final float GRAVITY = 9.80665f;
+
+    private final Random random;
+    private double time = 0;
+    private int index = 0;
+
+    SyntheticMotion(long seed) {
+        random = new Random(seed);
+    }
+
+    void fill(SampleBatch accelerations, SampleBatch gyroscope, SampleBatch magnetometer, int samplesPerSensor) {
+        for(int i = 0; i < samplesPerSensor; i++) {
+            double roll = 0.6 * Math.sin(time * 0.7);
+            double pitch = 0.4 * Math.sin(time * 0.5 + 1);
+            //a gesture of about one second every four seconds
+            double burst = (time % 4.0) < 1.0 ? Math.sin(Math.PI * (time % 4.0)) : 0;
+            double swing = burst * 6 * Math.sin(time * 2 * Math.PI * 2);
+
+            accelerations.add(noise(GRAVITY * Math.sin(pitch) + swing, 0.02),
+                    noise(-GRAVITY * Math.sin(roll) * Math.cos(pitch), 0.02),
+                    noise(GRAVITY * Math.cos(roll) * Math.cos(pitch) + swing * 0.3, 0.02), index++);
+            gyroscope.add(noise(0.42 * Math.cos(time * 0.7) + burst * 3 * Math.cos(time * 2 * Math.PI * 2), 0.002),
+                    noise(0.2 * Math.cos(time * 0.5 + 1), 0.002),
+                    noise(burst * 1.5 * Math.sin(time * 2 * Math.PI * 2), 0.002), index++);
+            magnetometer.add(noise(22 * Math.cos(roll), 0.3),
+                    noise(5 * Math.sin(pitch), 0.3),
+                    noise(-40 * Math.cos(pitch), 0.3), index++);
+            time += SAMPLE_PERIOD;
+        }
+    }
+
+    private float noise(double value, double deviation) {
+        return (float) (value + random.nextGaussian() * deviation);
+    }
+}
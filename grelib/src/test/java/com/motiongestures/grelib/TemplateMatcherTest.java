@@ -0,0 +1,141 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TemplateMatcherTest {
+    private final Random random = new Random(7);
+
+    @Test
+    public void recognizesTheClassOfAGesture() {
+        GestureTemplateLibrary library = new GestureTemplateLibrary();
+        for(int gestureClass = 0; gestureClass < 6; gestureClass++) {
+            for(int example = 0; example < 3; example++) {
+                addExample(library, gestureClass);
+            }
+        }
+        TemplateMatcher matcher = new TemplateMatcher();
+        SampleBatch accelerations = new SampleBatch();
+        SampleBatch gyroscope = new SampleBatch();
+        for(int gestureClass = 0; gestureClass < 6; gestureClass++) {
+            for(int attempt = 0; attempt < 5; attempt++) {
+                accelerations.clear();
+                gyroscope.clear();
+                gesture(gestureClass, accelerations, gyroscope);
+                int position = matcher.match(library, accelerations, gyroscope);
+                assertEquals(gestureClass, library.getTemplate(position).getLabel());
+            }
+        }
+    }
+
+    @Test
+    public void pruningFindsTheSameDistanceAsAFullScan() {
+        GestureTemplateLibrary library = new GestureTemplateLibrary();
+        for(int i = 0; i < 1000; i++) {
+            addExample(library, random.nextInt(40));
+        }
+        TemplateMatcher matcher = new TemplateMatcher();
+        SampleBatch accelerations = new SampleBatch();
+        SampleBatch gyroscope = new SampleBatch();
+        int totalDistances = 0;
+        int totalBounds = 0;
+        for(int query = 0; query < 20; query++) {
+            accelerations.clear();
+            gyroscope.clear();
+            gesture(random.nextInt(40), accelerations, gyroscope);
+            int position = matcher.match(library, accelerations, gyroscope);
+            double best = matcher.getBestDistance();
+            totalDistances += matcher.computedDistances;
+            totalBounds += matcher.computedBounds;
+
+            float[] series = new float[library.getLength() * GestureFeatures.DIMENSIONS];
+            GestureFeatures.extract(accelerations, gyroscope, library.getLength(), series);
+            double expected = Double.POSITIVE_INFINITY;
+            for(int i = 0; i < library.size(); i++) {
+                expected = Math.min(expected, matcher.distance(series, library.getTemplate(i).series,
+                        library.getLength(), library.getBandRadius(), Double.POSITIVE_INFINITY));
+            }
+            assertEquals(expected, best, expected * 1e-6);
+            assertEquals(expected, matcher.distance(series, library.getTemplate(position).series,
+                    library.getLength(), library.getBandRadius(), Double.POSITIVE_INFINITY), expected * 1e-6);
+        }
+        assertTrue("computed " + totalDistances, totalDistances < 20 * library.size() / 4);
+        //the index dismisses whole branches, most templates are not even bounded
+        assertTrue("bounded " + totalBounds, totalBounds < 20 * library.size() / 4);
+    }
+
+    @Test
+    public void templatesAddedAfterAMatchAreFound() {
+        GestureTemplateLibrary library = new GestureTemplateLibrary();
+        for(int i = 0; i < 50; i++) {
+            addExample(library, i % 5);
+        }
+        TemplateMatcher matcher = new TemplateMatcher();
+        SampleBatch accelerations = new SampleBatch();
+        SampleBatch gyroscope = new SampleBatch();
+        gesture(7, accelerations, gyroscope);
+        assertNotEquals(7, library.getTemplate(matcher.match(library, accelerations, gyroscope)).getLabel());
+
+        library.addTemplate("gesture 7", 7, accelerations, gyroscope);
+        int position = matcher.match(library, accelerations, gyroscope);
+        assertEquals(50, position);
+        assertEquals(0, matcher.getBestDistance(), 1e-6);
+    }
+
+    @Test
+    public void libraryRoundTripsThroughAFile() throws IOException {
+        GestureTemplateLibrary library = new GestureTemplateLibrary(32, 3);
+        addExample(library, 1);
+        addExample(library, 2);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        library.write(outputStream);
+        GestureTemplateLibrary loaded = GestureTemplateLibrary.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertEquals(32, loaded.getLength());
+        assertEquals(3, loaded.getBandRadius());
+        assertEquals(2, loaded.size());
+        assertEquals("gesture 2", loaded.getTemplate(1).getName());
+        assertArrayEquals(library.getTemplate(1).series, loaded.getTemplate(1).series, 0f);
+        assertArrayEquals(library.getTemplate(1).upper, loaded.getTemplate(1).upper, 0f);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        GestureTemplateLibrary.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+    }
+
+    private void addExample(GestureTemplateLibrary library, int gestureClass) {
+        SampleBatch accelerations = new SampleBatch();
+        SampleBatch gyroscope = new SampleBatch();
+        gesture(gestureClass, accelerations, gyroscope);
+        library.addTemplate("gesture " + gestureClass, gestureClass, accelerations, gyroscope);
+    }
+
+    //a gesture shape per class, performed at a random speed with some warping and noise
+    private void gesture(int gestureClass, SampleBatch accelerations, SampleBatch gyroscope) {
+        Random shape = new Random(gestureClass);
+        double[] frequencies = new double[6];
+        double[] phases = new double[6];
+        for(int i = 0; i < 6; i++) {
+            frequencies[i] = 0.5 + shape.nextInt(4) * 0.5;
+            phases[i] = shape.nextDouble() * 2 * Math.PI;
+        }
+        int samples = 80 + random.nextInt(70);
+        double warp = (random.nextDouble() - 0.5) * 0.15;
+        for(int i = 0; i < samples; i++) {
+            double t = (double) i / (samples - 1);
+            t += warp * Math.sin(Math.PI * t);
+            double[] values = new double[6];
+            for(int axis = 0; axis < 6; axis++) {
+                values[axis] = Math.sin(2 * Math.PI * frequencies[axis] * t + phases[axis]) + random.nextGaussian() * 0.1;
+            }
+            accelerations.add((float) (values[0] * 5), (float) (values[1] * 5), (float) (9.81 + values[2] * 5), i * 3);
+            gyroscope.add((float) values[3] * 2, (float) values[4] * 2, (float) values[5] * 2, i * 3 + 1);
+        }
+    }
+}
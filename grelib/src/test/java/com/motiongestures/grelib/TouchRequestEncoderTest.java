@@ -0,0 +1,56 @@
+package com.motiongestures.grelib;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+public class TouchRequestEncoderTest {
+    @Test
+    public void encodingMatchesTheGeneratedClasses() throws IOException {
+        Random random = new Random(42);
+        TouchRequestEncoder encoder = new TouchRequestEncoder();
+        for(int round = 0; round < 200; round++) {
+            int count = random.nextInt(50);
+            float[] x = new float[count + random.nextInt(3)];
+            float[] y = new float[x.length];
+            Greapi.Touch.Builder touch = Greapi.Touch.newBuilder();
+            for(int i = 0; i < count; i++) {
+                x[i] = random.nextInt(8) == 0 ? 0 : random.nextFloat() * 2000;
+                y[i] = random.nextInt(8) == 0 ? 0 : random.nextFloat() * 2000;
+                touch.addPoints(Greapi.Point.newBuilder().setX(x[i]).setY(y[i]));
+            }
+            String id = random.nextInt(10) == 0 ? "" : "session-" + random.nextInt();
+            int sensitivity = random.nextInt(10) == 0 ? 0 : random.nextInt(300);
+            boolean activeGesture = random.nextBoolean();
+
+            byte[] expected = Greapi.RecognitionRequest.newBuilder()
+                    .setId(id)
+                    .setSensitivity(sensitivity)
+                    .setActiveGesture(activeGesture)
+                    .setRequestType(Greapi.RequestType.TouchRequest)
+                    .setTouch(touch)
+                    .build().toByteArray();
+            byte[] payload = new byte[encoder.prepare(id, sensitivity, activeGesture, x, y, count) + 3];
+            encoder.writeTo(payload, 3);
+            assertArrayEquals(expected, Arrays.copyOfRange(payload, 3, payload.length));
+        }
+    }
+
+    @Test
+    public void anEmptyStrokeEndStillCarriesTheTouchType() throws IOException {
+        TouchRequestEncoder encoder = new TouchRequestEncoder();
+        byte[] payload = new byte[encoder.prepare("id", 150, false, new float[0], new float[0], 0)];
+        encoder.writeTo(payload, 0);
+        Greapi.RecognitionRequest request = Greapi.RecognitionRequest.parseFrom(payload);
+        assertEquals(Greapi.RequestType.TouchRequest, request.getRequestType());
+        assertTrue(request.hasTouch());
+        assertFalse(request.getActiveGesture());
+        assertEquals(0, request.getTouch().getPointsCount());
+    }
+}
@@ -0,0 +1,182 @@
+package com.motiongestures.grelib;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import GREProtocol.Greapi;
+
+import static org.junit.Assert.*;
+
+public class WebSocketCompressionTest {
+    private static final String SESSION = "5f0e2352-8c1b-4c57-9a49-7a7c8d0bfe1e";
+    private static final int REQUESTS = 30;
+
+    private RecognitionServer server;
+    private final BlockingQueue<Boolean> connections = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Greapi.RecognitionResponse> responses = new LinkedBlockingQueue<>();
+    private final ConnectionManager.Listener listener = new ConnectionManager.Listener() {
+        @Override
+        public void onConnected(boolean reconnected) {
+            connections.add(reconnected);
+        }
+
+        @Override
+        public void onBinaryMessage(ByteBuffer message) {
+            try {
+                responses.add(Greapi.RecognitionResponse.parseFrom(WebSocketTransport.toArray(message)));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+
+    @After
+    public void stopServer() throws Exception {
+        if(server != null) {
+            server.stop(1000);
+        }
+    }
+
+    @Test
+    public void requestsAreCompressedWhenTheServerAgrees() throws Exception {
+        startServer(true);
+        List<byte[]> requests = gesture();
+        CompressionStats stats = sendGesture(Deflater.DEFAULT_COMPRESSION, true, requests);
+
+        assertEquals(1, server.getDeflateConnections());
+        assertReceived(requests);
+        assertEquals(REQUESTS, stats.getRequests());
+        assertEquals(totalBytes(requests), stats.getRawBytes());
+        //the sensor noise does not compress, the field tags and the session id do
+        assertTrue(stats.toString(), stats.getRatio() < 0.9);
+        assertTrue(stats.getCompressionNanos() > 0);
+    }
+
+    @Test
+    public void contextTakeoverCompressesTheRepeatedStructureBetter() throws Exception {
+        startServer(true);
+        List<byte[]> requests = gesture();
+        CompressionStats withoutTakeover = sendGesture(Deflater.BEST_SPEED, false, requests);
+        assertReceived(requests);
+        stopServer();
+
+        startServer(true);
+        CompressionStats withTakeover = sendGesture(Deflater.BEST_SPEED, true, requests);
+        assertReceived(requests);
+        assertTrue("without context takeover " + withoutTakeover + ", with " + withTakeover,
+                withTakeover.getCompressedBytes() < withoutTakeover.getCompressedBytes());
+    }
+
+    @Test
+    public void requestsGoUncompressedToAServerWithoutTheExtension() throws Exception {
+        startServer(false);
+        List<byte[]> requests = gesture();
+        CompressionStats stats = sendGesture(Deflater.BEST_COMPRESSION, true, requests);
+
+        assertEquals(0, server.getDeflateConnections());
+        assertReceived(requests);
+        assertEquals(stats.getRawBytes(), stats.getCompressedBytes());
+        assertEquals(0, stats.getCompressionNanos());
+    }
+
+    @Test
+    public void compressedMessagesInflateWithTheRemovedTail() throws Exception {
+        byte[] tail = {0, 0, (byte) 0xFF, (byte) 0xFF};
+        for(boolean contextTakeover : new boolean[]{false, true}) {
+            MessageDeflater deflater = new MessageDeflater(Deflater.DEFAULT_COMPRESSION, contextTakeover);
+            Inflater inflater = new Inflater(true);
+            for(byte[] request : gesture()) {
+                if(!contextTakeover) {
+                    inflater.reset();
+                }
+                byte[] compressed = deflater.deflate(request, 0, request.length);
+                ByteArrayOutputStream message = new ByteArrayOutputStream();
+                message.write(compressed);
+                message.write(tail);
+                inflater.setInput(message.toByteArray());
+                byte[] inflated = new byte[request.length];
+                int length = 0;
+                while(length < inflated.length) {
+                    length += inflater.inflate(inflated, length, inflated.length - length);
+                }
+                assertArrayEquals(request, inflated);
+            }
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    private void startServer(boolean perMessageDeflate) throws InterruptedException {
+        server = new RecognitionServer(0, perMessageDeflate);
+        server.setRecordingRequests(true);
+        server.startAndWait();
+    }
+
+    private CompressionStats sendGesture(int level, boolean contextTakeover, List<byte[]> requests) throws Exception {
+        WebSocketTransport transport = new WebSocketTransport();
+        transport.enableCompression(level, contextTakeover);
+        ConnectionManager manager = new ConnectionManager(listener, transport);
+        ConnectionManager.Channel channel = manager.newChannel();
+        manager.open(server.uri());
+        assertEquals(Boolean.FALSE, connections.poll(5, TimeUnit.SECONDS));
+        channel.startSession();
+        for(byte[] request : requests) {
+            channel.send(request);
+        }
+        //the response is compressed too when the extension was agreed
+        Greapi.RecognitionResponse response = responses.poll(5, TimeUnit.SECONDS);
+        assertNotNull(response);
+        assertEquals(Greapi.Status.GestureEnd, response.getStatus());
+        CompressionStats stats = channel.getCompressionStats();
+        manager.close();
+        return stats;
+    }
+
+    private void assertReceived(List<byte[]> requests) {
+        List<List<Greapi.RecognitionRequest>> received = server.getRecordedRequests();
+        assertEquals(1, received.size());
+        assertEquals(requests.size(), received.get(0).size());
+        for(int i = 0; i < requests.size(); i++) {
+            assertArrayEquals(requests.get(i), received.get(0).get(i).toByteArray());
+        }
+    }
+
+    //the requests of a three second gesture, the last one ending it
+    private static List<byte[]> gesture() throws Exception {
+        SyntheticMotion motion = new SyntheticMotion(3);
+        RecognitionRequestEncoder encoder = new RecognitionRequestEncoder();
+        SampleBatch accelerations = new SampleBatch();
+        SampleBatch gyroscope = new SampleBatch();
+        SampleBatch magnetometer = new SampleBatch();
+        List<byte[]> requests = new ArrayList<>();
+        for(int i = 0; i < REQUESTS; i++) {
+            accelerations.clear();
+            gyroscope.clear();
+            magnetometer.clear();
+            motion.fill(accelerations, gyroscope, magnetometer, 10);
+            byte[] request = new byte[encoder.prepare(SESSION, RemoteGestureRecognitionClient.DEFAULT_SENSITIVITY,
+                    i < REQUESTS - 1, 0, accelerations, gyroscope, magnetometer)];
+            encoder.writeTo(request, 0);
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    private static long totalBytes(List<byte[]> requests) {
+        long total = 0;
+        for(byte[] request : requests) {
+            total += request.length;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,344 @@
+package com.motiongestures.grelib;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import GREProtocol.Greapi;
+
+/**
+ * Local stand-in for the recognition server, speaking the greapi.proto protocol over WebSocket. It recognizes
+ * nothing: when the last request of a gesture arrives it answers with the next outcome of its script, after the
+ * configured latency. Sequenced requests are acknowledged with IdleStatus after the same latency. The responses echo
+ * the session id of the request, so that several sessions can share a connection.
+ * For the tests, it can record the requests received by every connection, slow down the handshake to stand for DNS
+ * and TLS, kill connections on purpose and accept the permessage-deflate extension, then compressing its responses too.
+ * It is shared by the grelib unit tests and the load generator of grelib-benchmarks, from the testServer sources.
+ * Run it on its own with: java com.motiongestures.grelib.RecognitionServer [port] [latencyMillis] [outcomes]
+ */
+public final class RecognitionServer extends WebSocketServer {
+    public static final List<Greapi.Status> DEFAULT_SCRIPT = Arrays.asList(Greapi.Status.GestureEnd);
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final ScheduledExecutorService responder;
+    private final Random random = new Random();
+    private volatile long latencyMillis = 0;
+    private volatile long latencyJitterMillis = 0;
+    private volatile List<Greapi.Status> script = DEFAULT_SCRIPT;
+    private final AtomicInteger nextOutcome = new AtomicInteger();
+
+    private final AtomicLong receivedRequests = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong gestures = new AtomicLong();
+
+    private volatile boolean recordingRequests = false;
+    //the requests received by each connection opened while recording, in order
+    private final List<List<Greapi.RecognitionRequest>> recordedRequests = new ArrayList<>();
+    private volatile long handshakeDelayMillis = 0;
+    private final AtomicInteger requestsBeforeKill = new AtomicInteger();
+    private final AtomicInteger deflateConnections = new AtomicInteger();
+
+    public RecognitionServer(int port) {
+        this(port, false);
+    }
+
+    public RecognitionServer(int port, boolean perMessageDeflate) {
+        super(new InetSocketAddress("localhost", port), perMessageDeflate
+                ? Collections.<Draft>singletonList(new Draft_6455(new PerMessageDeflateExtension()))
+                : Collections.<Draft>singletonList(new Draft_6455()));
+        setReuseAddr(true);
+        responder = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "recognition-server-responder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void startAndWait() throws InterruptedException {
+        start();
+        if(!started.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("The server did not start");
+        }
+    }
+
+    public String uri() {
+        return "ws://localhost:" + getPort() + "/recognition";
+    }
+
+    /**
+     * Delays every response by the latency plus a uniformly random part of the jitter.
+     */
+    public void setLatencyMillis(long latencyMillis, long latencyJitterMillis) {
+        if(latencyMillis < 0 || latencyJitterMillis < 0) {
+            throw new IllegalArgumentException("Negative latency");
+        }
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+    }
+
+    /**
+     * Sets the outcomes of the successive gestures, repeated once all used: GestureEnd, GestureRejected or GestureTooLong.
+     */
+    public void setScript(List<Greapi.Status> script) {
+        if(script.isEmpty()) {
+            throw new IllegalArgumentException("Empty script");
+        }
+        for(Greapi.Status status : script) {
+            if(status != Greapi.Status.GestureEnd && status != Greapi.Status.GestureRejected
+                    && status != Greapi.Status.GestureTooLong) {
+                throw new IllegalArgumentException("Not a gesture outcome: " + status);
+            }
+        }
+        this.script = script;
+    }
+
+    public long getReceivedRequests() {
+        return receivedRequests.get();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    public long getGestures() {
+        return gestures.get();
+    }
+
+    /**
+     * Records the requests of the connections opened from now on, off by default as a load test would run out of memory.
+     */
+    public void setRecordingRequests(boolean recordingRequests) {
+        this.recordingRequests = recordingRequests;
+    }
+
+    /**
+     * The requests received by each connection opened while recording, in the order of the connections.
+     */
+    public synchronized List<List<Greapi.RecognitionRequest>> getRecordedRequests() {
+        List<List<Greapi.RecognitionRequest>> copy = new ArrayList<>();
+        for(List<Greapi.RecognitionRequest> requests : recordedRequests) {
+            copy.add(new ArrayList<>(requests));
+        }
+        return copy;
+    }
+
+    public void setHandshakeDelayMillis(long handshakeDelayMillis) {
+        this.handshakeDelayMillis = handshakeDelayMillis;
+    }
+
+    /**
+     * Kills the connection receiving the given number of requests from now, without a close handshake.
+     */
+    public void killAfterRequests(int requests) {
+        requestsBeforeKill.set(requests);
+    }
+
+    /**
+     * The connections which agreed to compress their messages.
+     */
+    public int getDeflateConnections() {
+        return deflateConnections.get();
+    }
+
+    @Override
+    public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket connection, Draft draft,
+                                                                       ClientHandshake request) throws InvalidDataException {
+        if(handshakeDelayMillis > 0) {
+            try {
+                Thread.sleep(handshakeDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return super.onWebsocketHandshakeReceivedAsServer(connection, draft, request);
+    }
+
+    @Override
+    public void onOpen(WebSocket connection, ClientHandshake handshake) {
+        if(((Draft_6455) connection.getDraft()).getExtension() instanceof PerMessageDeflateExtension) {
+            deflateConnections.incrementAndGet();
+        }
+        List<Greapi.RecognitionRequest> requests = null;
+        if(recordingRequests) {
+            requests = new ArrayList<>();
+            synchronized (this) {
+                recordedRequests.add(requests);
+            }
+        }
+        connection.setAttachment(new ConnectionState(requests));
+    }
+
+    @Override
+    public void onMessage(WebSocket connection, ByteBuffer message) {
+        receivedRequests.incrementAndGet();
+        receivedBytes.addAndGet(message.remaining());
+        Greapi.RecognitionRequest request;
+        try {
+            byte[] bytes = new byte[message.remaining()];
+            message.get(bytes);
+            request = Greapi.RecognitionRequest.parseFrom(bytes);
+        } catch (Exception e) {
+            connection.close(CloseFrame.PROTOCOL_ERROR, e.getMessage());
+            return;
+        }
+        ConnectionState state = connection.getAttachment();
+        if(state.requests != null) {
+            synchronized (this) {
+                state.requests.add(request);
+            }
+        }
+        if(requestsBeforeKill.get() > 0 && requestsBeforeKill.decrementAndGet() == 0) {
+            connection.closeConnection(CloseFrame.ABNORMAL_CLOSE, "killed by the test");
+            return;
+        }
+        if(request.getSequence() != 0) {
+            respond(connection, Greapi.RecognitionResponse.newBuilder()
+                    .setStatus(Greapi.Status.IdleStatus)
+                    .setSequence(request.getSequence())
+                    .setId(request.getId())
+                    .build());
+        }
+        //a session starts with its cached samples flagged inactive, so it ends with the next inactive request
+        Set<String> openSessions = state.openSessions;
+        boolean ended = false;
+        synchronized (openSessions) {
+            if(request.getActiveGesture()) {
+                openSessions.add(request.getId());
+            } else if(!openSessions.add(request.getId())) {
+                openSessions.remove(request.getId());
+                ended = true;
+            }
+        }
+        if(ended) {
+            gestures.incrementAndGet();
+            respond(connection, outcome(request.getId()));
+        }
+    }
+
+    private Greapi.RecognitionResponse outcome(String id) {
+        List<Greapi.Status> currentScript = script;
+        Greapi.Status status = currentScript.get((nextOutcome.getAndIncrement() & Integer.MAX_VALUE) % currentScript.size());
+        Greapi.RecognitionResponse.Builder response = Greapi.RecognitionResponse.newBuilder()
+                .setStatus(status)
+                .setId(id);
+        if(status != Greapi.Status.GestureTooLong) {
+            response.addNames("stand-in").addLabels(1).setConfidence(status == Greapi.Status.GestureEnd ? 0.9f : 0.2f);
+        }
+        return response.build();
+    }
+
+    private void respond(final WebSocket connection, Greapi.RecognitionResponse response) {
+        final byte[] payload = response.toByteArray();
+        long jitter = latencyJitterMillis;
+        long delay = latencyMillis;
+        if(jitter > 0) {
+            synchronized (random) {
+                delay += (long) (random.nextDouble() * jitter);
+            }
+        }
+        if(delay == 0) {
+            send(connection, payload);
+            return;
+        }
+        responder.schedule(new Runnable() {
+            @Override
+            public void run() {
+                send(connection, payload);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void send(WebSocket connection, byte[] payload) {
+        if(connection.isOpen()) {
+            connection.send(payload);
+        }
+    }
+
+    @Override
+    public void onMessage(WebSocket connection, String message) {
+    }
+
+    private static final class ConnectionState {
+        //the ids of the sessions of the connection waiting for their last request
+        final Set<String> openSessions = new HashSet<>();
+        //null when not recording
+        final List<Greapi.RecognitionRequest> requests;
+
+        ConnectionState(List<Greapi.RecognitionRequest> requests) {
+            this.requests = requests;
+        }
+    }
+
+    @Override
+    public void onClose(WebSocket connection, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onError(WebSocket connection, Exception exception) {
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+
+    static List<Greapi.Status> parseScript(String outcomes) {
+        String[] names = outcomes.split(",");
+        Greapi.Status[] statuses = new Greapi.Status[names.length];
+        for(int i = 0; i < names.length; i++) {
+            switch(names[i].trim().toLowerCase(Locale.ROOT)) {
+                case "end":
+                    statuses[i] = Greapi.Status.GestureEnd;
+                    break;
+                case "rejected":
+                    statuses[i] = Greapi.Status.GestureRejected;
+                    break;
+                case "toolong":
+                    statuses[i] = Greapi.Status.GestureTooLong;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown outcome " + names[i] + ", expected end, rejected or toolong");
+            }
+        }
+        return Arrays.asList(statuses);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        RecognitionServer server = new RecognitionServer(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+        if(args.length > 1) {
+            server.setLatencyMillis(Long.parseLong(args[1]), 0);
+        }
+        if(args.length > 2) {
+            server.setScript(parseScript(args[2]));
+        }
+        server.startAndWait();
+        System.out.println("Recognition server listening on " + server.uri());
+    }
+}